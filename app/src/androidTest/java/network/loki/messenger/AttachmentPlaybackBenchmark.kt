@@ -0,0 +1,145 @@
+package network.loki.messenger
+
+import android.content.Context
+import android.net.Uri
+import android.os.Debug
+import android.os.SystemClock
+import androidx.test.core.app.ApplicationProvider
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import androidx.test.filters.LargeTest
+import com.google.android.exoplayer2.C
+import com.google.android.exoplayer2.upstream.DataSpec
+import com.google.android.exoplayer2.upstream.DefaultDataSourceFactory
+import org.junit.After
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.session.libsession.messaging.sending_receiving.attachments.AttachmentTransferProgress
+import org.session.libsession.messaging.sending_receiving.attachments.UriAttachment
+import org.session.libsession.utilities.Util
+import org.session.libsignal.utilities.Log
+import org.thoughtcrime.securesms.dependencies.DatabaseComponent
+import org.thoughtcrime.securesms.mms.PartAuthority
+import org.thoughtcrime.securesms.video.exo.AttachmentDataSourceFactory
+import java.io.File
+import java.io.InputStream
+import kotlin.random.Random
+
+/**
+ * Opens and seeks through a large audio and video attachment the way the players read them: with a
+ * stream decrypted from the start of the part and skipped to the requested range (what the
+ * localhost attachment server did for every range request), and with ranged reads of the part
+ * through the ExoPlayer data source. Reports wall time and the CPU time of the reading thread.
+ */
+@RunWith(AndroidJUnit4::class)
+@LargeTest
+class AttachmentPlaybackBenchmark {
+
+    companion object {
+        private const val TAG = "AttachmentPlaybackBenchmark"
+        private const val AUDIO_SIZE = 20 * 1024 * 1024
+        private const val VIDEO_SIZE = 100 * 1024 * 1024
+        private const val SEEK_COUNT = 50
+        private const val READ_SIZE = 64 * 1024
+        private const val MMS_ID = 3_600_000_000L
+    }
+
+    private class Timing(val wallMs: Long, val cpuMs: Long)
+
+    private val context = ApplicationProvider.getApplicationContext<Context>()
+    private val attachmentDatabase = DatabaseComponent.get(context).attachmentDatabase()
+    private val random = Random(36)
+    private val plaintext = File(context.cacheDir, "playback_benchmark.bin")
+    private val dataSourceFactory = AttachmentDataSourceFactory(context, DefaultDataSourceFactory(context, "benchmark"), null)
+
+    @After
+    fun tearDown() {
+        attachmentDatabase.deleteAttachmentsForMessage(MMS_ID)
+        plaintext.delete()
+    }
+
+    private fun insert(contentType: String, size: Int): Uri {
+        plaintext.outputStream().use { output ->
+            val chunk = random.nextBytes(1024 * 1024)
+            repeat(size / chunk.size) { output.write(chunk) }
+        }
+        val attachment = UriAttachment(Uri.fromFile(plaintext), null, contentType, AttachmentTransferProgress.TRANSFER_PROGRESS_DONE,
+                size.toLong(), 0, 0, null, null, false, false, null)
+        val id = attachmentDatabase.insertAttachmentsForMessage(MMS_ID, listOf(attachment), emptyList()).values.single()
+        return PartAuthority.getAttachmentDataUri(id)
+    }
+
+    private fun expected(position: Long): ByteArray {
+        val bytes = ByteArray(READ_SIZE)
+        plaintext.inputStream().use { it.skip(position); Util.readFully(it, bytes) }
+        return bytes
+    }
+
+    private fun measure(block: () -> Unit): Timing {
+        val cpu = Debug.threadCpuTimeNanos()
+        val wall = SystemClock.elapsedRealtime()
+        block()
+        return Timing(SystemClock.elapsedRealtime() - wall, (Debug.threadCpuTimeNanos() - cpu) / 1_000_000)
+    }
+
+    private fun skipFully(input: InputStream, count: Long) {
+        var remaining = count
+        while (remaining > 0) {
+            val skipped = input.skip(remaining)
+            if (skipped <= 0) { assertTrue(input.read() != -1); remaining-- } else remaining -= skipped
+        }
+    }
+
+    private fun readStreamed(uri: Uri, position: Long): ByteArray {
+        val bytes = ByteArray(READ_SIZE)
+        PartAuthority.getAttachmentStream(context, uri).use { skipFully(it, position); Util.readFully(it, bytes) }
+        return bytes
+    }
+
+    private fun readRanged(uri: Uri, position: Long): ByteArray {
+        val bytes = ByteArray(READ_SIZE)
+        val dataSource = dataSourceFactory.createDataSource()
+        try {
+            assertTrue(dataSource.open(DataSpec(uri, position, C.LENGTH_UNSET.toLong(), null)) > 0)
+            var read = 0
+            while (read < READ_SIZE) read += dataSource.read(bytes, read, READ_SIZE - read)
+        } finally {
+            dataSource.close()
+        }
+        return bytes
+    }
+
+    private fun benchmark(name: String, contentType: String, size: Int) {
+        val uri = insert(contentType, size)
+        val positions = List(SEEK_COUNT) { random.nextLong(size.toLong() - READ_SIZE) }
+        val expected = positions.map { expected(it) }
+
+        val streamedOpen = measure { readStreamed(uri, 0) }
+        val rangedOpen = measure { readRanged(uri, 0) }
+
+        val streamed = ArrayList<ByteArray>()
+        val streamedSeeks = measure { positions.forEach { streamed += readStreamed(uri, it) } }
+        val ranged = ArrayList<ByteArray>()
+        val rangedSeeks = measure { positions.forEach { ranged += readRanged(uri, it) } }
+
+        Log.i(TAG, "$name size=${size / 1024 / 1024}MB " +
+                "open: streamed=${streamedOpen.wallMs}ms/${streamedOpen.cpuMs}ms cpu ranged=${rangedOpen.wallMs}ms/${rangedOpen.cpuMs}ms cpu, " +
+                "seek avg: streamed=${streamedSeeks.wallMs / SEEK_COUNT}ms/${streamedSeeks.cpuMs / SEEK_COUNT}ms cpu " +
+                "ranged=${rangedSeeks.wallMs / SEEK_COUNT}ms/${rangedSeeks.cpuMs / SEEK_COUNT}ms cpu")
+
+        assertEquals(SEEK_COUNT, ranged.size)
+        expected.indices.forEach {
+            assertArrayEquals(expected[it], streamed[it])
+            assertArrayEquals(expected[it], ranged[it])
+        }
+        assertTrue(rangedSeeks.cpuMs < streamedSeeks.cpuMs)
+    }
+
+    @Test
+    fun audio() = benchmark("audio", "audio/mp4", AUDIO_SIZE)
+
+    @Test
+    fun video() = benchmark("video", "video/mp4", VIDEO_SIZE)
+}
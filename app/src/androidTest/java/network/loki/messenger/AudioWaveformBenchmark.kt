@@ -0,0 +1,174 @@
+package network.loki.messenger
+
+import android.content.Context
+import android.media.MediaCodec
+import android.media.MediaCodecInfo
+import android.media.MediaFormat
+import android.media.MediaMuxer
+import android.os.SystemClock
+import androidx.test.core.app.ApplicationProvider
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import androidx.test.filters.LargeTest
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.session.libsession.utilities.AudioWaveform
+import org.session.libsession.utilities.DecodedAudio
+import org.session.libsignal.utilities.Log
+import org.thoughtcrime.securesms.crypto.AttachmentSecret
+import org.thoughtcrime.securesms.crypto.ModernEncryptingPartOutputStream
+import org.thoughtcrime.securesms.video.EncryptedMediaDataSource
+import java.io.File
+import java.nio.ByteOrder
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.atomic.AtomicLong
+import kotlin.math.abs
+import kotlin.math.sin
+import kotlin.random.Random
+
+/**
+ * Extracts the duration and waveform of encrypted AAC voice notes the way the attachment jobs do,
+ * with [DecodedAudio] (which keeps every decoded sample) and with the single pass [AudioWaveform].
+ * A five minute note checks that both agree; a thirty minute one measures time and peak heap.
+ */
+@RunWith(AndroidJUnit4::class)
+@LargeTest
+class AudioWaveformBenchmark {
+
+    companion object {
+        private const val TAG = "AudioWaveformBenchmark"
+        private const val SAMPLE_RATE = 16000
+        private const val FRAMES = 32
+    }
+
+    private val context = ApplicationProvider.getApplicationContext<Context>()
+    private val random = Random(35)
+    private val attachmentSecret = AttachmentSecret(random.nextBytes(32), random.nextBytes(20), random.nextBytes(32))
+    private val audio = File(context.cacheDir, "waveform_benchmark.m4a")
+    private val part = File(context.cacheDir, "waveform_benchmark.mms")
+
+    @After
+    fun tearDown() {
+        audio.delete()
+        part.delete()
+    }
+
+    /** Encodes a tone whose loudness rises and falls like speech, then stores it like a part. */
+    private fun writeVoiceNote(seconds: Int): ByteArray {
+        val format = MediaFormat.createAudioFormat(MediaFormat.MIMETYPE_AUDIO_AAC, SAMPLE_RATE, 1).apply {
+            setInteger(MediaFormat.KEY_AAC_PROFILE, MediaCodecInfo.CodecProfileLevel.AACObjectLC)
+            setInteger(MediaFormat.KEY_BIT_RATE, 32_000)
+        }
+        val codec = MediaCodec.createEncoderByType(MediaFormat.MIMETYPE_AUDIO_AAC)
+        codec.configure(format, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE)
+        codec.start()
+
+        val muxer = MediaMuxer(audio.path, MediaMuxer.OutputFormat.MUXER_OUTPUT_MPEG_4)
+        val totalSamples = seconds.toLong() * SAMPLE_RATE
+        val info = MediaCodec.BufferInfo()
+        var track = -1
+        var written = 0L
+        var inputDone = false
+        var done = false
+
+        while (!done) {
+            if (!inputDone) {
+                val input = codec.dequeueInputBuffer(10_000)
+                if (input >= 0) {
+                    val buffer = codec.getInputBuffer(input)!!.order(ByteOrder.LITTLE_ENDIAN)
+                    buffer.clear()
+                    val count = minOf(buffer.remaining() / 2L, totalSamples - written).toInt()
+                    repeat(count) { i ->
+                        val t = written + i
+                        val envelope = abs(sin(t * 2.0 / SAMPLE_RATE)) * 0.8
+                        buffer.putShort((envelope * 20000 * sin(t * 0.2)).toInt().toShort())
+                    }
+                    val time = written * 1_000_000 / SAMPLE_RATE
+                    written += count
+                    inputDone = written >= totalSamples
+                    codec.queueInputBuffer(input, 0, count * 2, time, if (inputDone) MediaCodec.BUFFER_FLAG_END_OF_STREAM else 0)
+                }
+            }
+
+            val output = codec.dequeueOutputBuffer(info, 10_000)
+            if (output == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
+                track = muxer.addTrack(codec.outputFormat)
+                muxer.start()
+            } else if (output >= 0) {
+                if (info.flags and MediaCodec.BUFFER_FLAG_CODEC_CONFIG == 0 && info.size > 0) {
+                    muxer.writeSampleData(track, codec.getOutputBuffer(output)!!, info)
+                }
+                done = info.flags and MediaCodec.BUFFER_FLAG_END_OF_STREAM != 0
+                codec.releaseOutputBuffer(output, false)
+            }
+        }
+
+        codec.stop()
+        codec.release()
+        muxer.stop()
+        muxer.release()
+
+        val output = ModernEncryptingPartOutputStream.createFor(attachmentSecret, part, false)
+        output.second.use { stream -> audio.inputStream().use { it.copyTo(stream) } }
+        return output.first
+    }
+
+    private fun dataSource(partRandom: ByteArray) = EncryptedMediaDataSource(attachmentSecret, part, partRandom, part.length())
+
+    /** Runs [block], returning its result, duration and the heap it used at its peak. */
+    private fun <T> measure(block: () -> T): Triple<T, Long, Long> {
+        val runtime = Runtime.getRuntime()
+        fun used() = runtime.totalMemory() - runtime.freeMemory()
+
+        System.gc()
+        val baseline = used()
+        val peak = AtomicLong(baseline)
+        val running = AtomicBoolean(true)
+        val sampler = Thread {
+            while (running.get()) {
+                peak.set(maxOf(peak.get(), used()))
+                Thread.sleep(5)
+            }
+        }.apply { start() }
+
+        val start = SystemClock.elapsedRealtime()
+        val result = block()
+        val time = SystemClock.elapsedRealtime() - start
+        running.set(false)
+        sampler.join()
+
+        return Triple(result, time, maxOf(peak.get(), used()) - baseline)
+    }
+
+    @Test
+    fun fiveMinuteVoiceNoteMatchesDecodedAudio() {
+        val partRandom = writeVoiceNote(5 * 60)
+
+        val decoded = dataSource(partRandom).use { DecodedAudio.create(it) }
+        val waveform = dataSource(partRandom).use { AudioWaveform.extract(it, FRAMES) }
+        val expected = decoded.calculateRms(FRAMES)
+
+        Log.i(TAG, "decoded=${expected.toList()} streamed=${waveform.rms.toList()}")
+        assertEquals(decoded.totalDuration, waveform.totalDuration)
+        assertEquals(expected.size, waveform.rms.size)
+        expected.indices.forEach { i -> assertTrue("frame $i", abs(expected[i] - waveform.rms[i]) <= 1) }
+    }
+
+    @Test
+    fun thirtyMinuteVoiceNote() {
+        val partRandom = writeVoiceNote(30 * 60)
+
+        // Past 2^24 samples DecodedAudio.calculateRms runs out of float precision, so only decode
+        val (decoded, decodedTime, decodedHeap) = measure { dataSource(partRandom).use { DecodedAudio.create(it) } }
+
+        val (waveform, streamedTime, streamedHeap) = measure { dataSource(partRandom).use { AudioWaveform.extract(it, FRAMES) } }
+
+        Log.i(TAG, "file=${part.length() / 1024}KB samples=${decoded.numSamples} duration=${waveform.totalDuration / 1000}ms " +
+                "decodedAudio=${decodedTime}ms/${decodedHeap / 1024}KB streamed=${streamedTime}ms/${streamedHeap / 1024}KB")
+        assertEquals(FRAMES, waveform.rms.size)
+        assertTrue(abs(waveform.totalDuration - 30 * 60 * 1_000_000L) < 1_000_000L)
+        assertTrue(streamedHeap < decodedHeap / 10)
+    }
+}
@@ -0,0 +1,80 @@
+package network.loki.messenger
+
+import android.os.SystemClock
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import androidx.test.filters.LargeTest
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.session.libsession.messaging.utilities.SodiumUtilities
+import org.session.libsignal.utilities.Log
+import org.session.libsignal.utilities.toHexString
+import org.thoughtcrime.securesms.database.BlindedIdIndex
+import java.util.concurrent.Executor
+import kotlin.random.Random
+
+/**
+ * Compares resolving blinded ids against 2,000 contacts with a full sweep (what
+ * `Storage.getOrCreateBlindedIdMapping` used to do) and with a [BlindedIdIndex].
+ */
+@RunWith(AndroidJUnit4::class)
+@LargeTest
+class BlindedIdIndexBenchmark {
+
+    companion object {
+        private const val TAG = "BlindedIdIndexBenchmark"
+        private const val CONTACT_COUNT = 2000
+        private const val LOOKUP_COUNT = 50
+        private const val SERVER_PUBLIC_KEY = "c3b3c6f32f0ab5a57f853cc4f30f5da7fda5624b0c77b3fb0829de562ada081d"
+    }
+
+    private val random = Random(2000)
+    private val contacts = List(CONTACT_COUNT) { "05" + random.nextBytes(32).toHexString() }
+    private val directExecutor = Executor { it.run() }
+
+    private fun blindedIdFor(sessionId: String): String {
+        val k = SodiumUtilities.generateBlindingFactor(SERVER_PUBLIC_KEY)!!
+        return "15" + SodiumUtilities.blindedPublicKeys(sessionId, k)!!.first()
+    }
+
+    @Test
+    fun resolveAgainstTwoThousandContacts() {
+        val targets = List(LOOKUP_COUNT) { contacts[random.nextInt(CONTACT_COUNT)] }
+        val blindedIds = targets.map { blindedIdFor(it) }
+
+        var start = SystemClock.elapsedRealtime()
+        blindedIds.forEachIndexed { i, blindedId ->
+            assertEquals(targets[i], contacts.first { SodiumUtilities.sessionId(it, blindedId, SERVER_PUBLIC_KEY) })
+        }
+        val sweep = SystemClock.elapsedRealtime() - start
+
+        val index = BlindedIdIndex({ contacts }, directExecutor)
+        start = SystemClock.elapsedRealtime()
+        index.addServer(SERVER_PUBLIC_KEY)
+        val fill = SystemClock.elapsedRealtime() - start
+
+        start = SystemClock.elapsedRealtime()
+        blindedIds.forEachIndexed { i, blindedId ->
+            assertEquals(targets[i], index.getSessionId(SERVER_PUBLIC_KEY, blindedId))
+        }
+        val lookups = SystemClock.elapsedRealtime() - start
+
+        Log.i(TAG, "contacts=$CONTACT_COUNT lookups=$LOOKUP_COUNT sweep=${sweep}ms indexFill=${fill}ms indexLookups=${lookups}ms")
+        assertTrue(lookups < sweep)
+    }
+
+    @Test
+    fun newContactIsResolvedWithoutRefill() {
+        val index = BlindedIdIndex({ contacts }, directExecutor)
+        index.addServer(SERVER_PUBLIC_KEY)
+
+        val newContact = "05" + random.nextBytes(32).toHexString()
+        val blindedId = blindedIdFor(newContact)
+        assertNull(index.getSessionId(SERVER_PUBLIC_KEY, blindedId))
+
+        index.addSessionId(newContact)
+        assertEquals(newContact, index.getSessionId(SERVER_PUBLIC_KEY, blindedId))
+    }
+}
@@ -0,0 +1,85 @@
+package network.loki.messenger
+
+import android.content.Context
+import android.os.SystemClock
+import androidx.test.core.app.ApplicationProvider
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import androidx.test.filters.LargeTest
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.session.libsession.messaging.contacts.Contact
+import org.session.libsignal.utilities.Log
+import org.session.libsignal.utilities.toHexString
+import org.thoughtcrime.securesms.dependencies.DatabaseComponent
+import kotlin.random.Random
+
+/**
+ * Looks up contacts the way a screen full of messages does (the same few hundred senders, over
+ * and over) straight from the table, as every lookup used to, and through
+ * `SessionContactDatabase`'s cache, and times reading a page of senders with one batch.
+ */
+@RunWith(AndroidJUnit4::class)
+@LargeTest
+class ContactLookupBenchmark {
+
+    companion object {
+        private const val TAG = "ContactLookupBenchmark"
+        private const val CONTACTS = 5000
+        private const val SENDERS = 300
+        private const val LOOKUPS = 20_000
+    }
+
+    private val context = ApplicationProvider.getApplicationContext<Context>()
+    private val random = Random(47)
+    private val sessionIDs = List(CONTACTS) { "05" + random.nextBytes(32).toHexString() }
+
+    @Before
+    fun setUp() {
+        val contactDb = DatabaseComponent.get(context).sessionContactDatabase()
+        val db = DatabaseComponent.get(context).openHelper().writableDatabase
+        db.beginTransaction()
+        try {
+            sessionIDs.forEachIndexed { i, sessionID -> contactDb.setContact(Contact(sessionID).apply { name = "Contact $i" }) }
+            db.setTransactionSuccessful()
+        } finally {
+            db.endTransaction()
+        }
+    }
+
+    private fun time(block: () -> Unit): Long {
+        val start = SystemClock.elapsedRealtimeNanos()
+        block()
+        return (SystemClock.elapsedRealtimeNanos() - start) / 1000
+    }
+
+    @Test
+    fun lookUpContacts() {
+        val contactDb = DatabaseComponent.get(context).sessionContactDatabase()
+        val db = DatabaseComponent.get(context).openHelper().readableDatabase
+        val senders = sessionIDs.shuffled(random).take(SENDERS)
+        val lookups = List(LOOKUPS) { senders.random(random) }
+
+        val uncached = time {
+            lookups.forEach { sessionID ->
+                db.query("session_contact_database", null, "session_id = ?", arrayOf(sessionID), null, null, null).use { cursor ->
+                    if (cursor.moveToFirst()) contactDb.contactFromCursor(cursor)
+                }
+            }
+        }
+        val cached = time { lookups.forEach { contactDb.getContactWithSessionID(it) } }
+
+        val page = sessionIDs.shuffled(random).take(50)
+        val oneByOne = time { page.forEach { contactDb.getContactWithSessionID(it) } }
+        val batchPage = sessionIDs.shuffled(random).take(50)
+        var contacts: List<Contact> = listOf()
+        val batched = time { contacts = contactDb.getContacts(batchPage) }
+        assertEquals(50, contacts.size)
+
+        Log.i(TAG, "lookups=$LOOKUPS senders=$SENDERS uncached=${uncached / 1000}ms cached=${cached / 1000}ms " +
+                "pageOf50OneByOne=${oneByOne}us pageOf50Batched=${batched}us")
+        assertTrue(cached < uncached)
+    }
+}
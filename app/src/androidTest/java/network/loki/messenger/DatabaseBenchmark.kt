@@ -0,0 +1,247 @@
+package network.loki.messenger
+
+import android.content.Context
+import android.database.Cursor
+import android.os.SystemClock
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import androidx.test.filters.LargeTest
+import androidx.test.platform.app.InstrumentationRegistry
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.session.libsignal.utilities.Log
+import org.session.libsignal.utilities.toHexString
+import org.thoughtcrime.securesms.crypto.DatabaseSecret
+import org.thoughtcrime.securesms.database.MediaDatabase
+import org.thoughtcrime.securesms.database.MmsSmsDatabase
+import org.thoughtcrime.securesms.database.SearchDatabase
+import org.thoughtcrime.securesms.database.ThreadDatabase
+import org.thoughtcrime.securesms.database.helpers.SQLCipherOpenHelper
+import org.thoughtcrime.securesms.database.helpers.SQLCipherProfile
+import org.thoughtcrime.securesms.util.MockDataGenerator
+import kotlin.random.Random
+
+/**
+ * Builds a realistic encrypted database once per [SQLCipherProfile] and reports open time, insert
+ * throughput and percentile latencies of the hot-path queries, so profiles can be compared on a
+ * real device.
+ *
+ * The sizes can be overridden with instrumentation arguments, eg.
+ * `-e threads 1000 -e messages 100000 -e iterations 20`. The defaults (10k threads, 1M messages)
+ * take a while and need a few hundred MB of free storage per profile.
+ */
+@RunWith(AndroidJUnit4::class)
+@LargeTest
+class DatabaseBenchmark {
+
+    companion object {
+        private const val TAG = "DatabaseBenchmark"
+        private const val ROWS_PER_TRANSACTION = 10_000
+
+        // MmsSmsColumns.Types.BASE_INBOX_TYPE and BASE_SENT_TYPE
+        private const val INBOX_TYPE = 20L
+        private const val SENT_TYPE = 23L
+        private const val MMS_RETRIEVE_CONF = 132L
+    }
+
+    private class Profile(val name: String, val profile: SQLCipherProfile)
+
+    private val context: Context = InstrumentationRegistry.getInstrumentation().targetContext
+    private val arguments = InstrumentationRegistry.getArguments()
+    private val threadCount = arguments.getString("threads")?.toInt() ?: 10_000
+    private val messageCount = arguments.getString("messages")?.toInt() ?: 1_000_000
+    private val iterations = arguments.getString("iterations")?.toInt() ?: 50
+
+    private val secret = DatabaseSecret(Random(29).nextBytes(32))
+
+    private val profiles = SQLCipherProfile.DEFAULT.let { default ->
+        listOf(
+            Profile("default", default),
+            Profile("rollback-journal", default.buildUpon().setWriteAheadLogging(false).build()),
+            Profile("memory-security-off", default.buildUpon().setCipherMemorySecurity(false).build()),
+            Profile("memory-security-on", default.buildUpon().setCipherMemorySecurity(true).build()),
+            Profile("page-8k", default.buildUpon().setCipherPageSize(8192).build()),
+            Profile("cache-2000", default.buildUpon().setCacheSize(2000).build()),
+            Profile("kdf-64000", default.buildUpon().setKdfIterations(64000).build())
+        )
+    }
+
+    @Test
+    fun compareProfiles() {
+        Log.i(TAG, "threads=$threadCount messages=$messageCount iterations=$iterations")
+        profiles.forEachIndexed { i, profile -> run("benchmark_$i.db", profile) }
+    }
+
+    private fun run(databaseName: String, profile: Profile) {
+        context.deleteDatabase(databaseName)
+        try {
+            var helper = SQLCipherOpenHelper(context, secret, databaseName, profile.profile)
+            val create = measure { helper.writableDatabase }
+            val insert = measure { populate(helper) }
+            helper.close()
+
+            helper = SQLCipherOpenHelper(context, secret, databaseName, profile.profile)
+            val open = measure { helper.readableDatabase }
+            val queries = runQueries(helper)
+            helper.close()
+
+            val throughput = messageCount * 1000L / maxOf(insert, 1L)
+            Log.i(TAG, "${profile.name} ${profile.profile}")
+            Log.i(TAG, "  create=${create}ms reopen=${open}ms insert=${insert}ms ($throughput messages/s)")
+            queries.forEach { (name, timings) -> Log.i(TAG, "  $name ${percentiles(timings)}") }
+        } finally {
+            context.deleteDatabase(databaseName)
+        }
+    }
+
+    /**
+     * Inserts [threadCount] threads and [messageCount] messages spread across them. One message in
+     * ten is an mms with an image attachment and one in twenty has a reaction, roughly what a busy
+     * account looks like.
+     */
+    private fun populate(helper: SQLCipherOpenHelper) {
+        val random = Random(1000)
+        val db = helper.writableDatabase
+        val now = System.currentTimeMillis()
+        val addresses = List(threadCount) { "05" + random.nextBytes(32).toHexString() }
+
+        val insertRecipient = db.compileStatement("INSERT INTO recipient_preferences (recipient_ids, approved) VALUES (?, 1)")
+        val insertThread = db.compileStatement(
+            "INSERT INTO ${ThreadDatabase.TABLE_NAME} (${ThreadDatabase.ID}, ${ThreadDatabase.DATE}, ${ThreadDatabase.MESSAGE_COUNT}, " +
+            "${ThreadDatabase.ADDRESS}, ${ThreadDatabase.SNIPPET}, ${ThreadDatabase.HAS_SENT}) VALUES (?, ?, ?, ?, ?, 1)"
+        )
+        val insertSms = db.compileStatement(
+            "INSERT INTO sms (thread_id, address, date, date_sent, read, type, body) VALUES (?, ?, ?, ?, ?, ?, ?)"
+        )
+        val insertMms = db.compileStatement(
+            "INSERT INTO mms (thread_id, address, date, date_received, read, msg_box, m_type, body, part_count) " +
+            "VALUES (?, ?, ?, ?, ?, ?, $MMS_RETRIEVE_CONF, ?, 1)"
+        )
+        val insertPart = db.compileStatement(
+            "INSERT INTO part (mid, ct, _data, data_size, unique_id, pending_push, quote, width, height) " +
+            "VALUES (?, 'image/jpeg', ?, ?, ?, 0, 0, 1024, 768)"
+        )
+        val insertReaction = db.compileStatement(
+            "INSERT INTO reaction (message_id, is_mms, author_id, emoji, server_id, count, sort_id, " +
+            "reaction_date_sent, reaction_date_received) VALUES (?, ?, ?, '👍', '', 1, 0, ?, ?)"
+        )
+
+        val messagesPerThread = IntArray(threadCount)
+        repeat(messageCount) { messagesPerThread[random.nextInt(threadCount)]++ }
+
+        var rows = 0
+        db.beginTransaction()
+        try {
+            addresses.forEachIndexed { threadIndex, address ->
+                insertRecipient.bindString(1, address)
+                val recipientId = insertRecipient.executeInsert()
+
+                val threadId = threadIndex + 1L
+                var snippet = ""
+                for (i in 0 until messagesPerThread[threadIndex]) {
+                    val date = now - (messagesPerThread[threadIndex] - i) * 5000L
+                    val isIncoming = random.nextBoolean()
+                    val read = if (random.nextInt(100) == 0) 0L else 1L
+                    val body = MockDataGenerator.generateMessageBody(random, random.nextInt(1, 20))
+                    val isMms = random.nextInt(10) == 0
+
+                    val messageId = if (isMms) {
+                        insertMms.bindLong(1, threadId)
+                        insertMms.bindString(2, address)
+                        insertMms.bindLong(3, date)
+                        insertMms.bindLong(4, date)
+                        insertMms.bindLong(5, read)
+                        insertMms.bindLong(6, if (isIncoming) INBOX_TYPE else SENT_TYPE)
+                        insertMms.bindString(7, body)
+                        val mmsId = insertMms.executeInsert()
+
+                        insertPart.bindLong(1, mmsId)
+                        insertPart.bindString(2, "/data/parts/part$mmsId.mms")
+                        insertPart.bindLong(3, random.nextLong(10_000, 5_000_000))
+                        insertPart.bindLong(4, date)
+                        insertPart.executeInsert()
+                        mmsId
+                    } else {
+                        insertSms.bindLong(1, threadId)
+                        insertSms.bindString(2, address)
+                        insertSms.bindLong(3, date)
+                        insertSms.bindLong(4, date)
+                        insertSms.bindLong(5, read)
+                        insertSms.bindLong(6, if (isIncoming) INBOX_TYPE else SENT_TYPE)
+                        insertSms.bindString(7, body)
+                        insertSms.executeInsert()
+                    }
+
+                    if (random.nextInt(20) == 0) {
+                        insertReaction.bindLong(1, messageId)
+                        insertReaction.bindLong(2, if (isMms) 1L else 0L)
+                        insertReaction.bindLong(3, recipientId)
+                        insertReaction.bindLong(4, date)
+                        insertReaction.bindLong(5, date)
+                        insertReaction.executeInsert()
+                    }
+
+                    snippet = body
+                    if (++rows % ROWS_PER_TRANSACTION == 0) {
+                        db.setTransactionSuccessful()
+                        db.endTransaction()
+                        db.beginTransaction()
+                    }
+                }
+
+                insertThread.bindLong(1, threadId)
+                insertThread.bindLong(2, now - threadIndex)
+                insertThread.bindLong(3, messagesPerThread[threadIndex].toLong())
+                insertThread.bindString(4, address)
+                insertThread.bindString(5, snippet)
+                insertThread.executeInsert()
+            }
+            db.setTransactionSuccessful()
+        } finally {
+            db.endTransaction()
+        }
+    }
+
+    private fun runQueries(helper: SQLCipherOpenHelper): Map<String, List<Long>> {
+        val random = Random(iterations)
+        val threadDb = ThreadDatabase(context, helper)
+        val mmsSmsDb = MmsSmsDatabase(context, helper)
+        val searchDb = SearchDatabase(context, helper)
+        val mediaDb = MediaDatabase(context, helper)
+        val db = helper.readableDatabase
+
+        fun randomThread() = random.nextLong(1, threadCount + 1L)
+        val queries = linkedMapOf<String, () -> Cursor>(
+            "conversationList" to { threadDb.approvedConversationList },
+            "conversationPage" to { mmsSmsDb.getConversation(randomThread(), true, 0, 100) },
+            "unread" to { mmsSmsDb.unread },
+            "search" to { searchDb.queryRankedMessageIds(MockDataGenerator.generateMessageBody(random, 1), null, null, 500, null)!! },
+            "galleryMedia" to { mediaDb.getGalleryMediaForThread(randomThread()) },
+            "reactions" to {
+                db.rawQuery(
+                    "SELECT * FROM reaction WHERE message_id IN (SELECT _id FROM sms WHERE thread_id = ? ORDER BY date_sent DESC LIMIT 100) AND is_mms = 0",
+                    arrayOf(randomThread().toString())
+                )
+            }
+        )
+
+        return queries.mapValues { (_, query) ->
+            List(iterations) {
+                measure { query().use { cursor -> while (cursor.moveToNext()) { cursor.getLong(0) } } }
+            }
+        }
+    }
+
+    private inline fun measure(block: () -> Unit): Long {
+        val start = SystemClock.elapsedRealtimeNanos()
+        block()
+        return (SystemClock.elapsedRealtimeNanos() - start) / 1_000_000
+    }
+
+    private fun percentiles(timings: List<Long>): String {
+        assertTrue(timings.isNotEmpty())
+        val sorted = timings.sorted()
+        fun at(percentile: Int) = sorted[(sorted.size - 1) * percentile / 100]
+        return "p50=${at(50)}ms p90=${at(90)}ms p99=${at(99)}ms max=${sorted.last()}ms"
+    }
+}
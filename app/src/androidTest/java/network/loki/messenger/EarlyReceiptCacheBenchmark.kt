@@ -0,0 +1,90 @@
+package network.loki.messenger
+
+import android.os.SystemClock
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import androidx.test.filters.LargeTest
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.session.libsession.utilities.Address
+import org.session.libsignal.utilities.Log
+import org.thoughtcrime.securesms.database.EarlyReceiptCache
+import org.thoughtcrime.securesms.util.LRUCache
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.atomic.AtomicLong
+import kotlin.concurrent.thread
+
+/**
+ * Counts receipts for messages which haven't been stored yet from many threads at once, and takes
+ * them as each message is stored. Compares [EarlyReceiptCache] with a stand-in for how it used to
+ * keep them, a synchronized [LRUCache] of maps.
+ */
+@RunWith(AndroidJUnit4::class)
+@LargeTest
+class EarlyReceiptCacheBenchmark {
+
+    companion object {
+        private const val TAG = "EarlyReceiptCacheBenchmark"
+        private const val THREAD_COUNT = 8
+        private const val MESSAGES_PER_THREAD = 20_000
+        private const val RECEIPTS_PER_MESSAGE = 3
+    }
+
+    /** What [EarlyReceiptCache] used to do, without the logging. */
+    private class SynchronizedCache {
+        private val cache = LRUCache<Long, MutableMap<Address, Long>>(100)
+
+        @Synchronized
+        fun increment(timestamp: Long, origin: Address) {
+            val receipts = cache[timestamp] ?: HashMap()
+            receipts[origin] = (receipts[origin] ?: 0L) + 1
+            cache[timestamp] = receipts
+        }
+
+        @Synchronized
+        fun remove(timestamp: Long): Map<Address, Long> = cache.remove(timestamp) ?: HashMap()
+    }
+
+    private val origins = List(RECEIPTS_PER_MESSAGE) { Address.fromSerialized("05" + it.toString().repeat(64)) }
+
+    /**
+     * Has each of [THREAD_COUNT] threads count receipts for its own messages and then take them,
+     * returning how long that took and how many receipts were taken.
+     */
+    private fun run(increment: (Long, Address) -> Unit, remove: (Long) -> Map<Address, Long>): Pair<Long, Long> {
+        val taken = AtomicLong()
+        val start = CountDownLatch(1)
+        val threads = List(THREAD_COUNT) { t ->
+            thread {
+                start.await()
+                repeat(MESSAGES_PER_THREAD) { i ->
+                    val timestamp = t.toLong() * MESSAGES_PER_THREAD + i
+                    origins.forEach { increment(timestamp, it) }
+                    taken.addAndGet(remove(timestamp).values.sum())
+                }
+            }
+        }
+        val startTime = SystemClock.elapsedRealtime()
+        start.countDown()
+        threads.forEach { it.join() }
+        return (SystemClock.elapsedRealtime() - startTime) to taken.get()
+    }
+
+    @Test
+    fun countReceiptsFromManyThreads() {
+        val synchronizedCache = SynchronizedCache()
+        val (synchronizedTime, synchronizedTaken) = run(synchronizedCache::increment, synchronizedCache::remove)
+
+        val cache = EarlyReceiptCache()
+        val (concurrentTime, concurrentTaken) = run(cache::increment, cache::remove)
+
+        val receipts = THREAD_COUNT.toLong() * MESSAGES_PER_THREAD * RECEIPTS_PER_MESSAGE
+        Log.i(TAG, "threads=$THREAD_COUNT receipts=$receipts synchronized=${synchronizedTime}ms " +
+                "concurrent=${concurrentTime}ms hits=${cache.hitCount} misses=${cache.missCount}")
+        assertEquals(receipts, synchronizedTaken)
+        assertEquals(receipts, concurrentTaken)
+        assertEquals(THREAD_COUNT.toLong() * MESSAGES_PER_THREAD, cache.hitCount)
+        assertTrue(concurrentTime < synchronizedTime)
+    }
+}
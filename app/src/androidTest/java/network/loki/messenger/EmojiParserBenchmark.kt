@@ -0,0 +1,123 @@
+package network.loki.messenger
+
+import android.os.SystemClock
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import androidx.test.filters.LargeTest
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.session.libsignal.utilities.Log
+import org.thoughtcrime.securesms.components.emoji.parsing.EmojiDrawInfo
+import org.thoughtcrime.securesms.components.emoji.parsing.EmojiParser
+import org.thoughtcrime.securesms.components.emoji.parsing.Fitzpatrick
+import org.thoughtcrime.securesms.emoji.EmojiSource
+import java.util.LinkedList
+import kotlin.random.Random
+
+/**
+ * Parses emoji-dense and emoji-free messages with the full emoji set, through the flat
+ * `EmojiTree` and through a copy of the tree of hash maps it replaced (walked from the root again
+ * for every possible end, as `EmojiParser` used to), checking both find the same candidates.
+ * Reports the time per character after a warm-up, like a JMH average-time run.
+ */
+@RunWith(AndroidJUnit4::class)
+@LargeTest
+class EmojiParserBenchmark {
+
+    companion object {
+        private const val TAG = "EmojiParserBenchmark"
+        private const val TERMINATOR = '\uFE0F'
+        private const val WARMUP_ITERATIONS = 20
+        private const val ITERATIONS = 100
+        private const val MESSAGE_LENGTH = 2000
+    }
+
+    private class Node {
+        val children = HashMap<Char, Node>()
+        var emoji: EmojiDrawInfo? = null
+    }
+
+    /** The tree and candidate search as they were before. */
+    private class MapParser {
+        val root = Node()
+
+        fun add(encoding: String, emoji: EmojiDrawInfo?) {
+            var tree = root
+            for (c in encoding) tree = tree.children.getOrPut(c) { Node() }
+            tree.emoji = emoji
+        }
+
+        private fun walk(text: CharSequence, start: Int, end: Int): Node? {
+            var tree = root
+            for (i in start until end) tree = tree.children[text[i]] ?: return null
+            return tree
+        }
+
+        fun getEmoji(text: CharSequence, start: Int, end: Int): EmojiDrawInfo? {
+            val tree = walk(text, start, end) ?: return null
+            return tree.emoji ?: if (text[end - 1] != TERMINATOR) tree.children[TERMINATOR]?.emoji else null
+        }
+
+        private fun endOf(text: CharSequence, start: Int): Int {
+            var best = -1
+            for (j in start + 1..text.length) {
+                val tree = walk(text, start, j) ?: return best
+                if (tree.emoji != null || (text[j - 1] != TERMINATOR && tree.children[TERMINATOR]?.emoji != null)) best = j
+            }
+            return best
+        }
+
+        fun findCandidates(text: CharSequence): List<Triple<Int, Int, EmojiDrawInfo?>> {
+            val results = LinkedList<Triple<Int, Int, EmojiDrawInfo?>>()
+            var i = 0
+            while (i < text.length) {
+                var end = endOf(text, i)
+                if (end != -1) {
+                    val drawInfo = getEmoji(text, i, end)
+                    if (end + 2 <= text.length && Fitzpatrick.fitzpatrickFromUnicode(text, end) != null) end += 2
+                    results += Triple(i, end, drawInfo)
+                    i = end
+                } else {
+                    i++
+                }
+            }
+            return results
+        }
+    }
+
+    private fun time(block: () -> Unit): Long {
+        repeat(WARMUP_ITERATIONS) { block() }
+        val start = SystemClock.elapsedRealtimeNanos()
+        repeat(ITERATIONS) { block() }
+        return (SystemClock.elapsedRealtimeNanos() - start) / ITERATIONS
+    }
+
+    @Test
+    fun parseMessages() {
+        val source = EmojiSource.latest
+        val tree = source.emojiTree
+        val emoji = source.dataPages.filter { it.spriteUri != null }.flatMap { page -> page.displayEmoji.flatMap { it.variations } }
+        val mapParser = MapParser()
+        emoji.forEach { mapParser.add(it, tree.getEmoji(it, 0, it.length)) }
+        source.obsolete.forEach { mapParser.add(it.obsolete, mapParser.getEmoji(it.replaceWith, 0, it.replaceWith.length)) }
+        val parser = EmojiParser(tree)
+
+        val random = Random(45)
+        val words = listOf("hey", "see you at 10", "lol", "what's up?", "1 more thing", "ok #2", "nice")
+        val dense = buildString { while (length < MESSAGE_LENGTH) append(if (random.nextInt(3) == 0) words.random(random) + " " else emoji.random(random)) }
+        val free = buildString { while (length < MESSAGE_LENGTH) append(words.random(random)).append(' ') }
+
+        for ((name, text) in listOf("emoji-dense" to dense, "emoji-free" to free)) {
+            val expected = mapParser.findCandidates(text)
+            val actual = parser.findCandidates(text).map { Triple(it.startIndex, it.endIndex, it.drawInfo) }
+            assertEquals(expected, actual)
+
+            val mapTime = time { mapParser.findCandidates(text) }
+            val flatTime = time { parser.findCandidates(text) }
+            Log.i(TAG, "$name chars=${text.length} candidates=${actual.size} " +
+                    "map=${mapTime / text.length}ns/char flat=${flatTime / text.length}ns/char")
+            assertTrue(flatTime < mapTime)
+        }
+    }
+}
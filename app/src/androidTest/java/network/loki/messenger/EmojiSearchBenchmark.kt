@@ -0,0 +1,104 @@
+package network.loki.messenger
+
+import android.content.Context
+import android.os.SystemClock
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import androidx.test.filters.LargeTest
+import androidx.test.platform.app.InstrumentationRegistry
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.session.libsignal.utilities.JsonUtil
+import org.session.libsignal.utilities.Log
+import org.thoughtcrime.securesms.crypto.DatabaseSecret
+import org.thoughtcrime.securesms.database.EmojiSearchDatabase
+import org.thoughtcrime.securesms.database.helpers.SQLCipherOpenHelper
+import org.thoughtcrime.securesms.database.helpers.SQLCipherProfile
+import org.thoughtcrime.securesms.database.model.EmojiSearchData
+import kotlin.math.roundToInt
+import kotlin.random.Random
+
+/**
+ * Types queries into emoji search, timing each keystroke against the table the way it used to be
+ * searched (`LABEL LIKE '%query%'`, then ranked) and through [EmojiSearchDatabase]'s in-memory
+ * index, checking both give the same emoji. Also times reloading an unchanged search index.
+ */
+@RunWith(AndroidJUnit4::class)
+@LargeTest
+class EmojiSearchBenchmark {
+
+    companion object {
+        private const val TAG = "EmojiSearchBenchmark"
+        private const val DATABASE_NAME = "emoji_search_benchmark.db"
+        private const val LIMIT = 20
+        private val TYPED = listOf("face", "smiling face", "heart", "thumbs", "cat", "flag", "Party", "zzz")
+    }
+
+    private val context: Context = InstrumentationRegistry.getInstrumentation().targetContext
+
+    private fun time(block: () -> Unit): Long {
+        val start = SystemClock.elapsedRealtimeNanos()
+        block()
+        return (SystemClock.elapsedRealtimeNanos() - start) / 1000
+    }
+
+    /** What EmojiSearchDatabase.query did before the index. */
+    private fun likeQuery(helper: SQLCipherOpenHelper, originalQuery: String, limit: Int): List<String> {
+        val query = originalQuery.trim()
+        if (query.isEmpty()) return emptyList()
+        val entries = mutableListOf<Pair<String, String>>()
+        helper.readableDatabase.query(EmojiSearchDatabase.TABLE_NAME, arrayOf(EmojiSearchDatabase.LABEL, EmojiSearchDatabase.EMOJI),
+                "${EmojiSearchDatabase.LABEL} LIKE ?", arrayOf("%$query%"), null, null, null, "${maxOf(limit, 100)}").use { cursor ->
+            while (cursor.moveToNext()) entries += cursor.getString(0) to cursor.getString(1)
+        }
+        fun score(match: String): Int {
+            if (query == match) return 0
+            val startIndex = match.indexOf(query)
+            return (startIndex * 1.5f + (match.length - (startIndex + query.length))).roundToInt()
+        }
+        return entries.sortedWith { lhs, rhs -> score(lhs.first) - score(rhs.first) }.distinctBy { it.second }.take(limit).map { it.second }
+    }
+
+    @Test
+    fun typeEmojiSearches() {
+        context.deleteDatabase(DATABASE_NAME)
+        val helper = SQLCipherOpenHelper(context, DatabaseSecret(Random(29).nextBytes(32)), DATABASE_NAME, SQLCipherProfile.DEFAULT)
+        try {
+            val searchIndex = context.assets.open("emoji/emoji_search_index.json").use {
+                JsonUtil.fromJson(it, Array<EmojiSearchData>::class.java).toList()
+            }
+            val emojiSearchDb = EmojiSearchDatabase(context, helper)
+            val load = time { emojiSearchDb.setSearchIndex(searchIndex) }
+            val reload = time { emojiSearchDb.setSearchIndex(searchIndex) }
+
+            var like = 0L
+            var likeSlowest = 0L
+            var indexed = 0L
+            var indexedSlowest = 0L
+            var keystrokes = 0
+            for (typed in TYPED) {
+                for (length in 1..typed.length) {
+                    val query = typed.substring(0, length)
+                    var expected: List<String> = listOf()
+                    var actual: List<String> = listOf()
+                    val likeTime = time { expected = likeQuery(helper, query, LIMIT) }
+                    val indexedTime = time { actual = emojiSearchDb.query(query, LIMIT) }
+                    assertEquals(query, expected, actual)
+                    like += likeTime
+                    likeSlowest = maxOf(likeSlowest, likeTime)
+                    indexed += indexedTime
+                    indexedSlowest = maxOf(indexedSlowest, indexedTime)
+                    keystrokes++
+                }
+            }
+
+            Log.i(TAG, "labels=${searchIndex.sumOf { it.tags.size }} keystrokes=$keystrokes load=${load / 1000}ms reload=${reload}us " +
+                    "like=${like}us (slowest ${likeSlowest}us) indexed=${indexed}us (slowest ${indexedSlowest}us)")
+            assertTrue(indexed < like)
+        } finally {
+            helper.close()
+            context.deleteDatabase(DATABASE_NAME)
+        }
+    }
+}
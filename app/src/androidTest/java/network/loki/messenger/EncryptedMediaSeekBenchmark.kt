@@ -0,0 +1,84 @@
+package network.loki.messenger
+
+import android.content.Context
+import android.os.SystemClock
+import androidx.test.core.app.ApplicationProvider
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import androidx.test.filters.LargeTest
+import org.junit.After
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.session.libsession.utilities.Util
+import org.session.libsignal.utilities.Log
+import org.thoughtcrime.securesms.crypto.AttachmentSecret
+import org.thoughtcrime.securesms.crypto.ModernDecryptingPartInputStream
+import org.thoughtcrime.securesms.crypto.ModernEncryptingPartOutputStream
+import org.thoughtcrime.securesms.video.EncryptedMediaDataSource
+import java.io.File
+import kotlin.random.Random
+
+/**
+ * Random seeks over a 200 MB encrypted attachment, the way a media player scrubbing through a video
+ * reads it: reopening a decrypting stream per read (what [EncryptedMediaDataSource] used to do) vs
+ * the data source's seekable reader.
+ */
+@RunWith(AndroidJUnit4::class)
+@LargeTest
+class EncryptedMediaSeekBenchmark {
+
+    companion object {
+        private const val TAG = "EncryptedMediaSeekBenchmark"
+        private const val FILE_SIZE = 200L * 1024 * 1024
+        private const val SEEK_COUNT = 2000
+        private const val READ_SIZE = 8 * 1024
+    }
+
+    private val context = ApplicationProvider.getApplicationContext<Context>()
+    private val random = Random(200)
+    private val attachmentSecret = AttachmentSecret(random.nextBytes(32), random.nextBytes(20), random.nextBytes(32))
+    private val file = File(context.cacheDir, "seek_benchmark.mms")
+
+    @After
+    fun tearDown() {
+        file.delete()
+    }
+
+    private fun writeFile(): ByteArray {
+        val output = ModernEncryptingPartOutputStream.createFor(attachmentSecret, file, false)
+        val chunk = random.nextBytes(1024 * 1024)
+        output.second.use { stream -> repeat((FILE_SIZE / chunk.size).toInt()) { stream.write(chunk) } }
+        return output.first
+    }
+
+    @Test
+    fun randomSeeks() {
+        val partRandom = writeFile()
+        // Scrubbing reads clustered around a few positions, like a player jumping back and forth
+        val anchors = List(SEEK_COUNT / 4) { random.nextLong(FILE_SIZE - READ_SIZE * 4) }
+        val positions = List(SEEK_COUNT) { i -> anchors[i / 4] + (i % 4) * READ_SIZE }
+
+        val expected = ByteArray(READ_SIZE)
+        var start = SystemClock.elapsedRealtime()
+        val reopened = positions.map { position ->
+            ModernDecryptingPartInputStream.createFor(attachmentSecret, partRandom, file, position).use { Util.readFully(it, expected) }
+            expected.copyOf()
+        }
+        val reopenTime = SystemClock.elapsedRealtime() - start
+
+        val actual = ByteArray(READ_SIZE)
+        val dataSource = EncryptedMediaDataSource(attachmentSecret, file, partRandom, FILE_SIZE)
+        start = SystemClock.elapsedRealtime()
+        val seeked = positions.map { position ->
+            dataSource.readAt(position, actual, 0, READ_SIZE)
+            actual.copyOf()
+        }
+        val seekTime = SystemClock.elapsedRealtime() - start
+        dataSource.close()
+
+        Log.i(TAG, "size=${FILE_SIZE / 1024 / 1024}MB seeks=$SEEK_COUNT reopen=${reopenTime}ms seekable=${seekTime}ms")
+        reopened.indices.forEach { assertArrayEquals(reopened[it], seeked[it]) }
+        assertTrue(seekTime < reopenTime)
+    }
+}
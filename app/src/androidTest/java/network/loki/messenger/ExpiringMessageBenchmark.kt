@@ -0,0 +1,87 @@
+package network.loki.messenger
+
+import android.content.ContentValues
+import android.content.Context
+import android.os.SystemClock
+import androidx.test.core.app.ApplicationProvider
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import androidx.test.filters.LargeTest
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.session.libsession.utilities.Address
+import org.session.libsession.utilities.recipients.Recipient
+import org.session.libsignal.utilities.Log
+import org.thoughtcrime.securesms.database.MmsSmsColumns
+import org.thoughtcrime.securesms.database.SmsDatabase
+import org.thoughtcrime.securesms.dependencies.DatabaseComponent
+
+/**
+ * Expires 10,000 disappearing messages spread over a few threads, comparing the batched
+ * [org.thoughtcrime.securesms.database.MmsSmsDatabase.deleteExpiredMessages] with deleting them one
+ * at a time (measured on a sample and extrapolated).
+ */
+@RunWith(AndroidJUnit4::class)
+@LargeTest
+class ExpiringMessageBenchmark {
+
+    companion object {
+        private const val TAG = "ExpiringMessageBenchmark"
+        private const val MESSAGE_COUNT = 10_000
+        private const val THREAD_COUNT = 10
+        private const val SAMPLE_COUNT = 200
+        private const val EXPIRES_IN = 1000L
+    }
+
+    private val context = ApplicationProvider.getApplicationContext<Context>()
+    private val component = DatabaseComponent.get(context)
+
+    private fun insertExpiredMessages(count: Int, startedAt: Long): List<Long> {
+        val db = component.openHelper().writableDatabase
+        val threadIds = List(THREAD_COUNT) { i ->
+            val address = Address.fromSerialized("05" + "e".repeat(63) + i)
+            component.threadDatabase().getOrCreateThreadIdFor(Recipient.from(context, address, false))
+        }
+        val messageIds = mutableListOf<Long>()
+
+        db.beginTransaction()
+        try {
+            repeat(count) { i ->
+                val values = ContentValues()
+                values.put(MmsSmsColumns.THREAD_ID, threadIds[i % THREAD_COUNT])
+                values.put(MmsSmsColumns.BODY, "Disappearing message $i")
+                values.put(SmsDatabase.TYPE, 23L) // MmsSmsColumns.Types.BASE_SENT_TYPE
+                values.put(MmsSmsColumns.EXPIRES_IN, EXPIRES_IN)
+                values.put(MmsSmsColumns.EXPIRE_STARTED, startedAt)
+                messageIds += db.insert(SmsDatabase.TABLE_NAME, null, values)
+            }
+            db.setTransactionSuccessful()
+        } finally {
+            db.endTransaction()
+        }
+        threadIds.forEach { component.threadDatabase().update(it, false) }
+        return messageIds
+    }
+
+    @Test
+    fun expireTenThousandMessages() {
+        val startedAt = System.currentTimeMillis() - EXPIRES_IN * 2
+
+        val sample = insertExpiredMessages(SAMPLE_COUNT, startedAt)
+        var start = SystemClock.elapsedRealtime()
+        sample.forEach { component.smsDatabase().deleteMessage(it) }
+        val oneByOne = (SystemClock.elapsedRealtime() - start) * MESSAGE_COUNT / SAMPLE_COUNT
+
+        insertExpiredMessages(MESSAGE_COUNT, startedAt)
+        assertTrue(component.mmsSmsDatabase().nextExpiration in 1..System.currentTimeMillis())
+
+        start = SystemClock.elapsedRealtime()
+        val deleted = component.mmsSmsDatabase().deleteExpiredMessages(System.currentTimeMillis())
+        val batched = SystemClock.elapsedRealtime() - start
+
+        Log.i(TAG, "messages=$MESSAGE_COUNT threads=$THREAD_COUNT oneByOne=~${oneByOne}ms batched=${batched}ms")
+        assertEquals(MESSAGE_COUNT, deleted)
+        assertEquals(0, component.mmsSmsDatabase().deleteExpiredMessages(System.currentTimeMillis()))
+    }
+}
@@ -0,0 +1,83 @@
+package network.loki.messenger
+
+import android.content.Context
+import android.os.SystemClock
+import androidx.recyclerview.widget.DiffUtil
+import androidx.test.core.app.ApplicationProvider
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import androidx.test.filters.LargeTest
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertSame
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.session.libsession.utilities.Address
+import org.session.libsession.utilities.recipients.Recipient
+import org.session.libsignal.utilities.Log
+import org.thoughtcrime.securesms.database.model.ThreadRecord
+import org.thoughtcrime.securesms.dependencies.DatabaseComponent
+import org.thoughtcrime.securesms.home.HomeDiffUtil
+
+/**
+ * Measures the cost of building the home list for 1,000 conversations: the first load (cold
+ * [ThreadRecord] cache) and a refresh after a single thread changed.
+ */
+@RunWith(AndroidJUnit4::class)
+@LargeTest
+class HomeListBenchmark {
+
+    companion object {
+        private const val TAG = "HomeListBenchmark"
+        private const val THREAD_COUNT = 1000
+    }
+
+    private val context = ApplicationProvider.getApplicationContext<Context>()
+    private val threadDb = DatabaseComponent.get(context).threadDatabase()
+
+    @Before
+    fun setUp() {
+        val now = System.currentTimeMillis()
+        for (i in 0 until THREAD_COUNT) {
+            val address = Address.fromSerialized("05" + i.toString().padStart(64, '0'))
+            val threadId = threadDb.getOrCreateThreadIdFor(Recipient.from(context, address, false))
+            threadDb.updateSnippet(threadId, "Message $i", null, now - i * 1000L, 0, true)
+        }
+    }
+
+    private fun readAll(): List<ThreadRecord> =
+        threadDb.conversationList.use { cursor ->
+            val reader = threadDb.readerFor(cursor)
+            generateSequence { reader.next }.toList()
+        }
+
+    @Test
+    fun firstLoadAndRefresh() {
+        var start = SystemClock.elapsedRealtimeNanos()
+        val first = readAll()
+        val firstLoad = SystemClock.elapsedRealtimeNanos() - start
+
+        val changed = first.first()
+        threadDb.updateSnippet(changed.threadId, "Updated", null, System.currentTimeMillis(), 0, true)
+
+        start = SystemClock.elapsedRealtimeNanos()
+        val refreshed = readAll()
+        val refresh = SystemClock.elapsedRealtimeNanos() - start
+
+        val callback = HomeDiffUtil(context)
+        start = SystemClock.elapsedRealtimeNanos()
+        DiffUtil.calculateDiff(object : DiffUtil.Callback() {
+            override fun getOldListSize() = first.size
+            override fun getNewListSize() = refreshed.size
+            override fun areItemsTheSame(oldPosition: Int, newPosition: Int) = callback.areItemsTheSame(first[oldPosition], refreshed[newPosition])
+            override fun areContentsTheSame(oldPosition: Int, newPosition: Int) = callback.areContentsTheSame(first[oldPosition], refreshed[newPosition])
+        })
+        val diff = SystemClock.elapsedRealtimeNanos() - start
+
+        Log.i(TAG, "threads=${first.size} firstLoad=${firstLoad / 1000}us refresh=${refresh / 1000}us diff=${diff / 1000}us")
+
+        assertEquals(first.size, refreshed.size)
+        // Unchanged rows must come back as the cached instances
+        val unchanged = first.first { it.threadId != changed.threadId }
+        assertSame(unchanged, refreshed.first { it.threadId == unchanged.threadId })
+    }
+}
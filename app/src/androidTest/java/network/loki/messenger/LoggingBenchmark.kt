@@ -0,0 +1,87 @@
+package network.loki.messenger
+
+import android.content.Context
+import android.os.SystemClock
+import androidx.test.core.app.ApplicationProvider
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import androidx.test.filters.LargeTest
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.session.libsignal.utilities.Log
+import org.thoughtcrime.securesms.ApplicationContext
+import java.io.OutputStream
+import java.text.SimpleDateFormat
+import java.util.Date
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import kotlin.concurrent.thread
+
+/**
+ * Logs from many threads at once through the app's `PersistentLogger`, and through a stand-in for
+ * how it used to hand every entry to its writer thread, then times exporting the logs.
+ */
+@RunWith(AndroidJUnit4::class)
+@LargeTest
+class LoggingBenchmark {
+
+    companion object {
+        private const val TAG = "LoggingBenchmark"
+        private const val THREAD_COUNT = 8
+        private const val ENTRIES_PER_THREAD = 20_000
+        private const val TAG_COUNT = 500
+    }
+
+    private val context = ApplicationProvider.getApplicationContext<Context>()
+    private val tags = List(TAG_COUNT) { "Benchmark$it" }
+
+    /** Calls [log] from [THREAD_COUNT] threads at once, returning how long that took. */
+    private fun logConcurrently(log: (thread: Int, entry: Int) -> Unit): Long {
+        val start = CountDownLatch(1)
+        val threads = List(THREAD_COUNT) { t ->
+            thread {
+                start.await()
+                repeat(ENTRIES_PER_THREAD) { log(t, it) }
+            }
+        }
+        val startTime = SystemClock.elapsedRealtime()
+        start.countDown()
+        threads.forEach { it.join() }
+        return SystemClock.elapsedRealtime() - startTime
+    }
+
+    @Test
+    fun logFromManyThreads() {
+        val logger = ApplicationContext.getInstance(context).persistentLogger
+
+        val buffered = logConcurrently { t, i -> logger.i(tags[i % TAG_COUNT], "Entry $i from thread $t", null) }
+        var start = SystemClock.elapsedRealtime()
+        logger.blockUntilAllWritesFinished()
+        val drained = SystemClock.elapsedRealtime() - start
+
+        val executor = Executors.newSingleThreadExecutor()
+        val dateFormat = SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS zzz")
+        val perEntryTasks = logConcurrently { t, i ->
+            val tag = tags[i % TAG_COUNT]
+            val message = "Entry $i from thread $t"
+            executor.execute { dateFormat.format(Date()) + " I " + tag + ": " + message }
+        }
+        executor.shutdown()
+        executor.awaitTermination(1, TimeUnit.MINUTES)
+
+        var exported = 0L
+        start = SystemClock.elapsedRealtime()
+        logger.writeLogs(object : OutputStream() {
+            override fun write(b: Int) { exported++ }
+            override fun write(b: ByteArray, off: Int, len: Int) { exported += len }
+        })
+        val export = SystemClock.elapsedRealtime() - start
+
+        val entries = THREAD_COUNT * ENTRIES_PER_THREAD
+        Log.i(TAG, "threads=$THREAD_COUNT entries=$entries buffered=${buffered}ms drained=${drained}ms " +
+                "perEntryTasks=${perEntryTasks}ms exported=${exported / 1024}KB in ${export}ms")
+        assertTrue(exported > 0)
+        assertTrue(buffered < perEntryTasks)
+    }
+}
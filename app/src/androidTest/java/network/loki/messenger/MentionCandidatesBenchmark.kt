@@ -0,0 +1,118 @@
+package network.loki.messenger
+
+import android.content.Context
+import android.os.SystemClock
+import androidx.test.core.app.ApplicationProvider
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import androidx.test.filters.LargeTest
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.session.libsession.messaging.contacts.Contact
+import org.session.libsession.messaging.mentions.Mention
+import org.session.libsession.messaging.mentions.MentionsManager
+import org.session.libsignal.utilities.Log
+import org.thoughtcrime.securesms.dependencies.DatabaseComponent
+import kotlin.random.Random
+
+/**
+ * Types mentions in a community with 10,000 active posters, looking the candidates up the way
+ * every keystroke used to (each participant's contact read and its name searched) and through the
+ * thread's mention index, and times feeding the index a message from someone new.
+ */
+@RunWith(AndroidJUnit4::class)
+@LargeTest
+class MentionCandidatesBenchmark {
+
+    companion object {
+        private const val TAG = "MentionCandidatesBenchmark"
+        private const val PARTICIPANTS = 10_000
+        private const val THREAD_ID = 4_200_000_000L
+        private val SYLLABLES = listOf("an", "be", "cor", "da", "el", "fi", "go", "ha", "is", "jo", "ka", "li", "mo", "ne", "or", "pa", "ri", "sa", "tu", "vi")
+    }
+
+    private val context = ApplicationProvider.getApplicationContext<Context>()
+    private val random = Random(42)
+    private val contacts = ArrayList<Contact>()
+    private val participants = HashMap<String, Long>()
+
+    private fun name() = List(2) { List(random.nextInt(2, 4)) { SYLLABLES.random(random) }.joinToString("").capitalize() }.joinToString(" ")
+
+    private fun publicKey() = "05" + random.nextBytes(32).joinToString("") { "%02x".format(it) }
+
+    @Before
+    fun setUp() {
+        val db = DatabaseComponent.get(context).openHelper().writableDatabase
+        val contactDb = DatabaseComponent.get(context).sessionContactDatabase()
+        db.beginTransaction()
+        try {
+            repeat(PARTICIPANTS) { i ->
+                val contact = Contact(publicKey()).apply { name = name() }
+                contactDb.setContact(contact)
+                contacts += contact
+                participants[contact.sessionID] = 1_600_000_000_000L + i * 1000L
+            }
+            db.setTransactionSuccessful()
+        } finally {
+            db.endTransaction()
+        }
+    }
+
+    /** How candidates were found before: every participant's contact read, names searched in turn. */
+    private fun linearScan(query: String): List<Mention> {
+        val contactDb = DatabaseComponent.get(context).sessionContactDatabase()
+        var candidates = participants.keys.mapNotNull { publicKey ->
+            val displayName = contactDb.getContactWithSessionID(publicKey)?.displayName(Contact.ContactContext.OPEN_GROUP) ?: return@mapNotNull null
+            Mention(publicKey, displayName)
+        }
+        if (query.length >= 2) {
+            candidates = candidates.filter { it.displayName.toLowerCase().contains(query.toLowerCase()) }
+        }
+        return candidates
+    }
+
+    private fun time(block: () -> Unit): Long {
+        val start = SystemClock.elapsedRealtimeNanos()
+        block()
+        return SystemClock.elapsedRealtimeNanos() - start
+    }
+
+    @Test
+    fun typeMentionsInLargeCommunity() {
+        val indexing = time { MentionsManager.index(THREAD_ID, true, participants, contacts) } / 1_000_000
+
+        val target = contacts[PARTICIPANTS / 2]
+        val typed = target.name!!.toLowerCase()
+        val queries = (0..typed.length).map { typed.substring(0, it) }
+
+        var linear = 0L
+        var linearSlowest = 0L
+        var indexed = 0L
+        var indexedSlowest = 0L
+        for (query in queries) {
+            val linearTime = time { linearScan(query) }
+            linear += linearTime
+            linearSlowest = maxOf(linearSlowest, linearTime)
+            var candidates: List<Mention> = listOf()
+            val indexedTime = time { candidates = MentionsManager.getMentionCandidates(query, THREAD_ID, true) }
+            indexed += indexedTime
+            indexedSlowest = maxOf(indexedSlowest, indexedTime)
+            assertTrue(candidates.isNotEmpty())
+        }
+        val candidates = MentionsManager.getMentionCandidates(typed, THREAD_ID, true)
+        assertTrue(candidates.any { it.publicKey == target.sessionID })
+
+        // Someone new posts, and is the first candidate for their name from then on
+        val newcomer = Contact(publicKey()).apply { name = target.name }
+        DatabaseComponent.get(context).sessionContactDatabase().setContact(newcomer)
+        val feeding = time { MentionsManager.cache(newcomer.sessionID, THREAD_ID, System.currentTimeMillis()) } / 1000
+        assertEquals(newcomer.sessionID, MentionsManager.getMentionCandidates(typed, THREAD_ID, true).first().publicKey)
+
+        Log.i(TAG, "participants=$PARTICIPANTS keystrokes=${queries.size} indexing=${indexing}ms " +
+                "linear=${linear / 1_000_000}ms (slowest ${linearSlowest / 1_000_000}ms) " +
+                "indexed=${indexed / 1000}us (slowest ${indexedSlowest / 1000}us) feeding=${feeding}us")
+        assertTrue(indexed < linear)
+    }
+}
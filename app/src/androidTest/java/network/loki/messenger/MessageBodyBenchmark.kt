@@ -0,0 +1,134 @@
+package network.loki.messenger
+
+import android.content.Context
+import android.graphics.Color
+import android.os.SystemClock
+import android.text.util.Linkify
+import androidx.test.core.app.ApplicationProvider
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import androidx.test.filters.LargeTest
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNotSame
+import org.junit.Assert.assertSame
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.session.libsession.messaging.contacts.Contact
+import org.session.libsession.messaging.messages.signal.OutgoingTextMessage
+import org.session.libsession.messaging.open_groups.OpenGroup
+import org.session.libsession.utilities.TextSecurePreferences
+import org.session.libsignal.utilities.Log
+import org.session.libsignal.utilities.hexEncodedPublicKey
+import org.thoughtcrime.securesms.components.emoji.EmojiProvider
+import org.thoughtcrime.securesms.conversation.v2.utilities.MentionUtilities
+import org.thoughtcrime.securesms.conversation.v2.utilities.MessageBodyCache
+import org.thoughtcrime.securesms.crypto.KeyPairUtilities
+import org.thoughtcrime.securesms.database.model.MessageRecord
+import org.thoughtcrime.securesms.dependencies.DatabaseComponent
+import org.thoughtcrime.securesms.groups.GroupManager
+import kotlin.random.Random
+
+/**
+ * Scrolls a community thread where every message mentions a few members and has a link and an
+ * emoji, rendering the bodies the way a bind used to (mentions, links and emoji every time) and
+ * through [MessageBodyCache], with the first page rendered ahead of time as the adapter does.
+ */
+@RunWith(AndroidJUnit4::class)
+@LargeTest
+class MessageBodyBenchmark {
+
+    companion object {
+        private const val TAG = "MessageBodyBenchmark"
+        private const val MEMBERS = 50
+        private const val MESSAGES = 300
+        private const val PAGE = 40
+        private const val PASSES = 5
+        private const val MENTION_COLOR = Color.GREEN
+    }
+
+    private val context = ApplicationProvider.getApplicationContext<Context>()
+    private val random = Random(41)
+    private val members = List(MEMBERS) { KeyPairUtilities.generate(random.nextBytes(16)).x25519KeyPair.hexEncodedPublicKey }
+    private var threadId = -1L
+
+    @Before
+    fun setUp() {
+        if (TextSecurePreferences.getLocalNumber(context) == null) {
+            TextSecurePreferences.setLocalNumber(context, KeyPairUtilities.generate(random.nextBytes(16)).x25519KeyPair.hexEncodedPublicKey)
+        }
+        val contactDb = DatabaseComponent.get(context).sessionContactDatabase()
+        members.forEachIndexed { i, member -> contactDb.setContact(Contact(member).apply { name = "Member $i" }) }
+
+        val server = "https://benchmark${random.nextInt()}.example"
+        val serverPublicKey = KeyPairUtilities.generate(random.nextBytes(16)).x25519KeyPair.hexEncodedPublicKey.substring(2)
+        threadId = GroupManager.createOpenGroup("$server.room", context, null, "room").threadId
+        DatabaseComponent.get(context).lokiThreadDatabase().setOpenGroupChat(OpenGroup(server = server, room = "room",
+                publicKey = serverPublicKey, name = "room", imageId = null, canWrite = true, infoUpdates = 0), threadId)
+
+        val smsDb = DatabaseComponent.get(context).smsDatabase()
+        val recipient = DatabaseComponent.get(context).threadDatabase().getRecipientForThreadId(threadId)
+        val now = System.currentTimeMillis()
+        repeat(MESSAGES) { i ->
+            val mentions = List(4) { "@" + members.random(random) }.joinToString(" and ")
+            val body = "$mentions, have a look at https://getsession.org/faq#$i 👍"
+            smsDb.insertMessageOutbox(threadId, OutgoingTextMessage(recipient, body, 0, -1, now - i * 1000L), now - i * 1000L, false)
+        }
+    }
+
+    private fun readMessages(): List<MessageRecord> {
+        val db = DatabaseComponent.get(context).mmsSmsDatabase()
+        db.readerFor(db.getConversation(threadId, true)).use { reader ->
+            return generateSequence { reader.next }.toList()
+        }
+    }
+
+    private fun renderUncached(message: MessageRecord) {
+        val body = MentionUtilities.highlightMentions(message.body, MENTION_COLOR, message.threadId, context, null)
+        Linkify.addLinks(body, Linkify.WEB_URLS)
+        EmojiProvider.getCandidates(body)
+    }
+
+    /** Binds every message in scrolling order, [PASSES] times, returning the slowest bind. */
+    private fun scroll(messages: List<MessageRecord>, bind: (MessageRecord) -> Unit): Pair<Long, Long> {
+        var total = 0L
+        var slowest = 0L
+        repeat(PASSES) {
+            for (message in messages) {
+                val start = SystemClock.elapsedRealtimeNanos()
+                bind(message)
+                val time = SystemClock.elapsedRealtimeNanos() - start
+                total += time
+                slowest = maxOf(slowest, time)
+            }
+        }
+        return total / 1_000_000 to slowest / 1000
+    }
+
+    @Test
+    fun scrollMentionHeavyCommunity() {
+        val messages = readMessages()
+        assertEquals(MESSAGES, messages.size)
+
+        val (uncachedTotal, uncachedSlowest) = scroll(messages) { renderUncached(it) }
+
+        MessageBodyCache.prefetch(context, messages.take(PAGE), MENTION_COLOR, MENTION_COLOR)
+        val (cachedTotal, cachedSlowest) = scroll(messages) { MessageBodyCache.get(context, it, MENTION_COLOR) }
+
+        Log.i(TAG, "messages=$MESSAGES passes=$PASSES uncached=${uncachedTotal}ms (slowest ${uncachedSlowest}us) " +
+                "cached=${cachedTotal}ms (slowest ${cachedSlowest}us)")
+        assertTrue(cachedTotal < uncachedTotal)
+
+        // A rename only re-renders the bodies that mention the contact
+        val message = messages.first()
+        val body = MessageBodyCache.get(context, message, MENTION_COLOR)
+        val mentioned = body.mentionedPublicKeys.first()
+        val other = messages.first { !it.body.contains(mentioned) }
+        val otherBody = MessageBodyCache.get(context, other, MENTION_COLOR)
+        DatabaseComponent.get(context).sessionContactDatabase().setContact(Contact(mentioned).apply { name = "Renamed" })
+        val renamed = MessageBodyCache.get(context, message, MENTION_COLOR)
+        assertNotSame(body, renamed)
+        assertTrue(renamed.text.contains("@Renamed"))
+        assertSame(otherBody, MessageBodyCache.get(context, other, MENTION_COLOR))
+    }
+}
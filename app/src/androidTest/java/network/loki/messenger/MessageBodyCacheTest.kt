@@ -0,0 +1,81 @@
+package network.loki.messenger
+
+import android.content.Context
+import android.graphics.Color
+import androidx.test.core.app.ApplicationProvider
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import org.junit.After
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.session.libsession.messaging.contacts.Contact
+import org.session.libsession.messaging.messages.signal.OutgoingTextMessage
+import org.session.libsession.utilities.Address
+import org.session.libsession.utilities.TextSecurePreferences
+import org.session.libsession.utilities.recipients.Recipient
+import org.session.libsignal.utilities.hexEncodedPublicKey
+import org.thoughtcrime.securesms.conversation.v2.utilities.MessageBodyCache
+import org.thoughtcrime.securesms.crypto.KeyPairUtilities
+import org.thoughtcrime.securesms.database.model.MessageRecord
+import org.thoughtcrime.securesms.dependencies.DatabaseComponent
+import kotlin.random.Random
+
+/** Mentions of contacts that aren't known yet when a message is first rendered. */
+@RunWith(AndroidJUnit4::class)
+class MessageBodyCacheTest {
+
+    private val context = ApplicationProvider.getApplicationContext<Context>()
+    // Not seeded, so each test mentions a contact the database has never seen
+    private val random = Random.Default
+    private val recipientKey = KeyPairUtilities.generate(random.nextBytes(16)).x25519KeyPair.hexEncodedPublicKey
+    private val mentionedKey = KeyPairUtilities.generate(random.nextBytes(16)).x25519KeyPair.hexEncodedPublicKey
+    private var threadId = -1L
+
+    @Before
+    fun setUp() {
+        if (TextSecurePreferences.getLocalNumber(context) == null) {
+            TextSecurePreferences.setLocalNumber(context, KeyPairUtilities.generate(random.nextBytes(16)).x25519KeyPair.hexEncodedPublicKey)
+        }
+        val recipient = Recipient.from(context, Address.fromSerialized(recipientKey), false)
+        threadId = DatabaseComponent.get(context).threadDatabase().getOrCreateThreadIdFor(recipient)
+        val now = System.currentTimeMillis()
+        DatabaseComponent.get(context).smsDatabase()
+            .insertMessageOutbox(threadId, OutgoingTextMessage(recipient, "Say hi to @$mentionedKey", 0, -1, now), now, false)
+    }
+
+    @After
+    fun tearDown() {
+        DatabaseComponent.get(context).threadDatabase().deleteConversation(threadId)
+    }
+
+    private fun readMessage(): MessageRecord {
+        val db = DatabaseComponent.get(context).mmsSmsDatabase()
+        db.readerFor(db.getConversation(threadId, true)).use { reader -> return reader.next!! }
+    }
+
+    @Test
+    fun rendersBodyAgainWhenMentionedContactArrives() {
+        val message = readMessage()
+        val before = MessageBodyCache.get(context, message, Color.GREEN)
+        assertTrue(before.text.contains("@$mentionedKey"))
+        assertTrue(before.mentionedPublicKeys.contains(mentionedKey))
+
+        DatabaseComponent.get(context).sessionContactDatabase().setContact(Contact(mentionedKey).apply { name = "Late Arrival" })
+
+        val after = MessageBodyCache.get(context, message, Color.GREEN)
+        assertTrue(after.text.contains("@Late Arrival"))
+        assertFalse(after.text.contains(mentionedKey))
+    }
+
+    @Test
+    fun rendersSnippetAgainWhenMentionedContactArrives() {
+        val snippet = "Say hi to @$mentionedKey"
+        assertTrue(MessageBodyCache.getSnippet(context, threadId, snippet).contains(mentionedKey))
+
+        DatabaseComponent.get(context).sessionContactDatabase().setContact(Contact(mentionedKey).apply { name = "Late Arrival" })
+
+        assertTrue(MessageBodyCache.getSnippet(context, threadId, snippet).contains("@Late Arrival"))
+    }
+}
@@ -0,0 +1,117 @@
+package network.loki.messenger
+
+import android.content.ContentValues
+import android.content.Context
+import android.os.SystemClock
+import androidx.test.core.app.ApplicationProvider
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import androidx.test.filters.LargeTest
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.session.libsession.utilities.Address
+import org.session.libsession.utilities.recipients.Recipient
+import org.session.libsignal.utilities.Log
+import org.thoughtcrime.securesms.database.MmsSmsColumns
+import org.thoughtcrime.securesms.database.SmsDatabase
+import org.thoughtcrime.securesms.dependencies.DatabaseComponent
+import org.thoughtcrime.securesms.notifications.DefaultMessageNotifier
+import org.thoughtcrime.securesms.notifications.UnreadNotificationModel
+
+/**
+ * Catches up on 5,000 unread messages across 200 threads, updating the notifications after each
+ * thread like `BatchMessageReceiveJob` does. Compares reading every unread message on each update,
+ * as updates used to, with [UnreadNotificationModel], which only reads the thread that changed.
+ */
+@RunWith(AndroidJUnit4::class)
+@LargeTest
+class NotificationUpdateBenchmark {
+
+    companion object {
+        private const val TAG = "NotificationUpdateBenchmark"
+        private const val THREAD_COUNT = 200
+        private const val MESSAGES_PER_THREAD = 25
+        private const val INBOX_TYPE = 20L // MmsSmsColumns.Types.BASE_INBOX_TYPE
+    }
+
+    private val context = ApplicationProvider.getApplicationContext<Context>()
+    private val component = DatabaseComponent.get(context)
+
+    private fun insertUnreadMessages(threadId: Long, address: Address, firstDate: Long) {
+        val db = component.openHelper().writableDatabase
+        db.beginTransaction()
+        try {
+            repeat(MESSAGES_PER_THREAD) { i ->
+                val values = ContentValues()
+                values.put(MmsSmsColumns.THREAD_ID, threadId)
+                values.put(MmsSmsColumns.ADDRESS, address.serialize())
+                values.put(MmsSmsColumns.BODY, "Unread message $i")
+                values.put(SmsDatabase.TYPE, INBOX_TYPE)
+                values.put(MmsSmsColumns.NORMALIZED_DATE_SENT, firstDate + i)
+                values.put(MmsSmsColumns.READ, 0)
+                values.put(MmsSmsColumns.NOTIFIED, 0)
+                db.insert(SmsDatabase.TABLE_NAME, null, values)
+            }
+            db.setTransactionSuccessful()
+        } finally {
+            db.endTransaction()
+        }
+    }
+
+    /** What updating the notifications read before: every unread message, and each one's thread. */
+    private fun readAllUnread(): Int {
+        var count = 0
+        component.mmsSmsDatabase().readerFor(component.mmsSmsDatabase().unread).use { reader ->
+            while (true) {
+                val record = reader.next ?: break
+                component.threadDatabase().getRecipientForThreadId(record.threadId)
+                count++
+            }
+        }
+        return count
+    }
+
+    private fun time(block: () -> Unit): Long {
+        val start = SystemClock.elapsedRealtime()
+        block()
+        return SystemClock.elapsedRealtime() - start
+    }
+
+    @Test
+    fun catchUpOnFiveThousandMessages() {
+        val model = UnreadNotificationModel()
+        val source = DefaultMessageNotifier.DatabaseSource(context)
+        val alreadyUnread = readAllUnread()
+        val threadIds = ArrayList<Long>()
+        var rereadAll = 0L
+        var incremental = 0L
+        var update: UnreadNotificationModel.Update? = null
+
+        try {
+            model.update(source)
+            repeat(THREAD_COUNT) { i ->
+                val address = Address.fromSerialized("05" + "b".repeat(60) + i.toString().padStart(4, '0'))
+                val recipient = Recipient.from(context, address, false)
+                // Otherwise they're message requests, which only notify once
+                component.recipientDatabase().setApproved(recipient, true)
+                val threadId = component.threadDatabase().getOrCreateThreadIdFor(recipient)
+                threadIds += threadId
+                insertUnreadMessages(threadId, address, 1_000_000L + i * MESSAGES_PER_THREAD)
+
+                rereadAll += time { readAllUnread() }
+                incremental += time {
+                    model.invalidate(threadId)
+                    update = model.update(source)
+                }
+            }
+
+            Log.i(TAG, "threads=$THREAD_COUNT messages=${THREAD_COUNT * MESSAGES_PER_THREAD} rereadAll=${rereadAll}ms incremental=${incremental}ms")
+            assertEquals(alreadyUnread + THREAD_COUNT * MESSAGES_PER_THREAD, readAllUnread())
+            assertTrue(update!!.state.threadCount >= THREAD_COUNT)
+            assertTrue(incremental < rereadAll)
+        } finally {
+            threadIds.forEach { component.threadDatabase().deleteConversation(it) }
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package network.loki.messenger
+
+import android.content.Context
+import android.os.SystemClock
+import androidx.test.core.app.ApplicationProvider
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import androidx.test.filters.LargeTest
+import androidx.test.platform.app.InstrumentationRegistry
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.session.libsession.utilities.Address
+import org.session.libsession.utilities.recipients.Recipient
+import org.session.libsession.utilities.recipients.RecipientModifiedListener
+import org.session.libsignal.utilities.Log
+import org.session.libsignal.utilities.toHexString
+import org.thoughtcrime.securesms.dependencies.DatabaseComponent
+import java.util.concurrent.atomic.AtomicInteger
+import kotlin.random.Random
+
+/**
+ * Resolves 20,000 recipients, as scrolling a large community does, and reports how long reading
+ * their settings takes one address at a time and in batches, how long resolving all of them in the
+ * background takes, and how much memory the recipients hold on to afterwards. Also counts the
+ * listener callbacks a burst of profile updates causes.
+ */
+@RunWith(AndroidJUnit4::class)
+@LargeTest
+class RecipientCacheBenchmark {
+
+    companion object {
+        private const val TAG = "RecipientCacheBenchmark"
+        private const val RECIPIENTS = 20_000
+        private const val BATCH_SIZE = 200
+    }
+
+    private val context = ApplicationProvider.getApplicationContext<Context>()
+    private val random = Random(46)
+    private val addresses = List(RECIPIENTS) { Address.fromSerialized("05" + random.nextBytes(32).toHexString()) }
+
+    @Before
+    fun setUp() {
+        val db = DatabaseComponent.get(context).openHelper().writableDatabase
+        val insert = db.compileStatement("INSERT INTO recipient_preferences (recipient_ids, approved, signal_profile_name) VALUES (?, 1, ?)")
+        db.beginTransaction()
+        try {
+            addresses.forEachIndexed { i, address ->
+                insert.bindString(1, address.serialize())
+                insert.bindString(2, "Participant $i")
+                insert.executeInsert()
+            }
+            db.setTransactionSuccessful()
+        } finally {
+            db.endTransaction()
+        }
+    }
+
+    private fun time(block: () -> Unit): Long {
+        val start = SystemClock.elapsedRealtimeNanos()
+        block()
+        return (SystemClock.elapsedRealtimeNanos() - start) / 1_000_000
+    }
+
+    private fun usedMemory(): Long {
+        val runtime = Runtime.getRuntime()
+        repeat(3) { runtime.gc(); System.runFinalization() }
+        return runtime.totalMemory() - runtime.freeMemory()
+    }
+
+    @Test
+    fun resolveRecipients() {
+        val recipientDb = DatabaseComponent.get(context).recipientDatabase()
+        val oneByOne = time { addresses.forEach { recipientDb.getRecipientSettings(it) } }
+        val batched = time { addresses.chunked(BATCH_SIZE).forEach { recipientDb.getRecipientSettings(it) } }
+
+        val memoryBefore = usedMemory()
+        var recipients: List<Recipient> = listOf()
+        val resolving = time {
+            recipients = addresses.map { Recipient.from(context, it, true) }
+            // The last requested are resolved first, so the first is the last to finish
+            recipients.forEach { recipient -> synchronized(recipient) { while (recipient.isResolving) (recipient as java.lang.Object).wait(10) } }
+        }
+        assertEquals("Participant 0", recipients.first().profileName)
+        recipients = listOf()
+        val retained = (usedMemory() - memoryBefore) / 1024
+
+        // A burst of profile updates to one recipient on screen, the kind a config sync delivers
+        val recipient = Recipient.from(context, addresses.first(), false)
+        val callbacks = AtomicInteger()
+        val listener = RecipientModifiedListener { callbacks.incrementAndGet() }
+        recipient.addListener(listener)
+        repeat(100) { recipient.profileName = "Participant 0 ($it)" }
+        InstrumentationRegistry.getInstrumentation().waitForIdleSync()
+        Thread.sleep(100)
+        InstrumentationRegistry.getInstrumentation().waitForIdleSync()
+        recipient.removeListener(listener)
+
+        Log.i(TAG, "recipients=$RECIPIENTS settingsOneByOne=${oneByOne}ms settingsBatched=${batched}ms " +
+                "resolveAll=${resolving}ms retainedAfterResolving=${retained}KB listenerCallbacksFor100Updates=${callbacks.get()}")
+        assertTrue(batched < oneByOne)
+        assertTrue(callbacks.get() in 1..10)
+    }
+}
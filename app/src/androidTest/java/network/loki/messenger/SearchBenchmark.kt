@@ -0,0 +1,173 @@
+package network.loki.messenger
+
+import android.content.Context
+import android.os.CancellationSignal
+import android.os.OperationCanceledException
+import android.os.SystemClock
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import androidx.test.filters.LargeTest
+import androidx.test.platform.app.InstrumentationRegistry
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.session.libsignal.utilities.Log
+import org.session.libsignal.utilities.toHexString
+import org.thoughtcrime.securesms.crypto.DatabaseSecret
+import org.thoughtcrime.securesms.database.SearchDatabase
+import org.thoughtcrime.securesms.database.ThreadDatabase
+import org.thoughtcrime.securesms.database.helpers.SQLCipherOpenHelper
+import org.thoughtcrime.securesms.database.helpers.SQLCipherProfile
+import org.thoughtcrime.securesms.search.MessageSearchEngine
+import org.thoughtcrime.securesms.util.MockDataGenerator
+import kotlin.concurrent.thread
+import kotlin.random.Random
+
+/**
+ * Types words into global search over a large database, timing each keystroke the way search used
+ * to run (every match read with its snippet, newest first) and through [MessageSearchEngine]
+ * (matches ranked from the index, then the first page read), and times how quickly a superseded
+ * search stops once cancelled.
+ *
+ * The sizes can be overridden with instrumentation arguments, eg. `-e threads 1000 -e messages 100000`.
+ */
+@RunWith(AndroidJUnit4::class)
+@LargeTest
+class SearchBenchmark {
+
+    companion object {
+        private const val TAG = "SearchBenchmark"
+        private const val DATABASE_NAME = "search_benchmark.db"
+        private const val ROWS_PER_TRANSACTION = 10_000
+        private const val INBOX_TYPE = 20L
+        // One message in this many is an MMS, like ones with attachments or quotes
+        private const val MMS_EVERY = 5
+
+        // What SearchDatabase.queryMessages ran for global search before it was ranked and paged
+        private val OLD_QUERY =
+            "SELECT thread.recipient_ids AS conversation_address, sms.address AS message_address, " +
+            "snippet(sms_fts, -1, '', '', '...', 7) AS snippet, sms.date_sent AS date_sent, sms_fts.thread_id " +
+            "FROM sms INNER JOIN sms_fts ON sms_fts.rowid = sms._id " +
+            "INNER JOIN thread ON sms_fts.thread_id = thread._id WHERE sms_fts MATCH ? " +
+            "UNION ALL " +
+            "SELECT thread.recipient_ids AS conversation_address, mms.address AS message_address, " +
+            "snippet(mms_fts, -1, '', '', '...', 7) AS snippet, mms.date AS date_sent, mms_fts.thread_id " +
+            "FROM mms INNER JOIN mms_fts ON mms_fts.rowid = mms._id " +
+            "INNER JOIN thread ON mms_fts.thread_id = thread._id WHERE mms_fts MATCH ? " +
+            "ORDER BY date_sent DESC LIMIT ?"
+    }
+
+    private val context: Context = InstrumentationRegistry.getInstrumentation().targetContext
+    private val arguments = InstrumentationRegistry.getArguments()
+    private val threadCount = arguments.getString("threads")?.toInt() ?: 10_000
+    private val messageCount = arguments.getString("messages")?.toInt() ?: 1_000_000
+
+    private fun time(block: () -> Unit): Long {
+        val start = SystemClock.elapsedRealtimeNanos()
+        block()
+        return (SystemClock.elapsedRealtimeNanos() - start) / 1000
+    }
+
+    private fun populate(helper: SQLCipherOpenHelper) {
+        val random = Random(1000)
+        val db = helper.writableDatabase
+        val now = System.currentTimeMillis()
+        val insertThread = db.compileStatement(
+            "INSERT INTO ${ThreadDatabase.TABLE_NAME} (${ThreadDatabase.ID}, ${ThreadDatabase.DATE}, ${ThreadDatabase.ADDRESS}) VALUES (?, ?, ?)"
+        )
+        val insertSms = db.compileStatement("INSERT INTO sms (thread_id, address, date, date_sent, read, type, body) VALUES (?, ?, ?, ?, 1, $INBOX_TYPE, ?)")
+        val insertMms = db.compileStatement("INSERT INTO mms (thread_id, address, date_received, date, read, msg_box, body) VALUES (?, ?, ?, ?, 1, $INBOX_TYPE, ?)")
+        db.beginTransaction()
+        try {
+            val addresses = List(threadCount) { threadIndex ->
+                val address = "05" + random.nextBytes(32).toHexString()
+                insertThread.bindLong(1, threadIndex + 1L)
+                insertThread.bindLong(2, now - threadIndex)
+                insertThread.bindString(3, address)
+                insertThread.executeInsert()
+                address
+            }
+            for (i in 0 until messageCount) {
+                val threadIndex = random.nextInt(threadCount)
+                val date = now - (messageCount - i) * 1000L
+                val insert = if (i % MMS_EVERY == 0) insertMms else insertSms
+                insert.bindLong(1, threadIndex + 1L)
+                insert.bindString(2, addresses[threadIndex])
+                insert.bindLong(3, date)
+                insert.bindLong(4, date)
+                insert.bindString(5, MockDataGenerator.generateMessageBody(random, random.nextInt(1, 20)))
+                insert.executeInsert()
+                if ((i + 1) % ROWS_PER_TRANSACTION == 0) {
+                    db.setTransactionSuccessful()
+                    db.endTransaction()
+                    db.beginTransaction()
+                }
+            }
+            db.setTransactionSuccessful()
+        } finally {
+            db.endTransaction()
+        }
+    }
+
+    @Test
+    fun typeSearches() {
+        context.deleteDatabase(DATABASE_NAME)
+        val helper = SQLCipherOpenHelper(context, DatabaseSecret(Random(29).nextBytes(32)), DATABASE_NAME, SQLCipherProfile.DEFAULT)
+        try {
+            populate(helper)
+            val db = helper.readableDatabase
+            val searchDb = SearchDatabase(context, helper)
+            val engine = MessageSearchEngine(context, searchDb)
+            val random = Random(7)
+
+            var old = 0L
+            var oldSlowest = 0L
+            var ranked = 0L
+            var rankedSlowest = 0L
+            var keystrokes = 0
+            repeat(10) {
+                val typed = MockDataGenerator.generateMessageBody(random, 2).trim()
+                for (length in 2..typed.length) {
+                    val query = typed.substring(0, length)
+                    if (query.endsWith(" ")) continue
+                    val prefixQuery = query.split(" ").filter { it.isNotEmpty() }.joinToString(" ") { "$it*" }
+                    val oldTime = time {
+                        db.rawQuery(OLD_QUERY, arrayOf(prefixQuery, prefixQuery, minOf(query.length * 50, 500).toString())).use { while (it.moveToNext()) it.getString(2) }
+                    }
+                    val rankedTime = time {
+                        // the first page is what the results list shows
+                        engine.getMessages(engine.search(query, null), 0, MessageSearchEngine.PAGE_SIZE, null)
+                    }
+                    old += oldTime
+                    oldSlowest = maxOf(oldSlowest, oldTime)
+                    ranked += rankedTime
+                    rankedSlowest = maxOf(rankedSlowest, rankedTime)
+                    keystrokes++
+                }
+            }
+
+            // A search for something common, cancelled as the next keystroke would
+            val signal = CancellationSignal()
+            var cancelledAfter = 0L
+            val search = thread {
+                cancelledAfter = time {
+                    try {
+                        searchDb.queryRankedMessageIds("a", null, null, Int.MAX_VALUE, signal)?.use { while (it.moveToNext()) Unit }
+                    } catch (e: OperationCanceledException) {
+                        // expected
+                    }
+                }
+            }
+            Thread.sleep(20)
+            signal.cancel()
+            search.join()
+
+            Log.i(TAG, "threads=$threadCount messages=$messageCount keystrokes=$keystrokes " +
+                    "old=${old / 1000}ms (slowest ${oldSlowest / 1000}ms) " +
+                    "ranked=${ranked / 1000}ms (slowest ${rankedSlowest / 1000}ms) cancelled=${cancelledAfter / 1000}ms")
+            assertTrue(ranked < old)
+        } finally {
+            helper.close()
+            context.deleteDatabase(DATABASE_NAME)
+        }
+    }
+}
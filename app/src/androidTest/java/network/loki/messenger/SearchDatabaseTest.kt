@@ -0,0 +1,101 @@
+package network.loki.messenger
+
+import android.content.Context
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import androidx.test.platform.app.InstrumentationRegistry
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.thoughtcrime.securesms.crypto.DatabaseSecret
+import org.thoughtcrime.securesms.database.SearchDatabase
+import org.thoughtcrime.securesms.database.ThreadDatabase
+import org.thoughtcrime.securesms.database.helpers.SQLCipherOpenHelper
+import org.thoughtcrime.securesms.database.helpers.SQLCipherProfile
+import org.thoughtcrime.securesms.search.MessageSearchEngine
+import kotlin.random.Random
+
+/** Searches a small database of both SMS and MMS rows, which don't name their columns the same. */
+@RunWith(AndroidJUnit4::class)
+class SearchDatabaseTest {
+
+    companion object {
+        private const val DATABASE_NAME = "search_test.db"
+        private const val INBOX_TYPE = 20L
+        private const val THREAD_ID = 1L
+        private const val ADDRESS = "050000000000000000000000000000000000000000000000000000000000000001"
+    }
+
+    private val context: Context = InstrumentationRegistry.getInstrumentation().targetContext
+    private lateinit var helper: SQLCipherOpenHelper
+    private lateinit var searchDatabase: SearchDatabase
+
+    @Before
+    fun setUp() {
+        context.deleteDatabase(DATABASE_NAME)
+        helper = SQLCipherOpenHelper(context, DatabaseSecret(Random(29).nextBytes(32)), DATABASE_NAME, SQLCipherProfile.DEFAULT)
+        searchDatabase = SearchDatabase(context, helper)
+
+        val db = helper.writableDatabase
+        db.execSQL("INSERT INTO ${ThreadDatabase.TABLE_NAME} (${ThreadDatabase.ID}, ${ThreadDatabase.DATE}, ${ThreadDatabase.ADDRESS}) VALUES ($THREAD_ID, 0, '$ADDRESS')")
+        db.execSQL("INSERT INTO sms (thread_id, address, date, date_sent, read, type, body) VALUES ($THREAD_ID, '$ADDRESS', 1000, 1000, 1, $INBOX_TYPE, 'banana bread')")
+        db.execSQL("INSERT INTO mms (thread_id, address, date, date_received, read, msg_box, body) VALUES ($THREAD_ID, '$ADDRESS', 2000, 2000, 1, $INBOX_TYPE, 'banana split')")
+        db.execSQL("INSERT INTO mms (thread_id, address, date, date_received, read, msg_box, body) VALUES ($THREAD_ID, '$ADDRESS', 3000, 3000, 1, $INBOX_TYPE, 'apple pie')")
+    }
+
+    @After
+    fun tearDown() {
+        helper.close()
+        context.deleteDatabase(DATABASE_NAME)
+    }
+
+    @Test
+    fun findsSmsAndMmsMessages() {
+        val engine = MessageSearchEngine(context, searchDatabase)
+
+        val matches = engine.search("banana", null)
+        val messages = engine.getMessages(matches, 0, MessageSearchEngine.PAGE_SIZE, null)
+
+        assertEquals(2, matches.size)
+        assertEquals(setOf(1000L, 2000L), messages.map { it.sentTimestampMs }.toSet())
+        assertEquals(setOf(THREAD_ID), messages.map { it.threadId }.toSet())
+    }
+
+    @Test
+    fun findsOnlyMmsMessages() {
+        val engine = MessageSearchEngine(context, searchDatabase)
+
+        val messages = engine.getMessages(engine.search("apple", null), 0, MessageSearchEngine.PAGE_SIZE, null)
+
+        assertEquals(listOf(3000L), messages.map { it.sentTimestampMs })
+    }
+
+    @Test
+    fun refinedSearchFindsMmsMessages() {
+        val engine = MessageSearchEngine(context, searchDatabase)
+
+        engine.search("ban", null)
+        val messages = engine.getMessages(engine.search("banana sp", null), 0, MessageSearchEngine.PAGE_SIZE, null)
+
+        assertEquals(listOf(2000L), messages.map { it.sentTimestampMs })
+    }
+
+    @Test
+    fun refinedSearchFindsMessagesStoredSincePreviousSearch() {
+        val engine = MessageSearchEngine(context, searchDatabase)
+
+        engine.search("ban", null)
+        helper.writableDatabase.execSQL("INSERT INTO sms (thread_id, address, date, date_sent, read, type, body) VALUES ($THREAD_ID, '$ADDRESS', 4000, 4000, 1, $INBOX_TYPE, 'banana cake')")
+        val messages = engine.getMessages(engine.search("banana", null), 0, MessageSearchEngine.PAGE_SIZE, null)
+
+        assertEquals(setOf(1000L, 2000L, 4000L), messages.map { it.sentTimestampMs }.toSet())
+    }
+
+    @Test
+    fun findsMessagesOfThread() {
+        searchDatabase.queryMessages("banana", THREAD_ID, null).use { cursor ->
+            assertEquals(2, cursor.count)
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package org.thoughtcrime.securesms.backup
+
+import android.content.Context
+import android.net.Uri
+import androidx.test.core.app.ApplicationProvider
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import androidx.test.filters.LargeTest
+import org.junit.After
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.thoughtcrime.securesms.crypto.AttachmentSecret
+import org.thoughtcrime.securesms.database.AttachmentDatabase
+import org.thoughtcrime.securesms.database.GroupReceiptDatabase
+import org.thoughtcrime.securesms.database.MmsDatabase
+import org.thoughtcrime.securesms.database.MmsSmsColumns
+import org.thoughtcrime.securesms.database.SmsDatabase
+import java.io.ByteArrayOutputStream
+import java.io.File
+import java.io.FileInputStream
+import kotlin.random.Random
+
+/**
+ * Checks that the rows a backup contains, their order and their attachments are the ones the
+ * exporter used to pick row by row: messages that don't expire, and the receipts and parts of
+ * multimedia messages that don't expire, looked up one at a time.
+ */
+@RunWith(AndroidJUnit4::class)
+@LargeTest
+class FullBackupCompatibilityTest {
+
+    companion object {
+        private const val PASSPHRASE = "compatibility passphrase"
+        private const val THIRTY_DAYS = 30L * 24 * 60 * 60 * 1000
+    }
+
+    private val context = ApplicationProvider.getApplicationContext<Context>()
+    private val random = Random(39)
+    private val classicCipherKey = random.nextBytes(16)
+    private val classicMacKey = random.nextBytes(20)
+    private val attachmentSecret = AttachmentSecret(classicCipherKey, classicMacKey, random.nextBytes(32))
+    private val source = TestProfile(context, "compatibility_source", attachmentSecret)
+    private val backup = File(context.cacheDir, "compatibility.backup")
+
+    @After
+    fun tearDown() {
+        source.delete()
+        backup.delete()
+    }
+
+    private class Backup(val rows: Map<String, List<Long>>, val attachments: Map<Long, ByteArray>)
+
+    private fun read(): Backup {
+        val rows = HashMap<String, MutableList<Long>>()
+        val attachments = HashMap<Long, ByteArray>()
+        FullBackupImporter.BackupRecordInputStream(FileInputStream(backup), PASSPHRASE).use { input ->
+            while (true) {
+                val frame = input.readFrame()
+                when {
+                    frame.end -> break
+                    frame.hasStatement() && frame.statement.statement.startsWith("INSERT INTO ") -> {
+                        val table = frame.statement.statement.removePrefix("INSERT INTO ").substringBefore(' ')
+                        rows.getOrPut(table) { ArrayList() } += frame.statement.getParameters(0).integerParameter
+                    }
+                    frame.hasAttachment() -> {
+                        val data = ByteArrayOutputStream()
+                        input.readAttachmentTo(data, frame.attachment.length)
+                        attachments[frame.attachment.rowId] = data.toByteArray()
+                    }
+                    frame.hasAvatar() -> input.readAttachmentTo(ByteArrayOutputStream(), frame.avatar.length)
+                }
+            }
+        }
+        return Backup(rows, attachments)
+    }
+
+    private fun isForNonExpiringMessage(mmsId: Long): Boolean {
+        source.database.query(MmsDatabase.TABLE_NAME, arrayOf(MmsSmsColumns.EXPIRES_IN), "${MmsSmsColumns.ID} = ?",
+                arrayOf(mmsId.toString()), null, null, null).use { cursor ->
+            return cursor.moveToFirst() && cursor.getLong(0) == 0L
+        }
+    }
+
+    /** The ids of a table's rows, in the order of a plain scan, which pass the filter. */
+    private fun expected(table: String, column: String, filter: (Long) -> Boolean): List<Long> {
+        val ids = ArrayList<Long>()
+        source.database.rawQuery("SELECT rowid, $column FROM $table", null).use { cursor ->
+            while (cursor.moveToNext()) {
+                if (filter(cursor.getLong(1))) ids += cursor.getLong(0)
+            }
+        }
+        return ids
+    }
+
+    @Test
+    fun exportKeepsRowsOrderAndAttachments() {
+        repeat(300) { source.insertSms(it + 1L, "sms $it", if (it % 9 == 0) 60_000 else 0) }
+        source.insertSms(301L, "sms 301", THIRTY_DAYS)
+
+        val attachments = HashMap<Long, ByteArray>()
+        // Parts are added in a different order than their messages, as they are when downloaded later
+        val mmsIds = (1L..120L).shuffled(java.util.Random(39))
+        mmsIds.forEach { source.insertMms(it, "mms $it", if (it % 8 == 0L) 60_000 else if (it == 100L) THIRTY_DAYS else 0) }
+        var rowId = 1L
+        for (mmsId in mmsIds) {
+            repeat(if (mmsId % 5 == 0L) 2 else 1) {
+                attachments[rowId] = source.insertAttachment(rowId, mmsId, random.nextInt(1, 100_000), random)
+                rowId++
+            }
+        }
+        // Without a message
+        source.insertAttachment(rowId++, 500L, 1000, random)
+        // From before parts had their size stored
+        val classicId = rowId++
+        attachments[classicId] = source.insertClassicAttachment(classicId, 1L, 70_001, random, classicCipherKey, classicMacKey)
+        val classicAligned = rowId++
+        attachments[classicAligned] = source.insertClassicAttachment(classicAligned, 2L, 4096, random, classicCipherKey, classicMacKey)
+
+        FullBackupExporter.export(context, attachmentSecret, source.database, Uri.fromFile(backup), PASSPHRASE)
+        val exported = read()
+
+        val expectedParts = expected(AttachmentDatabase.TABLE_NAME, AttachmentDatabase.MMS_ID) { isForNonExpiringMessage(it) }
+        assertEquals(expected(SmsDatabase.TABLE_NAME, MmsSmsColumns.EXPIRES_IN) { it <= 0 }, exported.rows[SmsDatabase.TABLE_NAME])
+        assertEquals(expected(MmsDatabase.TABLE_NAME, MmsSmsColumns.EXPIRES_IN) { it <= 0 }, exported.rows[MmsDatabase.TABLE_NAME])
+        assertEquals(expected(GroupReceiptDatabase.TABLE_NAME, GroupReceiptDatabase.MMS_ID) { isForNonExpiringMessage(it) },
+                exported.rows[GroupReceiptDatabase.TABLE_NAME])
+        assertEquals(expectedParts, exported.rows[AttachmentDatabase.TABLE_NAME])
+        assertTrue(expectedParts.contains(classicId) && expectedParts.contains(classicAligned))
+
+        assertEquals(expectedParts.toSet(), exported.attachments.keys)
+        expectedParts.forEach { assertArrayEquals("attachment $it", attachments[it], exported.attachments[it]) }
+    }
+}
@@ -0,0 +1,144 @@
+package org.thoughtcrime.securesms.backup
+
+import android.content.Context
+import android.net.Uri
+import android.os.Debug
+import android.os.SystemClock
+import androidx.test.core.app.ApplicationProvider
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import androidx.test.filters.LargeTest
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.session.libsignal.utilities.Log
+import org.thoughtcrime.securesms.crypto.AttachmentSecret
+import org.thoughtcrime.securesms.crypto.ClassicDecryptingPartInputStream
+import org.thoughtcrime.securesms.database.AttachmentDatabase
+import org.thoughtcrime.securesms.database.MmsDatabase
+import org.thoughtcrime.securesms.database.MmsSmsColumns
+import java.io.File
+import kotlin.random.Random
+
+/**
+ * Exports a generated profile of about 2 GB: 20,000 text messages and 400 messages with a 5 MB
+ * attachment each. Also one with many small multimedia messages, where picking the receipts and
+ * parts of messages that don't expire, and sizing parts stored without one, dominates.
+ */
+@RunWith(AndroidJUnit4::class)
+@LargeTest
+class FullBackupExportBenchmark {
+
+    companion object {
+        private const val TAG = "FullBackupExportBenchmark"
+        private const val TEXT_MESSAGES = 20_000
+        private const val ATTACHMENTS = 400
+        private const val ATTACHMENT_SIZE = 5L * 1024 * 1024
+        private const val MULTIMEDIA_MESSAGES = 20_000
+        private const val CLASSIC_ATTACHMENTS = 100
+        private const val CLASSIC_ATTACHMENT_SIZE = 1024 * 1024
+    }
+
+    private val context = ApplicationProvider.getApplicationContext<Context>()
+    private val random = Random(38)
+    private val classicCipherKey = random.nextBytes(16)
+    private val classicMacKey = random.nextBytes(20)
+    private val attachmentSecret = AttachmentSecret(classicCipherKey, classicMacKey, random.nextBytes(32))
+    private val profile = TestProfile(context, "backup_benchmark", attachmentSecret)
+    private val backup = File(context.cacheDir, "benchmark.backup")
+
+    @After
+    fun tearDown() {
+        profile.delete()
+        backup.delete()
+    }
+
+    @Test
+    fun exportTwoGigabyteProfile() {
+        profile.database.beginTransaction()
+        repeat(TEXT_MESSAGES) { profile.insertSms(it + 1L, "message $it ".repeat(8)) }
+        val chunk = random.nextBytes(1024 * 1024)
+        repeat(ATTACHMENTS) {
+            profile.insertMms(it + 1L, "attachment $it")
+            profile.insertLargeAttachment(it + 1L, it + 1L, ATTACHMENT_SIZE, chunk)
+        }
+        profile.database.setTransactionSuccessful()
+        profile.database.endTransaction()
+
+        val cpu = Debug.threadCpuTimeNanos()
+        val start = SystemClock.elapsedRealtime()
+        FullBackupExporter.export(context, attachmentSecret, profile.database, Uri.fromFile(backup), "benchmark passphrase")
+        val time = SystemClock.elapsedRealtime() - start
+        val writerCpu = (Debug.threadCpuTimeNanos() - cpu) / 1_000_000
+
+        val megabytes = backup.length() / 1024 / 1024
+        Log.i(TAG, "backup=${megabytes}MB time=${time}ms throughput=${megabytes * 1000 / maxOf(time, 1)}MB/s writerCpu=${writerCpu}ms")
+        assertTrue(backup.length() > ATTACHMENTS * ATTACHMENT_SIZE)
+    }
+
+    /** The parts of messages that don't expire, picked with a query per part as they used to be. */
+    private fun countPerRow(): Int {
+        var count = 0
+        profile.database.rawQuery("SELECT * FROM ${AttachmentDatabase.TABLE_NAME}", null).use { cursor ->
+            while (cursor.moveToNext()) {
+                val mmsId = cursor.getLong(cursor.getColumnIndexOrThrow(AttachmentDatabase.MMS_ID))
+                profile.database.query(MmsDatabase.TABLE_NAME, arrayOf(MmsSmsColumns.EXPIRES_IN), "${MmsSmsColumns.ID} = ?",
+                        arrayOf(mmsId.toString()), null, null, null).use { mms ->
+                    if (mms.moveToFirst() && mms.getLong(0) == 0L) count++
+                }
+            }
+        }
+        return count
+    }
+
+    /** The same parts, picked with a single query. */
+    private fun countSetBased(): Int {
+        val where = "${AttachmentDatabase.MMS_ID} IN (SELECT ${MmsSmsColumns.ID} FROM ${MmsDatabase.TABLE_NAME} WHERE ${MmsSmsColumns.EXPIRES_IN} = 0)"
+        profile.database.rawQuery("SELECT * FROM ${AttachmentDatabase.TABLE_NAME} WHERE $where ORDER BY rowid", null).use { cursor ->
+            var count = 0
+            while (cursor.moveToNext()) count++
+            return count
+        }
+    }
+
+    private fun <T> time(block: () -> T): Pair<T, Long> {
+        val start = SystemClock.elapsedRealtime()
+        val result = block()
+        return result to SystemClock.elapsedRealtime() - start
+    }
+
+    @Test
+    fun exportManyMultimediaMessages() {
+        profile.database.beginTransaction()
+        repeat(MULTIMEDIA_MESSAGES) {
+            profile.insertMms(it + 1L, "message $it", if (it % 10 == 0) 60_000 else 0)
+            profile.insertAttachment(it + 1L, it + 1L, 1024, random)
+        }
+        val classicFiles = List(CLASSIC_ATTACHMENTS) {
+            val rowId = MULTIMEDIA_MESSAGES + it + 1L
+            profile.insertClassicAttachment(rowId, it + 1L, CLASSIC_ATTACHMENT_SIZE, random, classicCipherKey, classicMacKey)
+            File(profile.partsDirectory, "part$rowId.mms")
+        }
+        profile.database.setTransactionSuccessful()
+        profile.database.endTransaction()
+
+        val (perRow, perRowTime) = time { countPerRow() }
+        val (setBased, setBasedTime) = time { countSetBased() }
+        val (_, decryptedLengthTime) = time {
+            classicFiles.forEach { file -> ClassicDecryptingPartInputStream.createFor(attachmentSecret, file).use { it.skip(Long.MAX_VALUE) } }
+        }
+        val (_, derivedLengthTime) = time {
+            classicFiles.forEach { assertEquals(CLASSIC_ATTACHMENT_SIZE.toLong(), ClassicDecryptingPartInputStream.getPlaintextLength(attachmentSecret, it)) }
+        }
+        val (_, exportTime) = time {
+            FullBackupExporter.export(context, attachmentSecret, profile.database, Uri.fromFile(backup), "benchmark passphrase")
+        }
+
+        Log.i(TAG, "parts=$setBased filter: perRow=${perRowTime}ms setBased=${setBasedTime}ms " +
+                "classic lengths: decrypted=${decryptedLengthTime}ms derived=${derivedLengthTime}ms export=${exportTime}ms")
+        assertEquals(perRow, setBased)
+        assertTrue(setBasedTime < perRowTime)
+        assertTrue(derivedLengthTime < decryptedLengthTime)
+    }
+}
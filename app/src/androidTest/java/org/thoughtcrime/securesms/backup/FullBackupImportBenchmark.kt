@@ -0,0 +1,153 @@
+package org.thoughtcrime.securesms.backup
+
+import android.content.ContentValues
+import android.content.Context
+import android.net.Uri
+import android.os.SystemClock
+import androidx.test.core.app.ApplicationProvider
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import androidx.test.filters.LargeTest
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.session.libsignal.utilities.Log
+import org.thoughtcrime.securesms.crypto.AttachmentSecret
+import org.thoughtcrime.securesms.crypto.ModernEncryptingPartOutputStream
+import org.thoughtcrime.securesms.database.AttachmentDatabase
+import org.thoughtcrime.securesms.database.GroupReceiptDatabase
+import org.thoughtcrime.securesms.database.MmsDatabase
+import org.thoughtcrime.securesms.database.SmsDatabase
+import java.io.ByteArrayOutputStream
+import java.io.File
+import java.io.FileInputStream
+import kotlin.random.Random
+
+/**
+ * Restores a generated backup of 50,000 text messages and 2,000 multimedia messages with a 256 KB
+ * attachment each, into tables with indexes, with the importer and with the statement by statement
+ * restore it replaced.
+ */
+@RunWith(AndroidJUnit4::class)
+@LargeTest
+class FullBackupImportBenchmark {
+
+    companion object {
+        private const val TAG = "FullBackupImportBenchmark"
+        private const val PASSPHRASE = "benchmark passphrase"
+        private const val TEXT_MESSAGES = 50_000
+        private const val MULTIMEDIA_MESSAGES = 2_000
+        private const val ATTACHMENT_SIZE = 256L * 1024
+    }
+
+    private val context = ApplicationProvider.getApplicationContext<Context>()
+    private val random = Random(40)
+    private val attachmentSecret = AttachmentSecret(random.nextBytes(32), random.nextBytes(20), random.nextBytes(32))
+    private val source = TestProfile(context, "import_benchmark_source", attachmentSecret)
+    private val destination = TestProfile(context, "import_benchmark_destination", attachmentSecret)
+    private val restored = File(context.cacheDir, "import_benchmark_parts")
+    private val backup = File(context.cacheDir, "import_benchmark.backup")
+
+    @After
+    fun tearDown() {
+        destination.database.query(AttachmentDatabase.TABLE_NAME, arrayOf(AttachmentDatabase.DATA), null, null, null, null, null).use { cursor ->
+            while (cursor.moveToNext()) cursor.getString(0)?.let { File(it).delete() }
+        }
+        source.delete()
+        destination.delete()
+        restored.deleteRecursively()
+        backup.delete()
+    }
+
+    private fun count(table: String) =
+            destination.database.rawQuery("SELECT COUNT(*) FROM $table", null).use { it.moveToFirst(); it.getLong(0) }
+
+    /** How backups were restored before: every statement on its own, every part written in turn. */
+    private fun importStatementByStatement() {
+        val db = destination.database
+        restored.mkdirs()
+        FullBackupImporter.BackupRecordInputStream(FileInputStream(backup), PASSPHRASE).use { input ->
+            db.beginTransaction()
+            try {
+                db.rawQuery("SELECT name FROM sqlite_master WHERE type = 'table'", null).use { cursor ->
+                    val tables = ArrayList<String>()
+                    while (cursor.moveToNext()) tables += cursor.getString(0)
+                    tables.forEach { db.execSQL("DROP TABLE IF EXISTS $it") }
+                }
+                while (true) {
+                    val frame = input.readFrame()
+                    when {
+                        frame.end -> break
+                        frame.hasStatement() -> {
+                            val statement = frame.statement
+                            val parameters = statement.parametersList.map {
+                                when {
+                                    it.hasStringParamter() -> it.stringParamter
+                                    it.hasDoubleParameter() -> it.doubleParameter
+                                    it.hasIntegerParameter() -> it.integerParameter
+                                    it.hasBlobParameter() -> it.blobParameter.toByteArray()
+                                    else -> null
+                                }
+                            }
+                            if (parameters.isEmpty()) db.execSQL(statement.statement) else db.execSQL(statement.statement, parameters.toTypedArray())
+                        }
+                        frame.hasAttachment() -> {
+                            val file = File.createTempFile("part", ".mms", restored)
+                            val output = ModernEncryptingPartOutputStream.createFor(attachmentSecret, file, false)
+                            input.readAttachmentTo(output.second, frame.attachment.length)
+                            db.update(AttachmentDatabase.TABLE_NAME, ContentValues().apply {
+                                put(AttachmentDatabase.DATA, file.absolutePath)
+                                put(AttachmentDatabase.DATA_RANDOM, output.first)
+                            }, "${AttachmentDatabase.ROW_ID} = ?", arrayOf(frame.attachment.rowId.toString()))
+                        }
+                        frame.hasAvatar() -> input.readAttachmentTo(ByteArrayOutputStream(), frame.avatar.length)
+                    }
+                }
+                db.setTransactionSuccessful()
+            } finally {
+                db.endTransaction()
+            }
+        }
+    }
+
+    private fun time(block: () -> Unit): Long {
+        val start = SystemClock.elapsedRealtime()
+        block()
+        return SystemClock.elapsedRealtime() - start
+    }
+
+    @Test
+    fun restoreLargeBackup() {
+        val db = source.database
+        db.execSQL("CREATE INDEX sms_body_index ON ${SmsDatabase.TABLE_NAME} (body)")
+        db.execSQL("CREATE INDEX mms_body_index ON ${MmsDatabase.TABLE_NAME} (body)")
+        db.execSQL("CREATE INDEX group_receipt_mms_id_index ON ${GroupReceiptDatabase.TABLE_NAME} (${GroupReceiptDatabase.MMS_ID})")
+        db.execSQL("CREATE INDEX part_mms_id_index ON ${AttachmentDatabase.TABLE_NAME} (${AttachmentDatabase.MMS_ID})")
+        db.beginTransaction()
+        repeat(TEXT_MESSAGES) { source.insertSms(it + 1L, "message $it ${random.nextLong()} ".repeat(4)) }
+        val chunk = random.nextBytes(ATTACHMENT_SIZE.toInt())
+        repeat(MULTIMEDIA_MESSAGES) {
+            source.insertMms(it + 1L, "attachment $it ${random.nextLong()}")
+            source.insertLargeAttachment(it + 1L, it + 1L, ATTACHMENT_SIZE, chunk)
+        }
+        db.setTransactionSuccessful()
+        db.endTransaction()
+        FullBackupExporter.export(context, attachmentSecret, db, Uri.fromFile(backup), PASSPHRASE)
+
+        val statementByStatement = time { importStatementByStatement() }
+        assertEquals(TEXT_MESSAGES.toLong(), count(SmsDatabase.TABLE_NAME))
+        restored.deleteRecursively()
+
+        val importer = time { FullBackupImporter.importFromUri(context, attachmentSecret, destination.database, Uri.fromFile(backup), PASSPHRASE) }
+        assertEquals(TEXT_MESSAGES.toLong(), count(SmsDatabase.TABLE_NAME))
+        assertEquals(MULTIMEDIA_MESSAGES.toLong(), count(MmsDatabase.TABLE_NAME))
+        destination.database.rawQuery("SELECT COUNT(*) FROM sqlite_master WHERE type = 'index' AND name NOT LIKE 'sqlite_%'", null).use {
+            it.moveToFirst()
+            assertEquals(4, it.getInt(0))
+        }
+
+        Log.i(TAG, "backup=${backup.length() / 1024 / 1024}MB statementByStatement=${statementByStatement}ms importer=${importer}ms")
+        assertTrue(importer < statementByStatement)
+    }
+}
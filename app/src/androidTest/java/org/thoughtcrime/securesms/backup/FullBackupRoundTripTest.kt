@@ -0,0 +1,129 @@
+package org.thoughtcrime.securesms.backup
+
+import android.content.Context
+import android.net.Uri
+import androidx.test.core.app.ApplicationProvider
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import androidx.test.filters.LargeTest
+import org.junit.After
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNotEquals
+import org.junit.Assert.fail
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.thoughtcrime.securesms.crypto.AttachmentSecret
+import org.thoughtcrime.securesms.crypto.ModernDecryptingPartInputStream
+import org.thoughtcrime.securesms.database.AttachmentDatabase
+import org.thoughtcrime.securesms.database.MmsDatabase
+import org.thoughtcrime.securesms.database.SmsDatabase
+import java.io.File
+import java.io.IOException
+import kotlin.random.Random
+
+/**
+ * Exports a profile with a mix of messages and attachments (more of them, and larger, than the
+ * exporter's read ahead buffers) and imports it into an empty database.
+ */
+@RunWith(AndroidJUnit4::class)
+@LargeTest
+class FullBackupRoundTripTest {
+
+    companion object {
+        private const val PASSPHRASE = "round trip passphrase"
+    }
+
+    private val context = ApplicationProvider.getApplicationContext<Context>()
+    private val random = Random(38)
+    private val attachmentSecret = AttachmentSecret(random.nextBytes(32), random.nextBytes(20), random.nextBytes(32))
+    private val source = TestProfile(context, "backup_source", attachmentSecret)
+    private val destination = TestProfile(context, "backup_destination", attachmentSecret)
+    private val backup = File(context.cacheDir, "round_trip.backup")
+
+    @After
+    fun tearDown() {
+        destination.database.query(AttachmentDatabase.TABLE_NAME, arrayOf(AttachmentDatabase.DATA), null, null, null, null, null).use { cursor ->
+            while (cursor.moveToNext()) cursor.getString(0)?.let { File(it).delete() }
+        }
+        source.delete()
+        destination.delete()
+        backup.delete()
+    }
+
+    private fun count(profile: TestProfile, table: String) =
+            profile.database.rawQuery("SELECT COUNT(*) FROM $table", null).use { it.moveToFirst(); it.getLong(0) }
+
+    @Test
+    fun exportedProfileImportsUnchanged() {
+        repeat(200) { source.insertSms(it + 1L, "sms $it", if (it % 10 == 0) 60_000 else 0) }
+        val attachments = HashMap<Long, ByteArray>()
+        var rowId = 1L
+        for (mmsId in 1L..60L) {
+            val expiring = mmsId % 15 == 0L
+            source.insertMms(mmsId, "mms $mmsId", if (expiring) 60_000 else 0)
+            repeat(if (mmsId % 3 == 0L) 2 else 1) {
+                // From a few bytes up to several of the exporter's chunks
+                val size = if (rowId % 7 == 0L) 3 * 1024 * 1024 + 17 else random.nextInt(1, 300_000)
+                val data = source.insertAttachment(rowId, mmsId, size, random)
+                if (!expiring) attachments[rowId] = data
+                rowId++
+            }
+        }
+        // A part whose file is gone is left out, without failing the backup
+        val missing = File(source.partsDirectory, "part1.mms")
+        missing.delete()
+        attachments.remove(1L)
+
+        FullBackupExporter.export(context, attachmentSecret, source.database, Uri.fromFile(backup), PASSPHRASE)
+        FullBackupImporter.importFromUri(context, attachmentSecret, destination.database, Uri.fromFile(backup), PASSPHRASE)
+
+        assertEquals(180L, count(destination, SmsDatabase.TABLE_NAME))
+        assertEquals(56L, count(destination, MmsDatabase.TABLE_NAME))
+        destination.database.query(AttachmentDatabase.TABLE_NAME,
+                arrayOf(AttachmentDatabase.ROW_ID, AttachmentDatabase.DATA, AttachmentDatabase.DATA_RANDOM),
+                null, null, null, null, null).use { cursor ->
+            assertEquals(attachments.size + 1, cursor.count)
+            while (cursor.moveToNext()) {
+                val id = cursor.getLong(0)
+                val file = File(cursor.getString(1))
+                if (id == 1L) {
+                    assertEquals(missing, file)
+                    continue
+                }
+                assertNotEquals(source.partsDirectory, file.parentFile)
+                val imported = ModernDecryptingPartInputStream.createFor(attachmentSecret, cursor.getBlob(2), file, 0).use { it.readBytes() }
+                assertArrayEquals("attachment $id", attachments[id], imported)
+            }
+        }
+    }
+
+    @Test
+    fun failedImportLeavesNothingBehind() {
+        repeat(50) { source.insertSms(it + 1L, "sms $it") }
+        for (mmsId in 1L..20L) {
+            source.insertMms(mmsId, "mms $mmsId")
+            source.insertAttachment(mmsId, mmsId, 200_000, random)
+        }
+        repeat(10) { destination.insertSms(it + 1L, "kept $it") }
+        FullBackupExporter.export(context, attachmentSecret, source.database, Uri.fromFile(backup), PASSPHRASE)
+
+        // Cut off in the middle of the attachments
+        val truncated = File(context.cacheDir, "truncated.backup")
+        truncated.writeBytes(backup.readBytes().copyOf((backup.length() * 3 / 4).toInt()))
+        val partsDirectory = context.getDir(AttachmentDatabase.DIRECTORY, Context.MODE_PRIVATE)
+        val parts = partsDirectory.list()!!.toSet()
+
+        try {
+            FullBackupImporter.importFromUri(context, attachmentSecret, destination.database, Uri.fromFile(truncated), PASSPHRASE)
+            fail()
+        } catch (e: IOException) {
+            // Expected
+        } finally {
+            truncated.delete()
+        }
+
+        assertEquals(10L, count(destination, SmsDatabase.TABLE_NAME))
+        assertEquals(0L, count(destination, MmsDatabase.TABLE_NAME))
+        assertEquals(parts, partsDirectory.list()!!.toSet())
+    }
+}
@@ -0,0 +1,145 @@
+package org.thoughtcrime.securesms.backup
+
+import android.content.ContentValues
+import android.content.Context
+import net.zetetic.database.sqlcipher.SQLiteDatabase
+import org.thoughtcrime.securesms.crypto.AttachmentSecret
+import org.thoughtcrime.securesms.crypto.ModernEncryptingPartOutputStream
+import org.thoughtcrime.securesms.database.AttachmentDatabase
+import org.thoughtcrime.securesms.database.GroupReceiptDatabase
+import org.thoughtcrime.securesms.database.MmsDatabase
+import org.thoughtcrime.securesms.database.MmsSmsColumns
+import org.thoughtcrime.securesms.database.SmsDatabase
+import org.thoughtcrime.securesms.database.ThreadDatabase
+import java.io.File
+import javax.crypto.Cipher
+import javax.crypto.Mac
+import javax.crypto.spec.IvParameterSpec
+import javax.crypto.spec.SecretKeySpec
+import kotlin.random.Random
+
+/**
+ * A scratch database with just the tables and columns the backup treats specially, and encrypted
+ * part files for its attachments.
+ */
+class TestProfile(private val context: Context, name: String, private val attachmentSecret: AttachmentSecret) {
+
+    companion object {
+        const val VERSION = 1
+
+        init {
+            System.loadLibrary("sqlcipher")
+        }
+    }
+
+    val file = File(context.cacheDir, "$name.db")
+    val partsDirectory = File(context.cacheDir, "${name}_parts")
+    val database: SQLiteDatabase
+
+    init {
+        file.delete()
+        partsDirectory.mkdirs()
+        database = SQLiteDatabase.openDatabase(file.path, "test", null, SQLiteDatabase.OPEN_READWRITE or SQLiteDatabase.CREATE_IF_NECESSARY, null)
+        database.execSQL("CREATE TABLE ${ThreadDatabase.TABLE_NAME} (${MmsSmsColumns.ID} INTEGER PRIMARY KEY, ${ThreadDatabase.EXPIRES_IN} INTEGER DEFAULT 0)")
+        database.execSQL("CREATE TABLE ${SmsDatabase.TABLE_NAME} (${MmsSmsColumns.ID} INTEGER PRIMARY KEY, ${MmsSmsColumns.EXPIRES_IN} INTEGER DEFAULT 0, body TEXT)")
+        database.execSQL("CREATE TABLE ${MmsDatabase.TABLE_NAME} (${MmsSmsColumns.ID} INTEGER PRIMARY KEY, ${MmsSmsColumns.EXPIRES_IN} INTEGER DEFAULT 0, body TEXT)")
+        database.execSQL("CREATE TABLE ${GroupReceiptDatabase.TABLE_NAME} (_id INTEGER PRIMARY KEY, ${GroupReceiptDatabase.MMS_ID} INTEGER)")
+        database.execSQL("CREATE TABLE ${AttachmentDatabase.TABLE_NAME} (${AttachmentDatabase.ROW_ID} INTEGER PRIMARY KEY, " +
+                "${AttachmentDatabase.UNIQUE_ID} INTEGER, ${AttachmentDatabase.MMS_ID} INTEGER, ${AttachmentDatabase.DATA} TEXT, " +
+                "${AttachmentDatabase.SIZE} INTEGER, ${AttachmentDatabase.DATA_RANDOM} BLOB, ${AttachmentDatabase.THUMBNAIL} TEXT)")
+        database.version = VERSION
+    }
+
+    fun insertSms(id: Long, body: String, expiresIn: Long = 0) {
+        database.insert(SmsDatabase.TABLE_NAME, null, ContentValues().apply {
+            put(MmsSmsColumns.ID, id)
+            put(MmsSmsColumns.EXPIRES_IN, expiresIn)
+            put("body", body)
+        })
+    }
+
+    fun insertMms(id: Long, body: String, expiresIn: Long = 0) {
+        database.insert(MmsDatabase.TABLE_NAME, null, ContentValues().apply {
+            put(MmsSmsColumns.ID, id)
+            put(MmsSmsColumns.EXPIRES_IN, expiresIn)
+            put("body", body)
+        })
+        database.insert(GroupReceiptDatabase.TABLE_NAME, null, ContentValues().apply { put(GroupReceiptDatabase.MMS_ID, id) })
+    }
+
+    /** Stores [size] random bytes as an encrypted part of the message, returning them. */
+    fun insertAttachment(rowId: Long, mmsId: Long, size: Int, random: Random): ByteArray {
+        val part = File(partsDirectory, "part$rowId.mms")
+        val output = ModernEncryptingPartOutputStream.createFor(attachmentSecret, part, false)
+        val data = ByteArray(size)
+        output.second.use { stream ->
+            var written = 0
+            val chunk = ByteArray(1024 * 1024)
+            while (written < size) {
+                random.nextBytes(chunk)
+                val length = minOf(chunk.size, size - written)
+                System.arraycopy(chunk, 0, data, written, length)
+                stream.write(chunk, 0, length)
+                written += length
+            }
+        }
+        insertPart(rowId, mmsId, part, output.first, size.toLong())
+        return data
+    }
+
+    /** Like [insertAttachment] without keeping the plaintext, for profiles too large for the heap. */
+    fun insertLargeAttachment(rowId: Long, mmsId: Long, size: Long, chunk: ByteArray) {
+        val part = File(partsDirectory, "part$rowId.mms")
+        val output = ModernEncryptingPartOutputStream.createFor(attachmentSecret, part, false)
+        output.second.use { stream ->
+            var written = 0L
+            while (written < size) {
+                val length = minOf(chunk.size.toLong(), size - written).toInt()
+                stream.write(chunk, 0, length)
+                written += length
+            }
+        }
+        insertPart(rowId, mmsId, part, output.first, size)
+    }
+
+    /**
+     * Stores [size] random bytes the way parts were encrypted before [ModernEncryptingPartOutputStream],
+     * without a size or random in the database, returning them.
+     */
+    fun insertClassicAttachment(rowId: Long, mmsId: Long, size: Int, random: Random, cipherKey: ByteArray, macKey: ByteArray): ByteArray {
+        val part = File(partsDirectory, "part$rowId.mms")
+        val data = random.nextBytes(size)
+        val iv = random.nextBytes(16)
+        val cipher = Cipher.getInstance("AES/CBC/PKCS5Padding")
+        cipher.init(Cipher.ENCRYPT_MODE, SecretKeySpec(cipherKey, "AES"), IvParameterSpec(iv))
+        val ciphertext = iv + cipher.doFinal(data)
+        val mac = Mac.getInstance("HmacSHA1")
+        mac.init(SecretKeySpec(macKey, "HmacSHA1"))
+        part.writeBytes(ciphertext + mac.doFinal(ciphertext))
+        database.insert(AttachmentDatabase.TABLE_NAME, null, ContentValues().apply {
+            put(AttachmentDatabase.ROW_ID, rowId)
+            put(AttachmentDatabase.UNIQUE_ID, rowId * 10)
+            put(AttachmentDatabase.MMS_ID, mmsId)
+            put(AttachmentDatabase.DATA, part.absolutePath)
+            put(AttachmentDatabase.SIZE, 0)
+        })
+        return data
+    }
+
+    private fun insertPart(rowId: Long, mmsId: Long, part: File, partRandom: ByteArray, size: Long) {
+        database.insert(AttachmentDatabase.TABLE_NAME, null, ContentValues().apply {
+            put(AttachmentDatabase.ROW_ID, rowId)
+            put(AttachmentDatabase.UNIQUE_ID, rowId * 10)
+            put(AttachmentDatabase.MMS_ID, mmsId)
+            put(AttachmentDatabase.DATA, part.absolutePath)
+            put(AttachmentDatabase.SIZE, size)
+            put(AttachmentDatabase.DATA_RANDOM, partRandom)
+        })
+    }
+
+    fun delete() {
+        database.close()
+        file.delete()
+        partsDirectory.deleteRecursively()
+    }
+}
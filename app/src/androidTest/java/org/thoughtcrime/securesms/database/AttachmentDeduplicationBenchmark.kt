@@ -0,0 +1,86 @@
+package org.thoughtcrime.securesms.database
+
+import android.content.Context
+import android.net.Uri
+import android.os.SystemClock
+import androidx.test.core.app.ApplicationProvider
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import androidx.test.filters.LargeTest
+import org.junit.After
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.session.libsession.messaging.sending_receiving.attachments.AttachmentId
+import org.session.libsession.messaging.sending_receiving.attachments.AttachmentTransferProgress
+import org.session.libsession.messaging.sending_receiving.attachments.UriAttachment
+import org.session.libsignal.utilities.Log
+import org.thoughtcrime.securesms.dependencies.DatabaseComponent
+import org.thoughtcrime.securesms.mms.PartAuthority
+import java.io.File
+import kotlin.random.Random
+
+/**
+ * Forwards 20 pieces of 1 MB media to 25 conversations each, measuring the disk used by the parts
+ * and the insert time, for forwarding from the stored part (which shares its file) and for sending
+ * the same media again from outside the app (which is encrypted again, then deduplicated).
+ */
+@RunWith(AndroidJUnit4::class)
+@LargeTest
+class AttachmentDeduplicationBenchmark {
+
+    companion object {
+        private const val TAG = "AttachmentDeduplicationBenchmark"
+        private const val MEDIA_COUNT = 20
+        private const val FORWARD_COUNT = 25
+        private const val MEDIA_SIZE = 1024 * 1024
+        private const val FIRST_MMS_ID = 2_000_000_000L
+    }
+
+    private val context = ApplicationProvider.getApplicationContext<Context>()
+    private val attachmentDatabase = DatabaseComponent.get(context).attachmentDatabase()
+    private val partsDirectory = context.getDir(AttachmentDatabase.DIRECTORY, Context.MODE_PRIVATE)
+    private val random = Random(32)
+    private val media = List(MEDIA_COUNT) { i ->
+        File(context.cacheDir, "forward_benchmark_$i").apply { writeBytes(random.nextBytes(MEDIA_SIZE)) }
+    }
+    private var nextMmsId = FIRST_MMS_ID
+
+    @After
+    fun tearDown() {
+        (FIRST_MMS_ID until nextMmsId).forEach { attachmentDatabase.deleteAttachmentsForMessage(it) }
+        media.forEach { it.delete() }
+    }
+
+    private fun insert(uri: Uri): AttachmentId {
+        val attachment = UriAttachment(uri, null, "application/octet-stream", AttachmentTransferProgress.TRANSFER_PROGRESS_DONE,
+                0, 0, 0, null, null, false, false, null)
+        return attachmentDatabase.insertAttachmentsForMessage(nextMmsId++, listOf(attachment), emptyList()).values.single()
+    }
+
+    private fun diskUsage() = partsDirectory.listFiles()?.sumOf { it.length() } ?: 0L
+
+    @Test
+    fun forwardedMedia() {
+        val initialUsage = diskUsage()
+        val originals = media.map { insert(Uri.fromFile(it)) }
+
+        var start = SystemClock.elapsedRealtime()
+        repeat(FORWARD_COUNT) { originals.forEach { insert(PartAuthority.getAttachmentDataUri(it)) } }
+        val forwardTime = SystemClock.elapsedRealtime() - start
+
+        start = SystemClock.elapsedRealtime()
+        repeat(FORWARD_COUNT) { media.forEach { insert(Uri.fromFile(it)) } }
+        val resendTime = SystemClock.elapsedRealtime() - start
+
+        val parts = MEDIA_COUNT * (1 + FORWARD_COUNT * 2)
+        val logicalSize = parts.toLong() * MEDIA_SIZE
+        val usage = diskUsage() - initialUsage
+
+        Log.i(TAG, "parts=$parts logical=${logicalSize / 1024}KB disk=${usage / 1024}KB " +
+                "forwardPerPart=${forwardTime.toDouble() / (MEDIA_COUNT * FORWARD_COUNT)}ms " +
+                "resendPerPart=${resendTime.toDouble() / (MEDIA_COUNT * FORWARD_COUNT)}ms")
+        // Only the originals are stored, give or take the thumbnails
+        assertTrue(usage < 2L * MEDIA_COUNT * MEDIA_SIZE)
+        assertTrue(forwardTime < resendTime)
+    }
+}
@@ -0,0 +1,193 @@
+package org.thoughtcrime.securesms.database
+
+import android.content.ContentValues
+import android.content.Context
+import android.net.Uri
+import androidx.test.core.app.ApplicationProvider
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import org.junit.After
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertNotEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.session.libsession.messaging.sending_receiving.attachments.AttachmentId
+import org.session.libsession.messaging.sending_receiving.attachments.AttachmentTransferProgress
+import org.session.libsession.messaging.sending_receiving.attachments.UriAttachment
+import org.thoughtcrime.securesms.dependencies.DatabaseComponent
+import org.thoughtcrime.securesms.mms.PartAuthority
+import java.io.File
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicLong
+import kotlin.random.Random
+
+@RunWith(AndroidJUnit4::class)
+class AttachmentDeduplicationTest {
+
+    companion object {
+        // Far above any real message id, the parts aren't attached to actual messages
+        private const val FIRST_MMS_ID = 1_000_000_000L
+    }
+
+    private val context = ApplicationProvider.getApplicationContext<Context>()
+    private val component = DatabaseComponent.get(context)
+    private val attachmentDatabase = component.attachmentDatabase()
+    private val random = Random(32)
+    private val contents = List(3) { random.nextBytes(64 * 1024 + it) }
+    private val sources = contents.mapIndexed { i, content ->
+        File(context.cacheDir, "dedupe_source_$i").apply { writeBytes(content) }
+    }
+    private val nextMmsId = AtomicLong(FIRST_MMS_ID)
+    private val insertedMmsIds = ConcurrentHashMap.newKeySet<Long>()
+
+    @After
+    fun tearDown() {
+        insertedMmsIds.forEach { attachmentDatabase.deleteAttachmentsForMessage(it) }
+        sources.forEach { it.delete() }
+    }
+
+    private fun insert(uri: Uri): Pair<Long, AttachmentId> {
+        val mmsId = nextMmsId.getAndIncrement()
+        val attachment = UriAttachment(uri, null, "application/octet-stream", AttachmentTransferProgress.TRANSFER_PROGRESS_DONE,
+                0, 0, 0, null, null, false, false, null)
+        insertedMmsIds += mmsId
+        return mmsId to attachmentDatabase.insertAttachmentsForMessage(mmsId, listOf(attachment), emptyList()).values.single()
+    }
+
+    private fun insert(content: Int) = insert(Uri.fromFile(sources[content]))
+
+    private fun delete(mmsId: Long) {
+        attachmentDatabase.deleteAttachmentsForMessage(mmsId)
+        insertedMmsIds -= mmsId
+    }
+
+    private fun dataPath(attachmentId: AttachmentId): String =
+        component.openHelper().readableDatabase.query(AttachmentDatabase.TABLE_NAME, arrayOf(AttachmentDatabase.DATA),
+                "${AttachmentDatabase.ROW_ID} = ?", arrayOf(attachmentId.rowId.toString()), null, null, null).use {
+            it.moveToFirst()
+            it.getString(0)
+        }
+
+    private fun read(attachmentId: AttachmentId) = attachmentDatabase.getAttachmentStream(attachmentId, 0).use { it.readBytes() }
+
+    @Test
+    fun identicalContentSharesOneFile() {
+        val (firstMmsId, first) = insert(0)
+        val (secondMmsId, second) = insert(0)
+        val (_, other) = insert(1)
+
+        val file = File(dataPath(first))
+        assertEquals(file.path, dataPath(second))
+        assertNotEquals(file.path, dataPath(other))
+
+        delete(firstMmsId)
+        assertTrue(file.exists())
+        assertArrayEquals(contents[0], read(second))
+
+        delete(secondMmsId)
+        assertFalse(file.exists())
+    }
+
+    @Test
+    fun forwardedPartSharesItsSourceFile() {
+        val (sourceMmsId, source) = insert(2)
+        val (_, forwarded) = insert(PartAuthority.getAttachmentDataUri(source))
+
+        assertEquals(dataPath(source), dataPath(forwarded))
+
+        delete(sourceMmsId)
+        assertArrayEquals(contents[2], read(forwarded))
+    }
+
+    @Test
+    fun forwardingRestoredPartKeepsItsFile() {
+        val (_, first) = insert(0)
+        val (_, second) = insert(0)
+
+        // A restore writes each part to its own file, even where they had the same content
+        val restored = File.createTempFile("part", ".mms", context.getDir(AttachmentDatabase.DIRECTORY, Context.MODE_PRIVATE))
+        File(dataPath(second)).copyTo(restored, overwrite = true)
+        val values = ContentValues().apply { put(AttachmentDatabase.DATA, restored.absolutePath) }
+        component.openHelper().writableDatabase.update(AttachmentDatabase.TABLE_NAME, values,
+                "${AttachmentDatabase.ROW_ID} = ?", arrayOf(second.rowId.toString()))
+
+        val (_, forwarded) = insert(PartAuthority.getAttachmentDataUri(second))
+
+        assertTrue(restored.exists())
+        assertArrayEquals(contents[0], read(first))
+        assertArrayEquals(contents[0], read(second))
+        assertArrayEquals(contents[0], read(forwarded))
+    }
+
+    @Test
+    fun existingPartsAreMergedInTheBackground() {
+        val db = component.openHelper().writableDatabase
+        val unhash = { id: AttachmentId ->
+            val values = ContentValues().apply { putNull(AttachmentDatabase.DATA_HASH) }
+            db.update(AttachmentDatabase.TABLE_NAME, values, "${AttachmentDatabase.ROW_ID} = ?", arrayOf(id.rowId.toString()))
+        }
+
+        // Parts stored before hashing each have their own file
+        val (_, first) = insert(0)
+        unhash(first)
+        val (_, second) = insert(0)
+        unhash(second)
+        val firstFile = File(dataPath(first))
+        val secondFile = File(dataPath(second))
+        assertNotEquals(firstFile, secondFile)
+
+        attachmentDatabase.getUnhashedAttachments(100).forEach { attachmentDatabase.deduplicateAttachment(it) }
+
+        assertEquals(dataPath(first), dataPath(second))
+        assertTrue(firstFile.exists() != secondFile.exists())
+        assertArrayEquals(contents[0], read(first))
+        assertArrayEquals(contents[0], read(second))
+    }
+
+    @Test
+    fun referenceCountsSurviveConcurrentInsertsAndDeletes() {
+        val threads = 8
+        val operations = 40
+        val executor = Executors.newFixedThreadPool(threads)
+        val start = CountDownLatch(1)
+        val seenFiles = ConcurrentHashMap.newKeySet<String>()
+        val remaining = ConcurrentHashMap<Long, Pair<AttachmentId, Int>>()
+
+        val tasks = List(threads) { thread ->
+            executor.submit {
+                val threadRandom = Random(thread)
+                val own = mutableListOf<Long>()
+                start.await()
+                repeat(operations) {
+                    if (own.isNotEmpty() && threadRandom.nextInt(3) == 0) {
+                        val mmsId = own.removeAt(threadRandom.nextInt(own.size))
+                        remaining -= mmsId
+                        delete(mmsId)
+                    } else {
+                        val content = threadRandom.nextInt(contents.size)
+                        val (mmsId, attachmentId) = insert(content)
+                        seenFiles += dataPath(attachmentId)
+                        remaining[mmsId] = attachmentId to content
+                        own += mmsId
+                    }
+                }
+            }
+        }
+        start.countDown()
+        tasks.forEach { it.get(2, TimeUnit.MINUTES) }
+        executor.shutdown()
+
+        // Every remaining part can still be read, and identical ones share a file
+        remaining.values.forEach { (attachmentId, content) -> assertArrayEquals(contents[content], read(attachmentId)) }
+        remaining.values.groupBy({ it.second }, { dataPath(it.first) }).values.forEach { assertEquals(1, it.toSet().size) }
+
+        // Once the last reference is gone, so is every file
+        remaining.keys.toList().forEach { delete(it) }
+        seenFiles.forEach { assertFalse(File(it).exists()) }
+    }
+}
@@ -0,0 +1,173 @@
+package org.thoughtcrime.securesms.database
+
+import android.content.Context
+import android.graphics.Bitmap
+import android.graphics.Color
+import android.media.MediaCodec
+import android.media.MediaCodecInfo
+import android.media.MediaFormat
+import android.media.MediaMuxer
+import android.net.Uri
+import android.os.SystemClock
+import androidx.test.core.app.ApplicationProvider
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import androidx.test.filters.LargeTest
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.session.libsession.messaging.sending_receiving.attachments.AttachmentId
+import org.session.libsession.messaging.sending_receiving.attachments.AttachmentTransferProgress
+import org.session.libsession.messaging.sending_receiving.attachments.UriAttachment
+import org.session.libsignal.utilities.Log
+import org.thoughtcrime.securesms.dependencies.DatabaseComponent
+import java.io.File
+import java.io.FileNotFoundException
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import kotlin.random.Random
+
+/**
+ * Inserts 500 mixed attachments (videos, images with a thumbnail and files without one) and then
+ * loads all their thumbnails from four threads, the way Glide does while scrolling a media gallery:
+ * once cold, with the video thumbnails still being generated, and once warm.
+ */
+@RunWith(AndroidJUnit4::class)
+@LargeTest
+class ThumbnailPipelineBenchmark {
+
+    companion object {
+        private const val TAG = "ThumbnailPipelineBenchmark"
+        private const val ATTACHMENT_COUNT = 500
+        private const val LOADER_THREADS = 4
+        private const val FIRST_MMS_ID = 3_000_000_000L
+        private const val VIDEO_WIDTH = 320
+        private const val VIDEO_HEIGHT = 240
+    }
+
+    private enum class Kind { VIDEO, IMAGE, FILE }
+
+    private val context = ApplicationProvider.getApplicationContext<Context>()
+    private val attachmentDatabase = DatabaseComponent.get(context).attachmentDatabase()
+    private val random = Random(33)
+    private val video = File(context.cacheDir, "thumbnail_benchmark.mp4")
+    private val image = File(context.cacheDir, "thumbnail_benchmark.jpg")
+    private val document = File(context.cacheDir, "thumbnail_benchmark.bin")
+
+    @After
+    fun tearDown() {
+        (FIRST_MMS_ID until FIRST_MMS_ID + ATTACHMENT_COUNT).forEach { attachmentDatabase.deleteAttachmentsForMessage(it) }
+        listOf(video, image, document).forEach { it.delete() }
+    }
+
+    /** Encodes a second of video with a changing solid colour. */
+    private fun writeVideo() {
+        val format = MediaFormat.createVideoFormat(MediaFormat.MIMETYPE_VIDEO_AVC, VIDEO_WIDTH, VIDEO_HEIGHT).apply {
+            setInteger(MediaFormat.KEY_COLOR_FORMAT, MediaCodecInfo.CodecCapabilities.COLOR_FormatYUV420Flexible)
+            setInteger(MediaFormat.KEY_BIT_RATE, 500_000)
+            setInteger(MediaFormat.KEY_FRAME_RATE, 10)
+            setInteger(MediaFormat.KEY_I_FRAME_INTERVAL, 1)
+        }
+        val codec = MediaCodec.createEncoderByType(MediaFormat.MIMETYPE_VIDEO_AVC)
+        codec.configure(format, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE)
+        codec.start()
+
+        val muxer = MediaMuxer(video.path, MediaMuxer.OutputFormat.MUXER_OUTPUT_MPEG_4)
+        val frameSize = VIDEO_WIDTH * VIDEO_HEIGHT * 3 / 2
+        val info = MediaCodec.BufferInfo()
+        var track = -1
+        var frame = 0
+        var done = false
+
+        while (!done) {
+            if (frame <= 10) {
+                val input = codec.dequeueInputBuffer(10_000)
+                if (input >= 0) {
+                    val buffer = codec.getInputBuffer(input)!!
+                    buffer.clear()
+                    buffer.put(ByteArray(frameSize) { (frame * 20).toByte() })
+                    val flags = if (frame == 10) MediaCodec.BUFFER_FLAG_END_OF_STREAM else 0
+                    codec.queueInputBuffer(input, 0, frameSize, frame * 100_000L, flags)
+                    frame++
+                }
+            }
+
+            val output = codec.dequeueOutputBuffer(info, 10_000)
+            if (output == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
+                track = muxer.addTrack(codec.outputFormat)
+                muxer.start()
+            } else if (output >= 0) {
+                if (info.flags and MediaCodec.BUFFER_FLAG_CODEC_CONFIG == 0 && info.size > 0) {
+                    muxer.writeSampleData(track, codec.getOutputBuffer(output)!!, info)
+                }
+                done = info.flags and MediaCodec.BUFFER_FLAG_END_OF_STREAM != 0
+                codec.releaseOutputBuffer(output, false)
+            }
+        }
+
+        codec.stop()
+        codec.release()
+        muxer.stop()
+        muxer.release()
+    }
+
+    private fun writeImage() {
+        val bitmap = Bitmap.createBitmap(640, 480, Bitmap.Config.ARGB_8888).apply { eraseColor(Color.MAGENTA) }
+        image.outputStream().use { bitmap.compress(Bitmap.CompressFormat.JPEG, 90, it) }
+    }
+
+    private fun insert(mmsId: Long, kind: Kind): AttachmentId {
+        val attachment = when (kind) {
+            Kind.VIDEO -> UriAttachment(Uri.fromFile(video), null, "video/mp4", AttachmentTransferProgress.TRANSFER_PROGRESS_DONE,
+                    0, VIDEO_WIDTH, VIDEO_HEIGHT, null, null, false, false, null)
+            Kind.IMAGE -> UriAttachment(Uri.fromFile(image), Uri.fromFile(image), "image/jpeg", AttachmentTransferProgress.TRANSFER_PROGRESS_DONE,
+                    0, 640, 480, null, null, false, false, null)
+            Kind.FILE -> UriAttachment(Uri.fromFile(document), null, "application/pdf", AttachmentTransferProgress.TRANSFER_PROGRESS_DONE,
+                    0, 0, 0, null, null, false, false, null)
+        }
+        return attachmentDatabase.insertAttachmentsForMessage(mmsId, listOf(attachment), emptyList()).values.single()
+    }
+
+    /** @return How many of the thumbnails were available. */
+    private fun loadAll(ids: List<AttachmentId>): Int {
+        val executor = Executors.newFixedThreadPool(LOADER_THREADS)
+        val results = ids.map { id ->
+            executor.submit<Boolean> {
+                try {
+                    attachmentDatabase.requestThumbnail(id).get().isNotEmpty()
+                } catch (e: FileNotFoundException) {
+                    false
+                }
+            }
+        }
+        val loaded = results.count { it.get(5, TimeUnit.MINUTES) }
+        executor.shutdown()
+        return loaded
+    }
+
+    @Test
+    fun mixedAttachments() {
+        writeVideo()
+        writeImage()
+        document.writeBytes(random.nextBytes(64 * 1024))
+
+        val kinds = List(ATTACHMENT_COUNT) { i -> if (i % 5 < 2) Kind.VIDEO else if (i % 5 < 4) Kind.IMAGE else Kind.FILE }.shuffled(random)
+
+        var start = SystemClock.elapsedRealtime()
+        val ids = kinds.mapIndexed { i, kind -> insert(FIRST_MMS_ID + i, kind) }
+        val insertTime = SystemClock.elapsedRealtime() - start
+
+        // Newest first, like a gallery opened at the top
+        start = SystemClock.elapsedRealtime()
+        val loaded = loadAll(ids.reversed())
+        val coldTime = SystemClock.elapsedRealtime() - start
+
+        start = SystemClock.elapsedRealtime()
+        loadAll(ids.reversed())
+        val warmTime = SystemClock.elapsedRealtime() - start
+
+        Log.i(TAG, "attachments=$ATTACHMENT_COUNT videos=${kinds.count { it == Kind.VIDEO }} insert=${insertTime}ms " +
+                "cold=${coldTime}ms warm=${warmTime}ms")
+        assertEquals(kinds.count { it != Kind.FILE }, loaded)
+    }
+}
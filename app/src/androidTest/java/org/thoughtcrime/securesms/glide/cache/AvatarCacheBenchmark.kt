@@ -0,0 +1,127 @@
+package org.thoughtcrime.securesms.glide.cache
+
+import android.content.Context
+import android.graphics.Bitmap
+import android.graphics.Color
+import android.os.SystemClock
+import androidx.test.core.app.ApplicationProvider
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import androidx.test.filters.LargeTest
+import network.loki.messenger.R
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.session.libsession.avatars.AvatarHelper
+import org.session.libsession.avatars.ProfileContactPhoto
+import org.session.libsession.utilities.Address
+import org.session.libsignal.utilities.Hex
+import org.session.libsignal.utilities.Log
+import org.thoughtcrime.securesms.glide.CachedAvatarFetcher
+import org.thoughtcrime.securesms.util.AvatarPlaceholderGenerator
+import java.io.ByteArrayOutputStream
+import java.io.File
+import java.util.concurrent.atomic.AtomicInteger
+import kotlin.random.Random
+
+/**
+ * Scrolls a list of contacts, half with a 640 px profile picture and half with a placeholder, up
+ * and down a few times, binding the avatar of each row that comes into view the way
+ * ProfilePictureView does. Measures rendering every bind (as before the cache), binding from a warm
+ * cache, and binding after a cold start, when the avatars come from the encrypted disk cache.
+ */
+@RunWith(AndroidJUnit4::class)
+@LargeTest
+class AvatarCacheBenchmark {
+
+    companion object {
+        private const val TAG = "AvatarCacheBenchmark"
+        private const val CONTACT_COUNT = 60
+        private const val VISIBLE_ROWS = 10
+        private const val SCROLL_PASSES = 10
+        private const val PICTURE_SIZE = 640
+    }
+
+    private val context = ApplicationProvider.getApplicationContext<Context>()
+    private val random = Random(34)
+    private val size = context.resources.getDimensionPixelSize(R.dimen.medium_profile_picture_size)
+    private val directory = File(context.cacheDir, "avatar_cache_benchmark")
+    private val secret = random.nextBytes(32)
+    private val publicKeys = List(CONTACT_COUNT) { "05" + Hex.toStringCondensed(random.nextBytes(32)) }
+    private val photos = publicKeys.take(CONTACT_COUNT / 2).map { ProfileContactPhoto(Address.fromSerialized(it), "avatar-$it") }
+    private val renders = AtomicInteger()
+
+    @After
+    fun tearDown() {
+        publicKeys.take(CONTACT_COUNT / 2).forEach { AvatarHelper.delete(context, Address.fromSerialized(it)) }
+        directory.deleteRecursively()
+    }
+
+    private fun writePictures() {
+        publicKeys.take(CONTACT_COUNT / 2).forEach { publicKey ->
+            val picture = Bitmap.createBitmap(PICTURE_SIZE, PICTURE_SIZE, Bitmap.Config.ARGB_8888).apply {
+                eraseColor(Color.rgb(random.nextInt(256), random.nextInt(256), random.nextInt(256)))
+            }
+            val bytes = ByteArrayOutputStream().also { picture.compress(Bitmap.CompressFormat.JPEG, 90, it) }.toByteArray()
+            AvatarHelper.setAvatar(context, Address.fromSerialized(publicKey), bytes)
+        }
+    }
+
+    private fun key(index: Int) = AvatarCache.Key(publicKeys[index], "profile:$index", size)
+
+    private fun render(index: Int): Bitmap? {
+        renders.incrementAndGet()
+        return if (index < photos.size) {
+            CachedAvatarFetcher.renderPhoto(context, photos[index], size)
+        } else {
+            AvatarPlaceholderGenerator.generate(context, size, publicKeys[index], "Contact $index").bitmap
+        }
+    }
+
+    /** The rows that come into view, in order, while scrolling to the bottom and back a few times. */
+    private fun scroll(): List<Int> = List(SCROLL_PASSES) { pass ->
+        val down = (0 until CONTACT_COUNT).toList()
+        // The first screen is bound once, when the list is shown
+        val rows = if (pass % 2 == 0) down.drop(VISIBLE_ROWS) else down.reversed().drop(VISIBLE_ROWS)
+        if (pass == 0) (0 until VISIBLE_ROWS) + rows else rows
+    }.flatten()
+
+    private fun bind(cache: AvatarCache?, rows: List<Int>): Long {
+        val start = SystemClock.elapsedRealtime()
+        rows.forEach { index ->
+            val bitmap = if (cache == null) render(index) else (cache.getCached(key(index)) ?: cache.get(key(index)) { render(index) })
+            assertEquals(size, bitmap!!.width)
+        }
+        return SystemClock.elapsedRealtime() - start
+    }
+
+    @Test
+    fun scrollingContactList() {
+        writePictures()
+        val rows = scroll()
+
+        val uncachedTime = bind(null, rows)
+        val uncachedRenders = renders.getAndSet(0)
+
+        val cache = AvatarCache(directory, secret, 8 * 1024 * 1024, 10 * 1024 * 1024)
+        val warmTime = bind(cache, rows)
+        assertEquals(CONTACT_COUNT, renders.getAndSet(0))
+
+        val restarted = AvatarCache(directory, secret, 8 * 1024 * 1024, 10 * 1024 * 1024)
+        val coldTime = bind(restarted, rows)
+        assertEquals(0, renders.get())
+
+        Log.i(TAG, "binds=${rows.size} contacts=$CONTACT_COUNT size=${size}px uncached=${uncachedTime}ms " +
+                "(renders=$uncachedRenders) cached=${warmTime}ms restarted=${coldTime}ms " +
+                "disk=${directory.listFiles()!!.sumOf { it.length() } / 1024}KB")
+        assertTrue(warmTime < uncachedTime)
+
+        // A new profile picture is never served from the old entries
+        restarted.invalidate(publicKeys[0])
+        assertNull(restarted.getCached(key(0)))
+        restarted.get(key(0)) { render(0) }
+        assertEquals(1, renders.get())
+    }
+}
@@ -0,0 +1,106 @@
+package org.thoughtcrime.securesms.providers
+
+import android.content.Context
+import android.net.Uri
+import android.os.SystemClock
+import androidx.test.core.app.ApplicationProvider
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import androidx.test.filters.LargeTest
+import org.junit.After
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.session.libsignal.utilities.Log
+import org.thoughtcrime.securesms.crypto.AttachmentSecret
+import java.io.File
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import kotlin.random.Random
+
+/**
+ * Keeps 50 camera sized blobs in memory for a session, once with every blob on the heap and once
+ * spilling them to encrypted files, and reports the heap they take and how long it takes to read
+ * them all back from eight threads.
+ */
+@RunWith(AndroidJUnit4::class)
+@LargeTest
+class BlobProviderBenchmark {
+
+    companion object {
+        private const val TAG = "BlobProviderBenchmark"
+        private const val BLOB_COUNT = 50
+        private const val BLOB_SIZE = 2 * 1024 * 1024
+        private const val READER_THREADS = 8
+    }
+
+    private val context = ApplicationProvider.getApplicationContext<Context>()
+    private val random = Random(37)
+    private val attachmentSecret = AttachmentSecret(random.nextBytes(32), random.nextBytes(20), random.nextBytes(32))
+    private val directory = File(context.cacheDir, "blob_benchmark")
+
+    @After
+    fun tearDown() {
+        directory.deleteRecursively()
+    }
+
+    private fun usedHeap(): Long {
+        val runtime = Runtime.getRuntime()
+        System.gc()
+        System.runFinalization()
+        System.gc()
+        return runtime.totalMemory() - runtime.freeMemory()
+    }
+
+    private fun readAll(provider: BlobProvider, uris: List<Uri>, sample: ByteArray): Long {
+        val executor = Executors.newFixedThreadPool(READER_THREADS)
+        val start = SystemClock.elapsedRealtime()
+        val results = uris.map { uri -> executor.submit<ByteArray> { provider.getStream(context, uri).use { it.readBytes() } } }
+        results.forEach { assertArrayEquals(sample, it.get(5, TimeUnit.MINUTES)) }
+        val time = SystemClock.elapsedRealtime() - start
+        executor.shutdown()
+        return time
+    }
+
+    private fun benchmark(name: String, spill: Boolean) {
+        val spillExecutor = Executors.newSingleThreadExecutor()
+        val provider = BlobProvider(BlobProvider.SPILL_THRESHOLD, spillExecutor)
+        if (spill) {
+            directory.mkdirs()
+            provider.setSpillStorage(directory, attachmentSecret)
+        }
+
+        val sample = random.nextBytes(BLOB_SIZE)
+        val baseline = usedHeap()
+        val start = SystemClock.elapsedRealtime()
+        val uris = List(BLOB_COUNT) {
+            provider.forData(sample.copyOf()).withMimeType("image/jpeg").createForSingleSessionInMemory()
+        }
+        val createTime = SystemClock.elapsedRealtime() - start
+
+        spillExecutor.shutdown()
+        assertTrue(spillExecutor.awaitTermination(5, TimeUnit.MINUTES))
+        val heap = usedHeap() - baseline
+        val readTime = readAll(provider, uris, sample)
+
+        Log.i(TAG, "$name blobs=$BLOB_COUNT x ${BLOB_SIZE / 1024}KB create=${createTime}ms heap=${heap / 1024}KB " +
+                "resident=${provider.residentMemoryBlobBytes / 1024}KB spilled=${provider.spilledMemoryBlobBytes / 1024}KB read=${readTime}ms")
+
+        if (spill) {
+            assertEquals(0L, provider.residentMemoryBlobBytes)
+            assertTrue(heap < BLOB_SIZE * 2L)
+        } else {
+            assertEquals(BLOB_COUNT * BLOB_SIZE.toLong(), provider.residentMemoryBlobBytes)
+        }
+
+        uris.forEach { provider.delete(context, it) }
+        assertEquals(0L, provider.residentMemoryBlobBytes + provider.spilledMemoryBlobBytes)
+    }
+
+    @Test
+    fun inMemory() = benchmark("memory", false)
+
+    @Test
+    fun spilled() = benchmark("spilled", true)
+}
@@ -44,7 +44,6 @@ import org.session.libsession.utilities.ProfilePictureUtilities;
 import org.session.libsession.utilities.SSKEnvironment;
 import org.session.libsession.utilities.TextSecurePreferences;
 import org.session.libsession.utilities.Util;
-import org.session.libsession.utilities.WindowDebouncer;
 import org.session.libsession.utilities.dynamiclanguage.DynamicLanguageContextWrapper;
 import org.session.libsession.utilities.dynamiclanguage.LocaleParser;
 import org.session.libsignal.utilities.HTTP;
@@ -54,6 +53,7 @@ import org.session.libsignal.utilities.ThreadUtils;
 import org.signal.aesgcmprovider.AesGcmProvider;
 import org.thoughtcrime.securesms.components.TypingStatusSender;
 import org.thoughtcrime.securesms.crypto.KeyPairUtilities;
+import org.thoughtcrime.securesms.database.DatabaseChangeBus;
 import org.thoughtcrime.securesms.database.EmojiSearchDatabase;
 import org.thoughtcrime.securesms.database.JobDatabase;
 import org.thoughtcrime.securesms.database.LokiAPIDatabase;
@@ -69,6 +69,7 @@ import org.thoughtcrime.securesms.jobmanager.JobManager;
 import org.thoughtcrime.securesms.jobmanager.impl.JsonDataSerializer;
 import org.thoughtcrime.securesms.jobmanager.impl.NetworkConstraint;
 import org.thoughtcrime.securesms.jobs.FastJobStorage;
+import org.thoughtcrime.securesms.jobs.AttachmentDeduplicationJob;
 import org.thoughtcrime.securesms.jobs.JobManagerFactories;
 import org.thoughtcrime.securesms.logging.AndroidLogger;
 import org.thoughtcrime.securesms.logging.PersistentLogger;
@@ -103,7 +104,6 @@ import java.util.Date;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
-import java.util.Timer;
 import java.util.concurrent.Executors;
 
 import javax.inject.Inject;
@@ -139,7 +139,7 @@ public class ApplicationContext extends Application implements DefaultLifecycleO
     public Poller poller = null;
     public Broadcaster broadcaster = null;
     private Job firebaseInstanceIdJob;
-    private WindowDebouncer conversationListDebouncer;
+    private DatabaseChangeBus databaseChangeBus;
     private HandlerThread conversationListHandlerThread;
     private Handler conversationListHandler;
     private PersistentLogger persistentLogger;
@@ -185,11 +185,11 @@ public class ApplicationContext extends Application implements DefaultLifecycleO
         return conversationListHandler;
     }
 
-    public WindowDebouncer getConversationListDebouncer() {
-        if (conversationListDebouncer == null) {
-            conversationListDebouncer = new WindowDebouncer(1000, new Timer());
+    public synchronized DatabaseChangeBus getDatabaseChangeBus() {
+        if (databaseChangeBus == null) {
+            databaseChangeBus = DatabaseChangeBus.create(this, getConversationListNotificationHandler());
         }
-        return conversationListDebouncer;
+        return databaseChangeBus;
     }
 
     public PersistentLogger getPersistentLogger() {
@@ -234,6 +234,7 @@ public class ApplicationContext extends Application implements DefaultLifecycleO
         initializeBlobProvider();
         resubmitProfilePictureIfNeeded();
         loadEmojiSearchIndexIfNeeded();
+        deduplicateAttachmentsIfNeeded();
         EmojiSource.refresh();
 
         NetworkConstraint networkConstraint = new NetworkConstraint.Factory(this).create();
@@ -516,15 +517,27 @@ public class ApplicationContext extends Application implements DefaultLifecycleO
     }
 
     private void loadEmojiSearchIndexIfNeeded() {
+        // The index is an asset, so it can only have changed if the app was updated
+        if (TextSecurePreferences.getEmojiSearchIndexVersion(this) == BuildConfig.VERSION_CODE) {
+            return;
+        }
         Executors.newSingleThreadExecutor().execute(() -> {
             EmojiSearchDatabase emojiSearchDb = getDatabaseComponent().emojiSearchDatabase();
-            if (emojiSearchDb.query("face", 1).isEmpty()) {
-                try (InputStream inputStream = getAssets().open("emoji/emoji_search_index.json")) {
-                    List<EmojiSearchData> searchIndex = Arrays.asList(JsonUtil.fromJson(inputStream, EmojiSearchData[].class));
-                    emojiSearchDb.setSearchIndex(searchIndex);
-                } catch (IOException e) {
-                    Log.e("Loki", "Failed to load emoji search index");
-                }
+            // Only writes the labels which changed since the index was last loaded, if any
+            try (InputStream inputStream = getAssets().open("emoji/emoji_search_index.json")) {
+                List<EmojiSearchData> searchIndex = Arrays.asList(JsonUtil.fromJson(inputStream, EmojiSearchData[].class));
+                emojiSearchDb.setSearchIndex(searchIndex);
+                TextSecurePreferences.setEmojiSearchIndexVersion(this, BuildConfig.VERSION_CODE);
+            } catch (IOException e) {
+                Log.e("Loki", "Failed to load emoji search index");
+            }
+        });
+    }
+
+    private void deduplicateAttachmentsIfNeeded() {
+        ThreadUtils.queue(() -> {
+            if (getDatabaseComponent().attachmentDatabase().hasUnhashedAttachments()) {
+                jobManager.add(new AttachmentDeduplicationJob());
             }
         });
     }
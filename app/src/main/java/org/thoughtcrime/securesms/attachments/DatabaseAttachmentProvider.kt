@@ -9,7 +9,6 @@ import org.session.libsession.messaging.sending_receiving.attachments.Attachment
 import org.session.libsession.messaging.sending_receiving.attachments.AttachmentId
 import org.session.libsession.messaging.sending_receiving.attachments.AttachmentState
 import org.session.libsession.messaging.sending_receiving.attachments.DatabaseAttachment
-import org.session.libsession.messaging.sending_receiving.attachments.DatabaseAttachmentAudioExtras
 import org.session.libsession.messaging.sending_receiving.attachments.PointerAttachment
 import org.session.libsession.messaging.sending_receiving.attachments.SessionServiceAttachmentPointer
 import org.session.libsession.messaging.sending_receiving.attachments.SessionServiceAttachmentStream
@@ -29,6 +28,7 @@ import org.thoughtcrime.securesms.database.MessagingDatabase
 import org.thoughtcrime.securesms.database.helpers.SQLCipherOpenHelper
 import org.thoughtcrime.securesms.dependencies.DatabaseComponent
 import org.thoughtcrime.securesms.events.PartProgressEvent
+import org.thoughtcrime.securesms.jobs.PrepareAttachmentAudioExtrasJob
 import org.thoughtcrime.securesms.mms.MediaConstraints
 import org.thoughtcrime.securesms.mms.PartAuthority
 import org.thoughtcrime.securesms.util.MediaUtil
@@ -116,17 +116,9 @@ class DatabaseAttachmentProvider(context: Context, helper: SQLCipherOpenHelper)
         attachmentDatabase.insertAttachmentsForPlaceholder(messageId, attachmentId, stream)
     }
 
-    override fun updateAudioAttachmentDuration(
-        attachmentId: AttachmentId,
-        durationMs: Long,
-        threadId: Long
-    ) {
+    override fun prepareAudioAttachmentExtras(attachmentId: AttachmentId, threadId: Long) {
         val attachmentDb = DatabaseComponent.get(context).attachmentDatabase()
-        attachmentDb.setAttachmentAudioExtras(DatabaseAttachmentAudioExtras(
-            attachmentId = attachmentId,
-            visualSamples = byteArrayOf(),
-            durationMs = durationMs
-        ), threadId)
+        attachmentDb.getOrExtractAttachmentAudioExtras(attachmentId, PrepareAttachmentAudioExtrasJob.VISUAL_RMS_FRAMES, threadId)
     }
 
     override fun isMmsOutgoing(mmsMessageId: Long): Boolean {
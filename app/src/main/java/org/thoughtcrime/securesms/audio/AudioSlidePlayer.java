@@ -34,9 +34,9 @@ import com.google.android.exoplayer2.trackselection.DefaultTrackSelector;
 import com.google.android.exoplayer2.upstream.DefaultDataSourceFactory;
 
 import org.jetbrains.annotations.NotNull;
-import org.thoughtcrime.securesms.attachments.AttachmentServer;
 import org.session.libsignal.utilities.Log;
 import org.thoughtcrime.securesms.mms.AudioSlide;
+import org.thoughtcrime.securesms.video.exo.AttachmentDataSourceFactory;
 import org.session.libsession.utilities.ServiceUtil;
 
 import org.session.libsession.utilities.Util;
@@ -65,7 +65,6 @@ public class AudioSlidePlayer implements SensorEventListener {
 
   private @NonNull  WeakReference<Listener> listener;
   private @Nullable SimpleExoPlayer         mediaPlayer;
-  private @Nullable AttachmentServer        audioAttachmentServer;
   private           long                    startTime;
 
   public synchronized static AudioSlidePlayer createFor(@NonNull Context context,
@@ -106,14 +105,15 @@ public class AudioSlidePlayer implements SensorEventListener {
   private void play(final double progress, boolean earpiece) throws IOException {
     if (this.mediaPlayer != null) { stop(); }
 
-    LoadControl loadControl    = new DefaultLoadControl.Builder().setBufferDurationsMs(Integer.MAX_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE).createDefaultLoadControl();
-    this.mediaPlayer           = ExoPlayerFactory.newSimpleInstance(context, new DefaultRenderersFactory(context), new DefaultTrackSelector(), loadControl);
-    this.audioAttachmentServer = new AttachmentServer(context, slide.asAttachment());
-    this.startTime             = System.currentTimeMillis();
+    Uri uri = slide.getUri();
 
-    audioAttachmentServer.start();
+    if (uri == null) throw new IOException("Slide has no data");
 
-    mediaPlayer.prepare(createMediaSource(audioAttachmentServer.getUri()));
+    LoadControl loadControl = new DefaultLoadControl.Builder().setBufferDurationsMs(Integer.MAX_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE).createDefaultLoadControl();
+    this.mediaPlayer        = ExoPlayerFactory.newSimpleInstance(context, new DefaultRenderersFactory(context), new DefaultTrackSelector(), loadControl);
+    this.startTime          = System.currentTimeMillis();
+
+    mediaPlayer.prepare(createMediaSource(uri));
     mediaPlayer.setPlayWhenReady(true);
     mediaPlayer.setAudioAttributes(new AudioAttributes.Builder()
                                                       .setContentType(earpiece ? C.CONTENT_TYPE_SPEECH : C.CONTENT_TYPE_MUSIC)
@@ -161,11 +161,6 @@ public class AudioSlidePlayer implements SensorEventListener {
               mediaPlayer.release();
               mediaPlayer = null;
 
-              if (audioAttachmentServer != null) {
-                audioAttachmentServer.stop();
-                audioAttachmentServer = null;
-              }
-
               sensorManager.unregisterListener(AudioSlidePlayer.this);
 
               if (wakeLock != null && wakeLock.isHeld()) {
@@ -188,11 +183,6 @@ public class AudioSlidePlayer implements SensorEventListener {
         synchronized (AudioSlidePlayer.this) {
           mediaPlayer = null;
 
-          if (audioAttachmentServer != null) {
-            audioAttachmentServer.stop();
-            audioAttachmentServer = null;
-          }
-
           sensorManager.unregisterListener(AudioSlidePlayer.this);
 
           if (wakeLock != null && wakeLock.isHeld()) {
@@ -209,7 +199,10 @@ public class AudioSlidePlayer implements SensorEventListener {
   }
 
   private MediaSource createMediaSource(@NonNull Uri uri) {
-    return new ExtractorMediaSource.Factory(new DefaultDataSourceFactory(context, BuildConfig.USER_AGENT))
+    DefaultDataSourceFactory    defaultDataSourceFactory    = new DefaultDataSourceFactory(context, BuildConfig.USER_AGENT);
+    AttachmentDataSourceFactory attachmentDataSourceFactory = new AttachmentDataSourceFactory(context, defaultDataSourceFactory, null);
+
+    return new ExtractorMediaSource.Factory(attachmentDataSourceFactory)
                                    .setExtractorsFactory(new DefaultExtractorsFactory().setConstantBitrateSeekingEnabled(true))
                                    .createMediaSource(uri);
   }
@@ -224,14 +217,9 @@ public class AudioSlidePlayer implements SensorEventListener {
       this.mediaPlayer.release();
     }
 
-    if (this.audioAttachmentServer != null) {
-      this.audioAttachmentServer.stop();
-    }
-
     sensorManager.unregisterListener(AudioSlidePlayer.this);
 
-    this.mediaPlayer           = null;
-    this.audioAttachmentServer = null;
+    this.mediaPlayer = null;
   }
 
   public synchronized static void stopAll() {
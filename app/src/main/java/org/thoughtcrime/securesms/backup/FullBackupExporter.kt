@@ -3,10 +3,9 @@ package org.thoughtcrime.securesms.backup
 import android.content.Context
 import android.database.Cursor
 import android.net.Uri
+import android.os.SystemClock
 import android.text.TextUtils
 import androidx.annotation.WorkerThread
-import com.annimon.stream.function.Consumer
-import com.annimon.stream.function.Predicate
 import com.google.protobuf.ByteString
 import net.zetetic.database.sqlcipher.SQLiteDatabase
 import org.greenrobot.eventbus.EventBus
@@ -39,9 +38,11 @@ import org.thoughtcrime.securesms.database.PushDatabase
 import org.thoughtcrime.securesms.database.SearchDatabase
 import org.thoughtcrime.securesms.database.SmsDatabase
 import org.thoughtcrime.securesms.util.BackupUtil
+import java.io.BufferedOutputStream
 import java.io.Closeable
 import java.io.File
 import java.io.FileInputStream
+import java.io.FileNotFoundException
 import java.io.Flushable
 import java.io.IOException
 import java.io.InputStream
@@ -50,6 +51,12 @@ import java.security.InvalidAlgorithmParameterException
 import java.security.InvalidKeyException
 import java.security.NoSuchAlgorithmException
 import java.util.LinkedList
+import java.util.concurrent.ArrayBlockingQueue
+import java.util.concurrent.BlockingQueue
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.LinkedBlockingQueue
 import javax.crypto.BadPaddingException
 import javax.crypto.Cipher
 import javax.crypto.IllegalBlockSizeException
@@ -58,9 +65,23 @@ import javax.crypto.NoSuchPaddingException
 import javax.crypto.spec.IvParameterSpec
 import javax.crypto.spec.SecretKeySpec
 
+/**
+ * Writes an encrypted backup of the database, preferences and avatars.
+ *
+ * Attachments are read and decrypted on a separate thread, which works ahead (into a fixed pool of
+ * [CHUNK_COUNT] buffers) while the current frame is encrypted and written, so that for large
+ * profiles the part decryption and the backup encryption happen at the same time.
+ */
 object FullBackupExporter {
     private val TAG = FullBackupExporter::class.java.simpleName
 
+    private const val OUTPUT_BUFFER_SIZE = 1024 * 1024
+    private const val CHUNK_SIZE = 256 * 1024
+    private const val CHUNK_COUNT = 8
+    private const val PROGRESS_INTERVAL_MS = 250L
+
+    private val NON_EXPIRING_MMS_IDS = "(SELECT ${MmsSmsColumns.ID} FROM ${MmsDatabase.TABLE_NAME} WHERE ${MmsSmsColumns.EXPIRES_IN} = 0)"
+
     @JvmStatic
     @WorkerThread
     @Throws(IOException::class)
@@ -73,55 +94,50 @@ object FullBackupExporter {
         val baseOutputStream = context.contentResolver.openOutputStream(fileUri)
                 ?: throw IOException("Cannot open an output stream for the file URI: $fileUri")
 
-        var count = 0
+        val progress = Progress()
+        val reader = AttachmentReader(attachmentSecret)
         try {
-            BackupFrameOutputStream(baseOutputStream, passphrase).use { outputStream ->
+            BackupFrameOutputStream(BufferedOutputStream(baseOutputStream, OUTPUT_BUFFER_SIZE), passphrase).use { outputStream ->
                 outputStream.writeDatabaseVersion(input.version)
                 val tables = exportSchema(input, outputStream)
                 for (table in tables) if (shouldExportTable(table)) {
-                    count = when (table) {
+                    when (table) {
                         SmsDatabase.TABLE_NAME, MmsDatabase.TABLE_NAME -> {
                             exportTable(table, input, outputStream,
-                                    { cursor: Cursor ->
-                                        cursor.getInt(cursor.getColumnIndexOrThrow(MmsSmsColumns.EXPIRES_IN)) <= 0
-                                    },
+                                    "${MmsSmsColumns.EXPIRES_IN} <= 0",
                                     null,
-                                    count)
+                                    progress)
                         }
                         GroupReceiptDatabase.TABLE_NAME -> {
                             exportTable(table, input, outputStream,
-                                    { cursor: Cursor ->
-                                        isForNonExpiringMessage(input, cursor.getLong(cursor.getColumnIndexOrThrow(GroupReceiptDatabase.MMS_ID)))
-                                    },
+                                    "${GroupReceiptDatabase.MMS_ID} IN $NON_EXPIRING_MMS_IDS",
                                     null,
-                                    count)
+                                    progress)
                         }
                         AttachmentDatabase.TABLE_NAME -> {
                             exportTable(table, input, outputStream,
+                                    "${AttachmentDatabase.MMS_ID} IN $NON_EXPIRING_MMS_IDS",
                                     { cursor: Cursor ->
-                                        isForNonExpiringMessage(input, cursor.getLong(cursor.getColumnIndexOrThrow(AttachmentDatabase.MMS_ID)))
+                                        readAttachment(reader, cursor)
                                     },
-                                    { cursor: Cursor ->
-                                        exportAttachment(attachmentSecret, cursor, outputStream)
-                                    },
-                                    count)
+                                    progress)
                         }
                         else -> {
-                            exportTable(table, input, outputStream, null, null, count)
+                            exportTable(table, input, outputStream, null, null, progress)
                         }
                     }
                 }
                 for (preference in BackupUtil.getBackupRecords(context)) {
-                    EventBus.getDefault().post(BackupEvent.createProgress(++count))
+                    progress.increment()
                     outputStream.writePreferenceEntry(preference)
                 }
                 for (preference in BackupPreferences.getBackupRecords(context)) {
-                    EventBus.getDefault().post(BackupEvent.createProgress(++count))
+                    progress.increment()
                     outputStream.writePreferenceEntry(preference)
                 }
                 for (avatar in AvatarHelper.getAvatarFiles(context)) {
-                    EventBus.getDefault().post(BackupEvent.createProgress(++count))
-                    outputStream.writeAvatar(avatar.name, FileInputStream(avatar), avatar.length())
+                    progress.increment()
+                    FileInputStream(avatar).use { outputStream.writeAvatar(avatar.name, it, avatar.length()) }
                 }
                 outputStream.writeEnd()
             }
@@ -130,6 +146,26 @@ object FullBackupExporter {
             Log.e(TAG, "Failed to make full backup.", e)
             EventBus.getDefault().post(BackupEvent.createFinished(e))
             throw e
+        } finally {
+            reader.close()
+        }
+    }
+
+    /**
+     * Counts the exported rows, posting the count at most every [PROGRESS_INTERVAL_MS] rather than
+     * for every row.
+     */
+    private class Progress {
+        private var count = 0
+        private var lastPosted = 0L
+
+        fun increment() {
+            count++
+            val now = SystemClock.elapsedRealtime()
+            if (now - lastPosted >= PROGRESS_INTERVAL_MS) {
+                lastPosted = now
+                EventBus.getDefault().post(BackupEvent.createProgress(count))
+            }
         }
     }
 
@@ -175,15 +211,18 @@ object FullBackupExporter {
     private fun exportTable(table: String,
                             input: SQLiteDatabase,
                             outputStream: BackupFrameOutputStream,
-                            predicate: Predicate<Cursor>?,
-                            postProcess: Consumer<Cursor>?,
-                            count: Int): Int {
-        var count = count
+                            where: String?,
+                            prepareAttachment: ((Cursor) -> PendingAttachment?)?,
+                            progress: Progress) {
         val template = "INSERT INTO $table VALUES "
-        input.rawQuery("SELECT * FROM $table", null).use { cursor ->
+        // Filtered in a single query, in the order of a plain scan so the rows come out as before
+        val query = if (where != null) "SELECT * FROM $table WHERE $where ORDER BY rowid" else "SELECT * FROM $table"
+        // The row before the current one, written once the current row's attachment is being read
+        var previousStatement: SqlStatement? = null
+        var previousAttachment: PendingAttachment? = null
+        input.rawQuery(query, null).use { cursor ->
             while (cursor != null && cursor.moveToNext()) {
-                EventBus.getDefault().post(BackupEvent.createProgress(++count))
-                if (predicate != null && !predicate.test(cursor)) continue
+                progress.increment()
 
                 val statement = StringBuilder(template)
                 val statementBuilder = SqlStatement.newBuilder()
@@ -220,62 +259,178 @@ object FullBackupExporter {
                     }
                 }
                 statement.append(')')
-                outputStream.writeSql(statementBuilder.setStatement(statement.toString()).build())
-                postProcess?.accept(cursor)
+                val attachment = prepareAttachment?.invoke(cursor)
+                previousStatement?.let { writeRow(outputStream, it, previousAttachment) }
+                previousStatement = statementBuilder.setStatement(statement.toString()).build()
+                previousAttachment = attachment
             }
         }
-        return count
+        previousStatement?.let { writeRow(outputStream, it, previousAttachment) }
     }
 
-    private fun exportAttachment(attachmentSecret: AttachmentSecret, cursor: Cursor, outputStream: BackupFrameOutputStream) {
+    @Throws(IOException::class)
+    private fun writeRow(outputStream: BackupFrameOutputStream, statement: SqlStatement, attachment: PendingAttachment?) {
+        outputStream.writeSql(statement)
+        if (attachment == null) return
         try {
-            val rowId = cursor.getLong(cursor.getColumnIndexOrThrow(AttachmentDatabase.ROW_ID))
-            val uniqueId = cursor.getLong(cursor.getColumnIndexOrThrow(AttachmentDatabase.UNIQUE_ID))
-            var size = cursor.getLong(cursor.getColumnIndexOrThrow(AttachmentDatabase.SIZE))
-            val data = cursor.getString(cursor.getColumnIndexOrThrow(AttachmentDatabase.DATA))
-            val random = cursor.getBlob(cursor.getColumnIndexOrThrow(AttachmentDatabase.DATA_RANDOM))
-            if (!TextUtils.isEmpty(data) && size <= 0) {
-                size = calculateVeryOldStreamLength(attachmentSecret, random, data)
-            }
-            if (!TextUtils.isEmpty(data) && size > 0) {
-                val inputStream: InputStream = if (random != null && random.size == 32) {
-                    ModernDecryptingPartInputStream.createFor(attachmentSecret, random, File(data), 0)
-                } else {
-                    ClassicDecryptingPartInputStream.createFor(attachmentSecret, File(data))
-                }
-                outputStream.writeAttachment(AttachmentId(rowId, uniqueId), inputStream, size)
-            }
+            attachment.awaitOpen()
         } catch (e: IOException) {
+            // Like a missing part, an unreadable one is left out of the backup
             Log.w(TAG, e)
+            return
+        }
+        if (attachment.size > 0) {
+            outputStream.writeAttachment(attachment)
+        } else {
+            attachment.discard()
         }
     }
 
+    private fun readAttachment(reader: AttachmentReader, cursor: Cursor): PendingAttachment? {
+        val rowId = cursor.getLong(cursor.getColumnIndexOrThrow(AttachmentDatabase.ROW_ID))
+        val uniqueId = cursor.getLong(cursor.getColumnIndexOrThrow(AttachmentDatabase.UNIQUE_ID))
+        val size = cursor.getLong(cursor.getColumnIndexOrThrow(AttachmentDatabase.SIZE))
+        val data = cursor.getString(cursor.getColumnIndexOrThrow(AttachmentDatabase.DATA))
+        val random = cursor.getBlob(cursor.getColumnIndexOrThrow(AttachmentDatabase.DATA_RANDOM))
+        if (TextUtils.isEmpty(data)) return null
+        return reader.read(AttachmentId(rowId, uniqueId), File(data), random, size)
+    }
+
     @Throws(IOException::class)
-    private fun calculateVeryOldStreamLength(attachmentSecret: AttachmentSecret, random: ByteArray?, data: String): Long {
-        var result: Long = 0
-        val inputStream: InputStream = if (random != null && random.size == 32) {
-            ModernDecryptingPartInputStream.createFor(attachmentSecret, random, File(data), 0)
+    private fun openAttachment(attachmentSecret: AttachmentSecret, random: ByteArray?, file: File): InputStream {
+        return if (random != null && random.size == 32) {
+            ModernDecryptingPartInputStream.createFor(attachmentSecret, random, file, 0)
         } else {
-            ClassicDecryptingPartInputStream.createFor(attachmentSecret, File(data))
+            ClassicDecryptingPartInputStream.createFor(attachmentSecret, file)
+        }
+    }
+
+    /**
+     * For parts stored without their size: a modern part is as long as its plaintext, and a classic
+     * one only needs its last block decrypted to find the padding.
+     */
+    @Throws(IOException::class)
+    private fun getPlaintextLength(attachmentSecret: AttachmentSecret, random: ByteArray?, file: File): Long {
+        return if (random != null && random.size == 32) {
+            if (!file.exists()) throw FileNotFoundException(file.path)
+            file.length()
+        } else {
+            ClassicDecryptingPartInputStream.getPlaintextLength(attachmentSecret, file)
+        }
+    }
+
+    /**
+     * Decrypts attachments one after the other on its own thread, handing their plaintext to the
+     * writer in chunks from a shared pool. The pool bounds how far ahead the reader gets.
+     */
+    private class AttachmentReader(private val attachmentSecret: AttachmentSecret) : Closeable {
+
+        private val executor: ExecutorService = Executors.newSingleThreadExecutor { Thread(it, "backup-attachment-reader") }
+        private val freeChunks: BlockingQueue<ByteArray> = ArrayBlockingQueue<ByteArray>(CHUNK_COUNT).apply {
+            repeat(CHUNK_COUNT) { add(ByteArray(CHUNK_SIZE)) }
+        }
+
+        fun read(attachmentId: AttachmentId, file: File, random: ByteArray?, size: Long): PendingAttachment {
+            val attachment = PendingAttachment(attachmentId, freeChunks)
+            executor.execute { attachment.fill(file, random, size) }
+            return attachment
+        }
+
+        private fun PendingAttachment.fill(file: File, random: ByteArray?, size: Long) {
+            try {
+                this.size = if (size <= 0) getPlaintextLength(attachmentSecret, random, file) else size
+                openAttachment(attachmentSecret, random, file).use { inputStream ->
+                    opened()
+                    while (true) {
+                        val buffer = freeChunks.take()
+                        val length = readChunk(inputStream, buffer)
+                        if (length == 0) {
+                            freeChunks.put(buffer)
+                            break
+                        }
+                        chunks.put(Chunk(buffer, length))
+                    }
+                }
+                chunks.put(Chunk.END)
+            } catch (e: IOException) {
+                failed(e)
+            } catch (e: InterruptedException) {
+                failed(IOException(e))
+            }
+        }
+
+        private fun readChunk(inputStream: InputStream, buffer: ByteArray): Int {
+            var length = 0
+            while (length < buffer.size) {
+                val read = inputStream.read(buffer, length, buffer.size - length)
+                if (read == -1) break
+                length += read
+            }
+            return length
+        }
+
+        override fun close() {
+            executor.shutdownNow()
         }
-        var read: Int
-        val buffer = ByteArray(8192)
-        while (inputStream.read(buffer, 0, buffer.size).also { read = it } != -1) {
-            result += read.toLong()
+    }
+
+    private class Chunk(val buffer: ByteArray?, val length: Int, val error: IOException? = null) {
+        companion object {
+            val END = Chunk(null, 0)
         }
-        return result
     }
 
-    private fun isForNonExpiringMessage(db: SQLiteDatabase, mmsId: Long): Boolean {
-        val columns = arrayOf(MmsSmsColumns.EXPIRES_IN)
-        val where = MmsSmsColumns.ID + " = ?"
-        val args = arrayOf(mmsId.toString())
-        db.query(MmsDatabase.TABLE_NAME, columns, where, args, null, null, null).use { mmsCursor ->
-            if (mmsCursor != null && mmsCursor.moveToFirst()) {
-                return mmsCursor.getLong(0) == 0L
+    private class PendingAttachment(val attachmentId: AttachmentId, private val freeChunks: BlockingQueue<ByteArray>) {
+
+        val chunks: BlockingQueue<Chunk> = LinkedBlockingQueue()
+
+        @Volatile var size = 0L
+        @Volatile private var openError: IOException? = null
+        private val open = CountDownLatch(1)
+
+        fun opened() = open.countDown()
+
+        fun failed(e: IOException) {
+            if (open.count > 0) {
+                openError = e
+                open.countDown()
+            } else {
+                chunks.put(Chunk(null, 0, e))
+            }
+        }
+
+        /** Waits for the part to be opened, throwing if it couldn't be. */
+        @Throws(IOException::class)
+        fun awaitOpen() {
+            try {
+                open.await()
+            } catch (e: InterruptedException) {
+                throw IOException(e)
+            }
+            openError?.let { throw it }
+        }
+
+        /** Hands every chunk of plaintext to [block], returning the buffers to the pool. */
+        @Throws(IOException::class)
+        fun forEachChunk(block: (ByteArray, Int) -> Unit) {
+            while (true) {
+                val chunk = try {
+                    chunks.take()
+                } catch (e: InterruptedException) {
+                    throw IOException(e)
+                }
+                chunk.error?.let { throw it }
+                val buffer = chunk.buffer ?: return
+                try {
+                    block(buffer, chunk.length)
+                } finally {
+                    freeChunks.put(buffer)
+                }
             }
         }
-        return false
+
+        @Throws(IOException::class)
+        fun discard() = forEachChunk { _, _ -> }
     }
 
     private class BackupFrameOutputStream : Closeable, Flushable {
@@ -283,9 +438,12 @@ object FullBackupExporter {
         private val outputStream: OutputStream
         private var cipher: Cipher
         private var mac: Mac
-        private val cipherKey: ByteArray
+        private val cipherKey: SecretKeySpec
         private val macKey: ByteArray
         private val iv: ByteArray
+        private val macBuffer = ByteArray(32)
+        private val streamBuffer = ByteArray(CHUNK_SIZE)
+        private val ciphertextBuffer = ByteArray(CHUNK_SIZE + 16)
 
         private var counter: Int = 0
 
@@ -295,7 +453,7 @@ object FullBackupExporter {
                 val key = BackupUtil.computeBackupKey(passphrase, salt)
                 val derived = HKDFv3().deriveSecrets(key, "Backup Export".toByteArray(), 64)
                 val split = ByteUtil.split(derived, 32, 32)
-                cipherKey = split[0]
+                cipherKey = SecretKeySpec(split[0], "AES")
                 macKey = split[1]
                 cipher = Cipher.getInstance("AES/CTR/NoPadding")
                 mac = Mac.getInstance("HmacSHA256")
@@ -343,15 +501,17 @@ object FullBackupExporter {
         }
 
         @Throws(IOException::class)
-        fun writeAttachment(attachmentId: AttachmentId, inputStream: InputStream, size: Long) {
+        fun writeAttachment(attachment: PendingAttachment) {
             write(outputStream, BackupFrame.newBuilder()
                     .setAttachment(Attachment.newBuilder()
-                            .setRowId(attachmentId.rowId)
-                            .setAttachmentId(attachmentId.uniqueId)
-                            .setLength(Util.toIntExact(size))
+                            .setRowId(attachment.attachmentId.rowId)
+                            .setAttachmentId(attachment.attachmentId.uniqueId)
+                            .setLength(Util.toIntExact(attachment.size))
                             .build())
                     .build())
-            writeStream(inputStream)
+            beginStream()
+            attachment.forEachChunk { buffer, length -> updateStream(buffer, length) }
+            endStream()
         }
 
         @Throws(IOException::class)
@@ -379,24 +539,46 @@ object FullBackupExporter {
 
         @Throws(IOException::class)
         private fun writeStream(inputStream: InputStream) {
+            beginStream()
+            var read: Int
+            while (inputStream.read(streamBuffer).also { read = it } != -1) {
+                updateStream(streamBuffer, read)
+            }
+            endStream()
+        }
+
+        private fun beginStream() {
             try {
                 Conversions.intToByteArray(iv, 0, counter++)
-                cipher.init(Cipher.ENCRYPT_MODE, SecretKeySpec(cipherKey, "AES"), IvParameterSpec(iv))
+                cipher.init(Cipher.ENCRYPT_MODE, cipherKey, IvParameterSpec(iv))
                 mac.update(iv)
-                val buffer = ByteArray(8192)
-                var read: Int
-                while (inputStream.read(buffer).also { read = it } != -1) {
-                    val ciphertext = cipher.update(buffer, 0, read)
-                    if (ciphertext != null) {
-                        outputStream.write(ciphertext)
-                        mac.update(ciphertext)
+            } catch (e: Exception) {
+                when (e) {
+                    is InvalidKeyException,
+                    is InvalidAlgorithmParameterException -> {
+                        throw AssertionError(e)
                     }
+                    else -> throw e
                 }
+            }
+        }
+
+        /** Encrypts up to [CHUNK_SIZE] bytes of the stream started by [beginStream]. */
+        @Throws(IOException::class)
+        private fun updateStream(buffer: ByteArray, length: Int) {
+            val ciphertextLength = cipher.update(buffer, 0, length, ciphertextBuffer)
+            outputStream.write(ciphertextBuffer, 0, ciphertextLength)
+            mac.update(ciphertextBuffer, 0, ciphertextLength)
+        }
+
+        @Throws(IOException::class)
+        private fun endStream() {
+            try {
                 val remainder = cipher.doFinal()
                 outputStream.write(remainder)
                 mac.update(remainder)
-                val attachmentDigest = mac.doFinal()
-                outputStream.write(attachmentDigest, 0, 10)
+                mac.doFinal(macBuffer, 0)
+                outputStream.write(macBuffer, 0, 10)
             } catch (e: Exception) {
                 when (e) {
                     is InvalidKeyException,
@@ -414,13 +596,15 @@ object FullBackupExporter {
         private fun write(out: OutputStream, frame: BackupFrame) {
             try {
                 Conversions.intToByteArray(iv, 0, counter++)
-                cipher.init(Cipher.ENCRYPT_MODE, SecretKeySpec(cipherKey, "AES"), IvParameterSpec(iv))
-                val frameCiphertext = cipher.doFinal(frame.toByteArray())
-                val frameMac = mac.doFinal(frameCiphertext)
-                val length = Conversions.intToByteArray(frameCiphertext.size + 10)
-                out.write(length)
-                out.write(frameCiphertext)
-                out.write(frameMac, 0, 10)
+                cipher.init(Cipher.ENCRYPT_MODE, cipherKey, IvParameterSpec(iv))
+                // CTR doesn't change the length, so the frame is encrypted in place
+                val frameBytes = frame.toByteArray()
+                val length = cipher.doFinal(frameBytes, 0, frameBytes.size, frameBytes, 0)
+                mac.update(frameBytes, 0, length)
+                mac.doFinal(macBuffer, 0)
+                out.write(Conversions.intToByteArray(length + 10))
+                out.write(frameBytes, 0, length)
+                out.write(macBuffer, 0, 10)
             } catch (e: Exception) {
                 when (e) {
                     is InvalidKeyException,
@@ -1,11 +1,12 @@
 package org.thoughtcrime.securesms.backup
 
 import android.annotation.SuppressLint
-import android.content.ContentValues
 import android.content.Context
+import android.content.SharedPreferences
 import android.net.Uri
 import androidx.annotation.WorkerThread
 import net.zetetic.database.sqlcipher.SQLiteDatabase
+import net.zetetic.database.sqlcipher.SQLiteStatement
 import org.greenrobot.eventbus.EventBus
 import org.session.libsession.avatars.AvatarHelper
 import org.session.libsession.messaging.sending_receiving.attachments.AttachmentId
@@ -36,13 +37,18 @@ import java.io.File
 import java.io.FileOutputStream
 import java.io.IOException
 import java.io.InputStream
+import java.io.InterruptedIOException
 import java.io.OutputStream
 import java.security.InvalidAlgorithmParameterException
 import java.security.InvalidKeyException
 import java.security.MessageDigest
 import java.security.NoSuchAlgorithmException
-import java.util.LinkedList
 import java.util.Locale
+import java.util.concurrent.ArrayBlockingQueue
+import java.util.concurrent.BlockingQueue
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
 import javax.crypto.BadPaddingException
 import javax.crypto.Cipher
 import javax.crypto.IllegalBlockSizeException
@@ -61,6 +67,9 @@ object FullBackupImporter {
 
     private val TAG = FullBackupImporter::class.java.simpleName
 
+    private const val CHUNK_SIZE = 256 * 1024
+    private const val CHUNK_COUNT = 8
+
     @JvmStatic
     @WorkerThread
     @Throws(IOException::class)
@@ -73,30 +82,49 @@ object FullBackupImporter {
         val baseInputStream = context.contentResolver.openInputStream(fileUri)
                 ?: throw IOException("Cannot open an input stream for the file URI: $fileUri")
 
+        // Applied only once the database is, so a failed import leaves nothing behind
+        val preferences = HashMap<String, SharedPreferences.Editor>()
+        val avatars = ArrayList<Pair<File, File>>()
+        val writer = AttachmentWriter(attachmentSecret)
         var count = 0
         try {
             BackupRecordInputStream(baseInputStream, passphrase).use { inputStream ->
-                db.beginTransaction()
-                dropAllTables(db)
-                var frame: BackupFrame
-                while (!inputStream.readFrame().also { frame = it }.end) {
-                    if (count++ % 100 == 0) EventBus.getDefault().post(BackupEvent.createProgress(count))
-                    when {
-                        frame.hasVersion() -> processVersion(db, frame.version)
-                        frame.hasStatement() -> processStatement(db, frame.statement)
-                        frame.hasPreference() -> processPreference(context, frame.preference)
-                        frame.hasAttachment() -> processAttachment(context, attachmentSecret, db, frame.attachment, inputStream)
-                        frame.hasAvatar() -> processAvatar(context, frame.avatar, inputStream)
+                StatementCache(db).use { statements ->
+                    db.beginTransaction()
+                    dropAllTables(db)
+                    // Filled in one go once the rows are in, rather than on every insert
+                    val indexes = ArrayList<String>()
+                    var frame: BackupFrame
+                    while (!inputStream.readFrame().also { frame = it }.end) {
+                        if (count++ % 100 == 0) EventBus.getDefault().post(BackupEvent.createProgress(count))
+                        when {
+                            frame.hasVersion() -> processVersion(db, frame.version)
+                            frame.hasStatement() -> processStatement(db, statements, indexes, frame.statement)
+                            frame.hasPreference() -> processPreference(context, preferences, frame.preference)
+                            frame.hasAttachment() -> processAttachment(context, statements, writer, frame.attachment, inputStream)
+                            frame.hasAvatar() -> avatars += processAvatar(context, frame.avatar, inputStream)
+                        }
+                    }
+                    for (index in indexes) {
+                        db.execSQL(index)
                     }
+                    writer.finish()
+                    trimEntriesForExpiredMessages(context, db)
+                    db.setTransactionSuccessful()
                 }
-                trimEntriesForExpiredMessages(context, db)
-                db.setTransactionSuccessful()
             }
+        } catch (e: Throwable) {
+            writer.discard()
+            avatars.forEach { (temp, _) -> temp.delete() }
+            throw e
         } finally {
+            writer.close()
             if (db.inTransaction()) {
                 db.endTransaction()
             }
         }
+        commitPreferences(preferences)
+        avatars.forEach { (temp, file) -> if (!temp.renameTo(file)) Log.w(TAG, "Failed to restore avatar ${file.name}") }
         EventBus.getDefault().post(BackupEvent.createFinished())
     }
 
@@ -108,74 +136,100 @@ object FullBackupImporter {
         db.version = version.version
     }
 
-    private fun processStatement(db: SQLiteDatabase, statement: SqlStatement) {
+    private fun processStatement(db: SQLiteDatabase, statements: StatementCache, indexes: MutableList<String>, statement: SqlStatement) {
         val isForSmsFtsSecretTable = statement.statement.contains(SearchDatabase.SMS_FTS_TABLE_NAME + "_")
         val isForMmsFtsSecretTable = statement.statement.contains(SearchDatabase.MMS_FTS_TABLE_NAME + "_")
-        val isForSqliteSecretTable = statement.statement.toLowerCase(Locale.ENGLISH).startsWith("create table sqlite_")
+        val lowerCaseStatement = statement.statement.toLowerCase(Locale.ENGLISH)
+        val isForSqliteSecretTable = lowerCaseStatement.startsWith("create table sqlite_")
         if (isForSmsFtsSecretTable || isForMmsFtsSecretTable || isForSqliteSecretTable) {
             Log.i(TAG, "Ignoring import for statement: " + statement.statement)
             return
         }
-        val parameters: MutableList<Any?> = LinkedList()
-        for (parameter in statement.parametersList) {
-            when {
-                parameter.hasStringParamter() -> parameters.add(parameter.stringParamter)
-                parameter.hasDoubleParameter() -> parameters.add(parameter.doubleParameter)
-                parameter.hasIntegerParameter() -> parameters.add(parameter.integerParameter)
-                parameter.hasBlobParameter() -> parameters.add(parameter.blobParameter.toByteArray())
-                parameter.hasNullparameter() -> parameters.add(null)
-            }
+        if (lowerCaseStatement.startsWith("create index") || lowerCaseStatement.startsWith("create unique index")) {
+            indexes.add(statement.statement)
+            return
         }
-        if (parameters.size > 0) {
-            db.execSQL(statement.statement, parameters.toTypedArray())
-        } else {
+        if (statement.parametersCount == 0) {
             db.execSQL(statement.statement)
+            return
+        }
+        // Every row of a table comes with the same statement, so it's only compiled once
+        val compiled = statements.get(statement.statement)
+        compiled.clearBindings()
+        statement.parametersList.forEachIndexed { i, parameter ->
+            when {
+                parameter.hasStringParamter() -> compiled.bindString(i + 1, parameter.stringParamter)
+                parameter.hasDoubleParameter() -> compiled.bindDouble(i + 1, parameter.doubleParameter)
+                parameter.hasIntegerParameter() -> compiled.bindLong(i + 1, parameter.integerParameter)
+                parameter.hasBlobParameter() -> compiled.bindBlob(i + 1, parameter.blobParameter.toByteArray())
+                else -> compiled.bindNull(i + 1)
+            }
         }
+        compiled.execute()
     }
 
     @Throws(IOException::class)
-    private fun processAttachment(context: Context, attachmentSecret: AttachmentSecret,
-                                  db: SQLiteDatabase, attachment: Attachment,
+    private fun processAttachment(context: Context, statements: StatementCache,
+                                  writer: AttachmentWriter, attachment: Attachment,
                                   inputStream: BackupRecordInputStream) {
         val partsDirectory = context.getDir(AttachmentDatabase.DIRECTORY, Context.MODE_PRIVATE)
         val dataFile = File.createTempFile("part", ".mms", partsDirectory)
-        val output = ModernEncryptingPartOutputStream.createFor(attachmentSecret, dataFile, false)
+        val output = writer.write(dataFile)
         inputStream.readAttachmentTo(output.second, attachment.length)
-        val contentValues = ContentValues()
-        contentValues.put(AttachmentDatabase.DATA, dataFile.absolutePath)
-        contentValues.put(AttachmentDatabase.THUMBNAIL, null as String?)
-        contentValues.put(AttachmentDatabase.DATA_RANDOM, output.first)
-        db.update(AttachmentDatabase.TABLE_NAME, contentValues,
-                "${AttachmentDatabase.ROW_ID} = ? AND ${AttachmentDatabase.UNIQUE_ID} = ?",
-                arrayOf(attachment.rowId.toString(), attachment.attachmentId.toString()))
+        val update = statements.get("UPDATE ${AttachmentDatabase.TABLE_NAME} SET ${AttachmentDatabase.DATA} = ?, " +
+                "${AttachmentDatabase.THUMBNAIL} = NULL, ${AttachmentDatabase.DATA_RANDOM} = ?, ${AttachmentDatabase.DATA_HASH} = NULL " +
+                "WHERE ${AttachmentDatabase.ROW_ID} = ? AND ${AttachmentDatabase.UNIQUE_ID} = ?")
+        update.bindString(1, dataFile.absolutePath)
+        update.bindBlob(2, output.first)
+        update.bindLong(3, attachment.rowId)
+        update.bindLong(4, attachment.attachmentId)
+        update.execute()
     }
 
+    /**
+     * Restores the avatar next to where it belongs.
+     *
+     * @return The restored file and the one it replaces once the import succeeds.
+     */
     @Throws(IOException::class)
-    private fun processAvatar(context: Context, avatar: Avatar, inputStream: BackupRecordInputStream) {
-        inputStream.readAttachmentTo(FileOutputStream(
-                AvatarHelper.getAvatarFile(context, Address.fromExternal(context, avatar.name))), avatar.length)
+    private fun processAvatar(context: Context, avatar: Avatar, inputStream: BackupRecordInputStream): Pair<File, File> {
+        val file = AvatarHelper.getAvatarFile(context, Address.fromExternal(context, avatar.name))
+        val temp = File(file.parentFile, file.name + ".restore")
+        try {
+            inputStream.readAttachmentTo(FileOutputStream(temp), avatar.length)
+        } catch (e: IOException) {
+            temp.delete()
+            throw e
+        }
+        return Pair(temp, file)
     }
 
-    @SuppressLint("ApplySharedPref")
-    private fun processPreference(context: Context, preference: SharedPreference) {
-        val preferences = context.getSharedPreferences(preference.file, 0)
+    private fun processPreference(context: Context, editors: MutableMap<String, SharedPreferences.Editor>, preference: SharedPreference) {
+        val editor = editors.getOrPut(preference.file) { context.getSharedPreferences(preference.file, 0).edit() }
         val key = preference.key
         val value = preference.value
 
         // See the comment next to PREF_PREFIX_TYPE_* constants.
         when {
             key.startsWith(PREF_PREFIX_TYPE_INT) ->
-                preferences.edit().putInt(
+                editor.putInt(
                         key.substring(PREF_PREFIX_TYPE_INT.length),
                         value.toInt()
-                ).commit()
+                )
             key.startsWith(PREF_PREFIX_TYPE_BOOLEAN) ->
-                preferences.edit().putBoolean(
+                editor.putBoolean(
                         key.substring(PREF_PREFIX_TYPE_BOOLEAN.length),
                         value.toBoolean()
-                ).commit()
+                )
             else ->
-                preferences.edit().putString(key, value).commit()
+                editor.putString(key, value)
+        }
+    }
+
+    @SuppressLint("ApplySharedPref")
+    private fun commitPreferences(editors: Map<String, SharedPreferences.Editor>) {
+        for (editor in editors.values) {
+            editor.commit()
         }
     }
 
@@ -210,7 +264,145 @@ object FullBackupImporter {
         }
     }
 
-    private class BackupRecordInputStream : Closeable {
+    /**
+     * Compiled statements by their SQL, kept for the length of an import.
+     */
+    private class StatementCache(private val db: SQLiteDatabase) : Closeable {
+
+        private val statements = HashMap<String, SQLiteStatement>()
+
+        fun get(sql: String): SQLiteStatement = statements.getOrPut(sql) { db.compileStatement(sql) }
+
+        override fun close() {
+            statements.values.forEach { it.close() }
+            statements.clear()
+        }
+    }
+
+    /**
+     * Encrypts and writes restored parts on its own thread while the import carries on with the
+     * next frames. Plaintext is handed over in chunks from a shared pool, which bounds how far
+     * behind the writer gets.
+     */
+    private class AttachmentWriter(private val attachmentSecret: AttachmentSecret) : Closeable {
+
+        private val executor: ExecutorService = Executors.newSingleThreadExecutor { Thread(it, "backup-attachment-writer") }
+        private val freeChunks: BlockingQueue<ByteArray> = ArrayBlockingQueue<ByteArray>(CHUNK_COUNT).apply {
+            repeat(CHUNK_COUNT) { add(ByteArray(CHUNK_SIZE)) }
+        }
+        private val files = ArrayList<File>()
+
+        @Volatile
+        private var error: IOException? = null
+
+        /**
+         * @return The random the part is encrypted with, and a stream for its plaintext. The part
+         * is complete once [finish] returns.
+         */
+        @Throws(IOException::class)
+        fun write(file: File): Pair<ByteArray, OutputStream> {
+            files.add(file)
+            val output = ModernEncryptingPartOutputStream.createFor(attachmentSecret, file, false)
+            return Pair(output.first, PartOutputStream(output.second))
+        }
+
+        /** Waits for every part to be written. */
+        @Throws(IOException::class)
+        fun finish() {
+            executor.shutdown()
+            try {
+                executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS)
+            } catch (e: InterruptedException) {
+                throw InterruptedIOException()
+            }
+            error?.let { throw it }
+        }
+
+        /** Stops writing and deletes the parts written so far. */
+        fun discard() {
+            executor.shutdownNow()
+            try {
+                executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS)
+            } catch (e: InterruptedException) {
+                Thread.currentThread().interrupt()
+            }
+            files.forEach { it.delete() }
+        }
+
+        override fun close() {
+            executor.shutdownNow()
+        }
+
+        private fun failed(e: IOException) {
+            if (error == null) error = e
+        }
+
+        private inner class PartOutputStream(private val output: OutputStream) : OutputStream() {
+
+            private var chunk: ByteArray? = null
+            private var length = 0
+
+            override fun write(b: Int) {
+                write(byteArrayOf(b.toByte()), 0, 1)
+            }
+
+            override fun write(b: ByteArray, off: Int, len: Int) {
+                var offset = off
+                var remaining = len
+                while (remaining > 0) {
+                    val chunk = this.chunk ?: takeChunk().also { this.chunk = it }
+                    val count = minOf(remaining, chunk.size - length)
+                    System.arraycopy(b, offset, chunk, length, count)
+                    length += count
+                    offset += count
+                    remaining -= count
+                    if (length == chunk.size) submit()
+                }
+            }
+
+            override fun close() {
+                submit()
+                executor.execute {
+                    try {
+                        output.close()
+                    } catch (e: IOException) {
+                        failed(e)
+                    }
+                }
+            }
+
+            private fun takeChunk(): ByteArray {
+                val chunk = try {
+                    freeChunks.take()
+                } catch (e: InterruptedException) {
+                    throw InterruptedIOException()
+                }
+                error?.let {
+                    freeChunks.add(chunk)
+                    throw IOException(it)
+                }
+                return chunk
+            }
+
+            private fun submit() {
+                val chunk = this.chunk ?: return
+                val length = this.length
+                this.chunk = null
+                this.length = 0
+                executor.execute {
+                    try {
+                        if (error == null) output.write(chunk, 0, length)
+                    } catch (e: IOException) {
+                        failed(e)
+                    } finally {
+                        freeChunks.add(chunk)
+                    }
+                }
+            }
+        }
+    }
+
+    internal class BackupRecordInputStream : Closeable {
         private val inputStream: InputStream
         private val cipher: Cipher
         private val mac: Mac
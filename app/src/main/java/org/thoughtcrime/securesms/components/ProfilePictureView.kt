@@ -18,6 +18,8 @@ import org.session.libsession.utilities.Address
 import org.session.libsession.utilities.GroupUtil
 import org.session.libsession.utilities.recipients.Recipient
 import org.thoughtcrime.securesms.dependencies.DatabaseComponent
+import org.thoughtcrime.securesms.glide.CachedAvatarPhoto
+import org.thoughtcrime.securesms.glide.cache.AvatarCache
 import org.thoughtcrime.securesms.mms.GlideRequests
 
 class ProfilePictureView @JvmOverloads constructor(
@@ -108,7 +110,11 @@ class ProfilePictureView @JvmOverloads constructor(
             val signalProfilePicture = recipient.contactPhoto
             val avatar = (signalProfilePicture as? ProfileContactPhoto)?.avatarObject
 
-            if (signalProfilePicture != null && avatar != "0" && avatar != "") {
+            if (signalProfilePicture is ProfileContactPhoto && avatar != "0" && avatar != "") {
+                // The avatar object changes with the picture, including the local user's (see Recipient.getContactPhoto)
+                val key = AvatarCache.Key(publicKey, "profile:${signalProfilePicture.avatarObject}", resources.getDimensionPixelSize(sizeResId))
+                setCachedAvatar(imageView, CachedAvatarPhoto(key, signalProfilePicture))
+            } else if (signalProfilePicture != null && avatar != "0" && avatar != "") {
                 glide.clear(imageView)
                 glide.load(signalProfilePicture)
                     .placeholder(unknownRecipientDrawable)
@@ -122,12 +128,8 @@ class ProfilePictureView @JvmOverloads constructor(
                 imageView.setImageDrawable(unknownOpenGroupDrawable)
             } else {
                 val placeholder = PlaceholderAvatarPhoto(context, publicKey, displayName ?: "${publicKey.take(4)}...${publicKey.takeLast(4)}")
-
-                glide.clear(imageView)
-                glide.load(placeholder)
-                    .placeholder(unknownRecipientDrawable)
-                    .centerCrop()
-                    .diskCacheStrategy(DiskCacheStrategy.NONE).circleCrop().into(imageView)
+                val key = AvatarCache.Key(publicKey, "placeholder:${placeholder.displayName}", resources.getDimensionPixelSize(sizeResId))
+                setCachedAvatar(imageView, CachedAvatarPhoto(key, placeholder))
             }
             profilePicturesCache[publicKey] = recipient.profileAvatar
         } else {
@@ -135,6 +137,23 @@ class ProfilePictureView @JvmOverloads constructor(
         }
     }
 
+    private fun setCachedAvatar(imageView: ImageView, avatar: CachedAvatarPhoto) {
+        glide.clear(imageView)
+        // Rebinding a recycled row shouldn't even wait for a Glide thread
+        val cached = AvatarCache.getInstance(context).getCached(avatar.key)
+        if (cached != null) {
+            imageView.setImageBitmap(cached)
+            return
+        }
+        glide.load(avatar)
+            .placeholder(unknownRecipientDrawable)
+            .error(unknownRecipientDrawable)
+            .dontTransform()
+            .skipMemoryCache(true)
+            .diskCacheStrategy(DiskCacheStrategy.NONE)
+            .into(imageView)
+    }
+
     fun recycle() {
         profilePicturesCache.clear()
     }
@@ -32,6 +32,9 @@ public class EmojiTextView extends AppCompatTextView {
   private CharSequence overflowText;
   private CharSequence previousOverflowText;
 
+  private CharSequence              knownCandidatesText;
+  private EmojiParser.CandidateList knownCandidates;
+
   public EmojiTextView(Context context) {
     this(context, null);
   }
@@ -48,6 +51,17 @@ public class EmojiTextView extends AppCompatTextView {
     originalFontSize = getResources().getDimension(R.dimen.small_font_size);
   }
 
+  /**
+   * Sets text whose emoji have already been found, e.g. off the main thread.
+   *
+   * @param candidates What {@link EmojiProvider#getCandidates(CharSequence)} returns for the text.
+   */
+  public void setText(@Nullable CharSequence text, @Nullable EmojiParser.CandidateList candidates) {
+    knownCandidatesText = text;
+    knownCandidates     = candidates;
+    setText(text, BufferType.NORMAL);
+  }
+
   @Override public void setText(@Nullable CharSequence text, BufferType type) {
     // No need to do anything special if the text is null or empty
     if (text == null || text.length() == 0) {
@@ -58,7 +72,7 @@ public class EmojiTextView extends AppCompatTextView {
       return;
     }
 
-    EmojiParser.CandidateList candidates = EmojiProvider.getCandidates(text);
+    EmojiParser.CandidateList candidates = text == knownCandidatesText ? knownCandidates : EmojiProvider.getCandidates(text);
 
     if (scaleEmojis && candidates != null && candidates.allEmojis) {
       int   emojis = candidates.size();
@@ -20,32 +20,44 @@
 
 package org.thoughtcrime.securesms.components.emoji.parsing;
 
+import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
-import java.util.HashMap;
+import java.util.ArrayDeque;
 import java.util.Map;
+import java.util.TreeMap;
 
 /**
  * Based in part on code from emoji-java
+ *
+ * The tree is stored flat, in arrays: the edges out of each node sit next to each other, sorted
+ * by character, and nodes are numbered in breadth-first order. Looking up a character is a binary
+ * search over a node's edges, and characters that don't start any emoji are rejected by a bitmap
+ * before that, so matching never allocates. Build one with a {@link Builder}.
  */
 public class EmojiTree {
 
-  private final EmojiTreeNode root = new EmojiTreeNode();
-
   private static final char TERMINATOR = '\ufe0f';
-
-  public void add(String emojiEncoding, EmojiDrawInfo emoji) {
-    EmojiTreeNode tree = root;
-
-    for (char c: emojiEncoding.toCharArray()) {
-      if (!tree.hasChild(c)) {
-        tree.addChild(c);
-      }
-
-      tree = tree.getChild(c);
+  private static final int  ROOT       = 0;
+
+  /** The edges out of node {@code n} are {@code edgeStart[n]} until {@code edgeStart[n + 1]}. */
+  private final int[]           edgeStart;
+  private final char[]          edgeCharacters;
+  private final int[]           edgeTargets;
+  private final EmojiDrawInfo[] emoji;
+  /** One bit per character, set for those which start an emoji. */
+  private final long[]          firstCharacters = new long[(Character.MAX_VALUE + 1) / 64];
+
+  private EmojiTree(int[] edgeStart, char[] edgeCharacters, int[] edgeTargets, EmojiDrawInfo[] emoji) {
+    this.edgeStart      = edgeStart;
+    this.edgeCharacters = edgeCharacters;
+    this.edgeTargets    = edgeTargets;
+    this.emoji          = emoji;
+
+    for (int i = edgeStart[ROOT]; i < edgeStart[ROOT + 1]; i++) {
+      char c = edgeCharacters[i];
+      firstCharacters[c >>> 6] |= 1L << (c & 63);
     }
-
-    tree.setEmoji(emoji);
   }
 
   public Matches isEmoji(CharSequence sequence, int startPosition, int endPosition) {
@@ -53,76 +65,162 @@ public class EmojiTree {
       return Matches.POSSIBLY;
     }
 
-    EmojiTreeNode tree = root;
+    int node = walk(sequence, startPosition, endPosition);
 
-    for (int i=startPosition; i<endPosition; i++) {
-      char character = sequence.charAt(i);
+    if      (node == -1)                                              return Matches.IMPOSSIBLE;
+    else if (emoji[node] != null)                                     return Matches.EXACTLY;
+    else if (sequence.charAt(endPosition - 1) != TERMINATOR &&
+             terminatedEmoji(node) != null)                           return Matches.EXACTLY;
+    else                                                              return Matches.POSSIBLY;
+  }
 
-      if (!tree.hasChild(character)) {
-        return Matches.IMPOSSIBLE;
-      }
+  public @Nullable EmojiDrawInfo getEmoji(CharSequence unicode, int startPosition, int endPosition) {
+    int node = walk(unicode, startPosition, endPosition);
 
-      tree = tree.getChild(character);
-    }
+    if      (node == -1)                                    return null;
+    else if (emoji[node] != null)                           return emoji[node];
+    else if (unicode.charAt(endPosition - 1) != TERMINATOR) return terminatedEmoji(node);
+    else                                                    return null;
+  }
 
-    if (tree.isEndOfEmoji()) {
-      return Matches.EXACTLY;
-    } else if (sequence.charAt(endPosition-1) != TERMINATOR && tree.hasChild(TERMINATOR) && tree.getChild(TERMINATOR).isEndOfEmoji()) {
-      return Matches.EXACTLY;
-    } else {
-      return Matches.POSSIBLY;
+  /**
+   * Returns the end of the longest emoji starting at {@code startPosition}, or -1 if none does.
+   * The same as trying every longer end with {@link #isEmoji} until one is impossible, in one pass.
+   */
+  public int findEmojiEnd(@NonNull CharSequence text, int startPosition) {
+    char first = text.charAt(startPosition);
+    if ((firstCharacters[first >>> 6] & (1L << (first & 63))) == 0) {
+      return -1;
     }
-  }
 
-  public @Nullable EmojiDrawInfo getEmoji(CharSequence unicode, int startPosition, int endPosition) {
-    EmojiTreeNode tree = root;
+    int best = -1;
+    int node = ROOT;
+
+    for (int i = startPosition; i < text.length(); i++) {
+      char character = text.charAt(i);
 
-    for (int i=startPosition; i<endPosition; i++) {
-      char character = unicode.charAt(i);
+      node = child(node, character);
+      if (node == -1) break;
 
-      if (!tree.hasChild(character)) {
-        return null;
+      if (emoji[node] != null || (character != TERMINATOR && terminatedEmoji(node) != null)) {
+        best = i + 1;
       }
+    }
+
+    return best;
+  }
 
-      tree = tree.getChild(character);
+  private int walk(CharSequence sequence, int startPosition, int endPosition) {
+    int node = ROOT;
+
+    for (int i = startPosition; i < endPosition && node != -1; i++) {
+      node = child(node, sequence.charAt(i));
     }
 
-    if      (tree.getEmoji() != null)                                                  return tree.getEmoji();
-    else if (unicode.charAt(endPosition-1) != TERMINATOR && tree.hasChild(TERMINATOR)) return tree.getChild(TERMINATOR).getEmoji();
-    else    return null;
+    return node;
   }
 
+  private @Nullable EmojiDrawInfo terminatedEmoji(int node) {
+    int terminated = child(node, TERMINATOR);
+    return terminated != -1 ? emoji[terminated] : null;
+  }
 
-  private static class EmojiTreeNode {
+  private int child(int node, char character) {
+    int low  = edgeStart[node];
+    int high = edgeStart[node + 1] - 1;
 
-    private Map<Character, EmojiTreeNode> children = new HashMap<>();
-    private EmojiDrawInfo emoji;
+    while (low <= high) {
+      int  middle = (low + high) >>> 1;
+      char value  = edgeCharacters[middle];
 
-    public void setEmoji(EmojiDrawInfo emoji) {
-      this.emoji = emoji;
+      if      (value < character) low  = middle + 1;
+      else if (value > character) high = middle - 1;
+      else                        return edgeTargets[middle];
     }
 
-    public @Nullable EmojiDrawInfo getEmoji() {
-      return emoji;
-    }
+    return -1;
+  }
 
-    boolean hasChild(char child) {
-      return children.containsKey(child);
-    }
+  public static class Builder {
+
+    private final BuilderNode root = new BuilderNode();
+
+    public Builder add(String emojiEncoding, EmojiDrawInfo emoji) {
+      BuilderNode tree = root;
+
+      for (char c: emojiEncoding.toCharArray()) {
+        BuilderNode child = tree.children.get(c);
+
+        if (child == null) {
+          child = new BuilderNode();
+          tree.children.put(c, child);
+        }
+
+        tree = child;
+      }
 
-    void addChild(char child) {
-      children.put(child, new EmojiTreeNode());
+      tree.emoji = emoji;
+      return this;
     }
 
-    EmojiTreeNode getChild(char child) {
-      return children.get(child);
+    /** The same as {@link EmojiTree#getEmoji} on the tree built so far. */
+    public @Nullable EmojiDrawInfo getEmoji(CharSequence unicode, int startPosition, int endPosition) {
+      BuilderNode tree = root;
+
+      for (int i = startPosition; i < endPosition && tree != null; i++) {
+        tree = tree.children.get(unicode.charAt(i));
+      }
+
+      if      (tree == null)                                  return null;
+      else if (tree.emoji != null)                            return tree.emoji;
+      else if (unicode.charAt(endPosition - 1) != TERMINATOR) return tree.children.containsKey(TERMINATOR) ? tree.children.get(TERMINATOR).emoji : null;
+      else                                                    return null;
     }
 
-    boolean isEndOfEmoji() {
-      return emoji != null;
+    public EmojiTree build() {
+      int nodeCount = 0;
+      ArrayDeque<BuilderNode> queue = new ArrayDeque<>();
+      queue.add(root);
+      while (!queue.isEmpty()) {
+        BuilderNode node = queue.remove();
+        nodeCount++;
+        queue.addAll(node.children.values());
+      }
+
+      int[]           edgeStart      = new int[nodeCount + 1];
+      char[]          edgeCharacters = new char[nodeCount - 1];
+      int[]           edgeTargets    = new int[nodeCount - 1];
+      EmojiDrawInfo[] emoji          = new EmojiDrawInfo[nodeCount];
+
+      // Nodes are numbered in the order they're queued, so a node's children get the next numbers
+      int node = 0;
+      int edge = 0;
+      queue.add(root);
+      while (!queue.isEmpty()) {
+        BuilderNode current = queue.remove();
+        emoji[node]     = current.emoji;
+        edgeStart[node] = edge;
+
+        for (Map.Entry<Character, BuilderNode> child : current.children.entrySet()) {
+          edgeCharacters[edge] = child.getKey();
+          edgeTargets[edge]    = edge + 1;
+          edge++;
+          queue.add(child.getValue());
+        }
+
+        node++;
+      }
+      edgeStart[nodeCount] = edge;
+
+      return new EmojiTree(edgeStart, edgeCharacters, edgeTargets, emoji);
     }
   }
 
+  private static class BuilderNode {
+    private final Map<Character, BuilderNode> children = new TreeMap<>();
+    private EmojiDrawInfo emoji;
+  }
+
   public enum Matches {
     EXACTLY, POSSIBLY, IMPOSSIBLE;
 
@@ -38,6 +38,9 @@ import network.loki.messenger.R
 import network.loki.messenger.databinding.ActivityConversationV2Binding
 import network.loki.messenger.databinding.ViewVisibleMessageBinding
 import nl.komponents.kovenant.ui.successUi
+import org.greenrobot.eventbus.EventBus
+import org.greenrobot.eventbus.Subscribe
+import org.greenrobot.eventbus.ThreadMode
 import org.session.libsession.messaging.MessagingModuleConfiguration
 import org.session.libsession.messaging.contacts.Contact
 import org.session.libsession.messaging.jobs.AttachmentDownloadJob
@@ -228,10 +231,12 @@ class ConversationActivityV2 : PassphraseRequiredActionBarActivity(), InputBarDe
     }
 
     private val adapter by lazy {
-        val cursor = mmsSmsDb.getConversation(viewModel.threadId, !isIncomingMessageRequestThread())
+        val reverse = !isIncomingMessageRequestThread()
+        val cursor = mmsSmsDb.getConversation(viewModel.threadId, reverse)
         val adapter = ConversationAdapter(
             this,
             cursor,
+            reverse,
             onItemPress = { message, position, view, event ->
                 handlePress(message, position, view, event)
             },
@@ -339,6 +344,7 @@ class ConversationActivityV2 : PassphraseRequiredActionBarActivity(), InputBarDe
         updateUnreadCountIndicator()
         setUpTypingObserver()
         setUpRecipientObserver()
+        EventBus.getDefault().register(this)
         updateSubtitle()
         getLatestOpenGroupInfoIfNeeded()
         setUpBlockedBanner()
@@ -622,6 +628,7 @@ class ConversationActivityV2 : PassphraseRequiredActionBarActivity(), InputBarDe
     override fun onDestroy() {
         viewModel.saveDraft(binding?.inputBar?.text?.trim() ?: "")
         tearDownRecipientObserver()
+        if (EventBus.getDefault().isRegistered(this)) EventBus.getDefault().unregister(this)
         super.onDestroy()
         binding = null
 //        actionBarBinding = null
@@ -629,6 +636,12 @@ class ConversationActivityV2 : PassphraseRequiredActionBarActivity(), InputBarDe
     // endregion
 
     // region Animation & Updating
+    @Subscribe(threadMode = ThreadMode.MAIN)
+    fun onContactUpdatedEvent(event: SessionContactDatabase.ContactUpdatedEvent) {
+        val layoutManager = layoutManager ?: return
+        adapter.contactUpdated(event.sessionID, layoutManager.findFirstVisibleItemPosition(), layoutManager.findLastVisibleItemPosition())
+    }
+
     override fun onModified(recipient: Recipient) {
         runOnUiThread {
             val threadRecipient = viewModel.recipient ?: return@runOnUiThread
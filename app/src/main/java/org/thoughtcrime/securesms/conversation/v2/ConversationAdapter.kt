@@ -26,6 +26,8 @@ import org.session.libsession.messaging.contacts.Contact
 import org.thoughtcrime.securesms.conversation.v2.messages.ControlMessageView
 import org.thoughtcrime.securesms.conversation.v2.messages.VisibleMessageView
 import org.thoughtcrime.securesms.conversation.v2.messages.VisibleMessageViewDelegate
+import org.thoughtcrime.securesms.conversation.v2.utilities.MentionUtilities
+import org.thoughtcrime.securesms.conversation.v2.utilities.MessageBodyCache
 import org.thoughtcrime.securesms.database.CursorRecyclerViewAdapter
 import org.thoughtcrime.securesms.database.model.MessageRecord
 import org.thoughtcrime.securesms.dependencies.DatabaseComponent
@@ -35,6 +37,7 @@ import org.thoughtcrime.securesms.preferences.PrivacySettingsActivity
 class ConversationAdapter(
     context: Context,
     cursor: Cursor,
+    private val reverse: Boolean,
     private val onItemPress: (MessageRecord, Int, VisibleMessageView, MotionEvent) -> Unit,
     private val onItemSwipeToReply: (MessageRecord, Int) -> Unit,
     private val onItemLongPress: (MessageRecord, Int, VisibleMessageView) -> Unit,
@@ -52,6 +55,14 @@ class ConversationAdapter(
     private val updateQueue = Channel<String>(1024, onBufferOverflow = BufferOverflow.DROP_OLDEST)
     private val contactCache = SparseArray<Contact>(100)
     private val contactLoadedCache = SparseBooleanArray(100)
+
+    // Bodies of the messages around the bound ones are rendered ahead of time, see MessageBodyCache
+    private val prefetchQueue = Channel<Pair<Long, Int>>(Channel.CONFLATED)
+    private val outgoingMentionColor = MentionUtilities.getMentionColor(context, true)
+    private val incomingMentionColor = MentionUtilities.getMentionColor(context, false)
+    private var prefetchFrom = 0
+    private var prefetchTo = 0
+
     init {
         lifecycleCoroutineScope.launch(IO) {
             while (isActive) {
@@ -61,6 +72,16 @@ class ConversationAdapter(
                 contactLoadedCache[item.hashCode()] = true
             }
         }
+        lifecycleCoroutineScope.launch(IO) {
+            while (isActive) {
+                val (threadId, offset) = prefetchQueue.receive()
+                prefetchBodies(threadId, offset)
+            }
+        }
+    }
+
+    companion object {
+        private const val PREFETCH_COUNT = 40
     }
 
     @WorkerThread
@@ -68,6 +89,23 @@ class ConversationAdapter(
         return contactDB.getContactWithSessionID(sender)
     }
 
+    @WorkerThread
+    private fun prefetchBodies(threadId: Long, offset: Int) {
+        val messages = mutableListOf<MessageRecord>()
+        messageDB.readerFor(messageDB.getConversation(threadId, reverse, offset.toLong(), PREFETCH_COUNT.toLong())).use { reader ->
+            while (true) messages += reader.next ?: break
+        }
+        MessageBodyCache.prefetch(context, messages, outgoingMentionColor, incomingMentionColor)
+    }
+
+    private fun prefetchAround(message: MessageRecord, position: Int) {
+        val margin = PREFETCH_COUNT / 4
+        if (position < prefetchTo - margin && (position >= prefetchFrom + margin || prefetchFrom == 0)) return
+        prefetchFrom = maxOf(0, position - margin)
+        prefetchTo = prefetchFrom + PREFETCH_COUNT
+        prefetchQueue.trySend(message.threadId to prefetchFrom)
+    }
+
     sealed class ViewType(val rawValue: Int) {
         object Visible : ViewType(0)
         object Control : ViewType(1)
@@ -106,6 +144,7 @@ class ConversationAdapter(
         val messageBefore = getMessageBefore(position, cursor)
         when (viewHolder) {
             is VisibleMessageViewHolder -> {
+                prefetchAround(message, position)
                 val visibleMessageView = ViewVisibleMessageBinding.bind(viewHolder.view).visibleMessageView
                 val isSelected = selectedItems.contains(message)
                 visibleMessageView.snIsSelected = isSelected
@@ -165,6 +204,22 @@ class ConversationAdapter(
         }
     }
 
+    /**
+     * Forgets the cached contact of [sessionID] and binds its messages from [firstPosition] to
+     * [lastPosition] again, for when its name or profile picture changed.
+     */
+    fun contactUpdated(sessionID: String, firstPosition: Int, lastPosition: Int) {
+        val senderIdHash = sessionID.hashCode()
+        contactCache.remove(senderIdHash)
+        contactLoadedCache.delete(senderIdHash)
+        if (!isActiveCursor || firstPosition < 0) return
+        for (position in firstPosition..minOf(lastPosition, itemCount - 1)) {
+            if (isHeaderPosition(position) || isFooterPosition(position)) continue
+            val message = getMessage(getCursorAtPositionOrThrow(position)) ?: continue
+            if (message.individualRecipient.address.serialize() == sessionID) notifyItemChanged(position)
+        }
+    }
+
     fun toggleSelection(message: MessageRecord, position: Int) {
         if (selectedItems.contains(message)) selectedItems.remove(message) else selectedItems.add(message)
         notifyItemChanged(position)
@@ -198,6 +253,9 @@ class ConversationAdapter(
 
     override fun changeCursor(cursor: Cursor?) {
         super.changeCursor(cursor)
+        // Positions have moved, the bodies already rendered are still found by message
+        prefetchFrom = 0
+        prefetchTo = 0
         val toRemove = mutableSetOf<MessageRecord>()
         val toDeselect = mutableSetOf<Pair<Int, MessageRecord>>()
         for (selected in selectedItems) {
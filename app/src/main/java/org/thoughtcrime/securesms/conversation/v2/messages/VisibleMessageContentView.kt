@@ -7,34 +7,27 @@ import android.graphics.drawable.Drawable
 import android.text.Spannable
 import android.text.style.BackgroundColorSpan
 import android.text.style.ForegroundColorSpan
-import android.text.style.URLSpan
-import android.text.util.Linkify
 import android.util.AttributeSet
 import android.view.LayoutInflater
 import android.view.MotionEvent
 import android.view.View
 import android.widget.LinearLayout
 import androidx.annotation.ColorInt
-import androidx.appcompat.app.AppCompatActivity
 import androidx.constraintlayout.widget.ConstraintLayout
 import androidx.core.content.res.ResourcesCompat
 import androidx.core.graphics.BlendModeColorFilterCompat
 import androidx.core.graphics.BlendModeCompat
-import androidx.core.text.getSpans
-import androidx.core.text.toSpannable
 import androidx.core.view.isVisible
 import network.loki.messenger.R
 import network.loki.messenger.databinding.ViewVisibleMessageContentBinding
-import okhttp3.HttpUrl
 import org.session.libsession.messaging.MessagingModuleConfiguration
 import org.session.libsession.messaging.sending_receiving.attachments.AttachmentTransferProgress
 import org.session.libsession.messaging.sending_receiving.attachments.DatabaseAttachment
 import org.session.libsession.utilities.getColorFromAttr
 import org.session.libsession.utilities.recipients.Recipient
 import org.thoughtcrime.securesms.conversation.v2.ConversationActivityV2
-import org.thoughtcrime.securesms.conversation.v2.ModalUrlBottomSheet
 import org.thoughtcrime.securesms.conversation.v2.utilities.MentionUtilities
-import org.thoughtcrime.securesms.conversation.v2.utilities.ModalURLSpan
+import org.thoughtcrime.securesms.conversation.v2.utilities.MessageBodyCache
 import org.thoughtcrime.securesms.conversation.v2.utilities.TextUtilities.getIntersectedModalSpans
 import org.thoughtcrime.securesms.database.model.MessageRecord
 import org.thoughtcrime.securesms.database.model.MmsMessageRecord
@@ -226,8 +219,13 @@ class VisibleMessageContentView : ConstraintLayout {
             val color = getTextColor(context, message)
             binding.bodyTextView.setTextColor(color)
             binding.bodyTextView.setLinkTextColor(color)
-            val body = getBodySpans(context, message, searchQuery)
-            binding.bodyTextView.text = body
+            val body = getBody(context, message)
+            val text = highlightSearchQuery(body.text, searchQuery)
+            if (text === body.text) {
+                binding.bodyTextView.setText(text, body.emojiCandidates)
+            } else {
+                binding.bodyTextView.text = text
+            }
             onContentClick.add { e: MotionEvent ->
                 binding.bodyTextView.getIntersectedModalSpans(e).iterator().forEach { span ->
                     span.onClick(binding.bodyTextView)
@@ -270,30 +268,19 @@ class VisibleMessageContentView : ConstraintLayout {
     companion object {
 
         fun getBodySpans(context: Context, message: MessageRecord, searchQuery: String?): Spannable {
-            var body = message.body.toSpannable()
-
-            body = MentionUtilities.highlightMentions(body, message.isOutgoing, message.threadId, context)
-            body = SearchUtil.getHighlightedSpan(Locale.getDefault(),
-                { BackgroundColorSpan(Color.WHITE) }, body, searchQuery)
-            body = SearchUtil.getHighlightedSpan(Locale.getDefault(),
-                { ForegroundColorSpan(Color.BLACK) }, body, searchQuery)
+            return highlightSearchQuery(getBody(context, message).text, searchQuery)
+        }
 
-            Linkify.addLinks(body, Linkify.WEB_URLS)
+        private fun getBody(context: Context, message: MessageRecord): MessageBodyCache.Body {
+            return MessageBodyCache.get(context, message, MentionUtilities.getMentionColor(context, message.isOutgoing))
+        }
 
-            // replace URLSpans with ModalURLSpans
-            body.getSpans<URLSpan>(0, body.length).toList().forEach { urlSpan ->
-                val updatedUrl = urlSpan.url.let { HttpUrl.parse(it).toString() }
-                val replacementSpan = ModalURLSpan(updatedUrl) { url ->
-                    val activity = context as AppCompatActivity
-                    ModalUrlBottomSheet(url).show(activity.supportFragmentManager, "Open URL Dialog")
-                }
-                val start = body.getSpanStart(urlSpan)
-                val end = body.getSpanEnd(urlSpan)
-                val flags = body.getSpanFlags(urlSpan)
-                body.removeSpan(urlSpan)
-                body.setSpan(replacementSpan, start, end, flags)
-            }
-            return body
+        private fun highlightSearchQuery(body: Spannable, searchQuery: String?): Spannable {
+            var result = SearchUtil.getHighlightedSpan(Locale.getDefault(),
+                { BackgroundColorSpan(Color.WHITE) }, body, searchQuery)
+            result = SearchUtil.getHighlightedSpan(Locale.getDefault(),
+                { ForegroundColorSpan(Color.BLACK) }, result, searchQuery)
+            return result
         }
 
         @ColorInt
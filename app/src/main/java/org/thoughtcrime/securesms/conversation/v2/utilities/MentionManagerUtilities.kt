@@ -2,33 +2,42 @@ package org.thoughtcrime.securesms.conversation.v2.utilities
 
 import android.content.Context
 import org.session.libsession.messaging.mentions.MentionsManager
-import org.session.libsession.utilities.TextSecurePreferences
 import org.thoughtcrime.securesms.database.model.MessageRecord
 import org.thoughtcrime.securesms.dependencies.DatabaseComponent
 
 object MentionManagerUtilities {
 
+    /**
+     * Indexes the people who can be mentioned in a thread, unless it's indexed already. Afterwards
+     * the index is kept up to date as messages arrive and contacts change their names, and a closed
+     * group's is dropped when its members change.
+     */
     fun populateUserPublicKeyCacheIfNeeded(threadID: Long, context: Context) {
-        val result = mutableSetOf<String>()
+        if (MentionsManager.isIndexed(threadID)) return
+        val participants = mutableMapOf<String, Long>() // Public key to when they were last active
         val recipient = DatabaseComponent.get(context).threadDatabase().getRecipientForThreadId(threadID) ?: return
         if (recipient.address.isClosedGroup) {
             val members = DatabaseComponent.get(context).groupDatabase().getGroupMembers(recipient.address.toGroupString(), false).map { it.address.serialize() }
-            result.addAll(members)
-        } else {
-            val messageDatabase = DatabaseComponent.get(context).mmsSmsDatabase()
-            val reader = messageDatabase.readerFor(messageDatabase.getConversation(threadID, true, 0, 200))
-            var record: MessageRecord? = reader.next
-            while (record != null) {
-                result.add(record.individualRecipient.address.serialize())
-                try {
-                    record = reader.next
-                } catch (exception: Exception) {
-                    record = null
-                }
+            members.forEach { participants[it] = 0 }
+        }
+        val messageDatabase = DatabaseComponent.get(context).mmsSmsDatabase()
+        val reader = messageDatabase.readerFor(messageDatabase.getConversation(threadID, true, 0, 200))
+        var record: MessageRecord? = reader.next
+        while (record != null) {
+            val publicKey = record.individualRecipient.address.serialize()
+            // Only current members can be mentioned in a closed group
+            if (!recipient.address.isClosedGroup || participants.containsKey(publicKey)) {
+                participants[publicKey] = maxOf(participants[publicKey] ?: 0, record.timestamp)
+            }
+            try {
+                record = reader.next
+            } catch (exception: Exception) {
+                record = null
             }
-            reader.close()
-            result.add(TextSecurePreferences.getLocalNumber(context)!!)
         }
-        MentionsManager.userPublicKeyCache[threadID] = result
+        reader.close()
+        val contacts = DatabaseComponent.get(context).sessionContactDatabase().getContacts(participants.keys)
+        val groupID = if (recipient.address.isClosedGroup) recipient.address.toGroupString() else null
+        MentionsManager.index(threadID, recipient.isOpenGroupRecipient, participants, contacts, groupID)
     }
-}
\ No newline at end of file
+}
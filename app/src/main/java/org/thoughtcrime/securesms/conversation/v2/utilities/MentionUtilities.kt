@@ -7,6 +7,7 @@ import android.text.SpannableString
 import android.text.style.ForegroundColorSpan
 import android.text.style.StyleSpan
 import android.util.Range
+import androidx.annotation.ColorInt
 import androidx.core.content.res.ResourcesCompat
 import network.loki.messenger.R
 import nl.komponents.kovenant.combine.Tuple2
@@ -20,6 +21,8 @@ import java.util.regex.Pattern
 
 object MentionUtilities {
 
+    private val pattern = Pattern.compile("@[0-9a-fA-F]*")
+
     @JvmStatic
     fun highlightMentions(text: CharSequence, threadID: Long, context: Context): String {
         return highlightMentions(text, false, threadID, context).toString() // isOutgoingMessage is irrelevant
@@ -27,47 +30,64 @@ object MentionUtilities {
 
     @JvmStatic
     fun highlightMentions(text: CharSequence, isOutgoingMessage: Boolean, threadID: Long, context: Context): SpannableString {
-        @Suppress("NAME_SHADOWING") var text = text
-        val pattern = Pattern.compile("@[0-9a-fA-F]*")
-        var matcher = pattern.matcher(text)
+        return highlightMentions(text, getMentionColor(context, isOutgoingMessage), threadID, context, null)
+    }
+
+    /**
+     * Replaces the public keys mentioned in [text] by names and highlights them, in a single pass.
+     * Doesn't touch the UI, so it can be called off the main thread.
+     *
+     * @param mentionedPublicKeys Collects every public key mentioned, including ones without a name
+     * yet, so the result can be replaced once they have one.
+     */
+    fun highlightMentions(text: CharSequence, @ColorInt color: Int, threadID: Long, context: Context,
+                          mentionedPublicKeys: MutableSet<String>?): SpannableString {
+        val matcher = pattern.matcher(text)
+        if (!matcher.find()) return SpannableString(text)
+        val builder = StringBuilder(text.length)
         val mentions = mutableListOf<Tuple2<Range<Int>, String>>()
-        var startIndex = 0
         val userPublicKey = TextSecurePreferences.getLocalNumber(context)!!
         val openGroup = DatabaseComponent.get(context).storage().getOpenGroup(threadID)
-        if (matcher.find(startIndex)) {
-            while (true) {
-                val publicKey = text.subSequence(matcher.start() + 1, matcher.end()).toString() // +1 to get rid of the @
+        val contactContext = if (openGroup != null) Contact.ContactContext.OPEN_GROUP else Contact.ContactContext.REGULAR
+        // A message tends to mention the same few people, so each one is only looked up once
+        val displayNames = HashMap<String, String?>()
+        var last = 0
+        do {
+            val publicKey = text.subSequence(matcher.start() + 1, matcher.end()).toString() // +1 to get rid of the @
+            val userDisplayName = displayNames.getOrPut(publicKey) {
                 val isUserBlindedPublicKey = openGroup?.let { SodiumUtilities.sessionId(userPublicKey, publicKey, it.publicKey) } ?: false
-                val userDisplayName: String? = if (publicKey.equals(userPublicKey, ignoreCase = true) || isUserBlindedPublicKey) {
+                if (publicKey.equals(userPublicKey, ignoreCase = true) || isUserBlindedPublicKey) {
                     context.getString(R.string.MessageRecord_you)
                 } else {
-                    val contact = DatabaseComponent.get(context).sessionContactDatabase().getContactWithSessionID(publicKey)
-                    @Suppress("NAME_SHADOWING") val context = if (openGroup != null) Contact.ContactContext.OPEN_GROUP else Contact.ContactContext.REGULAR
-                    contact?.displayName(context)
-                }
-                if (userDisplayName != null) {
-                    text = text.subSequence(0, matcher.start()).toString() + "@" + userDisplayName + text.subSequence(matcher.end(), text.length)
-                    val endIndex = matcher.start() + 1 + userDisplayName.length
-                    startIndex = endIndex
-                    mentions.add(Tuple2(Range.create(matcher.start(), endIndex), publicKey))
-                } else {
-                    startIndex = matcher.end()
+                    DatabaseComponent.get(context).sessionContactDatabase().getContactWithSessionID(publicKey)?.displayName(contactContext)
                 }
-                matcher = pattern.matcher(text)
-                if (!matcher.find(startIndex)) { break }
             }
-        }
-        val result = SpannableString(text)
-        val isLightMode = UiModeUtilities.isDayUiMode(context)
-        val color = if (isOutgoingMessage) {
-            ResourcesCompat.getColor(context.resources, if (isLightMode) R.color.white else R.color.black, context.theme)
-        } else {
-            context.getAccentColor()
-        }
+            if (publicKey.isNotEmpty()) mentionedPublicKeys?.add(publicKey)
+            if (userDisplayName != null) {
+                builder.append(text, last, matcher.start()).append('@')
+                val startIndex = builder.length - 1
+                builder.append(userDisplayName)
+                mentions.add(Tuple2(Range.create(startIndex, builder.length), publicKey))
+                last = matcher.end()
+            }
+        } while (matcher.find())
+        if (mentions.isEmpty()) return SpannableString(text)
+        builder.append(text, last, text.length)
+        val result = SpannableString(builder)
         for (mention in mentions) {
             result.setSpan(ForegroundColorSpan(color), mention.first.lower, mention.first.upper, Spannable.SPAN_EXCLUSIVE_EXCLUSIVE)
             result.setSpan(StyleSpan(Typeface.BOLD), mention.first.lower, mention.first.upper, Spannable.SPAN_EXCLUSIVE_EXCLUSIVE)
         }
         return result
     }
-}
\ No newline at end of file
+
+    @ColorInt
+    fun getMentionColor(context: Context, isOutgoingMessage: Boolean): Int {
+        return if (isOutgoingMessage) {
+            val isLightMode = UiModeUtilities.isDayUiMode(context)
+            ResourcesCompat.getColor(context.resources, if (isLightMode) R.color.white else R.color.black, context.theme)
+        } else {
+            context.getAccentColor()
+        }
+    }
+}
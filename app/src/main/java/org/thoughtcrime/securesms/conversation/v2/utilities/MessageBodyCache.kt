@@ -0,0 +1,105 @@
+package org.thoughtcrime.securesms.conversation.v2.utilities
+
+import android.content.Context
+import android.text.Spannable
+import android.text.style.URLSpan
+import android.text.util.Linkify
+import android.util.LruCache
+import androidx.annotation.ColorInt
+import androidx.annotation.WorkerThread
+import androidx.core.text.getSpans
+import okhttp3.HttpUrl
+import org.thoughtcrime.securesms.components.emoji.EmojiProvider
+import org.thoughtcrime.securesms.components.emoji.parsing.EmojiParser
+import org.thoughtcrime.securesms.database.model.MessageRecord
+
+/**
+ * Message bodies and thread snippets as they're displayed: mentions replaced by names and
+ * highlighted, links turned into [ModalURLSpan]s, and the emoji in them found.
+ *
+ * Rendering a body looks up the thread and every mentioned contact, so it's done once per message
+ * (ahead of time, off the main thread, where possible) rather than on every bind. Entries are keyed
+ * by message, body and mention colour, and dropped when a contact they mention is saved, whether it
+ * changed its name or is new and didn't have one when they were rendered.
+ */
+object MessageBodyCache {
+
+    private const val MAX_BODIES = 500
+    private const val MAX_SNIPPETS = 200
+
+    class Body(
+        /** Shared between binds, so it must not be modified. */
+        val text: Spannable,
+        val emojiCandidates: EmojiParser.CandidateList?,
+        val mentionedPublicKeys: Set<String>
+    )
+
+    private data class Key(val messageId: Long, val isMms: Boolean, val bodyHash: Int, @ColorInt val mentionColor: Int)
+
+    private data class SnippetKey(val threadId: Long, val snippet: String)
+
+    private class Snippet(val text: String, val mentionedPublicKeys: Set<String>)
+
+    private val bodies = LruCache<Key, Body>(MAX_BODIES)
+    private val snippets = LruCache<SnippetKey, Snippet>(MAX_SNIPPETS)
+
+    private fun keyFor(message: MessageRecord, @ColorInt mentionColor: Int) =
+        Key(message.id, message.isMms, message.body.hashCode(), mentionColor)
+
+    fun getCached(message: MessageRecord, @ColorInt mentionColor: Int): Body? = bodies.get(keyFor(message, mentionColor))
+
+    /** Returns the rendered body, rendering it first if it isn't cached. */
+    fun get(context: Context, message: MessageRecord, @ColorInt mentionColor: Int): Body {
+        val key = keyFor(message, mentionColor)
+        return bodies.get(key) ?: render(context, message, mentionColor).also { bodies.put(key, it) }
+    }
+
+    /** Renders the bodies that aren't cached yet, e.g. of the next page of a conversation. */
+    @WorkerThread
+    fun prefetch(context: Context, messages: List<MessageRecord>, @ColorInt outgoingColor: Int, @ColorInt incomingColor: Int) {
+        for (message in messages) {
+            if (message.body.isEmpty() || message.isDeleted || message.isControlMessage) continue
+            get(context, message, if (message.isOutgoing) outgoingColor else incomingColor)
+        }
+    }
+
+    /** Like [MentionUtilities.highlightMentions], for the snippet of a thread. */
+    fun getSnippet(context: Context, threadId: Long, snippet: CharSequence): String {
+        val key = SnippetKey(threadId, snippet.toString())
+        snippets.get(key)?.let { return it.text }
+        val mentionedPublicKeys = HashSet<String>()
+        val text = MentionUtilities.highlightMentions(snippet, 0, threadId, context, mentionedPublicKeys).toString()
+        snippets.put(key, Snippet(text, mentionedPublicKeys))
+        return text
+    }
+
+    /** Drops everything that mentions [publicKey], for when it's added or its name changes. */
+    fun invalidate(publicKey: String) {
+        for ((key, body) in bodies.snapshot()) {
+            if (body.mentionedPublicKeys.contains(publicKey)) bodies.remove(key)
+        }
+        for ((key, snippet) in snippets.snapshot()) {
+            if (snippet.mentionedPublicKeys.contains(publicKey)) snippets.remove(key)
+        }
+    }
+
+    private fun render(context: Context, message: MessageRecord, @ColorInt mentionColor: Int): Body {
+        val mentionedPublicKeys = HashSet<String>()
+        val body = MentionUtilities.highlightMentions(message.body, mentionColor, message.threadId, context, mentionedPublicKeys)
+
+        Linkify.addLinks(body, Linkify.WEB_URLS)
+
+        // replace URLSpans with ModalURLSpans
+        body.getSpans<URLSpan>(0, body.length).forEach { urlSpan ->
+            val updatedUrl = urlSpan.url.let { HttpUrl.parse(it).toString() }
+            val replacementSpan = ModalURLSpan(updatedUrl)
+            val start = body.getSpanStart(urlSpan)
+            val end = body.getSpanEnd(urlSpan)
+            val flags = body.getSpanFlags(urlSpan)
+            body.removeSpan(urlSpan)
+            body.setSpan(replacementSpan, start, end, flags)
+        }
+
+        return Body(body, EmojiProvider.getCandidates(body), mentionedPublicKeys)
+    }
+}
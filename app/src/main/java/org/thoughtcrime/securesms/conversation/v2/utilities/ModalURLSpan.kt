@@ -1,10 +1,25 @@
 package org.thoughtcrime.securesms.conversation.v2.utilities
 
+import android.content.Context
+import android.content.ContextWrapper
 import android.text.style.URLSpan
 import android.view.View
+import androidx.appcompat.app.AppCompatActivity
+import org.thoughtcrime.securesms.conversation.v2.ModalUrlBottomSheet
 
-class ModalURLSpan(url: String, private val openModalCallback: (String)->Unit): URLSpan(url) {
+/**
+ * Asks before opening its URL. Looks up the activity from the view it's clicked in, so rendered
+ * bodies holding it can outlive the screen they were made for.
+ */
+class ModalURLSpan(url: String): URLSpan(url) {
     override fun onClick(widget: View) {
-        openModalCallback(url)
+        val activity = findActivity(widget.context) ?: return
+        ModalUrlBottomSheet(url).show(activity.supportFragmentManager, "Open URL Dialog")
     }
-}
\ No newline at end of file
+
+    private tailrec fun findActivity(context: Context): AppCompatActivity? = when (context) {
+        is AppCompatActivity -> context
+        is ContextWrapper -> findActivity(context.baseContext)
+        else -> null
+    }
+}
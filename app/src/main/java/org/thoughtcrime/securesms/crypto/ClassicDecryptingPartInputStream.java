@@ -26,12 +26,15 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.RandomAccessFile;
 import java.security.InvalidAlgorithmParameterException;
 import java.security.InvalidKeyException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 
+import javax.crypto.BadPaddingException;
 import javax.crypto.Cipher;
+import javax.crypto.IllegalBlockSizeException;
 import javax.crypto.CipherInputStream;
 import javax.crypto.Mac;
 import javax.crypto.NoSuchPaddingException;
@@ -42,8 +45,8 @@ public class ClassicDecryptingPartInputStream {
 
   private static final String TAG = ClassicDecryptingPartInputStream.class.getSimpleName();
 
-  private static final int IV_LENGTH  = 16;
-  private static final int MAC_LENGTH = 20;
+  static final int IV_LENGTH  = 16;
+  static final int MAC_LENGTH = 20;
 
   public static InputStream createFor(@NonNull AttachmentSecret attachmentSecret, @NonNull File file)
       throws IOException
@@ -69,7 +72,45 @@ public class ClassicDecryptingPartInputStream {
     }
   }
 
-  private static void verifyMac(AttachmentSecret attachmentSecret, File file) throws IOException {
+  /**
+   * Works out the plaintext length of a part from its size and padding, decrypting only its last
+   * block. The MAC isn't verified, that happens when the part is read.
+   */
+  public static long getPlaintextLength(@NonNull AttachmentSecret attachmentSecret, @NonNull File file)
+      throws IOException
+  {
+    long ciphertextLength = file.length() - MAC_LENGTH - IV_LENGTH;
+
+    if (ciphertextLength <= 0 || ciphertextLength % 16 != 0) {
+      throw new IOException("Bad part length: " + file.length());
+    }
+
+    byte[] tail = new byte[32];
+
+    try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r")) {
+      // The block before the last one, or the IV for a single block
+      randomAccessFile.seek(IV_LENGTH + ciphertextLength - tail.length);
+      randomAccessFile.readFully(tail);
+    }
+
+    try {
+      Cipher cipher = Cipher.getInstance("AES/CBC/NoPadding");
+      cipher.init(Cipher.DECRYPT_MODE, new SecretKeySpec(attachmentSecret.getClassicCipherKey(), "AES"), new IvParameterSpec(tail, 0, 16));
+
+      byte[] lastBlock = cipher.doFinal(tail, 16, 16);
+      int    padding   = lastBlock[15] & 0xff;
+
+      if (padding < 1 || padding > 16) {
+        throw new IOException("Bad padding");
+      }
+
+      return ciphertextLength - padding;
+    } catch (NoSuchAlgorithmException | NoSuchPaddingException | InvalidKeyException | InvalidAlgorithmParameterException | IllegalBlockSizeException | BadPaddingException e) {
+      throw new AssertionError(e);
+    }
+  }
+
+  static void verifyMac(AttachmentSecret attachmentSecret, File file) throws IOException {
     Mac             mac        = initializeMac(new SecretKeySpec(attachmentSecret.getClassicMacKey(), "HmacSHA1"));
     FileInputStream macStream  = new FileInputStream(file);
     InputStream     dataStream = new LimitedInputStream(new FileInputStream(file), file.length() - MAC_LENGTH);
@@ -0,0 +1,199 @@
+package org.thoughtcrime.securesms.crypto;
+
+
+import androidx.annotation.NonNull;
+
+import org.session.libsession.utilities.Conversions;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.GeneralSecurityException;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.NoSuchPaddingException;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Random access reads of an encrypted attachment file.
+ *
+ * Unlike the decrypting input streams, which have to be reopened (and for classic files, read from
+ * the start) to get to a position, this keeps the file channel, the derived key and the cipher
+ * around and only re-initialises the cipher for the block that's read. Both formats can be entered
+ * at any 16 byte boundary: for modern (AES/CTR) files the IV is the block counter, for classic
+ * (AES/CBC) files it's the preceding ciphertext block. Recently decrypted blocks are kept, since
+ * media players tend to issue many small reads around the same few positions.
+ */
+public class SeekableDecryptingPartReader implements Closeable {
+
+  private static final int AES_BLOCK_SIZE = 16;
+  private static final int BLOCK_SIZE     = 32 * 1024;
+  private static final int CACHED_BLOCKS  = 8;
+
+  private final RandomAccessFile file;
+  private final FileChannel      channel;
+  private final Cipher           cipher;
+  private final SecretKeySpec    key;
+  private final boolean          classic;
+  private final long             dataOffset;
+  private final long             dataLength;
+  private final long             length;
+  private final ByteBuffer       cipherBuffer;
+  private final byte[]           iv = new byte[AES_BLOCK_SIZE];
+
+  private final Map<Long, byte[]> blocks = new LinkedHashMap<Long, byte[]>(CACHED_BLOCKS, 0.75f, true) {
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<Long, byte[]> eldest) {
+      return size() > CACHED_BLOCKS;
+    }
+  };
+
+  /**
+   * @param random The random the file's key is derived from, stored outside of the file.
+   * @param length The length of the plaintext.
+   */
+  public static SeekableDecryptingPartReader createFor(@NonNull AttachmentSecret attachmentSecret, @NonNull byte[] random, @NonNull File file, long length)
+      throws IOException
+  {
+    try {
+      Mac mac = Mac.getInstance("HmacSHA256");
+      mac.init(new SecretKeySpec(attachmentSecret.getModernKey(), "HmacSHA256"));
+
+      SecretKeySpec key = new SecretKeySpec(mac.doFinal(random), "AES");
+
+      return new SeekableDecryptingPartReader(file, Cipher.getInstance("AES/CTR/NoPadding"), key, false, 0, file.length(), length);
+    } catch (NoSuchAlgorithmException | InvalidKeyException | NoSuchPaddingException e) {
+      throw new AssertionError(e);
+    }
+  }
+
+  /**
+   * Opens a classic (pre-modern) attachment file, whose MAC is verified once here rather than on
+   * every read.
+   *
+   * @param length The length of the plaintext.
+   */
+  public static SeekableDecryptingPartReader createForClassic(@NonNull AttachmentSecret attachmentSecret, @NonNull File file, long length)
+      throws IOException
+  {
+    long fileLength = file.length();
+
+    if (fileLength <= ClassicDecryptingPartInputStream.IV_LENGTH + ClassicDecryptingPartInputStream.MAC_LENGTH) {
+      throw new IOException("File too short");
+    }
+
+    ClassicDecryptingPartInputStream.verifyMac(attachmentSecret, file);
+
+    try {
+      SecretKeySpec key        = new SecretKeySpec(attachmentSecret.getClassicCipherKey(), "AES");
+      long          dataLength = fileLength - ClassicDecryptingPartInputStream.IV_LENGTH - ClassicDecryptingPartInputStream.MAC_LENGTH;
+
+      return new SeekableDecryptingPartReader(file, Cipher.getInstance("AES/CBC/NoPadding"), key, true,
+                                              ClassicDecryptingPartInputStream.IV_LENGTH, dataLength, length);
+    } catch (NoSuchAlgorithmException | NoSuchPaddingException e) {
+      throw new AssertionError(e);
+    }
+  }
+
+  private SeekableDecryptingPartReader(@NonNull File file, @NonNull Cipher cipher, @NonNull SecretKeySpec key,
+                                       boolean classic, long dataOffset, long dataLength, long length)
+      throws IOException
+  {
+    this.file         = new RandomAccessFile(file, "r");
+    this.channel      = this.file.getChannel();
+    this.cipher       = cipher;
+    this.key          = key;
+    this.classic      = classic;
+    this.dataOffset   = dataOffset;
+    this.dataLength   = dataLength;
+    this.length       = Math.min(length, dataLength);
+    this.cipherBuffer = ByteBuffer.allocate(BLOCK_SIZE + AES_BLOCK_SIZE);
+  }
+
+  public long getLength() {
+    return length;
+  }
+
+  /**
+   * Reads up to {@code count} bytes of plaintext at {@code position}.
+   *
+   * @return The number of bytes read, or -1 if {@code position} is at or past the end.
+   */
+  public synchronized int readAt(long position, @NonNull byte[] buffer, int offset, int count) throws IOException {
+    if (position >= length) return -1;
+
+    int total = (int) Math.min(count, length - position);
+    int read  = 0;
+
+    while (read < total) {
+      long   current     = position + read;
+      byte[] block       = getBlock(current / BLOCK_SIZE);
+      int    blockOffset = (int) (current % BLOCK_SIZE);
+      int    chunk       = Math.min(total - read, block.length - blockOffset);
+
+      System.arraycopy(block, blockOffset, buffer, offset + read, chunk);
+      read += chunk;
+    }
+
+    return read;
+  }
+
+  private byte[] getBlock(long index) throws IOException {
+    byte[] block = blocks.get(index);
+
+    if (block == null) {
+      block = decryptBlock(index);
+      blocks.put(index, block);
+    }
+
+    return block;
+  }
+
+  private byte[] decryptBlock(long index) throws IOException {
+    long start  = index * BLOCK_SIZE;
+    int  size   = (int) Math.min(BLOCK_SIZE, dataLength - start);
+    int  ivSize = classic ? AES_BLOCK_SIZE : 0;
+
+    // For classic files the IV of the first block is the file's IV, which directly precedes the data
+    cipherBuffer.clear();
+    cipherBuffer.limit(ivSize + size);
+    readFully(dataOffset + start - ivSize);
+
+    if (classic) {
+      cipherBuffer.get(iv);
+    } else {
+      Conversions.longTo4ByteArray(iv, 12, start / AES_BLOCK_SIZE);
+    }
+
+    try {
+      cipher.init(Cipher.DECRYPT_MODE, key, new IvParameterSpec(iv));
+      return cipher.doFinal(cipherBuffer.array(), ivSize, size);
+    } catch (GeneralSecurityException e) {
+      throw new IOException(e);
+    }
+  }
+
+  private void readFully(long position) throws IOException {
+    while (cipherBuffer.hasRemaining()) {
+      if (channel.read(cipherBuffer, position + cipherBuffer.position()) == -1) {
+        throw new IOException("Unexpected end of file");
+      }
+    }
+    cipherBuffer.flip();
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    blocks.clear();
+    file.close();
+  }
+}
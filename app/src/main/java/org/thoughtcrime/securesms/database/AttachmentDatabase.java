@@ -35,7 +35,7 @@ import com.bumptech.glide.Glide;
 
 import net.zetetic.database.sqlcipher.SQLiteDatabase;
 
-import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.ArrayUtils;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.session.libsession.messaging.sending_receiving.attachments.Attachment;
@@ -43,15 +43,18 @@ import org.session.libsession.messaging.sending_receiving.attachments.Attachment
 import org.session.libsession.messaging.sending_receiving.attachments.AttachmentTransferProgress;
 import org.session.libsession.messaging.sending_receiving.attachments.DatabaseAttachment;
 import org.session.libsession.messaging.sending_receiving.attachments.DatabaseAttachmentAudioExtras;
+import org.session.libsession.utilities.AudioWaveform;
 import org.session.libsession.utilities.MediaTypes;
 import org.session.libsession.utilities.Util;
 import org.session.libsignal.utilities.ExternalStorageUtil;
+import org.session.libsignal.utilities.Hex;
 import org.session.libsignal.utilities.JsonUtil;
 import org.session.libsignal.utilities.Log;
 import org.thoughtcrime.securesms.crypto.AttachmentSecret;
 import org.thoughtcrime.securesms.crypto.ClassicDecryptingPartInputStream;
 import org.thoughtcrime.securesms.crypto.ModernDecryptingPartInputStream;
 import org.thoughtcrime.securesms.crypto.ModernEncryptingPartOutputStream;
+import org.thoughtcrime.securesms.crypto.SeekableDecryptingPartReader;
 import org.thoughtcrime.securesms.database.helpers.SQLCipherOpenHelper;
 import org.thoughtcrime.securesms.database.model.MmsAttachmentInfo;
 import org.thoughtcrime.securesms.dependencies.DatabaseComponent;
@@ -60,16 +63,22 @@ import org.thoughtcrime.securesms.mms.MmsException;
 import org.thoughtcrime.securesms.mms.PartAuthority;
 import org.thoughtcrime.securesms.util.BitmapDecodingException;
 import org.thoughtcrime.securesms.util.BitmapUtil;
+import org.thoughtcrime.securesms.util.LRUCache;
 import org.thoughtcrime.securesms.util.MediaUtil;
 import org.thoughtcrime.securesms.util.MediaUtil.ThumbnailData;
+import org.thoughtcrime.securesms.util.SqlUtil;
 import org.thoughtcrime.securesms.video.EncryptedMediaDataSource;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
-import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedList;
@@ -77,9 +86,6 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
-import java.util.concurrent.Callable;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
 
 import kotlin.jvm.Synchronized;
 
@@ -115,6 +121,7 @@ public class AttachmentDatabase extends Database {
           static final String HEIGHT                 = "height";
           static final String CAPTION                = "caption";
   public  static final String URL                    = "url";
+  public  static final String DATA_HASH              = "data_hash";
   public  static final String DIRECTORY              = "parts";
   // "audio/*" mime type only related columns.
           static final String AUDIO_VISUAL_SAMPLES   = "audio_visual_samples";  // Small amount of audio byte samples to visualise the content (e.g. draw waveform).
@@ -124,6 +131,9 @@ public class AttachmentDatabase extends Database {
   private static final String ROW_ID_WHERE = ROW_ID + " = ?";
   private static final String PART_AUDIO_ONLY_WHERE = CONTENT_TYPE + " LIKE \"audio/%\"";
 
+  // Stored for parts whose data couldn't be read when hashing them, so they aren't picked up again
+  private static final String UNREADABLE_DATA_HASH = "";
+
   private static final String[] PROJECTION = new String[] {ROW_ID,
                                                            MMS_ID, CONTENT_TYPE, NAME, CONTENT_DISPOSITION,
                                                            CONTENT_LOCATION, DATA, THUMBNAIL, TRANSFER_STATE,
@@ -153,9 +163,23 @@ public class AttachmentDatabase extends Database {
     "CREATE INDEX IF NOT EXISTS part_mms_id_index ON " + TABLE_NAME + " (" + MMS_ID + ");",
     "CREATE INDEX IF NOT EXISTS pending_push_index ON " + TABLE_NAME + " (" + TRANSFER_STATE + ");",
     "CREATE INDEX IF NOT EXISTS part_sticker_pack_id_index ON " + TABLE_NAME + " (" + STICKER_PACK_ID + ");",
+    "CREATE INDEX IF NOT EXISTS part_data_hash_index ON " + TABLE_NAME + " (" + DATA_HASH + ");",
+    "CREATE INDEX IF NOT EXISTS part_data_index ON " + TABLE_NAME + " (" + DATA + ");",
   };
 
-  private final ExecutorService thumbnailExecutor = Util.newSingleThreadedLifoExecutor();
+  public static final String CREATE_DATA_HASH_COMMAND = "ALTER TABLE " + TABLE_NAME + " " +
+    "ADD COLUMN " + DATA_HASH + " TEXT DEFAULT NULL;";
+
+  private static final int THUMBNAIL_WORKERS    = Math.max(1, Math.min(3, Runtime.getRuntime().availableProcessors() - 1));
+  private static final int THUMBNAIL_CACHE_SIZE = 4 * 1024 * 1024;
+
+  private static final int AUDIO_EXTRAS_CACHE_SIZE = 100;
+
+  private final ThumbnailPipeline thumbnailPipeline = new ThumbnailPipeline(new ThumbnailSource(), THUMBNAIL_WORKERS, THUMBNAIL_CACHE_SIZE);
+
+  private final LRUCache<AttachmentId, DatabaseAttachmentAudioExtras> audioExtrasCache = new LRUCache<>(AUDIO_EXTRAS_CACHE_SIZE);
+  /** Parts whose audio was decoded without yielding any samples, so they aren't decoded again. */
+  private final LRUCache<AttachmentId, DatabaseAttachmentAudioExtras> emptyAudioExtrasCache = new LRUCache<>(AUDIO_EXTRAS_CACHE_SIZE);
 
   private final AttachmentSecret attachmentSecret;
 
@@ -173,27 +197,37 @@ public class AttachmentDatabase extends Database {
     else                    return dataStream;
   }
 
-  public @NonNull InputStream getThumbnailStream(@NonNull AttachmentId attachmentId)
+  /**
+   * @return A reader for random access to the attachment's data, e.g. for media playback, which
+   * unlike {@link #getAttachmentStream(AttachmentId, long)} doesn't have to be reopened to seek.
+   */
+  public @NonNull SeekableDecryptingPartReader getAttachmentReader(@NonNull AttachmentId attachmentId)
       throws IOException
   {
-    Log.d(TAG, "getThumbnailStream(" + attachmentId + ")");
-    InputStream dataStream = getDataStream(attachmentId, THUMBNAIL, 0);
+    DataInfo dataInfo = getAttachmentDataFileInfo(attachmentId, DATA);
 
-    if (dataStream != null) {
-      return dataStream;
+    if (dataInfo == null) throw new IOException("No data for: " + attachmentId);
+
+    if (dataInfo.random != null && dataInfo.random.length == 32) {
+      return SeekableDecryptingPartReader.createFor(attachmentSecret, dataInfo.random, dataInfo.file, dataInfo.length);
+    } else {
+      return SeekableDecryptingPartReader.createForClassic(attachmentSecret, dataInfo.file, dataInfo.length);
     }
+  }
 
-    try {
-      InputStream generatedStream = thumbnailExecutor.submit(new ThumbnailFetchCallable(attachmentId)).get();
+  public @NonNull InputStream getThumbnailStream(@NonNull AttachmentId attachmentId)
+      throws IOException
+  {
+    Log.d(TAG, "getThumbnailStream(" + attachmentId + ")");
+    return new ByteArrayInputStream(requestThumbnail(attachmentId).get());
+  }
 
-      if (generatedStream == null) throw new FileNotFoundException("No thumbnail stream available: " + attachmentId);
-      else                         return generatedStream;
-    } catch (InterruptedException ie) {
-      throw new AssertionError("interrupted");
-    } catch (ExecutionException ee) {
-      Log.w(TAG, ee);
-      throw new IOException(ee);
-    }
+  /**
+   * @return A request for the thumbnail, which can be cancelled when it's no longer needed, e.g.
+   * when the view showing it is recycled.
+   */
+  public @NonNull ThumbnailPipeline.Request requestThumbnail(@NonNull AttachmentId attachmentId) {
+    return thumbnailPipeline.request(attachmentId);
   }
 
   public void setTransferProgressFailed(AttachmentId attachmentId, long mmsId)
@@ -280,70 +314,83 @@ public class AttachmentDatabase extends Database {
       }
     }
     String idsAsString = queryBuilder.toString();
-    SQLiteDatabase database = databaseHelper.getReadableDatabase();
+    SQLiteDatabase database = databaseHelper.getWritableDatabase();
     Cursor cursor = null;
     List<MmsAttachmentInfo> attachmentInfos = new ArrayList<>();
+    database.beginTransaction();
     try {
       cursor = database.query(TABLE_NAME, new String[] { DATA, THUMBNAIL, CONTENT_TYPE}, idsAsString, null, null, null, null);
       while (cursor != null && cursor.moveToNext()) {
         attachmentInfos.add(new MmsAttachmentInfo(cursor.getString(0), cursor.getString(1), cursor.getString(2)));
       }
+      database.delete(TABLE_NAME, idsAsString, null);
+      deleteAttachmentsOnDisk(attachmentInfos);
+      database.setTransactionSuccessful();
     } finally {
       if (cursor != null) {
         cursor.close();
       }
+      database.endTransaction();
     }
-    deleteAttachmentsOnDisk(attachmentInfos);
-    database.delete(TABLE_NAME, idsAsString, null);
     notifyAttachmentListeners();
   }
 
-  @SuppressWarnings("ResultOfMethodCallIgnored")
   void deleteAttachmentsForMessage(long mmsId) {
-    SQLiteDatabase database = databaseHelper.getWritableDatabase();
-    Cursor cursor           = null;
+    SQLiteDatabase          database        = databaseHelper.getWritableDatabase();
+    List<MmsAttachmentInfo> attachmentInfos = new ArrayList<>();
+    Cursor                  cursor          = null;
 
+    database.beginTransaction();
     try {
       cursor = database.query(TABLE_NAME, new String[] {DATA, THUMBNAIL, CONTENT_TYPE}, MMS_ID + " = ?",
                               new String[] {mmsId+""}, null, null, null);
 
       while (cursor != null && cursor.moveToNext()) {
-        deleteAttachmentOnDisk(cursor.getString(0), cursor.getString(1), cursor.getString(2));
+        attachmentInfos.add(new MmsAttachmentInfo(cursor.getString(0), cursor.getString(1), cursor.getString(2)));
       }
+
+      database.delete(TABLE_NAME, MMS_ID + " = ?", new String[] {mmsId + ""});
+      deleteAttachmentsOnDisk(attachmentInfos);
+      database.setTransactionSuccessful();
     } finally {
       if (cursor != null)
         cursor.close();
+      database.endTransaction();
     }
 
-    database.delete(TABLE_NAME, MMS_ID + " = ?", new String[] {mmsId + ""});
     notifyAttachmentListeners();
   }
 
-  @SuppressWarnings("ResultOfMethodCallIgnored")
   void deleteAttachmentsForMessages(long[] mmsIds) {
     SQLiteDatabase database = databaseHelper.getWritableDatabase();
-    Cursor cursor           = null;
-    String mmsIdString = StringUtils.join(mmsIds, ',');
 
+    database.beginTransaction();
     try {
-      cursor = database.query(TABLE_NAME, new String[] {DATA, THUMBNAIL, CONTENT_TYPE}, MMS_ID + " IN (?)",
-              new String[] {mmsIdString}, null, null, null);
+      for (SqlUtil.Query query : SqlUtil.buildCollectionQuery(MMS_ID, Arrays.asList(ArrayUtils.toObject(mmsIds)))) {
+        List<MmsAttachmentInfo> attachmentInfos = new ArrayList<>();
+
+        try (Cursor cursor = database.query(TABLE_NAME, new String[] {DATA, THUMBNAIL, CONTENT_TYPE}, query.getWhere(),
+                                            query.getWhereArgs(), null, null, null))
+        {
+          while (cursor != null && cursor.moveToNext()) {
+            attachmentInfos.add(new MmsAttachmentInfo(cursor.getString(0), cursor.getString(1), cursor.getString(2)));
+          }
+        }
 
-      while (cursor != null && cursor.moveToNext()) {
-        deleteAttachmentOnDisk(cursor.getString(0), cursor.getString(1), cursor.getString(2));
+        database.delete(TABLE_NAME, query.getWhere(), query.getWhereArgs());
+        deleteAttachmentsOnDisk(attachmentInfos);
       }
+      database.setTransactionSuccessful();
     } finally {
-      if (cursor != null)
-        cursor.close();
+      database.endTransaction();
     }
-
-    database.delete(TABLE_NAME, MMS_ID + " IN (?)", new String[] {mmsIdString});
     notifyAttachmentListeners();
   }
 
   public void deleteAttachment(@NonNull AttachmentId id) {
     SQLiteDatabase database = databaseHelper.getWritableDatabase();
 
+    database.beginTransaction();
     try (Cursor cursor = database.query(TABLE_NAME,
                                         new String[]{DATA, THUMBNAIL, CONTENT_TYPE},
                                         PART_ID_WHERE,
@@ -362,8 +409,11 @@ public class AttachmentDatabase extends Database {
 
       database.delete(TABLE_NAME, PART_ID_WHERE, id.toStrings());
       deleteAttachmentOnDisk(data, thumbnail, contentType);
-      notifyAttachmentListeners();
+      database.setTransactionSuccessful();
+    } finally {
+      database.endTransaction();
     }
+    notifyAttachmentListeners();
   }
 
   @SuppressWarnings("ResultOfMethodCallIgnored")
@@ -383,12 +433,7 @@ public class AttachmentDatabase extends Database {
 
   private void deleteAttachmentsOnDisk(List<MmsAttachmentInfo> mmsAttachmentInfos) {
     for (MmsAttachmentInfo info : mmsAttachmentInfos) {
-      if (info.getDataFile() != null && !TextUtils.isEmpty(info.getDataFile())) {
-        File data = new File(info.getDataFile());
-        if (data.exists()) {
-          data.delete();
-        }
-      }
+      deleteDataFileIfUnused(info.getDataFile());
       if (info.getThumbnailFile() != null && !TextUtils.isEmpty(info.getThumbnailFile())) {
         File thumbnail = new File(info.getThumbnailFile());
         if (thumbnail.exists()) {
@@ -407,9 +452,7 @@ public class AttachmentDatabase extends Database {
 
   @SuppressWarnings("ResultOfMethodCallIgnored")
   private void deleteAttachmentOnDisk(@Nullable String data, @Nullable String thumbnail, @Nullable String contentType) {
-    if (!TextUtils.isEmpty(data)) {
-      new File(data).delete();
-    }
+    deleteDataFileIfUnused(data);
 
     if (!TextUtils.isEmpty(thumbnail)) {
       new File(thumbnail).delete();
@@ -420,6 +463,26 @@ public class AttachmentDatabase extends Database {
     }
   }
 
+  /**
+   * Parts with the same content share one data file, so it's only deleted along with the last part
+   * referencing it. Has to be called after the part's row is deleted or repointed, within the same
+   * transaction, so an insert can't pick the file up again while it's being removed.
+   */
+  @SuppressWarnings("ResultOfMethodCallIgnored")
+  private void deleteDataFileIfUnused(@Nullable String data) {
+    if (TextUtils.isEmpty(data)) return;
+
+    SQLiteDatabase database = databaseHelper.getWritableDatabase();
+
+    try (Cursor cursor = database.query(TABLE_NAME, new String[] {ROW_ID}, DATA + " = ?", new String[] {data}, null, null, null, "1")) {
+      if (cursor != null && cursor.moveToFirst()) {
+        return;
+      }
+    }
+
+    new File(data).delete();
+  }
+
   public void insertAttachmentsForPlaceholder(long mmsId, @NonNull AttachmentId attachmentId, @NonNull InputStream inputStream)
       throws MmsException
   {
@@ -427,33 +490,46 @@ public class AttachmentDatabase extends Database {
     SQLiteDatabase     database    = databaseHelper.getWritableDatabase();
     ContentValues      values      = new ContentValues();
     DataInfo           dataInfo    = setAttachmentData(inputStream);
+    boolean            updated;
 
-    if (placeholder != null && placeholder.isQuote() && !placeholder.getContentType().startsWith("image")) {
-      values.put(THUMBNAIL, dataInfo.file.getAbsolutePath());
-      values.put(THUMBNAIL_RANDOM, dataInfo.random);
-    } else {
-      values.put(DATA, dataInfo.file.getAbsolutePath());
-      values.put(SIZE, dataInfo.length);
-      values.put(DATA_RANDOM, dataInfo.random);
+    database.beginTransaction();
+    try {
+      if (placeholder != null && placeholder.isQuote() && !placeholder.getContentType().startsWith("image")) {
+        values.put(THUMBNAIL, dataInfo.file.getAbsolutePath());
+        values.put(THUMBNAIL_RANDOM, dataInfo.random);
+      } else {
+        dataInfo = deduplicate(dataInfo, true);
+        values.put(DATA, dataInfo.file.getAbsolutePath());
+        values.put(SIZE, dataInfo.length);
+        values.put(DATA_RANDOM, dataInfo.random);
+        values.put(DATA_HASH, dataInfo.hash);
+      }
+
+      values.put(TRANSFER_STATE, AttachmentTransferProgress.TRANSFER_PROGRESS_DONE);
+      values.put(CONTENT_LOCATION, (String)null);
+      values.put(CONTENT_DISPOSITION, (String)null);
+      values.put(DIGEST, (byte[])null);
+      values.put(NAME, (String) null);
+      values.put(FAST_PREFLIGHT_ID, (String)null);
+      values.put(URL, "");
+
+      updated = database.update(TABLE_NAME, values, PART_ID_WHERE, attachmentId.toStrings()) > 0;
+
+      if (!updated) {
+        deleteDataFileIfUnused(dataInfo.file.getAbsolutePath());
+      }
+
+      database.setTransactionSuccessful();
+    } finally {
+      database.endTransaction();
     }
 
-    values.put(TRANSFER_STATE, AttachmentTransferProgress.TRANSFER_PROGRESS_DONE);
-    values.put(CONTENT_LOCATION, (String)null);
-    values.put(CONTENT_DISPOSITION, (String)null);
-    values.put(DIGEST, (byte[])null);
-    values.put(NAME, (String) null);
-    values.put(FAST_PREFLIGHT_ID, (String)null);
-    values.put(URL, "");
-
-    if (database.update(TABLE_NAME, values, PART_ID_WHERE, attachmentId.toStrings()) == 0) {
-      //noinspection ResultOfMethodCallIgnored
-      dataInfo.file.delete();
-    } else {
+    if (updated) {
       notifyConversationListeners(DatabaseComponent.get(context).mmsDatabase().getThreadIdForMessage(mmsId));
       notifyConversationListListeners();
     }
 
-    thumbnailExecutor.submit(new ThumbnailFetchCallable(attachmentId));
+    thumbnailPipeline.prefetch(attachmentId);
   }
 
   public void updateAttachmentAfterUploadSucceeded(@NonNull AttachmentId id, @NonNull Attachment attachment) {
@@ -533,22 +609,34 @@ public class AttachmentDatabase extends Database {
   {
     SQLiteDatabase     database           = databaseHelper.getWritableDatabase();
     DatabaseAttachment databaseAttachment = (DatabaseAttachment) attachment;
-    DataInfo           dataInfo           = getAttachmentDataFileInfo(databaseAttachment.getAttachmentId(), DATA);
+    DataInfo           oldDataInfo        = getAttachmentDataFileInfo(databaseAttachment.getAttachmentId(), DATA);
 
-    if (dataInfo == null) {
+    if (oldDataInfo == null) {
       throw new MmsException("No attachment data found!");
     }
 
-    dataInfo = setAttachmentData(dataInfo.file, mediaStream.getStream());
+    // The old file may be shared with other parts, so it's replaced rather than written over
+    DataInfo dataInfo = setAttachmentData(mediaStream.getStream());
 
-    ContentValues contentValues = new ContentValues();
-    contentValues.put(SIZE, dataInfo.length);
-    contentValues.put(CONTENT_TYPE, mediaStream.getMimeType());
-    contentValues.put(WIDTH, mediaStream.getWidth());
-    contentValues.put(HEIGHT, mediaStream.getHeight());
-    contentValues.put(DATA_RANDOM, dataInfo.random);
+    database.beginTransaction();
+    try {
+      dataInfo = deduplicate(dataInfo, true);
 
-    database.update(TABLE_NAME, contentValues, PART_ID_WHERE, databaseAttachment.getAttachmentId().toStrings());
+      ContentValues contentValues = new ContentValues();
+      contentValues.put(DATA, dataInfo.file.getAbsolutePath());
+      contentValues.put(SIZE, dataInfo.length);
+      contentValues.put(CONTENT_TYPE, mediaStream.getMimeType());
+      contentValues.put(WIDTH, mediaStream.getWidth());
+      contentValues.put(HEIGHT, mediaStream.getHeight());
+      contentValues.put(DATA_RANDOM, dataInfo.random);
+      contentValues.put(DATA_HASH, dataInfo.hash);
+
+      database.update(TABLE_NAME, contentValues, PART_ID_WHERE, databaseAttachment.getAttachmentId().toStrings());
+      deleteDataFileIfUnused(oldDataInfo.file.getAbsolutePath());
+      database.setTransactionSuccessful();
+    } finally {
+      database.endTransaction();
+    }
 
     return new DatabaseAttachment(databaseAttachment.getAttachmentId(),
                                   databaseAttachment.getMmsId(),
@@ -627,15 +715,17 @@ public class AttachmentDatabase extends Database {
     Cursor         cursor   = null;
 
     String randomColumn;
+    String hashColumn;
 
+    // Only the data is content addressed, thumbnails are never shared
     switch (dataType) {
-      case DATA:      randomColumn = DATA_RANDOM;      break;
-      case THUMBNAIL: randomColumn = THUMBNAIL_RANDOM; break;
+      case DATA:      randomColumn = DATA_RANDOM;      hashColumn = DATA_HASH; break;
+      case THUMBNAIL: randomColumn = THUMBNAIL_RANDOM; hashColumn = "NULL";    break;
       default:throw   new AssertionError("Unknown data type: " + dataType);
     }
 
     try {
-      cursor = database.query(TABLE_NAME, new String[]{dataType, SIZE, randomColumn}, PART_ID_WHERE, attachmentId.toStrings(),
+      cursor = database.query(TABLE_NAME, new String[]{dataType, SIZE, randomColumn, hashColumn}, PART_ID_WHERE, attachmentId.toStrings(),
                               null, null, null);
 
       if (cursor != null && cursor.moveToFirst()) {
@@ -645,7 +735,8 @@ public class AttachmentDatabase extends Database {
 
         return new DataInfo(new File(cursor.getString(0)),
                             cursor.getLong(1),
-                            cursor.getBlob(2));
+                            cursor.getBlob(2),
+                            cursor.getString(3));
       } else {
         return null;
       }
@@ -683,12 +774,154 @@ public class AttachmentDatabase extends Database {
       throws MmsException
   {
     try {
+      MessageDigest              digest = MessageDigest.getInstance("SHA-256");
       Pair<byte[], OutputStream> out    = ModernEncryptingPartOutputStream.createFor(attachmentSecret, destination, false);
-      long                       length = Util.copy(in, out.second);
+      long                       length = Util.copy(new DigestInputStream(in, digest), out.second);
 
-      return new DataInfo(destination, length, out.first);
+      return new DataInfo(destination, length, out.first, Hex.toStringCondensed(digest.digest()));
     } catch (IOException e) {
       throw new MmsException(e);
+    } catch (NoSuchAlgorithmException e) {
+      throw new AssertionError(e);
+    }
+  }
+
+  /**
+   * Parts created from another part, like forwarded media, share its data file as is rather than
+   * decrypting and re-encrypting it, once it's been hashed.
+   */
+  private @Nullable DataInfo getSharedAttachmentData(@NonNull Uri uri) {
+    AttachmentId source = PartAuthority.getAttachmentId(uri);
+
+    if (source == null) {
+      return null;
+    }
+
+    DataInfo dataInfo = getAttachmentDataFileInfo(source, DATA);
+
+    if (dataInfo == null || TextUtils.isEmpty(dataInfo.hash)) {
+      return null;
+    }
+
+    return dataInfo;
+  }
+
+  /**
+   * Swaps data for an existing file with the same content, if there is one. The new copy is only
+   * deleted if {@code freshlyWritten}, since a file shared from another part is still referenced by
+   * that part. Has to be called in the transaction that stores the result, so the existing file
+   * can't be released in between.
+   */
+  @SuppressWarnings("ResultOfMethodCallIgnored")
+  private @NonNull DataInfo deduplicate(@NonNull DataInfo dataInfo, boolean freshlyWritten) {
+    if (TextUtils.isEmpty(dataInfo.hash)) {
+      return dataInfo;
+    }
+
+    DataInfo existing = getDataFileInfoForHash(dataInfo.hash);
+
+    if (existing == null) {
+      return dataInfo;
+    }
+
+    if (freshlyWritten && !existing.file.equals(dataInfo.file)) {
+      dataInfo.file.delete();
+    }
+
+    return new DataInfo(existing.file, dataInfo.length, existing.random, dataInfo.hash);
+  }
+
+  private @Nullable DataInfo getDataFileInfoForHash(@NonNull String hash) {
+    SQLiteDatabase database = databaseHelper.getWritableDatabase();
+
+    try (Cursor cursor = database.query(TABLE_NAME, new String[] {DATA, SIZE, DATA_RANDOM}, DATA_HASH + " = ? AND " + DATA + " IS NOT NULL",
+                                        new String[] {hash}, null, null, null))
+    {
+      while (cursor != null && cursor.moveToNext()) {
+        File file = new File(cursor.getString(0));
+
+        if (file.exists()) {
+          return new DataInfo(file, cursor.getLong(1), cursor.getBlob(2), hash);
+        }
+      }
+    }
+
+    return null;
+  }
+
+  /**
+   * @return Parts with data but no hash, which were stored before parts were content addressed or
+   * restored from a backup.
+   */
+  public @NonNull List<AttachmentId> getUnhashedAttachments(int limit) {
+    SQLiteDatabase     database = databaseHelper.getReadableDatabase();
+    List<AttachmentId> results  = new LinkedList<>();
+
+    try (Cursor cursor = database.query(TABLE_NAME, new String[] {ROW_ID, UNIQUE_ID}, DATA_HASH + " IS NULL AND " + DATA + " IS NOT NULL",
+                                        null, null, null, null, String.valueOf(limit)))
+    {
+      while (cursor != null && cursor.moveToNext()) {
+        results.add(new AttachmentId(cursor.getLong(0), cursor.getLong(1)));
+      }
+    }
+
+    return results;
+  }
+
+  public boolean hasUnhashedAttachments() {
+    return !getUnhashedAttachments(1).isEmpty();
+  }
+
+  /**
+   * Hashes the data of a part stored without a hash and, if another part already has the same
+   * content, moves it (along with any part sharing its file) onto that part's file.
+   */
+  public void deduplicateAttachment(@NonNull AttachmentId attachmentId) {
+    DataInfo dataInfo = getAttachmentDataFileInfo(attachmentId, DATA);
+
+    if (dataInfo == null || dataInfo.hash != null) {
+      return;
+    }
+
+    String hash;
+
+    try (InputStream in = getDataStream(attachmentId, DATA, 0)) {
+      if (in == null) throw new IOException("No stream for: " + attachmentId);
+
+      MessageDigest digest = MessageDigest.getInstance("SHA-256");
+      Util.copy(new DigestInputStream(in, digest), null);
+      hash = Hex.toStringCondensed(digest.digest());
+    } catch (IOException e) {
+      Log.w(TAG, "Couldn't hash " + attachmentId, e);
+      hash = UNREADABLE_DATA_HASH;
+    } catch (NoSuchAlgorithmException e) {
+      throw new AssertionError(e);
+    }
+
+    SQLiteDatabase database = databaseHelper.getWritableDatabase();
+    String         path     = dataInfo.file.getAbsolutePath();
+
+    database.beginTransaction();
+    try {
+      DataInfo      existing = TextUtils.isEmpty(hash) ? null : getDataFileInfoForHash(hash);
+      ContentValues values   = new ContentValues(3);
+
+      values.put(DATA_HASH, hash);
+
+      if (existing != null) {
+        values.put(DATA, existing.file.getAbsolutePath());
+        values.put(DATA_RANDOM, existing.random);
+      }
+
+      database.update(TABLE_NAME, values, DATA + " = ?", new String[] {path});
+
+      if (existing != null) {
+        deleteDataFileIfUnused(path);
+      }
+
+      database.setTransactionSuccessful();
+    } finally {
+      database.endTransaction();
     }
   }
 
@@ -765,11 +998,17 @@ public class AttachmentDatabase extends Database {
 
     SQLiteDatabase database = databaseHelper.getWritableDatabase();
     DataInfo       dataInfo = null;
+    boolean        written  = false;
     long           uniqueId = System.currentTimeMillis();
 
     if (attachment.getDataUri() != null) {
-      dataInfo = setAttachmentData(attachment.getDataUri());
-      Log.d(TAG, "Wrote part to file: " + dataInfo.file.getAbsolutePath());
+      dataInfo = getSharedAttachmentData(attachment.getDataUri());
+
+      if (dataInfo == null) {
+        dataInfo = setAttachmentData(attachment.getDataUri());
+        written  = true;
+        Log.d(TAG, "Wrote part to file: " + dataInfo.file.getAbsolutePath());
+      }
     }
 
     ContentValues contentValues = new ContentValues();
@@ -791,13 +1030,30 @@ public class AttachmentDatabase extends Database {
     contentValues.put(CAPTION, attachment.getCaption());
     contentValues.put(URL, attachment.getUrl());
 
-    if (dataInfo != null) {
-      contentValues.put(DATA, dataInfo.file.getAbsolutePath());
-      contentValues.put(SIZE, dataInfo.length);
-      contentValues.put(DATA_RANDOM, dataInfo.random);
+    long rowId;
+
+    database.beginTransaction();
+    try {
+      if (dataInfo != null) {
+        dataInfo = deduplicate(dataInfo, written);
+
+        // A shared file is gone if the part it came from was deleted in the meantime
+        if (!dataInfo.file.exists()) {
+          throw new MmsException("Attachment data no longer exists: " + attachment.getDataUri());
+        }
+
+        contentValues.put(DATA, dataInfo.file.getAbsolutePath());
+        contentValues.put(SIZE, dataInfo.length);
+        contentValues.put(DATA_RANDOM, dataInfo.random);
+        contentValues.put(DATA_HASH, dataInfo.hash);
+      }
+
+      rowId = database.insert(TABLE_NAME, null, contentValues);
+      database.setTransactionSuccessful();
+    } finally {
+      database.endTransaction();
     }
 
-    long         rowId        = database.insert(TABLE_NAME, null, contentValues);
     AttachmentId attachmentId = new AttachmentId(rowId, uniqueId);
     Uri          thumbnailUri = attachment.getThumbnailUri();
     boolean      hasThumbnail = false;
@@ -819,21 +1075,10 @@ public class AttachmentDatabase extends Database {
       }
     }
 
+    // Video thumbnails are extracted from the stored data in the background, not while inserting
     if (!hasThumbnail && dataInfo != null) {
-      if (MediaUtil.hasVideoThumbnail(attachment.getDataUri())) {
-        Bitmap bitmap = MediaUtil.getVideoThumbnail(context, attachment.getDataUri());
-
-        if (bitmap != null) {
-          ThumbnailData thumbnailData = new ThumbnailData(bitmap);
-          updateAttachmentThumbnail(attachmentId, thumbnailData.toDataStream(), thumbnailData.getAspectRatio());
-        } else {
-          Log.w(TAG, "Retrieving video thumbnail failed, submitting thumbnail generation job...");
-          thumbnailExecutor.submit(new ThumbnailFetchCallable(attachmentId));
-        }
-      } else {
-        Log.i(TAG, "Submitting thumbnail generation job...");
-        thumbnailExecutor.submit(new ThumbnailFetchCallable(attachmentId));
-      }
+      Log.i(TAG, "Submitting thumbnail generation job...");
+      thumbnailPipeline.prefetch(attachmentId);
     }
 
     return attachmentId;
@@ -856,6 +1101,7 @@ public class AttachmentDatabase extends Database {
     values.put(THUMBNAIL_RANDOM, thumbnailFile.random);
 
     database.update(TABLE_NAME, values, PART_ID_WHERE, attachmentId.toStrings());
+    thumbnailPipeline.invalidate(attachmentId);
 
     Cursor cursor = database.query(TABLE_NAME, new String[] {MMS_ID}, PART_ID_WHERE, attachmentId.toStrings(), null, null, null);
 
@@ -874,6 +1120,11 @@ public class AttachmentDatabase extends Database {
    */
   @Synchronized
   public @Nullable DatabaseAttachmentAudioExtras getAttachmentAudioExtras(@NonNull AttachmentId attachmentId) {
+    synchronized (audioExtrasCache) {
+      DatabaseAttachmentAudioExtras cached = audioExtrasCache.get(attachmentId);
+      if (cached != null) return cached;
+    }
+
     try (Cursor cursor = databaseHelper.getReadableDatabase()
       // We expect all the audio extra values to be present (not null) or reject the whole record.
       .query(TABLE_NAME,
@@ -890,7 +1141,67 @@ public class AttachmentDatabase extends Database {
       byte[] audioSamples = cursor.getBlob(cursor.getColumnIndexOrThrow(AUDIO_VISUAL_SAMPLES));
       long   duration     = cursor.getLong(cursor.getColumnIndexOrThrow(AUDIO_DURATION));
 
-      return new DatabaseAttachmentAudioExtras(attachmentId, audioSamples, duration);
+      DatabaseAttachmentAudioExtras extras = new DatabaseAttachmentAudioExtras(attachmentId, audioSamples, duration);
+
+      synchronized (audioExtrasCache) {
+        audioExtrasCache.put(attachmentId, extras);
+      }
+
+      return extras;
+    }
+  }
+
+  /**
+   * Returns the audio extras of an "audio/*" part, decoding it (once, see {@link AudioWaveform}) if
+   * they're missing or were stored without visual samples. Blocks for as long as decoding takes.
+   * A part that decodes without any samples isn't decoded again, while one that fails to decode is
+   * retried on the next call.
+   *
+   * @param frames The amount of RMS values to compute.
+   * @param threadId The thread to notify when the extras are stored, or -1.
+   * @return The audio extras, or null if the part has no data.
+   */
+  public @Nullable DatabaseAttachmentAudioExtras getOrExtractAttachmentAudioExtras(@NonNull AttachmentId attachmentId, int frames, long threadId)
+      throws IOException
+  {
+    DatabaseAttachmentAudioExtras extras = getAttachmentAudioExtras(attachmentId);
+
+    if (extras != null && extras.getVisualSamples().length > 0) {
+      return extras;
+    }
+
+    synchronized (emptyAudioExtrasCache) {
+      DatabaseAttachmentAudioExtras empty = emptyAudioExtrasCache.get(attachmentId);
+      if (empty != null) return empty;
+    }
+
+    DataInfo dataInfo = getAttachmentDataFileInfo(attachmentId, DATA);
+
+    if (dataInfo == null) {
+      Log.w(TAG, "No data file found for audio extras...");
+      return null;
+    }
+
+    AudioWaveform waveform;
+
+    try (EncryptedMediaDataSource dataSource = new EncryptedMediaDataSource(attachmentSecret, dataInfo.file, dataInfo.random, dataInfo.length)) {
+      waveform = AudioWaveform.extract(dataSource, frames);
+    }
+
+    extras = new DatabaseAttachmentAudioExtras(attachmentId, waveform.getRms(), waveform.getTotalDuration() / 1000);
+
+    if (extras.getVisualSamples().length == 0) {
+      rememberEmptyAudioExtras(extras);
+    }
+
+    setAttachmentAudioExtras(extras, threadId);
+
+    return extras;
+  }
+
+  private void rememberEmptyAudioExtras(@NonNull DatabaseAttachmentAudioExtras extras) {
+    synchronized (emptyAudioExtrasCache) {
+      emptyAudioExtrasCache.put(extras.getAttachmentId(), extras);
     }
   }
 
@@ -909,6 +1220,12 @@ public class AttachmentDatabase extends Database {
       PART_ID_WHERE + " AND " + PART_AUDIO_ONLY_WHERE,
       extras.getAttachmentId().toStrings());
 
+    if (alteredRows > 0) {
+      synchronized (audioExtrasCache) {
+        audioExtrasCache.put(extras.getAttachmentId(), extras);
+      }
+    }
+
     if (threadId >= 0) {
       notifyConversationListeners(threadId);
     }
@@ -925,22 +1242,30 @@ public class AttachmentDatabase extends Database {
     return setAttachmentAudioExtras(extras, -1); // -1 for no update
   }
 
-  @VisibleForTesting
-  class ThumbnailFetchCallable implements Callable<InputStream> {
+  private class ThumbnailSource implements ThumbnailPipeline.Source {
 
-    private final AttachmentId attachmentId;
+    @Override
+    public @Nullable byte[] load(@NonNull AttachmentId attachmentId) throws IOException {
+      InputStream stream = getDataStream(attachmentId, THUMBNAIL, 0);
 
-    ThumbnailFetchCallable(AttachmentId attachmentId) {
-      this.attachmentId = attachmentId;
+      if (stream == null) {
+        return null;
+      }
+
+      try {
+        return Util.readFully(stream);
+      } finally {
+        stream.close();
+      }
     }
 
     @Override
-    public @Nullable InputStream call() throws Exception {
+    public @Nullable byte[] generate(@NonNull AttachmentId attachmentId) throws IOException {
       Log.d(TAG, "Executing thumbnail job...");
-      final InputStream stream = getDataStream(attachmentId, THUMBNAIL, 0);
+      byte[] stored = load(attachmentId);
 
-      if (stream != null) {
-        return stream;
+      if (stored != null) {
+        return stored;
       }
 
       DatabaseAttachment attachment = getAttachment(attachmentId);
@@ -959,9 +1284,15 @@ public class AttachmentDatabase extends Database {
         return null;
       }
 
-      updateAttachmentThumbnail(attachmentId, data.toDataStream(), data.getAspectRatio());
+      byte[] thumbnail = Util.readFully(data.toDataStream());
+
+      try {
+        updateAttachmentThumbnail(attachmentId, new ByteArrayInputStream(thumbnail), data.getAspectRatio());
+      } catch (MmsException e) {
+        throw new IOException(e);
+      }
 
-      return getDataStream(attachmentId, THUMBNAIL, 0);
+      return thumbnail;
     }
 
     @SuppressLint("NewApi")
@@ -980,12 +1311,27 @@ public class AttachmentDatabase extends Database {
 
       EncryptedMediaDataSource dataSource = new EncryptedMediaDataSource(attachmentSecret, dataInfo.file, dataInfo.random, dataInfo.length);
       MediaMetadataRetriever   retriever  = new MediaMetadataRetriever();
-      retriever.setDataSource(dataSource);
 
-      Bitmap bitmap = retriever.getFrameAtTime(1000);
+      try {
+        retriever.setDataSource(dataSource);
 
-      Log.i(TAG, "Generated video thumbnail...");
-      return new ThumbnailData(bitmap);
+        Bitmap bitmap = retriever.getFrameAtTime(1000);
+
+        if (bitmap == null) {
+          Log.w(TAG, "No frame to generate a video thumbnail from...");
+          return null;
+        }
+
+        Log.i(TAG, "Generated video thumbnail...");
+        return new ThumbnailData(bitmap);
+      } finally {
+        // Also closes the data source, and with it the file it keeps open
+        try {
+          retriever.release();
+        } catch (IOException e) {
+          Log.w(TAG, e);
+        }
+      }
     }
   }
 
@@ -993,11 +1339,13 @@ public class AttachmentDatabase extends Database {
     private final File   file;
     private final long   length;
     private final byte[] random;
+    private final String hash;
 
-    private DataInfo(File file, long length, byte[] random) {
+    private DataInfo(File file, long length, byte[] random, String hash) {
       this.file = file;
       this.length = length;
       this.random = random;
+      this.hash = hash;
     }
   }
 }
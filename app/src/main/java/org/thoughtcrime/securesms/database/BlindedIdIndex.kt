@@ -0,0 +1,88 @@
+package org.thoughtcrime.securesms.database
+
+import org.session.libsession.messaging.utilities.SessionId
+import org.session.libsession.messaging.utilities.SodiumUtilities
+import org.session.libsignal.utilities.IdPrefix
+import org.session.libsignal.utilities.Log
+import org.session.libsignal.utilities.ThreadUtils
+import java.util.Collections
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.Executor
+
+/**
+ * An in-memory index from (server public key, blinded id) to the standard session id of a known
+ * contact.
+ *
+ * Resolving a blinded id otherwise means blinding every known session id for the server, which is a
+ * scalar multiplication per contact. Here each known session id is blinded once per server: servers
+ * are indexed in the background when they're registered (or on their first lookup) and session ids
+ * added later are folded into every indexed server.
+ */
+class BlindedIdIndex(
+    private val knownSessionIds: () -> Collection<String>,
+    private val executor: Executor = ThreadUtils.executorPool
+) {
+
+    companion object {
+        private const val TAG = "BlindedIdIndex"
+    }
+
+    private class ServerIndex(val blindingFactor: ByteArray) {
+        val sessionIdsByBlindedKey = ConcurrentHashMap<String, String>()
+        @Volatile var isFilled = false
+    }
+
+    private val servers = ConcurrentHashMap<String, ServerIndex>()
+    private val sessionIds: MutableSet<String> = Collections.newSetFromMap(ConcurrentHashMap())
+
+    /**
+     * Returns the session id of the known contact which [blindedId] belongs to on the server with
+     * [serverPublicKey], or null if none of the known contacts match.
+     */
+    fun getSessionId(serverPublicKey: String, blindedId: String): String? {
+        val blindedKey = SessionId(blindedId)
+        if (blindedKey.prefix != IdPrefix.BLINDED) return null
+        val index = getOrCreateServerIndex(serverPublicKey) ?: return null
+        fill(index)
+        return index.sessionIdsByBlindedKey[blindedKey.publicKey]
+    }
+
+    /** Starts indexing the server with [serverPublicKey] in the background. */
+    fun addServer(serverPublicKey: String) {
+        val index = getOrCreateServerIndex(serverPublicKey) ?: return
+        if (index.isFilled) return
+        executor.execute { fill(index) }
+    }
+
+    /** Adds [sessionId] to every indexed server, so it can be resolved without a refill. */
+    fun addSessionId(sessionId: String) {
+        if (SessionId(sessionId).prefix != IdPrefix.STANDARD || !sessionIds.add(sessionId)) return
+        servers.values.forEach { index(it, sessionId) }
+    }
+
+    private fun getOrCreateServerIndex(serverPublicKey: String): ServerIndex? {
+        servers[serverPublicKey]?.let { return it }
+        val blindingFactor = SodiumUtilities.generateBlindingFactor(serverPublicKey) ?: return null
+        return servers.putIfAbsent(serverPublicKey, ServerIndex(blindingFactor)) ?: servers[serverPublicKey]
+    }
+
+    private fun fill(index: ServerIndex) {
+        if (index.isFilled) return
+        synchronized(index) {
+            if (index.isFilled) return
+            val start = System.currentTimeMillis()
+            knownSessionIds().forEach { sessionId ->
+                if (SessionId(sessionId).prefix == IdPrefix.STANDARD) sessionIds.add(sessionId)
+            }
+            sessionIds.forEach { index(index, it) }
+            index.isFilled = true
+            Log.d(TAG, "Indexed ${sessionIds.size} session ids in ${System.currentTimeMillis() - start}ms.")
+        }
+    }
+
+    private fun index(index: ServerIndex, sessionId: String) {
+        SodiumUtilities.blindedPublicKeys(sessionId, index.blindingFactor)?.forEach { blindedKey ->
+            index.sessionIdsByBlindedKey.putIfAbsent(blindedKey, sessionId)
+        }
+    }
+}
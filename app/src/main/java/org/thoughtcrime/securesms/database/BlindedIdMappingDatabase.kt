@@ -58,7 +58,7 @@ class BlindedIdMappingDatabase(context: Context, helper: SQLCipherOpenHelper) :
         try {
             val values = ContentValues().apply {
                 put(BLINDED_PK, blindedIdMapping.blindedId)
-                put(SERVER_PK, blindedIdMapping.sessionId)
+                put(SESSION_PK, blindedIdMapping.sessionId)
                 put(SERVER_URL, blindedIdMapping.serverUrl)
                 put(SERVER_PK, blindedIdMapping.serverId)
             }
@@ -85,4 +85,16 @@ class BlindedIdMappingDatabase(context: Context, helper: SQLCipherOpenHelper) :
         return mappings
     }
 
+    fun getSessionIds(): List<String> {
+        val sessionIds: MutableList<String> = mutableListOf()
+
+        readableDatabase.query(true, TABLE_NAME, arrayOf(SESSION_PK), "$SESSION_PK IS NOT NULL", null, null, null, null, null).use { cursor ->
+            while (cursor.moveToNext()) {
+                sessionIds += cursor.getString(0)
+            }
+        }
+
+        return sessionIds
+    }
+
 }
\ No newline at end of file
@@ -0,0 +1,99 @@
+package org.thoughtcrime.securesms.database
+
+import org.session.libsession.messaging.contacts.Contact
+
+/**
+ * The most recently used contacts, including which session IDs have none, kept in front of
+ * [SessionContactDatabase]. Callers get copies, so changing a contact they've read doesn't change
+ * the cached one until it's written.
+ *
+ * Writers update the table first and the cache after, one at a time, bumping a generation as they
+ * do. A reader only caches what it read if no write happened while it was reading, so a read
+ * racing a write can't leave the older contact in the cache.
+ */
+class ContactCache(private val maxSize: Int = MAX_SIZE) {
+
+    companion object {
+        const val MAX_SIZE = 2000
+
+        fun copy(contact: Contact) = Contact(contact.sessionID).also {
+            it.name = contact.name
+            it.nickname = contact.nickname
+            it.profilePictureURL = contact.profilePictureURL
+            it.profilePictureFileName = contact.profilePictureFileName
+            it.profilePictureEncryptionKey = contact.profilePictureEncryptionKey
+            it.threadID = contact.threadID
+            it.isTrusted = contact.isTrusted
+        }
+    }
+
+    /** A cached lookup; [contact] is null for session IDs without a contact. */
+    private class Entry(val contact: Contact?)
+
+    private val lock = Any()
+    private val writeLock = Any()
+    private val entries = object : LinkedHashMap<String, Entry>(16, 0.75f, true) {
+        override fun removeEldestEntry(eldest: MutableMap.MutableEntry<String, Entry>) = size > maxSize
+    }
+    private var generation = 0L
+
+    fun get(sessionID: String, load: (String) -> Contact?): Contact? {
+        val readGeneration = synchronized(lock) {
+            entries[sessionID]?.let { entry -> return entry.contact?.let { copy(it) } }
+            generation
+        }
+        val contact = load(sessionID)
+        synchronized(lock) {
+            if (generation == readGeneration) entries[sessionID] = Entry(contact?.let { copy(it) })
+        }
+        return contact
+    }
+
+    /** Returns the contacts of [sessionIDs] that exist, loading all those not cached with one call. */
+    fun getAll(sessionIDs: Collection<String>, load: (Collection<String>) -> List<Contact>): List<Contact> {
+        val result = ArrayList<Contact>(sessionIDs.size)
+        val missing = LinkedHashSet<String>()
+        val readGeneration = synchronized(lock) {
+            for (sessionID in sessionIDs) {
+                val entry = entries[sessionID]
+                if (entry == null) missing += sessionID else entry.contact?.let { result += copy(it) }
+            }
+            generation
+        }
+        if (missing.isEmpty()) return result
+        val loaded = load(missing)
+        synchronized(lock) {
+            if (generation == readGeneration) {
+                val found = loaded.associateBy { it.sessionID }
+                for (sessionID in missing) entries[sessionID] = Entry(found[sessionID]?.let { copy(it) })
+            }
+        }
+        return result + loaded
+    }
+
+    /**
+     * Writes the contact of [sessionID] to the table with [write], then caches the contact it
+     * returns as written. Writes are serialized, so [write] can read the contact it replaces, and the
+     * cache ends up with whichever contact was written last.
+     */
+    fun write(sessionID: String, write: () -> Contact) {
+        synchronized(writeLock) {
+            val contact = write()
+            synchronized(lock) {
+                generation++
+                entries[sessionID] = Entry(copy(contact))
+            }
+        }
+    }
+
+    /** Changes the contact of [sessionID] in the table with [write], without caching the result. */
+    fun update(sessionID: String, write: () -> Unit) {
+        synchronized(writeLock) {
+            write()
+            synchronized(lock) {
+                generation++
+                entries.remove(sessionID)
+            }
+        }
+    }
+}
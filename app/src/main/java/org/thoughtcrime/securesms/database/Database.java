@@ -25,8 +25,8 @@ import androidx.annotation.NonNull;
 
 import net.zetetic.database.sqlcipher.SQLiteDatabase;
 
-import org.session.libsession.utilities.WindowDebouncer;
 import org.thoughtcrime.securesms.ApplicationContext;
+import org.thoughtcrime.securesms.database.DatabaseChangeBus.Scope;
 import org.thoughtcrime.securesms.database.helpers.SQLCipherOpenHelper;
 
 import java.util.Set;
@@ -38,17 +38,13 @@ public abstract class Database {
 
   protected       SQLCipherOpenHelper databaseHelper;
   protected final Context             context;
-  private   final WindowDebouncer     conversationListNotificationDebouncer;
-  private   final Runnable            conversationListUpdater;
+  protected final DatabaseChangeBus   changeBus;
 
   @SuppressLint("WrongConstant")
   public Database(Context context, SQLCipherOpenHelper databaseHelper) {
-    this.context = context;
-    this.conversationListUpdater = () -> {
-      context.getContentResolver().notifyChange(DatabaseContentProviders.ConversationList.CONTENT_URI, null);
-    };
+    this.context        = context;
     this.databaseHelper = databaseHelper;
-    this.conversationListNotificationDebouncer = ApplicationContext.getInstance(context).getConversationListDebouncer();
+    this.changeBus      = ApplicationContext.getInstance(context).getDatabaseChangeBus();
   }
 
   protected void notifyConversationListeners(Set<Long> threadIds) {
@@ -57,23 +53,23 @@ public abstract class Database {
   }
 
   protected void notifyConversationListeners(long threadId) {
-    ConversationNotificationDebouncer.Companion.get(context).notify(threadId);
+    changeBus.notifyThread(threadId);
   }
 
   protected void notifyConversationListListeners() {
-    conversationListNotificationDebouncer.publish(conversationListUpdater);
+    changeBus.notifyScope(Scope.CONVERSATION_LIST);
   }
 
   protected void notifyStickerListeners() {
-    context.getContentResolver().notifyChange(DatabaseContentProviders.Sticker.CONTENT_URI, null);
+    changeBus.notifyScope(Scope.STICKER);
   }
 
   protected void notifyStickerPackListeners() {
-    context.getContentResolver().notifyChange(DatabaseContentProviders.StickerPack.CONTENT_URI, null);
+    changeBus.notifyScope(Scope.STICKER_PACK);
   }
 
   protected void notifyRecipientListeners() {
-    context.getContentResolver().notifyChange(DatabaseContentProviders.Recipient.CONTENT_URI, null);
+    changeBus.notifyScope(Scope.RECIPIENT);
     notifyConversationListListeners();
   }
 
@@ -92,7 +88,7 @@ public abstract class Database {
   }
 
   protected void notifyAttachmentListeners() {
-    context.getContentResolver().notifyChange(DatabaseContentProviders.Attachment.CONTENT_URI, null);
+    changeBus.notifyScope(Scope.ATTACHMENT);
   }
 
   public void reset(SQLCipherOpenHelper databaseHelper) {
@@ -0,0 +1,174 @@
+package org.thoughtcrime.securesms.database
+
+import android.content.Context
+import android.os.Handler
+import android.os.SystemClock
+import java.util.EnumMap
+import java.util.EnumSet
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Collects database change notifications and dispatches them coalesced.
+ *
+ * Writes only mark the threads and scopes they touched as dirty. Dirty threads are dispatched at
+ * most once per [WINDOW] and each scope at most once per its own window, so a burst of writes
+ * wakes up the observing loaders once rather than once per row. While a [batch] is open nothing
+ * is dispatched (for up to [MAX_HOLD]), and everything pending goes out as soon as it closes.
+ */
+class DatabaseChangeBus(
+    private val scheduler: Scheduler,
+    private val listener: Listener,
+    private val clock: () -> Long = SystemClock::uptimeMillis
+) {
+
+    companion object {
+        const val WINDOW = 100L
+        const val MAX_HOLD = 1000L
+
+        @JvmStatic
+        fun create(context: Context, handler: Handler): DatabaseChangeBus {
+            val contentResolver = context.contentResolver
+            val listener = object : Listener {
+                override fun onThreadsChanged(threadIds: Set<Long>) {
+                    threadIds.forEach { contentResolver.notifyChange(DatabaseContentProviders.Conversation.getUriForThread(it), null) }
+                }
+
+                override fun onScopeChanged(scope: Scope) {
+                    val uri = when (scope) {
+                        Scope.CONVERSATION_LIST -> DatabaseContentProviders.ConversationList.CONTENT_URI
+                        Scope.RECIPIENT -> DatabaseContentProviders.Recipient.CONTENT_URI
+                        Scope.ATTACHMENT -> DatabaseContentProviders.Attachment.CONTENT_URI
+                        Scope.STICKER -> DatabaseContentProviders.Sticker.CONTENT_URI
+                        Scope.STICKER_PACK -> DatabaseContentProviders.StickerPack.CONTENT_URI
+                    }
+                    contentResolver.notifyChange(uri, null)
+                }
+            }
+            return DatabaseChangeBus({ delay, task -> handler.postDelayed(task, delay) }, listener)
+        }
+    }
+
+    enum class Scope(val window: Long) {
+        CONVERSATION_LIST(1000),
+        RECIPIENT(WINDOW),
+        ATTACHMENT(WINDOW),
+        STICKER(WINDOW),
+        STICKER_PACK(WINDOW)
+    }
+
+    fun interface Scheduler {
+        fun schedule(delay: Long, task: Runnable)
+    }
+
+    interface Listener {
+        fun onThreadsChanged(threadIds: Set<Long>)
+        fun onScopeChanged(scope: Scope)
+    }
+
+    private val lock = Any()
+    private val dirtyThreads = mutableSetOf<Long>()
+    private val dirtyScopes = EnumSet.noneOf(Scope::class.java)
+    private val lastDispatched = EnumMap<Scope, Long>(Scope::class.java)
+    private var batchDepth = 0
+    private var heldSince = 0L
+    private var scheduledFlush = -1L
+
+    private val requested = AtomicLong()
+    private val dispatched = AtomicLong()
+
+    /** The number of notifications written by the database. */
+    val requestedCount: Long get() = requested.get()
+
+    /** The number of notifications which actually reached the listener. */
+    val dispatchedCount: Long get() = dispatched.get()
+
+    /** The number of notifications which were folded into another one. */
+    val coalescedCount: Long get() = requestedCount - dispatchedCount
+
+    fun notifyThread(threadId: Long) {
+        requested.incrementAndGet()
+        synchronized(lock) {
+            dirtyThreads.add(threadId)
+            scheduleFlush(clock() + WINDOW)
+        }
+    }
+
+    fun notifyScope(scope: Scope) {
+        requested.incrementAndGet()
+        synchronized(lock) {
+            dirtyScopes.add(scope)
+            scheduleFlush(clock() + WINDOW)
+        }
+    }
+
+    fun <T> batch(block: () -> T): T {
+        beginBatch()
+        try {
+            return block()
+        } finally {
+            endBatch()
+        }
+    }
+
+    fun beginBatch() {
+        synchronized(lock) {
+            if (batchDepth++ == 0) heldSince = clock()
+        }
+    }
+
+    fun endBatch() {
+        synchronized(lock) {
+            check(batchDepth > 0) { "endBatch() without beginBatch()" }
+            if (--batchDepth == 0 && (dirtyThreads.isNotEmpty() || dirtyScopes.isNotEmpty())) {
+                scheduleFlush(clock())
+            }
+        }
+    }
+
+    private fun scheduleFlush(at: Long) {
+        if (scheduledFlush != -1L && scheduledFlush <= at) return
+        scheduledFlush = at
+        scheduler.schedule(maxOf(0L, at - clock())) { flush() }
+    }
+
+    private fun flush() {
+        val threads: Set<Long>
+        val scopes = mutableListOf<Scope>()
+
+        synchronized(lock) {
+            val now = clock()
+            if (scheduledFlush > now) return // superseded by an earlier flush which rescheduled this one
+            scheduledFlush = -1L
+
+            if (batchDepth > 0 && now - heldSince < MAX_HOLD) {
+                scheduleFlush(heldSince + MAX_HOLD)
+                return
+            }
+
+            threads = dirtyThreads.toSet()
+            dirtyThreads.clear()
+
+            var nextDue = Long.MAX_VALUE
+            for (scope in dirtyScopes.toList()) {
+                val due = lastDispatched[scope]?.plus(scope.window) ?: now
+                if (due <= now) {
+                    scopes += scope
+                    lastDispatched[scope] = now
+                    dirtyScopes.remove(scope)
+                } else {
+                    nextDue = minOf(nextDue, due)
+                }
+            }
+            if (nextDue != Long.MAX_VALUE) scheduleFlush(nextDue)
+        }
+
+        if (threads.isNotEmpty()) {
+            dispatched.addAndGet(threads.size.toLong())
+            listener.onThreadsChanged(threads)
+        }
+        scopes.forEach {
+            dispatched.incrementAndGet()
+            listener.onScopeChanged(it)
+        }
+    }
+}
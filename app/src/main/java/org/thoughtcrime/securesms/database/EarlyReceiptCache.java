@@ -1,45 +1,185 @@
 package org.thoughtcrime.securesms.database;
 
-import org.session.libsignal.utilities.Log;
+import androidx.annotation.NonNull;
+
 import org.session.libsession.utilities.Address;
-import org.thoughtcrime.securesms.util.LRUCache;
 
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
 
+/**
+ * Counts receipts which arrive before the message they're for has been stored, by the message's
+ * timestamp, until the message is stored and takes them. Keeps at most a fixed number of timestamps,
+ * dropping the oldest first, and drops any that weren't taken in time. Safe to use from any thread
+ * without locking.
+ */
 public class EarlyReceiptCache {
 
-  private static final String TAG = EarlyReceiptCache.class.getSimpleName();
+  private static final int  DEFAULT_MAX_SIZE   = 100;
+  private static final long DEFAULT_MAX_AGE_MS = 5 * 60 * 1000;
 
-  private final LRUCache<Long, Map<Address, Long>> cache = new LRUCache<>(100);
+  /**
+   * The receipts for one timestamp. Never changed once it's in the map, it's replaced by a copy with
+   * one more receipt instead, which keeps the id it was first added with.
+   */
+  private static final class Receipts {
+    private final long      id;
+    private final long      timestamp;
+    private final long      addedAt;
+    private final Address[] origins;
+    private final long[]    counts;
 
-  public synchronized void increment(long timestamp, Address origin) {
-    Log.i(TAG, this+"");
-    Log.i(TAG, String.format("Early receipt: (%d, %s)", timestamp, origin.serialize()));
+    private Receipts(long id, long timestamp, long addedAt, @NonNull Address[] origins, @NonNull long[] counts) {
+      this.id        = id;
+      this.timestamp = timestamp;
+      this.addedAt   = addedAt;
+      this.origins   = origins;
+      this.counts    = counts;
+    }
 
-    Map<Address, Long> receipts = cache.get(timestamp);
+    private @NonNull Receipts plus(@NonNull Address origin) {
+      for (int i = 0; i < origins.length; i++) {
+        if (origins[i].equals(origin)) {
+          long[] newCounts = counts.clone();
+          newCounts[i]++;
+          return new Receipts(id, timestamp, addedAt, origins, newCounts);
+        }
+      }
 
-    if (receipts == null) {
-      receipts = new HashMap<>();
+      Address[] newOrigins = Arrays.copyOf(origins, origins.length + 1);
+      long[]    newCounts  = Arrays.copyOf(counts, counts.length + 1);
+      newOrigins[origins.length] = origin;
+      newCounts[counts.length]   = 1;
+      return new Receipts(id, timestamp, addedAt, newOrigins, newCounts);
     }
 
-    Long count = receipts.get(origin);
+    private @NonNull Map<Address, Long> toMap() {
+      Map<Address, Long> map = new HashMap<>(origins.length * 2);
+      for (int i = 0; i < origins.length; i++) {
+        map.put(origins[i], counts[i]);
+      }
+      return map;
+    }
+  }
+
+  private final int                             maxSize;
+  private final long                            maxAgeMillis;
+  private final ConcurrentHashMap<Long, Receipts> receipts = new ConcurrentHashMap<>();
+  /** The first version of each timestamp's receipts, oldest first, to know which to drop. */
+  private final ConcurrentLinkedQueue<Receipts> order    = new ConcurrentLinkedQueue<>();
+  private final AtomicLong                      nextId   = new AtomicLong();
 
-    if (count != null) {
-      receipts.put(origin, ++count);
-    } else {
-      receipts.put(origin, 1L);
+  private final AtomicLong hits      = new AtomicLong();
+  private final AtomicLong misses    = new AtomicLong();
+  private final AtomicLong evictions = new AtomicLong();
+
+  public EarlyReceiptCache() {
+    this(DEFAULT_MAX_SIZE, DEFAULT_MAX_AGE_MS);
+  }
+
+  EarlyReceiptCache(int maxSize, long maxAgeMillis) {
+    this.maxSize      = maxSize;
+    this.maxAgeMillis = maxAgeMillis;
+  }
+
+  public void increment(long timestamp, @NonNull Address origin) {
+    while (true) {
+      Receipts current = receipts.get(timestamp);
+
+      if (current == null) {
+        long     now     = System.currentTimeMillis();
+        Receipts created = new Receipts(nextId.getAndIncrement(), timestamp, now, new Address[] { origin }, new long[] { 1 });
+
+        if (receipts.putIfAbsent(timestamp, created) == null) {
+          order.add(created);
+          trim(now);
+          return;
+        }
+      } else if (receipts.replace(timestamp, current, current.plus(origin))) {
+        return;
+      }
+    }
+  }
+
+  /**
+   * Takes the receipts counted for {@code timestamp}.
+   *
+   * @return How many receipts came from each address, or an empty map if there were none.
+   */
+  public @NonNull Map<Address, Long> remove(long timestamp) {
+    Receipts removed = receipts.remove(timestamp);
+
+    if (removed == null || isExpired(removed, System.currentTimeMillis())) {
+      misses.incrementAndGet();
+      if (removed != null) evictions.incrementAndGet();
+      return Collections.emptyMap();
     }
 
-    cache.put(timestamp, receipts);
+    hits.incrementAndGet();
+    return removed.toMap();
   }
 
-  public synchronized Map<Address, Long> remove(long timestamp) {
-    Map<Address, Long> receipts = cache.remove(timestamp);
+  /** How many times {@link #remove} found receipts. */
+  public long getHitCount() {
+    return hits.get();
+  }
 
-    Log.i(TAG, this+"");
-    Log.i(TAG, String.format("Checking early receipts (%d): %d", timestamp, receipts == null ? 0 : receipts.size()));
+  /** How many times {@link #remove} found none. */
+  public long getMissCount() {
+    return misses.get();
+  }
+
+  /** How many timestamps were dropped for being too old, or to make room, before they were taken. */
+  public long getEvictionCount() {
+    return evictions.get();
+  }
+
+  /** How many timestamps currently have receipts waiting. */
+  public int size() {
+    return receipts.size();
+  }
+
+  private boolean isExpired(@NonNull Receipts entry, long now) {
+    return now - entry.addedAt > maxAgeMillis;
+  }
+
+  /**
+   * Drops the oldest timestamps while there are too many or they're too old, along with any at the
+   * front of the queue which were already taken.
+   */
+  private void trim(long now) {
+    Receipts oldest;
 
-    return receipts != null ? receipts : new HashMap<>();
+    while ((oldest = order.peek()) != null) {
+      boolean taken = !isCurrent(oldest);
+
+      if (!taken && receipts.size() <= maxSize && !isExpired(oldest, now)) {
+        return;
+      }
+
+      if (order.remove(oldest) && !taken && evict(oldest.timestamp, oldest.id)) {
+        evictions.incrementAndGet();
+      }
+    }
+  }
+
+  /** Whether {@code first}, or a later version of it, is still waiting to be taken. */
+  private boolean isCurrent(@NonNull Receipts first) {
+    Receipts current = receipts.get(first.timestamp);
+    return current != null && current.id == first.id;
+  }
+
+  /** Removes the receipts for {@code timestamp} if they're still the ones first added as {@code id}. */
+  private boolean evict(long timestamp, long id) {
+    while (true) {
+      Receipts current = receipts.get(timestamp);
+      if (current == null || current.id != id) return false;
+      if (receipts.remove(timestamp, current)) return true;
+    }
   }
 }
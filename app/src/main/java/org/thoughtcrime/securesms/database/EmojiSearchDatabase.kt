@@ -4,97 +4,92 @@ import android.content.Context
 import androidx.core.content.contentValuesOf
 import org.thoughtcrime.securesms.database.helpers.SQLCipherOpenHelper
 import org.thoughtcrime.securesms.database.model.EmojiSearchData
+import org.thoughtcrime.securesms.emoji.EmojiSearchIndex
 import org.thoughtcrime.securesms.util.CursorUtil
-import kotlin.math.max
-import kotlin.math.roundToInt
 
 /**
- * Contains all info necessary for full-text search of emoji tags.
+ * Contains all info necessary for full-text search of emoji tags. Searches are answered from an
+ * [EmojiSearchIndex] read from the table on first use and kept up to date as it changes.
  */
 class EmojiSearchDatabase(context: Context, helper: SQLCipherOpenHelper) : Database(context, helper) {
 
   companion object {
     const val TABLE_NAME = "emoji_search"
+    private const val ROW_ID = "rowid"
     const val LABEL = "label"
     const val EMOJI = "emoji"
     const val CREATE_EMOJI_SEARCH_TABLE_COMMAND = "CREATE VIRTUAL TABLE $TABLE_NAME USING fts5($LABEL, $EMOJI UNINDEXED)"
   }
 
+  @Volatile
+  private var index: EmojiSearchIndex? = null
+
   /**
    * @param query A search query. Doesn't need any special formatted -- it'll be sanitized.
    * @return A list of emoji that are related to the search term, ordered by relevance.
    */
-  fun query(originalQuery: String, originalLimit: Int): List<String> {
-    val query: String = originalQuery.trim()
-
-    if (query.isEmpty()) {
-      return emptyList()
-    }
-
-    val limit: Int = max(originalLimit, 100)
-    val entries = mutableListOf<Entry>()
-
-    readableDatabase.query(TABLE_NAME, arrayOf(LABEL, EMOJI), "$LABEL LIKE ?", arrayOf("%$query%"), null, null, null, "$limit")
-      .use { cursor ->
-        while (cursor.moveToNext()) {
-          entries += Entry(
-            label = CursorUtil.requireString(cursor, LABEL),
-            emoji = CursorUtil.requireString(cursor, EMOJI)
-          )
-        }
-      }
-
-    return entries
-      .sortedWith { lhs, rhs ->
-        similarityScore(query, lhs.label) - similarityScore(query, rhs.label)
-      }
-      .distinctBy { it.emoji }
-      .take(originalLimit)
-      .map { it.emoji }
-  }
+  fun query(originalQuery: String, originalLimit: Int): List<String> = getIndex().query(originalQuery, originalLimit)
 
   /**
-   * Deletes the content of the current search index and replaces it with the new one.
+   * Replaces the current search index with [searchIndex], only deleting the labels it no longer has
+   * and inserting the ones it adds.
    */
+  @Synchronized
   fun setSearchIndex(searchIndex: List<EmojiSearchData>) {
-    writableDatabase.beginTransaction()
-    writableDatabase.delete(TABLE_NAME, null, null)
-
+    val current = getIndex()
+    val wanted = LinkedHashSet<Entry>()
     for (searchData in searchIndex) {
       for (label in searchData.tags) {
+        wanted += Entry(label, searchData.emoji)
+      }
+    }
+    val existing = HashSet<Entry>()
+    val removed = HashSet<Long>()
+    for (entry in current.entries()) {
+      val key = Entry(entry.label, entry.emoji)
+      if (key in wanted && existing.add(key)) continue
+      removed += entry.rowId
+    }
+    val toAdd = wanted.filter { it !in existing }
+    if (removed.isEmpty() && toAdd.isEmpty()) return
+
+    val db = writableDatabase
+    val added = mutableListOf<EmojiSearchIndex.Entry>()
+    db.beginTransaction()
+    try {
+      for (rowId in removed) {
+        db.delete(TABLE_NAME, "$ROW_ID = ?", arrayOf(rowId.toString()))
+      }
+      for (entry in toAdd) {
         val values = contentValuesOf(
-          LABEL to label,
-          EMOJI to searchData.emoji
+          LABEL to entry.label,
+          EMOJI to entry.emoji
         )
-        writableDatabase.insert(TABLE_NAME, null, values)
+        added += EmojiSearchIndex.Entry(db.insert(TABLE_NAME, null, values), entry.label, entry.emoji)
       }
+      db.setTransactionSuccessful()
+    } finally {
+      db.endTransaction()
     }
-    writableDatabase.setTransactionSuccessful()
-    writableDatabase.endTransaction()
+    index = current.withChanges(removed, added)
   }
 
-  /**
-   * Ranks how "similar" a match is to the original search term.
-   * A lower score means more similar, with 0 being a perfect match.
-   *
-   * We know that the `searchTerm` must be a substring of the `match`.
-   * We determine similarity by how many letters appear before or after the `searchTerm` in the `match`.
-   * We give letters that come before the term a bigger weight than those that come after as a way to prefer matches that are prefixed by the `searchTerm`.
-   */
-  private fun similarityScore(searchTerm: String, match: String): Int {
-    if (searchTerm == match) {
-      return 0
+  private fun getIndex(): EmojiSearchIndex {
+    index?.let { return it }
+    synchronized(this) {
+      index?.let { return it }
+      val entries = mutableListOf<EmojiSearchIndex.Entry>()
+      readableDatabase.query(TABLE_NAME, arrayOf(ROW_ID, LABEL, EMOJI), null, null, null, null, ROW_ID).use { cursor ->
+        while (cursor.moveToNext()) {
+          entries += EmojiSearchIndex.Entry(
+            rowId = CursorUtil.requireLong(cursor, ROW_ID),
+            label = CursorUtil.requireString(cursor, LABEL),
+            emoji = CursorUtil.requireString(cursor, EMOJI)
+          )
+        }
+      }
+      return EmojiSearchIndex.build(entries).also { index = it }
     }
-
-    val startIndex = match.indexOf(searchTerm)
-
-    val prefixCount = startIndex
-    val suffixCount = match.length - (startIndex + searchTerm.length)
-
-    val prefixRankWeight = 1.5f
-    val suffixRankWeight = 1f
-
-    return ((prefixCount * prefixRankWeight) + (suffixCount * suffixRankWeight)).roundToInt()
   }
 
   private data class Entry(val label: String, val emoji: String)
@@ -14,6 +14,7 @@ import com.annimon.stream.Stream;
 import net.zetetic.database.sqlcipher.SQLiteDatabase;
 
 import org.jetbrains.annotations.NotNull;
+import org.session.libsession.messaging.mentions.MentionsManager;
 import org.session.libsession.utilities.Address;
 import org.session.libsession.utilities.GroupRecord;
 import org.session.libsession.utilities.TextSecurePreferences;
@@ -344,6 +345,7 @@ public class GroupDatabase extends Database implements LokiOpenGroupDatabaseProt
     Recipient.applyCached(Address.fromSerialized(groupId), recipient -> {
       recipient.setParticipants(Stream.of(members).map(a -> Recipient.from(context, a, false)).toList());
     });
+    MentionsManager.INSTANCE.groupMembersChanged(groupId);
   }
 
   public void updateZombieMembers(String groupId, List<Address> members) {
@@ -396,6 +398,7 @@ public class GroupDatabase extends Database implements LokiOpenGroupDatabaseProt
       current.remove(removal);
       recipient.setParticipants(current);
     });
+    MentionsManager.INSTANCE.groupMembersChanged(groupId);
   }
 
   private List<Address> getCurrentMembers(String groupId, boolean zombieMembers) {
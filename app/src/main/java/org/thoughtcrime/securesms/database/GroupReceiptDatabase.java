@@ -8,10 +8,12 @@ import androidx.annotation.NonNull;
 
 import net.zetetic.database.sqlcipher.SQLiteDatabase;
 
-import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.ArrayUtils;
 import org.session.libsession.utilities.Address;
 import org.thoughtcrime.securesms.database.helpers.SQLCipherOpenHelper;
+import org.thoughtcrime.securesms.util.SqlUtil;
 
+import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.List;
 
@@ -112,7 +114,10 @@ public class GroupReceiptDatabase extends Database {
 
   void deleteRowsForMessages(long[] mmsIds) {
     SQLiteDatabase db = databaseHelper.getWritableDatabase();
-    db.delete(TABLE_NAME, MMS_ID + " IN (?)", new String[] {StringUtils.join(mmsIds, ',')});
+
+    for (SqlUtil.Query query : SqlUtil.buildCollectionQuery(MMS_ID, Arrays.asList(ArrayUtils.toObject(mmsIds)))) {
+      db.delete(TABLE_NAME, query.getWhere(), query.getWhereArgs());
+    }
   }
 
   void deleteAllRows() {
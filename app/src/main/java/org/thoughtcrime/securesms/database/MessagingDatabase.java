@@ -5,6 +5,8 @@ import android.content.Context;
 import android.database.Cursor;
 import android.text.TextUtils;
 
+import androidx.annotation.NonNull;
+
 import net.zetetic.database.sqlcipher.SQLiteDatabase;
 
 import org.session.libsession.utilities.Address;
@@ -20,8 +22,10 @@ import org.thoughtcrime.securesms.util.SqlUtil;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 
 public abstract class MessagingDatabase extends Database implements MmsSmsColumns {
 
@@ -44,6 +48,12 @@ public abstract class MessagingDatabase extends Database implements MmsSmsColumn
   public abstract boolean deleteMessage(long messageId);
   public abstract boolean deleteMessages(long[] messageId, long threadId);
 
+  /**
+   * Deletes the given messages without updating their threads. Callers are expected to update
+   * each affected thread once they're done, see {@link MmsSmsDatabase#deleteExpiredMessages(long)}.
+   */
+  abstract void deleteMessagesWithoutThreadUpdate(@NonNull List<Long> messageIds);
+
   public abstract void updateThreadId(long fromId, long toId);
 
   public abstract MessageRecord getMessageRecord(long messageId) throws NoSuchMessageException;
@@ -68,6 +78,42 @@ public abstract class MessagingDatabase extends Database implements MmsSmsColumn
     }
   }
 
+  /**
+   * @return When the next disappearing message in this table is due, or -1 if there is none.
+   */
+  long getNextExpiration() {
+    SQLiteDatabase db = databaseHelper.getReadableDatabase();
+
+    try (Cursor cursor = db.rawQuery("SELECT MIN(" + EXPIRES_AT + ") FROM " + getTableName() + " WHERE " + EXPIRE_STARTED + " > 0", null)) {
+      return cursor.moveToFirst() && !cursor.isNull(0) ? cursor.getLong(0) : -1;
+    }
+  }
+
+  /**
+   * @return The ids of the disappearing messages which are due at {@code timestamp}, by thread id.
+   */
+  @NonNull Map<Long, List<Long>> getExpiredMessageIds(long timestamp) {
+    SQLiteDatabase        db     = databaseHelper.getReadableDatabase();
+    Map<Long, List<Long>> result = new HashMap<>();
+    String                query  = "SELECT " + ID + ", " + THREAD_ID + " FROM " + getTableName() +
+                                   " WHERE " + EXPIRE_STARTED + " > 0 AND " + EXPIRES_AT + " <= ?";
+
+    try (Cursor cursor = db.rawQuery(query, SqlUtil.buildArgs(timestamp))) {
+      while (cursor.moveToNext()) {
+        List<Long> messageIds = result.get(cursor.getLong(1));
+
+        if (messageIds == null) {
+          messageIds = new ArrayList<>();
+          result.put(cursor.getLong(1), messageIds);
+        }
+
+        messageIds.add(cursor.getLong(0));
+      }
+    }
+
+    return result;
+  }
+
   void updateReactionsUnread(SQLiteDatabase db, long messageId, boolean hasReactions, boolean isRemoval, boolean notifyUnread) {
     try {
       MessageRecord message    = getMessageRecord(messageId);
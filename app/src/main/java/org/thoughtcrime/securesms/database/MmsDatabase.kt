@@ -64,6 +64,7 @@ import org.thoughtcrime.securesms.database.model.Quote
 import org.thoughtcrime.securesms.dependencies.DatabaseComponent.Companion.get
 import org.thoughtcrime.securesms.mms.MmsException
 import org.thoughtcrime.securesms.mms.SlideDeck
+import org.thoughtcrime.securesms.util.SqlUtil
 import java.io.Closeable
 import java.io.IOException
 import java.security.SecureRandom
@@ -1007,7 +1008,9 @@ class MmsDatabase(context: Context, databaseHelper: SQLCipherOpenHelper) : Messa
         groupReceiptDatabase.deleteRowsForMessages(messageIds)
 
         val database = databaseHelper.writableDatabase
-        database!!.delete(TABLE_NAME, ID_IN, arrayOf(messageIds.joinToString(",")))
+        SqlUtil.buildCollectionQuery(ID, messageIds.toList()).forEach { query ->
+            database.delete(TABLE_NAME, query.where, query.whereArgs)
+        }
 
         val threadDeleted = get(context).threadDatabase().update(threadId, false)
         notifyConversationListeners(threadId)
@@ -1016,6 +1019,21 @@ class MmsDatabase(context: Context, databaseHelper: SQLCipherOpenHelper) : Messa
         return threadDeleted
     }
 
+    override fun deleteMessagesWithoutThreadUpdate(messageIds: List<Long>) {
+        val attachmentDatabase = get(context).attachmentDatabase()
+        val groupReceiptDatabase = get(context).groupReceiptDatabase()
+
+        queue(Runnable { attachmentDatabase.deleteAttachmentsForMessages(messageIds.toLongArray()) })
+        groupReceiptDatabase.deleteRowsForMessages(messageIds.toLongArray())
+
+        val database = databaseHelper.writableDatabase
+        SqlUtil.buildCollectionQuery(ID, messageIds).forEach { query ->
+            database.delete(TABLE_NAME, query.where, query.whereArgs)
+        }
+        notifyStickerListeners()
+        notifyStickerPackListeners()
+    }
+
     override fun updateThreadId(fromId: Long, toId: Long) {
         val contentValues = ContentValues(1)
         contentValues.put(THREAD_ID, toId)
@@ -1544,7 +1562,8 @@ class MmsDatabase(context: Context, databaseHelper: SQLCipherOpenHelper) : Messa
             "CREATE INDEX IF NOT EXISTS mms_read_and_notified_and_thread_id_index ON $TABLE_NAME($READ,$NOTIFIED,$THREAD_ID);",
             "CREATE INDEX IF NOT EXISTS mms_message_box_index ON $TABLE_NAME ($MESSAGE_BOX);",
             "CREATE INDEX IF NOT EXISTS mms_date_sent_index ON $TABLE_NAME ($DATE_SENT);",
-            "CREATE INDEX IF NOT EXISTS mms_thread_date_index ON $TABLE_NAME ($THREAD_ID, $DATE_RECEIVED);"
+            "CREATE INDEX IF NOT EXISTS mms_thread_date_index ON $TABLE_NAME ($THREAD_ID, $DATE_RECEIVED);",
+            "CREATE INDEX IF NOT EXISTS mms_expires_at_index ON $TABLE_NAME ($EXPIRES_AT) WHERE $EXPIRE_STARTED > 0;"
         )
         private val MMS_PROJECTION: Array<String> = arrayOf(
             "$TABLE_NAME.$ID AS $ID",
@@ -26,6 +26,9 @@ public interface MmsSmsColumns {
 
   public static final String HAS_MENTION              = "has_mention";
 
+  // When a disappearing message is due, for messages whose timer has started (EXPIRE_STARTED > 0)
+  public static final String EXPIRES_AT               = EXPIRE_STARTED + " + " + EXPIRES_IN;
+
   public static class Types {
     protected static final long TOTAL_MASK = 0xFFFFFFFF;
 
@@ -33,7 +33,11 @@ import org.thoughtcrime.securesms.database.model.MessageRecord;
 import org.thoughtcrime.securesms.dependencies.DatabaseComponent;
 
 import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 public class MmsSmsDatabase extends Database {
@@ -211,6 +215,45 @@ public class MmsSmsDatabase extends Database {
     return queryTables(PROJECTION, selection, order, null);
   }
 
+  /** The messages of {@code threadId} which {@link #getUnread()} returns. */
+  public Cursor getUnread(long threadId) {
+    String order     = MmsSmsColumns.NORMALIZED_DATE_SENT + " ASC";
+    String selection = MmsSmsColumns.THREAD_ID + " = " + threadId + " AND (" + MmsSmsColumns.READ + " = 0 OR " + MmsSmsColumns.REACTIONS_UNREAD + " = 1) AND " + MmsSmsColumns.NOTIFIED + " = 0";
+
+    return queryTables(PROJECTION, selection, order, null);
+  }
+
+  /**
+   * Returns a value for each thread with messages {@link #getUnread()} returns, which changes when
+   * those messages or their reactions do. Much cheaper than reading the messages, as it only counts
+   * them.
+   */
+  public @NonNull Map<Long, String> getUnreadSignatures() {
+    Map<Long, String> signatures = new HashMap<>();
+    appendUnreadSignatures(signatures, SmsDatabase.TABLE_NAME, false);
+    appendUnreadSignatures(signatures, MmsDatabase.TABLE_NAME, true);
+    return signatures;
+  }
+
+  private void appendUnreadSignatures(Map<Long, String> signatures, String table, boolean mms) {
+    String latestReaction = "(SELECT MAX(" + ReactionDatabase.ROW_ID + ") FROM " + ReactionDatabase.TABLE_NAME +
+                            " WHERE " + ReactionDatabase.MESSAGE_ID + " = " + table + "." + MmsSmsColumns.ID +
+                            " AND " + ReactionDatabase.IS_MMS + " = " + (mms ? 1 : 0) + ")";
+    String query = "SELECT " + MmsSmsColumns.THREAD_ID + ", COUNT(*), MAX(" + MmsSmsColumns.ID + "), MAX(" + latestReaction + ")" +
+                   " FROM " + table +
+                   " WHERE (" + MmsSmsColumns.READ + " = 0 OR " + MmsSmsColumns.REACTIONS_UNREAD + " = 1) AND " + MmsSmsColumns.NOTIFIED + " = 0" +
+                   " GROUP BY " + MmsSmsColumns.THREAD_ID;
+
+    try (Cursor cursor = databaseHelper.getReadableDatabase().rawQuery(query, null)) {
+      while (cursor.moveToNext()) {
+        long   threadId  = cursor.getLong(0);
+        String signature = (mms ? "mms:" : "sms:") + cursor.getLong(1) + ":" + cursor.getLong(2) + ":" + cursor.getLong(3);
+        String previous  = signatures.get(threadId);
+        signatures.put(threadId, previous == null ? signature : previous + "," + signature);
+      }
+    }
+  }
+
   public int getUnreadCount(long threadId) {
     String selection = MmsSmsColumns.READ + " = 0 AND " + MmsSmsColumns.NOTIFIED + " = 0 AND " + MmsSmsColumns.THREAD_ID + " = " + threadId;
     Cursor cursor    = queryTables(PROJECTION, selection, null, null);
@@ -229,6 +272,65 @@ public class MmsSmsDatabase extends Database {
     return count;
   }
 
+  /**
+   * @return When the next disappearing message is due, or -1 if there is none.
+   */
+  public long getNextExpiration() {
+    long sms = DatabaseComponent.get(context).smsDatabase().getNextExpiration();
+    long mms = DatabaseComponent.get(context).mmsDatabase().getNextExpiration();
+
+    if (sms == -1) return mms;
+    if (mms == -1) return sms;
+    return Math.min(sms, mms);
+  }
+
+  /**
+   * Deletes every disappearing message which is due at {@code timestamp} in a single transaction,
+   * updating each affected thread once rather than once per message.
+   *
+   * @return The number of messages deleted.
+   */
+  public int deleteExpiredMessages(long timestamp) {
+    SmsDatabase    smsDatabase    = DatabaseComponent.get(context).smsDatabase();
+    MmsDatabase    mmsDatabase    = DatabaseComponent.get(context).mmsDatabase();
+    ThreadDatabase threadDatabase = DatabaseComponent.get(context).threadDatabase();
+    SQLiteDatabase db             = databaseHelper.getWritableDatabase();
+    Set<Long>      threadIds      = new HashSet<>();
+    int            count          = 0;
+
+    changeBus.beginBatch();
+    db.beginTransaction();
+
+    try {
+      for (MessagingDatabase database : new MessagingDatabase[] { smsDatabase, mmsDatabase }) {
+        Map<Long, List<Long>> expired    = database.getExpiredMessageIds(timestamp);
+        List<Long>            messageIds = new ArrayList<>();
+
+        for (List<Long> ids : expired.values()) {
+          messageIds.addAll(ids);
+        }
+
+        if (!messageIds.isEmpty()) {
+          database.deleteMessagesWithoutThreadUpdate(messageIds);
+          threadIds.addAll(expired.keySet());
+          count += messageIds.size();
+        }
+      }
+
+      for (long threadId : threadIds) {
+        threadDatabase.update(threadId, false);
+        notifyConversationListeners(threadId);
+      }
+
+      db.setTransactionSuccessful();
+    } finally {
+      db.endTransaction();
+      changeBus.endBatch();
+    }
+
+    return count;
+  }
+
   public void incrementDeliveryReceiptCount(SyncMessageId syncMessageId, long timestamp) {
     DatabaseComponent.get(context).smsDatabase().incrementReceiptCount(syncMessageId, true, false);
     DatabaseComponent.get(context).mmsDatabase().incrementReceiptCount(syncMessageId, timestamp, true, false);
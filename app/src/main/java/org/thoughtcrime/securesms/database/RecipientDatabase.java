@@ -24,11 +24,16 @@ import org.session.libsignal.utilities.Base64;
 import org.session.libsignal.utilities.Log;
 import org.session.libsignal.utilities.guava.Optional;
 import org.thoughtcrime.securesms.database.helpers.SQLCipherOpenHelper;
+import org.thoughtcrime.securesms.glide.cache.AvatarCache;
 
 import java.io.Closeable;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 public class RecipientDatabase extends Database {
 
@@ -140,6 +145,9 @@ public class RecipientDatabase extends Database {
   public static final int NOTIFY_TYPE_MENTIONS = 1;
   public static final int NOTIFY_TYPE_NONE = 2;
 
+  // Stays under SQLite's limit on the number of arguments of a query
+  private static final int MAX_QUERY_ARGUMENTS = 500;
+
   public RecipientDatabase(Context context, SQLCipherOpenHelper databaseHelper) {
     super(context, databaseHelper);
   }
@@ -169,6 +177,32 @@ public class RecipientDatabase extends Database {
     }
   }
 
+  /**
+   * Reads the settings of all of {@code addresses} which have any, in as few queries as SQLite's
+   * limit on arguments allows.
+   */
+  public Map<Address, RecipientSettings> getRecipientSettings(@NonNull Collection<Address> addresses) {
+    SQLiteDatabase                  database = databaseHelper.getReadableDatabase();
+    Map<Address, RecipientSettings> results  = new HashMap<>(addresses.size());
+    List<String>                    serialized = new ArrayList<>(addresses.size());
+
+    for (Address address : addresses) serialized.add(address.serialize());
+
+    for (int start = 0; start < serialized.size(); start += MAX_QUERY_ARGUMENTS) {
+      List<String> chunk        = serialized.subList(start, Math.min(start + MAX_QUERY_ARGUMENTS, serialized.size()));
+      String       placeholders = Util.join(Collections.nCopies(chunk.size(), "?"), ",");
+
+      try (Cursor cursor = database.query(TABLE_NAME, null, ADDRESS + " IN (" + placeholders + ")", chunk.toArray(new String[0]), null, null, null)) {
+        while (cursor != null && cursor.moveToNext()) {
+          Address address = Address.fromSerialized(cursor.getString(cursor.getColumnIndexOrThrow(ADDRESS)));
+          results.put(address, getRecipientSettings(cursor).get());
+        }
+      }
+    }
+
+    return results;
+  }
+
   Optional<RecipientSettings> getRecipientSettings(@NonNull Cursor cursor) {
     boolean blocked                = cursor.getInt(cursor.getColumnIndexOrThrow(BLOCK))                == 1;
     boolean approved               = cursor.getInt(cursor.getColumnIndexOrThrow(APPROVED))             == 1;
@@ -346,6 +380,7 @@ public class RecipientDatabase extends Database {
     contentValues.put(SIGNAL_PROFILE_AVATAR, profileAvatar);
     updateOrInsert(recipient.getAddress(), contentValues);
     recipient.resolve().setProfileAvatar(profileAvatar);
+    AvatarCache.getInstance(context).invalidate(recipient.getAddress().serialize());
     notifyRecipientListeners();
   }
 
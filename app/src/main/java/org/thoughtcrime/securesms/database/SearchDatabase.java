@@ -2,8 +2,10 @@ package org.thoughtcrime.securesms.database;
 
 import android.content.Context;
 import android.database.Cursor;
+import android.os.CancellationSignal;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 
 import com.annimon.stream.Stream;
 
@@ -12,7 +14,9 @@ import net.zetetic.database.sqlcipher.SQLiteDatabase;
 import org.session.libsession.utilities.Util;
 import org.thoughtcrime.securesms.database.helpers.SQLCipherOpenHelper;
 
+import java.util.LinkedList;
 import java.util.List;
+import java.util.Locale;
 
 /**
  * Contains all databases necessary for full-text search (FTS).
@@ -28,6 +32,9 @@ public class SearchDatabase extends Database {
   public static final String SNIPPET              = "snippet";
   public static final String CONVERSATION_ADDRESS = "conversation_address";
   public static final String MESSAGE_ADDRESS      = "message_address";
+  public static final String MESSAGE_ID           = "message_id";
+  public static final String IS_MMS               = "is_mms";
+  public static final String RANK                 = "search_rank";
 
   public static final String[] CREATE_TABLE = {
       "CREATE VIRTUAL TABLE " + SMS_FTS_TABLE_NAME + " USING fts5(" + BODY + ", " + THREAD_ID + " UNINDEXED, content=" + SmsDatabase.TABLE_NAME + ", content_rowid=" + SmsDatabase.ID + ");",
@@ -58,30 +65,24 @@ public class SearchDatabase extends Database {
           "END;"
   };
 
-  private static final String MESSAGES_QUERY =
-      "SELECT " +
-        ThreadDatabase.TABLE_NAME + "." + ThreadDatabase.ADDRESS + " AS " + CONVERSATION_ADDRESS + ", " +
-        MmsSmsColumns.ADDRESS + " AS " + MESSAGE_ADDRESS + ", " +
-        "snippet(" + SMS_FTS_TABLE_NAME + ", -1, '', '', '...', 7) AS " + SNIPPET + ", " +
-        SmsDatabase.TABLE_NAME + "." + SmsDatabase.DATE_SENT + " AS " + MmsSmsColumns.NORMALIZED_DATE_SENT + ", " +
-        SMS_FTS_TABLE_NAME + "."  + THREAD_ID + " " +
-      "FROM " + SmsDatabase.TABLE_NAME + " " +
-      "INNER JOIN " + SMS_FTS_TABLE_NAME + " ON " + SMS_FTS_TABLE_NAME + "." + ID + " = " + SmsDatabase.TABLE_NAME + "." + SmsDatabase.ID + " " +
-      "INNER JOIN " + ThreadDatabase.TABLE_NAME + " ON " + SMS_FTS_TABLE_NAME + "." + THREAD_ID + " = " + ThreadDatabase.TABLE_NAME + "." + ThreadDatabase.ID + " " +
-      "WHERE " + SMS_FTS_TABLE_NAME + " MATCH ? " +
-      "UNION ALL " +
+  private static final String RANKED_MESSAGE_IDS_QUERY =
+      "SELECT " + ID + " AS " + MESSAGE_ID + ", %d AS " + IS_MMS + ", bm25(%s) AS " + RANK + " " +
+      "FROM %s " +
+      "WHERE %s MATCH ?";
+
+  private static final String MESSAGES_BY_ID_QUERY =
       "SELECT " +
         ThreadDatabase.TABLE_NAME + "." + ThreadDatabase.ADDRESS + " AS " + CONVERSATION_ADDRESS + ", " +
         MmsSmsColumns.ADDRESS + " AS " + MESSAGE_ADDRESS + ", " +
-        "snippet(" + MMS_FTS_TABLE_NAME + ", -1, '', '', '...', 7) AS " + SNIPPET + ", " +
-        MmsDatabase.TABLE_NAME + "." + MmsDatabase.DATE_SENT + " AS " + MmsSmsColumns.NORMALIZED_DATE_SENT + ", " +
-        MMS_FTS_TABLE_NAME + "." + THREAD_ID + " " +
-      "FROM " + MmsDatabase.TABLE_NAME + " " +
-      "INNER JOIN " + MMS_FTS_TABLE_NAME + " ON " + MMS_FTS_TABLE_NAME + "." + ID + " = " + MmsDatabase.TABLE_NAME + "." + MmsDatabase.ID + " " +
-      "INNER JOIN " + ThreadDatabase.TABLE_NAME + " ON " + MMS_FTS_TABLE_NAME + "." + THREAD_ID + " = " + ThreadDatabase.TABLE_NAME + "." + ThreadDatabase.ID + " " +
-      "WHERE " + MMS_FTS_TABLE_NAME + " MATCH ? " +
-      "ORDER BY " + MmsSmsColumns.NORMALIZED_DATE_SENT + " DESC " +
-      "LIMIT ?";
+        "snippet(%s, -1, '', '', '...', 7) AS " + SNIPPET + ", " +
+        "%s.%s AS " + MmsSmsColumns.NORMALIZED_DATE_SENT + ", " +
+        "%s." + THREAD_ID + ", " +
+        "%s." + ID + " AS " + MESSAGE_ID + ", " +
+        "%d AS " + IS_MMS + " " +
+      "FROM %s " +
+      "INNER JOIN %s ON %s." + ID + " = %s." + MmsSmsColumns.ID + " " +
+      "INNER JOIN " + ThreadDatabase.TABLE_NAME + " ON %s." + THREAD_ID + " = " + ThreadDatabase.TABLE_NAME + "." + ThreadDatabase.ID + " " +
+      "WHERE %s MATCH ? AND %s." + ID + " IN (%s)";
 
   private static final String MESSAGES_FOR_THREAD_QUERY =
       "SELECT " +
@@ -108,26 +109,109 @@ public class SearchDatabase extends Database {
         "ORDER BY " + MmsSmsColumns.NORMALIZED_DATE_SENT + " DESC " +
         "LIMIT 500";
 
+  private static final String LATEST_MESSAGE_IDS_QUERY =
+      "SELECT (SELECT MAX(" + SmsDatabase.ID + ") FROM " + SmsDatabase.TABLE_NAME + "), " +
+             "(SELECT MAX(" + MmsDatabase.ID + ") FROM " + MmsDatabase.TABLE_NAME + ")";
+
   public SearchDatabase(@NonNull Context context, @NonNull SQLCipherOpenHelper databaseHelper) {
     super(context, databaseHelper);
   }
 
-  public Cursor queryMessages(@NonNull String query) {
+  /**
+   * Returns the ids of the newest SMS and MMS messages, which change whenever a message arrives.
+   * Only reads the end of each table's primary key.
+   */
+  public @NonNull long[] getLatestMessageIds() {
+    SQLiteDatabase db = databaseHelper.getReadableDatabase();
+
+    try (Cursor cursor = db.rawQuery(LATEST_MESSAGE_IDS_QUERY, null)) {
+      if (cursor != null && cursor.moveToFirst()) {
+        return new long[] { cursor.getLong(0), cursor.getLong(1) };
+      }
+    }
+
+    return new long[] { 0, 0 };
+  }
+
+  /**
+   * Returns the ids of up to {@code limit} messages matching {@code query}, best match first by
+   * bm25, as {@link #MESSAGE_ID}, {@link #IS_MMS} and {@link #RANK}. Only the full-text index is
+   * read, not the messages.
+   *
+   * Candidates, when given, restrict the search to those messages, eg. the matches of a query this
+   * one refines. An empty array leaves out its table.
+   */
+  public @Nullable Cursor queryRankedMessageIds(@NonNull String query,
+                                                @Nullable long[] smsCandidates,
+                                                @Nullable long[] mmsCandidates,
+                                                int limit,
+                                                @Nullable CancellationSignal cancellationSignal)
+  {
     SQLiteDatabase db          = databaseHelper.getReadableDatabase();
     String         prefixQuery = adjustQuery(query);
+    List<String>   selects     = new LinkedList<>();
+    List<String>   arguments   = new LinkedList<>();
+
+    if (smsCandidates == null || smsCandidates.length > 0) {
+      selects.add(rankedMessageIdsQuery(SMS_FTS_TABLE_NAME, false, smsCandidates));
+      arguments.add(prefixQuery);
+    }
+    if (mmsCandidates == null || mmsCandidates.length > 0) {
+      selects.add(rankedMessageIdsQuery(MMS_FTS_TABLE_NAME, true, mmsCandidates));
+      arguments.add(prefixQuery);
+    }
+    if (selects.isEmpty()) return null;
+
+    arguments.add(String.valueOf(limit));
+
+    String sql = Util.join(selects, " UNION ALL ") + " ORDER BY " + RANK + ", " + MESSAGE_ID + " DESC LIMIT ?";
+    return db.rawQuery(sql, arguments.toArray(new String[0]), cancellationSignal);
+  }
 
-    int queryLimit = Math.min(query.length()*50,500);
+  /**
+   * Returns the messages with the given ids which match {@code query}, in no particular order,
+   * with a snippet of where they match. Messages of threads that no longer exist are left out.
+   */
+  public @Nullable Cursor queryMessagesById(@NonNull String query,
+                                  @NonNull long[] smsIds,
+                                  @NonNull long[] mmsIds,
+                                  @Nullable CancellationSignal cancellationSignal)
+  {
+    SQLiteDatabase db          = databaseHelper.getReadableDatabase();
+    String         prefixQuery = adjustQuery(query);
+    List<String>   selects     = new LinkedList<>();
+    List<String>   arguments   = new LinkedList<>();
+
+    if (smsIds.length > 0) {
+      selects.add(messagesByIdQuery(SMS_FTS_TABLE_NAME, SmsDatabase.TABLE_NAME, SmsDatabase.DATE_SENT, false, smsIds));
+      arguments.add(prefixQuery);
+    }
+    if (mmsIds.length > 0) {
+      selects.add(messagesByIdQuery(MMS_FTS_TABLE_NAME, MmsDatabase.TABLE_NAME, MmsDatabase.DATE_SENT, true, mmsIds));
+      arguments.add(prefixQuery);
+    }
+    if (selects.isEmpty()) return null;
+
+    return db.rawQuery(Util.join(selects, " UNION ALL "), arguments.toArray(new String[0]), cancellationSignal);
+  }
 
-    Cursor cursor = db.rawQuery(MESSAGES_QUERY, new String[] { prefixQuery, prefixQuery, String.valueOf(queryLimit) });
-    setNotifyConverationListListeners(cursor);
-    return cursor;
+  private static String rankedMessageIdsQuery(@NonNull String ftsTable, boolean isMms, @Nullable long[] candidates) {
+    String query = String.format(Locale.US, RANKED_MESSAGE_IDS_QUERY, isMms ? 1 : 0, ftsTable, ftsTable, ftsTable);
+    return candidates != null ? query + " AND " + ID + " IN (" + Util.join(candidates, ",") + ")" : query;
+  }
+
+  /** @param dateSent The table's own date sent column, which isn't named the same in both tables. */
+  private static String messagesByIdQuery(@NonNull String ftsTable, @NonNull String table, @NonNull String dateSent, boolean isMms, @NonNull long[] ids) {
+    return String.format(Locale.US, MESSAGES_BY_ID_QUERY, ftsTable, table, dateSent, ftsTable, ftsTable, isMms ? 1 : 0,
+                         table, ftsTable, ftsTable, table, ftsTable, ftsTable, ftsTable, Util.join(ids, ","));
   }
 
-  public Cursor queryMessages(@NonNull String query, long threadId) {
+
+  public Cursor queryMessages(@NonNull String query, long threadId, @Nullable CancellationSignal cancellationSignal) {
     SQLiteDatabase db          = databaseHelper.getReadableDatabase();
     String         prefixQuery = adjustQuery(query);
 
-    Cursor cursor = db.rawQuery(MESSAGES_FOR_THREAD_QUERY, new String[] { prefixQuery, String.valueOf(threadId), prefixQuery, String.valueOf(threadId) });
+    Cursor cursor = db.rawQuery(MESSAGES_FOR_THREAD_QUERY, new String[] { prefixQuery, String.valueOf(threadId), prefixQuery, String.valueOf(threadId) }, cancellationSignal);
     setNotifyConverationListListeners(cursor);
     return cursor;
 
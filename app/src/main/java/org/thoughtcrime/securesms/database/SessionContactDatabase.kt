@@ -4,8 +4,11 @@ import android.content.ContentValues
 import android.content.Context
 import androidx.core.database.getStringOrNull
 import android.database.Cursor
+import org.greenrobot.eventbus.EventBus
 import org.session.libsession.messaging.contacts.Contact
+import org.session.libsession.messaging.mentions.MentionsManager
 import org.session.libsignal.utilities.Base64
+import org.thoughtcrime.securesms.conversation.v2.utilities.MessageBodyCache
 import org.thoughtcrime.securesms.database.helpers.SQLCipherOpenHelper
 
 class SessionContactDatabase(context: Context, helper: SQLCipherOpenHelper) : Database(context, helper) {
@@ -32,10 +35,14 @@ class SessionContactDatabase(context: Context, helper: SQLCipherOpenHelper) : Da
                 "$isTrusted INTEGER DEFAULT 0);"
     }
 
+    private val cache = ContactCache()
+
     fun getContactWithSessionID(sessionID: String): Contact? {
-        val database = databaseHelper.readableDatabase
-        return database.get(sessionContactTable, "${Companion.sessionID} = ?", arrayOf( sessionID )) { cursor ->
-            contactFromCursor(cursor)
+        return cache.get(sessionID) {
+            val database = databaseHelper.readableDatabase
+            database.get(sessionContactTable, "${Companion.sessionID} = ?", arrayOf( sessionID )) { cursor ->
+                contactFromCursor(cursor)
+            }
         }
     }
 
@@ -46,11 +53,27 @@ class SessionContactDatabase(context: Context, helper: SQLCipherOpenHelper) : Da
         }.toSet()
     }
 
+    /** Returns the contacts of [sessionIDs] which exist, reading those not cached in one query. */
+    fun getContacts(sessionIDs: Collection<String>): List<Contact> {
+        return cache.getAll(sessionIDs) { missing ->
+            val database = databaseHelper.readableDatabase
+            // Stay under SQLite's limit on the number of arguments of a query
+            missing.chunked(500).flatMap { chunk ->
+                val placeholders = chunk.joinToString(",") { "?" }
+                database.getAll(sessionContactTable, "$sessionID IN ($placeholders)", chunk.toTypedArray()) { cursor ->
+                    contactFromCursor(cursor)
+                }
+            }
+        }
+    }
+
     fun setContactIsTrusted(contact: Contact, isTrusted: Boolean, threadID: Long) {
         val database = databaseHelper.writableDatabase
         val contentValues = ContentValues(1)
         contentValues.put(Companion.isTrusted, if (isTrusted) 1 else 0)
-        database.update(sessionContactTable, contentValues, "$sessionID = ?", arrayOf( contact.sessionID ))
+        cache.update(contact.sessionID) {
+            database.update(sessionContactTable, contentValues, "$sessionID = ?", arrayOf( contact.sessionID ))
+        }
         if (threadID >= 0) {
             notifyConversationListeners(threadID)
         }
@@ -70,7 +93,28 @@ class SessionContactDatabase(context: Context, helper: SQLCipherOpenHelper) : Da
         }
         contentValues.put(threadID, contact.threadID)
         contentValues.put(isTrusted, if (contact.isTrusted) 1 else 0)
-        database.insertOrUpdate(sessionContactTable, contentValues, "$sessionID = ?", arrayOf( contact.sessionID ))
+        var nameChanged = false
+        var avatarChanged = false
+        cache.write(contact.sessionID) {
+            // Read here, where no other write can change it before this one
+            val previous = getContactWithSessionID(contact.sessionID)
+            // What the row will hold, which keeps its key when there's no new one
+            val stored = ContactCache.copy(contact).also {
+                it.profilePictureEncryptionKey = it.profilePictureEncryptionKey ?: previous?.profilePictureEncryptionKey
+                it.threadID = it.threadID ?: 0
+            }
+            database.insertOrUpdate(sessionContactTable, contentValues, "$sessionID = ?", arrayOf( contact.sessionID ))
+            nameChanged = previous?.name != stored.name || previous?.nickname != stored.nickname
+            avatarChanged = previous?.profilePictureURL != stored.profilePictureURL
+                || previous?.profilePictureFileName != stored.profilePictureFileName
+                || !previous?.profilePictureEncryptionKey.contentEquals(stored.profilePictureEncryptionKey)
+            stored
+        }
+        if (nameChanged || avatarChanged) {
+            EventBus.getDefault().post(ContactUpdatedEvent(contact.sessionID, nameChanged, avatarChanged))
+        }
+        MessageBodyCache.invalidate(contact.sessionID)
+        MentionsManager.contactUpdated(contact)
         notifyConversationListListeners()
     }
 
@@ -98,4 +142,7 @@ class SessionContactDatabase(context: Context, helper: SQLCipherOpenHelper) : Da
             null, null, null
         )
     }
-}
\ No newline at end of file
+
+    /** Gets dispatched when a contact's name, nickname or profile picture changes. */
+    data class ContactUpdatedEvent(val sessionID: String, val nameChanged: Boolean, val avatarChanged: Boolean)
+}
@@ -50,6 +50,7 @@ import org.thoughtcrime.securesms.database.model.MessageRecord;
 import org.thoughtcrime.securesms.database.model.ReactionRecord;
 import org.thoughtcrime.securesms.database.model.SmsMessageRecord;
 import org.thoughtcrime.securesms.dependencies.DatabaseComponent;
+import org.thoughtcrime.securesms.util.SqlUtil;
 
 import java.io.IOException;
 import java.security.SecureRandom;
@@ -95,7 +96,8 @@ public class SmsDatabase extends MessagingDatabase {
     "CREATE INDEX IF NOT EXISTS sms_read_and_notified_and_thread_id_index ON " + TABLE_NAME + "(" + READ + "," + NOTIFIED + ","  + THREAD_ID + ");",
     "CREATE INDEX IF NOT EXISTS sms_type_index ON " + TABLE_NAME + " (" + TYPE + ");",
     "CREATE INDEX IF NOT EXISTS sms_date_sent_index ON " + TABLE_NAME + " (" + DATE_SENT + ");",
-    "CREATE INDEX IF NOT EXISTS sms_thread_date_index ON " + TABLE_NAME + " (" + THREAD_ID + ", " + DATE_RECEIVED + ");"
+    "CREATE INDEX IF NOT EXISTS sms_thread_date_index ON " + TABLE_NAME + " (" + THREAD_ID + ", " + DATE_RECEIVED + ");",
+    "CREATE INDEX IF NOT EXISTS sms_expires_at_index ON " + TABLE_NAME + " (" + EXPIRES_AT + ") WHERE " + EXPIRE_STARTED + " > 0;"
   };
 
   private static final String[] MESSAGE_PROJECTION = new String[] {
@@ -629,6 +631,15 @@ public class SmsDatabase extends MessagingDatabase {
     return threadDeleted;
   }
 
+  @Override
+  void deleteMessagesWithoutThreadUpdate(@NonNull List<Long> messageIds) {
+    SQLiteDatabase db = databaseHelper.getWritableDatabase();
+
+    for (SqlUtil.Query query : SqlUtil.buildCollectionQuery(ID, messageIds)) {
+      db.delete(TABLE_NAME, query.getWhere(), query.getWhereArgs());
+    }
+  }
+
   @Override
   public void updateThreadId(long fromId, long toId) {
     ContentValues contentValues = new ContentValues(1);
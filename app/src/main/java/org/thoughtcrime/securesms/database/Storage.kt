@@ -54,7 +54,16 @@ import org.thoughtcrime.securesms.util.SessionMetaProtocol
 import java.security.MessageDigest
 
 class Storage(context: Context, helper: SQLCipherOpenHelper) : Database(context, helper), StorageProtocol {
-    
+
+    private val blindedIdIndex by lazy {
+        BlindedIdIndex({
+            DatabaseComponent.get(context).threadDatabase().conversationAddresses +
+                DatabaseComponent.get(context).blindedIdMappingDatabase().getSessionIds()
+        }).also { index ->
+            getAllOpenGroups().values.forEach { index.addServer(it.publicKey) }
+        }
+    }
+
     override fun getUserPublicKey(): String? {
         return TextSecurePreferences.getLocalNumber(context)
     }
@@ -114,6 +123,10 @@ class Storage(context: Context, helper: SQLCipherOpenHelper) : Database(context,
         threadDb.update(threadId, unarchive)
     }
 
+    override fun <T> batchDatabaseNotifications(block: () -> T): T {
+        return changeBus.batch(block)
+    }
+
     override fun persist(message: VisibleMessage,
                          quotes: QuoteModel?,
                          linkPreview: List<LinkPreview?>,
@@ -566,6 +579,7 @@ class Storage(context: Context, helper: SQLCipherOpenHelper) : Database(context,
 
     override fun onOpenGroupAdded(server: String) {
         OpenGroupManager.restartPollerForServer(server.removeSuffix("/"))
+        getOpenGroupPublicKey(server.removeSuffix("/"))?.let { blindedIdIndex.addServer(it) }
     }
 
     override fun hasBackgroundGroupAddJob(groupJoinUrl: String): Boolean {
@@ -593,6 +607,7 @@ class Storage(context: Context, helper: SQLCipherOpenHelper) : Database(context,
             database.getOrCreateThreadIdFor(recipient)
         } else {
             val recipient = Recipient.from(context, fromSerialized(publicKey), false)
+            blindedIdIndex.addSessionId(publicKey)
             database.getOrCreateThreadIdFor(recipient)
         }
     }
@@ -631,6 +646,7 @@ class Storage(context: Context, helper: SQLCipherOpenHelper) : Database(context,
 
     override fun setContact(contact: Contact) {
         DatabaseComponent.get(context).sessionContactDatabase().setContact(contact)
+        blindedIdIndex.addSessionId(contact.sessionID)
     }
 
     override fun getRecipientForThread(threadId: Long): Recipient? {
@@ -642,6 +658,10 @@ class Storage(context: Context, helper: SQLCipherOpenHelper) : Database(context,
         return if (recipientSettings.isPresent) { recipientSettings.get() } else null
     }
 
+    override fun getRecipientSettings(addresses: Collection<Address>): Map<Address, Recipient.RecipientSettings> {
+        return DatabaseComponent.get(context).recipientDatabase().getRecipientSettings(addresses)
+    }
+
     override fun addContacts(contacts: List<ConfigurationMessage.Contact>) {
         val recipientDatabase = DatabaseComponent.get(context).recipientDatabase()
         val threadDatabase = DatabaseComponent.get(context).threadDatabase()
@@ -651,6 +671,7 @@ class Storage(context: Context, helper: SQLCipherOpenHelper) : Database(context,
             id.prefix != IdPrefix.BLINDED || mappingDb.getBlindedIdMapping(contact.publicKey).none { it.sessionId != null }
         }
         for (contact in moreContacts) {
+            blindedIdIndex.addSessionId(contact.publicKey)
             val address = fromSerialized(contact.publicKey)
             val recipient = Recipient.from(context, address, true)
             if (!contact.profilePicture.isNullOrEmpty()) {
@@ -894,24 +915,10 @@ class Storage(context: Context, helper: SQLCipherOpenHelper) : Database(context,
         if (mapping.sessionId != null) {
             return mapping
         }
-        val threadDb = DatabaseComponent.get(context).threadDatabase()
-        threadDb.readerFor(threadDb.conversationList).use { reader ->
-            while (reader.next != null) {
-                val recipient = reader.current.recipient
-                val sessionId = recipient.address.serialize()
-                if (!recipient.isGroupRecipient && SodiumUtilities.sessionId(sessionId, blindedId, serverPublicKey)) {
-                    val contactMapping = mapping.copy(sessionId = sessionId)
-                    db.addBlindedIdMapping(contactMapping)
-                    return contactMapping
-                }
-            }
-        }
-        db.getBlindedIdMappingsExceptFor(server).forEach {
-            if (SodiumUtilities.sessionId(it.sessionId!!, blindedId, serverPublicKey)) {
-                val otherMapping = mapping.copy(sessionId = it.sessionId)
-                db.addBlindedIdMapping(otherMapping)
-                return otherMapping
-            }
+        blindedIdIndex.getSessionId(serverPublicKey, blindedId)?.let { sessionId ->
+            val contactMapping = mapping.copy(sessionId = sessionId)
+            db.addBlindedIdMapping(contactMapping)
+            return contactMapping
         }
         db.addBlindedIdMapping(mapping)
         return mapping
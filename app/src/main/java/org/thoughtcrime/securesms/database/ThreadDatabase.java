@@ -75,7 +75,10 @@ public class ThreadDatabase extends Database {
 
   private static final String TAG = ThreadDatabase.class.getSimpleName();
 
-  private final Map<Long, Address> addressCache = new HashMap<>();
+  private static final int STAMP_LENGTH = 13;
+
+  private final Map<Long, Address> addressCache      = new HashMap<>();
+  private final ThreadRecordCache  threadRecordCache = new ThreadRecordCache();
 
   public  static final String TABLE_NAME             = "thread";
   public  static final String ID                     = "_id";
@@ -209,6 +212,7 @@ public class ThreadDatabase extends Database {
     SQLiteDatabase db = databaseHelper.getWritableDatabase();
     db.delete(TABLE_NAME, ID_WHERE, new String[] {threadId + ""});
     addressCache.remove(threadId);
+    threadRecordCache.remove(threadId);
     notifyConversationListListeners();
   }
 
@@ -225,6 +229,7 @@ public class ThreadDatabase extends Database {
     db.delete(TABLE_NAME, where, null);
     for (long threadId: threadIds) {
       addressCache.remove(threadId);
+      threadRecordCache.remove(threadId);
     }
     notifyConversationListListeners();
   }
@@ -233,6 +238,7 @@ public class ThreadDatabase extends Database {
     SQLiteDatabase db = databaseHelper.getWritableDatabase();
     db.delete(TABLE_NAME, null, null);
     addressCache.clear();
+    threadRecordCache.clear();
     notifyConversationListListeners();
   }
 
@@ -380,6 +386,15 @@ public class ThreadDatabase extends Database {
     return cursor;
   }
 
+  /**
+   * Returns the {@link #ID}, {@link #ADDRESS} and {@link #MESSAGE_COUNT} of every thread, in the
+   * order of the conversation list.
+   */
+  public Cursor getThreadAddresses() {
+    SQLiteDatabase db = databaseHelper.getReadableDatabase();
+    return db.query(TABLE_NAME, new String[] { ID, ADDRESS, MESSAGE_COUNT }, null, null, null, null, IS_PINNED + " DESC, " + DATE + " DESC");
+  }
+
   public Cursor getFilteredConversationList(@Nullable List<Address> filter) {
     if (filter == null || filter.size() == 0)
       return null;
@@ -474,6 +489,19 @@ public class ThreadDatabase extends Database {
     return getConversationList(where);
   }
 
+  public @NonNull List<String> getConversationAddresses() {
+    SQLiteDatabase db        = databaseHelper.getReadableDatabase();
+    List<String>   addresses = new LinkedList<>();
+
+    try (Cursor cursor = db.query(TABLE_NAME, new String[] {ADDRESS}, MESSAGE_COUNT + " != 0", null, null, null, null)) {
+      while (cursor != null && cursor.moveToNext()) {
+        addresses.add(cursor.getString(0));
+      }
+    }
+
+    return addresses;
+  }
+
   public Cursor getBlindedConversationList() {
     String where  = TABLE_NAME + "." + ADDRESS + " LIKE '" + IdPrefix.BLINDED.getValue() + "%' ";
     return getConversationList(where);
@@ -821,6 +849,9 @@ public class ThreadDatabase extends Database {
   public class Reader implements Closeable {
 
     private final Cursor cursor;
+    private final long[] stamp = new long[STAMP_LENGTH];
+
+    private ColumnIndices columns;
 
     public Reader(Cursor cursor) {
       this.cursor = cursor;
@@ -834,9 +865,71 @@ public class ThreadDatabase extends Database {
     }
 
     public ThreadRecord getCurrent() {
-      long    threadId         = cursor.getLong(cursor.getColumnIndexOrThrow(ThreadDatabase.ID));
-      int     distributionType = cursor.getInt(cursor.getColumnIndexOrThrow(ThreadDatabase.TYPE));
-      Address address          = Address.fromSerialized(cursor.getString(cursor.getColumnIndexOrThrow(ThreadDatabase.ADDRESS)));
+      if (columns == null) {
+        columns = new ColumnIndices(cursor);
+      }
+
+      long    threadId         = cursor.getLong(columns.id);
+      int     distributionType = cursor.getInt(columns.type);
+      Address address          = Address.fromSerialized(cursor.getString(columns.address));
+
+      Recipient recipient = getRecipient(address, distributionType);
+
+      String             body                 = cursor.getString(columns.snippet);
+      long               date                 = cursor.getLong(columns.date);
+      long               count                = cursor.getLong(columns.messageCount);
+      int                unreadCount          = cursor.getInt(columns.unreadCount);
+      int                unreadMentionCount   = cursor.getInt(columns.unreadMentionCount);
+      long               type                 = cursor.getLong(columns.snippetType);
+      boolean            archived             = cursor.getInt(columns.archived) != 0;
+      int                status               = cursor.getInt(columns.status);
+      int                deliveryReceiptCount = cursor.getInt(columns.deliveryReceiptCount);
+      int                readReceiptCount     = cursor.getInt(columns.readReceiptCount);
+      long               expiresIn            = cursor.getLong(columns.expiresIn);
+      long               lastSeen             = cursor.getLong(columns.lastSeen);
+      String             snippetUri           = cursor.getString(columns.snippetUri);
+      boolean            pinned               = cursor.getInt(columns.pinned) != 0;
+
+      if (!TextSecurePreferences.isReadReceiptsEnabled(context)) {
+        readReceiptCount = 0;
+      }
+
+      stamp[0]  = date;
+      stamp[1]  = count;
+      stamp[2]  = unreadCount;
+      stamp[3]  = unreadMentionCount;
+      stamp[4]  = type;
+      stamp[5]  = archived ? 1 : 0;
+      stamp[6]  = status;
+      stamp[7]  = deliveryReceiptCount;
+      stamp[8]  = readReceiptCount;
+      stamp[9]  = expiresIn;
+      stamp[10] = lastSeen;
+      stamp[11] = pinned ? 1 : 0;
+      stamp[12] = distributionType;
+
+      ThreadRecord cached = threadRecordCache.get(threadId, stamp, body, snippetUri, recipient);
+
+      if (cached != null) {
+        return cached;
+      }
+
+      ThreadRecord record = new ThreadRecord(body, parseSnippetUri(snippetUri), recipient, date, count,
+                                             unreadCount, unreadMentionCount, threadId, deliveryReceiptCount, status, type,
+                                             distributionType, archived, expiresIn, lastSeen, readReceiptCount, pinned);
+
+      threadRecordCache.put(threadId, stamp, body, snippetUri, record);
+      return record;
+    }
+
+    private @NonNull Recipient getRecipient(@NonNull Address address, int distributionType) {
+      Optional<Recipient> cached = Recipient.getCached(address);
+
+      // A resolved cached recipient is returned as-is by Recipient.from, so there's no need to
+      // parse the joined recipient and group columns for it
+      if (cached.isPresent() && !cached.get().isResolving()) {
+        return cached.get();
+      }
 
       Optional<RecipientSettings> settings;
       Optional<GroupRecord>       groupRecord;
@@ -849,38 +942,16 @@ public class ThreadDatabase extends Database {
         groupRecord = Optional.absent();
       }
 
-      Recipient          recipient            = Recipient.from(context, address, settings, groupRecord, true);
-      String             body                 = cursor.getString(cursor.getColumnIndexOrThrow(ThreadDatabase.SNIPPET));
-      long               date                 = cursor.getLong(cursor.getColumnIndexOrThrow(ThreadDatabase.DATE));
-      long               count                = cursor.getLong(cursor.getColumnIndexOrThrow(ThreadDatabase.MESSAGE_COUNT));
-      int                unreadCount          = cursor.getInt(cursor.getColumnIndexOrThrow(ThreadDatabase.UNREAD_COUNT));
-      int                unreadMentionCount   = cursor.getInt(cursor.getColumnIndexOrThrow(ThreadDatabase.UNREAD_MENTION_COUNT));
-      long               type                 = cursor.getLong(cursor.getColumnIndexOrThrow(ThreadDatabase.SNIPPET_TYPE));
-      boolean            archived             = cursor.getInt(cursor.getColumnIndexOrThrow(ThreadDatabase.ARCHIVED)) != 0;
-      int                status               = cursor.getInt(cursor.getColumnIndexOrThrow(ThreadDatabase.STATUS));
-      int                deliveryReceiptCount = cursor.getInt(cursor.getColumnIndexOrThrow(ThreadDatabase.DELIVERY_RECEIPT_COUNT));
-      int                readReceiptCount     = cursor.getInt(cursor.getColumnIndexOrThrow(ThreadDatabase.READ_RECEIPT_COUNT));
-      long               expiresIn            = cursor.getLong(cursor.getColumnIndexOrThrow(ThreadDatabase.EXPIRES_IN));
-      long               lastSeen             = cursor.getLong(cursor.getColumnIndexOrThrow(ThreadDatabase.LAST_SEEN));
-      Uri                snippetUri           = getSnippetUri(cursor);
-      boolean            pinned              = cursor.getInt(cursor.getColumnIndexOrThrow(ThreadDatabase.IS_PINNED)) != 0;
-
-      if (!TextSecurePreferences.isReadReceiptsEnabled(context)) {
-        readReceiptCount = 0;
-      }
-
-      return new ThreadRecord(body, snippetUri, recipient, date, count,
-                              unreadCount, unreadMentionCount, threadId, deliveryReceiptCount, status, type,
-                              distributionType, archived, expiresIn, lastSeen, readReceiptCount, pinned);
+      return Recipient.from(context, address, settings, groupRecord, true);
     }
 
-    private @Nullable Uri getSnippetUri(Cursor cursor) {
-      if (cursor.isNull(cursor.getColumnIndexOrThrow(ThreadDatabase.SNIPPET_URI))) {
+    private @Nullable Uri parseSnippetUri(@Nullable String snippetUri) {
+      if (snippetUri == null) {
         return null;
       }
 
       try {
-        return Uri.parse(cursor.getString(cursor.getColumnIndexOrThrow(ThreadDatabase.SNIPPET_URI)));
+        return Uri.parse(snippetUri);
       } catch (IllegalArgumentException e) {
         Log.w(TAG, e);
         return null;
@@ -894,4 +965,48 @@ public class ThreadDatabase extends Database {
       }
     }
   }
+
+  /**
+   * Column positions of the conversation list projection, resolved once per cursor rather than
+   * once per column for every row.
+   */
+  private static class ColumnIndices {
+    private final int id;
+    private final int type;
+    private final int address;
+    private final int snippet;
+    private final int date;
+    private final int messageCount;
+    private final int unreadCount;
+    private final int unreadMentionCount;
+    private final int snippetType;
+    private final int archived;
+    private final int status;
+    private final int deliveryReceiptCount;
+    private final int readReceiptCount;
+    private final int expiresIn;
+    private final int lastSeen;
+    private final int snippetUri;
+    private final int pinned;
+
+    private ColumnIndices(@NonNull Cursor cursor) {
+      this.id                   = cursor.getColumnIndexOrThrow(ID);
+      this.type                 = cursor.getColumnIndexOrThrow(TYPE);
+      this.address              = cursor.getColumnIndexOrThrow(ADDRESS);
+      this.snippet              = cursor.getColumnIndexOrThrow(SNIPPET);
+      this.date                 = cursor.getColumnIndexOrThrow(DATE);
+      this.messageCount         = cursor.getColumnIndexOrThrow(MESSAGE_COUNT);
+      this.unreadCount          = cursor.getColumnIndexOrThrow(UNREAD_COUNT);
+      this.unreadMentionCount   = cursor.getColumnIndexOrThrow(UNREAD_MENTION_COUNT);
+      this.snippetType          = cursor.getColumnIndexOrThrow(SNIPPET_TYPE);
+      this.archived             = cursor.getColumnIndexOrThrow(ARCHIVED);
+      this.status               = cursor.getColumnIndexOrThrow(STATUS);
+      this.deliveryReceiptCount = cursor.getColumnIndexOrThrow(DELIVERY_RECEIPT_COUNT);
+      this.readReceiptCount     = cursor.getColumnIndexOrThrow(READ_RECEIPT_COUNT);
+      this.expiresIn            = cursor.getColumnIndexOrThrow(EXPIRES_IN);
+      this.lastSeen             = cursor.getColumnIndexOrThrow(LAST_SEEN);
+      this.snippetUri           = cursor.getColumnIndexOrThrow(SNIPPET_URI);
+      this.pinned               = cursor.getColumnIndexOrThrow(IS_PINNED);
+    }
+  }
 }
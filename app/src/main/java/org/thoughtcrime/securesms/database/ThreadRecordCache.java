@@ -0,0 +1,69 @@
+package org.thoughtcrime.securesms.database;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.session.libsession.utilities.recipients.Recipient;
+import org.thoughtcrime.securesms.database.model.ThreadRecord;
+import org.thoughtcrime.securesms.util.LRUCache;
+
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * Holds the most recently materialized {@link ThreadRecord} for each thread, together with the raw
+ * row values it was built from. When the conversation list is re-read and a row hasn't changed the
+ * same immutable instance is handed back, which keeps allocation down and lets the home list diff
+ * short-circuit on identity.
+ */
+class ThreadRecordCache {
+
+  private static final int MAX_SIZE = 2000;
+
+  private final LRUCache<Long, Entry> cache = new LRUCache<>(MAX_SIZE);
+
+  synchronized @Nullable ThreadRecord get(long threadId, @NonNull long[] stamp, @Nullable String body,
+                                          @Nullable String snippetUri, @NonNull Recipient recipient)
+  {
+    Entry entry = cache.get(threadId);
+
+    if (entry != null                              &&
+        entry.record.getRecipient() == recipient   &&
+        Arrays.equals(entry.stamp, stamp)          &&
+        Objects.equals(entry.body, body)           &&
+        Objects.equals(entry.snippetUri, snippetUri))
+    {
+      return entry.record;
+    }
+
+    return null;
+  }
+
+  synchronized void put(long threadId, @NonNull long[] stamp, @Nullable String body,
+                        @Nullable String snippetUri, @NonNull ThreadRecord record)
+  {
+    cache.put(threadId, new Entry(stamp.clone(), body, snippetUri, record));
+  }
+
+  synchronized void remove(long threadId) {
+    cache.remove(threadId);
+  }
+
+  synchronized void clear() {
+    cache.clear();
+  }
+
+  private static class Entry {
+    private final long[]       stamp;
+    private final String       body;
+    private final String       snippetUri;
+    private final ThreadRecord record;
+
+    private Entry(long[] stamp, String body, String snippetUri, ThreadRecord record) {
+      this.stamp      = stamp;
+      this.body       = body;
+      this.snippetUri = snippetUri;
+      this.record     = record;
+    }
+  }
+}
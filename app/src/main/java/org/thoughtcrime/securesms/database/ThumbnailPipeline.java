@@ -0,0 +1,278 @@
+package org.thoughtcrime.securesms.database;
+
+import android.util.LruCache;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.session.libsession.messaging.sending_receiving.attachments.AttachmentId;
+import org.session.libsignal.utilities.Log;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Loads part thumbnails, generating missing ones on a small pool of workers.
+ *
+ * Requests for the same part share one generation. Thumbnails someone is waiting for are generated
+ * before background work (for parts that were just inserted), most recently requested first, since
+ * that's what's on screen while scrolling. A request that's no longer needed, like one for a view
+ * that was scrolled away, can be cancelled, which drops its generation if nothing else waits for it.
+ * Encoded thumbnails are kept in a size bounded cache.
+ */
+public class ThumbnailPipeline {
+
+  private static final String TAG = ThumbnailPipeline.class.getSimpleName();
+
+  interface Source {
+    /**
+     * @return The stored thumbnail, or null if there is none yet. Called on the requesting thread.
+     */
+    @Nullable byte[] load(@NonNull AttachmentId attachmentId) throws IOException;
+
+    /**
+     * @return A stored or newly generated thumbnail, or null if the part can't have one. Called on
+     * a worker.
+     */
+    @Nullable byte[] generate(@NonNull AttachmentId attachmentId) throws IOException;
+  }
+
+  private enum Priority { BACKGROUND, VISIBLE }
+
+  private final Source                         source;
+  private final int                            maxCachedSize;
+  private final LruCache<AttachmentId, byte[]> cache;
+  private final ThreadPoolExecutor             executor;
+  private final Map<AttachmentId, Task>        tasks = new HashMap<>();
+
+  private long sequence;
+
+  /**
+   * @param cacheSize The total size of the encoded thumbnails kept in memory, in bytes.
+   */
+  ThumbnailPipeline(@NonNull Source source, int workers, int cacheSize) {
+    AtomicInteger threadCount = new AtomicInteger();
+
+    this.source        = source;
+    this.maxCachedSize = cacheSize / 8;
+    this.cache         = new LruCache<AttachmentId, byte[]>(cacheSize) {
+      @Override
+      protected int sizeOf(AttachmentId key, byte[] value) {
+        return value.length;
+      }
+    };
+    this.executor      = new ThreadPoolExecutor(workers, workers, 0L, TimeUnit.MILLISECONDS, new PriorityBlockingQueue<>(), runnable -> {
+      Thread thread = new Thread(runnable, "thumbnail-" + threadCount.incrementAndGet());
+      thread.setPriority(Thread.MIN_PRIORITY);
+      return thread;
+    });
+  }
+
+  /**
+   * @return A request for the thumbnail, which is loaded or generated once {@link Request#get()} is
+   * called.
+   */
+  public @NonNull Request request(@NonNull AttachmentId attachmentId) {
+    return new Request(attachmentId);
+  }
+
+  /**
+   * Generates the thumbnail in the background, if it hasn't been yet, when there's nothing more
+   * urgent to do.
+   */
+  synchronized void prefetch(@NonNull AttachmentId attachmentId) {
+    if (cache.get(attachmentId) != null) return;
+
+    Task task = tasks.get(attachmentId);
+
+    if (task == null) {
+      task = new Task(attachmentId);
+      tasks.put(attachmentId, task);
+      schedule(task, Priority.BACKGROUND);
+    }
+
+    task.background = true;
+  }
+
+  /**
+   * Drops the cached thumbnail of a part, for when it's replaced.
+   */
+  void invalidate(@NonNull AttachmentId attachmentId) {
+    cache.remove(attachmentId);
+  }
+
+  private void cacheThumbnail(@NonNull AttachmentId attachmentId, @NonNull byte[] thumbnail) {
+    // Some stored "thumbnails" are full size images, which would push out everything else
+    if (thumbnail.length <= maxCachedSize) {
+      cache.put(attachmentId, thumbnail);
+    }
+  }
+
+  private synchronized @NonNull Task join(@NonNull AttachmentId attachmentId) {
+    Task task = tasks.get(attachmentId);
+
+    if (task == null) {
+      task = new Task(attachmentId);
+      tasks.put(attachmentId, task);
+      schedule(task, Priority.VISIBLE);
+    } else if (executor.getQueue().remove(task)) {
+      // Still queued, move it to the front
+      schedule(task, Priority.VISIBLE);
+    }
+
+    task.waiters++;
+    return task;
+  }
+
+  private synchronized void leave(@NonNull Task task) {
+    if (--task.waiters > 0 || task.done) return;
+
+    if (executor.getQueue().remove(task)) {
+      if (task.background) {
+        schedule(task, Priority.BACKGROUND);
+      } else {
+        tasks.remove(task.attachmentId);
+      }
+    }
+  }
+
+  private void schedule(@NonNull Task task, @NonNull Priority priority) {
+    task.priority = priority;
+    task.sequence = ++sequence;
+    executor.execute(task);
+  }
+
+  private class Task implements Runnable, Comparable<Task> {
+
+    private final AttachmentId attachmentId;
+
+    private Priority priority;
+    private long     sequence;
+    private int      waiters;
+    private boolean  background;
+
+    private boolean     done;
+    private byte[]      result;
+    private IOException error;
+
+    private Task(@NonNull AttachmentId attachmentId) {
+      this.attachmentId = attachmentId;
+    }
+
+    @Override
+    public void run() {
+      byte[]      result = null;
+      IOException error  = null;
+
+      try {
+        result = source.generate(attachmentId);
+      } catch (IOException e) {
+        error = e;
+      } catch (Exception e) {
+        Log.w(TAG, "Failed to generate thumbnail for " + attachmentId, e);
+        error = new IOException(e);
+      }
+
+      synchronized (ThumbnailPipeline.this) {
+        tasks.remove(attachmentId);
+
+        this.done   = true;
+        this.result = result;
+        this.error  = error;
+
+        if (result != null) {
+          cacheThumbnail(attachmentId, result);
+        }
+
+        ThumbnailPipeline.this.notifyAll();
+      }
+    }
+
+    @Override
+    public int compareTo(Task other) {
+      if (priority != other.priority) return other.priority.compareTo(priority);
+      else                             return Long.compare(other.sequence, sequence);
+    }
+  }
+
+  public class Request {
+
+    private final AttachmentId attachmentId;
+
+    private Task    task;
+    private boolean cancelled;
+
+    private Request(@NonNull AttachmentId attachmentId) {
+      this.attachmentId = attachmentId;
+    }
+
+    /**
+     * Blocks until the thumbnail is available.
+     *
+     * @throws FileNotFoundException If the part doesn't have a thumbnail.
+     * @throws InterruptedIOException If the request was cancelled.
+     */
+    public @NonNull byte[] get() throws IOException {
+      byte[] thumbnail = cache.get(attachmentId);
+
+      if (thumbnail != null) {
+        return thumbnail;
+      }
+
+      thumbnail = source.load(attachmentId);
+
+      if (thumbnail != null) {
+        cacheThumbnail(attachmentId, thumbnail);
+        return thumbnail;
+      }
+
+      synchronized (ThumbnailPipeline.this) {
+        if (cancelled) throw new InterruptedIOException("Cancelled: " + attachmentId);
+
+        if (task == null) {
+          task = join(attachmentId);
+        }
+
+        try {
+          while (!task.done && !cancelled) {
+            ThumbnailPipeline.this.wait();
+          }
+        } catch (InterruptedException e) {
+          cancel();
+          throw new InterruptedIOException("Interrupted: " + attachmentId);
+        }
+
+        if (!task.done) throw new InterruptedIOException("Cancelled: " + attachmentId);
+      }
+
+      if (task.error != null)  throw new IOException(task.error);
+      if (task.result == null) throw new FileNotFoundException("No thumbnail stream available: " + attachmentId);
+
+      return task.result;
+    }
+
+    /**
+     * Gives up on the thumbnail, making a blocked {@link #get()} throw.
+     */
+    public void cancel() {
+      synchronized (ThumbnailPipeline.this) {
+        if (cancelled) return;
+
+        cancelled = true;
+
+        if (task != null) {
+          leave(task);
+        }
+
+        ThumbnailPipeline.this.notifyAll();
+      }
+    }
+  }
+}
@@ -86,20 +86,34 @@ public class SQLCipherOpenHelper extends SQLiteOpenHelper {
   private static final int lokiV38                          = 59;
   private static final int lokiV39                          = 60;
   private static final int lokiV40                          = 61;
+  private static final int lokiV41                          = 62;
+  private static final int lokiV42                          = 63;
 
   // Loki - onUpgrade(...) must be updated to use Loki version numbers if Signal makes any database changes
-  private static final int    DATABASE_VERSION         = lokiV40;
+  private static final int    DATABASE_VERSION         = lokiV42;
   private static final int    MIN_DATABASE_VERSION     = lokiV7;
   private static final String CIPHER3_DATABASE_NAME    = "signal.db";
   public static final String  DATABASE_NAME            = "signal_v4.db";
 
-  private final Context        context;
-  private final DatabaseSecret databaseSecret;
+  private final Context          context;
+  private final DatabaseSecret   databaseSecret;
+  private final SQLCipherProfile profile;
 
   public SQLCipherOpenHelper(@NonNull Context context, @NonNull DatabaseSecret databaseSecret) {
+    this(context, databaseSecret, DATABASE_NAME, SQLCipherProfile.DEFAULT);
+  }
+
+  /**
+   * Opens the database called {@code databaseName} with the given {@code profile}. Anything other
+   * than the main database (eg. a benchmark database) should use its own name, since the profile's
+   * KDF iterations and page size have to match the ones the database was created with.
+   */
+  public SQLCipherOpenHelper(@NonNull Context context, @NonNull DatabaseSecret databaseSecret,
+                             @NonNull String databaseName, @NonNull SQLCipherProfile profile)
+  {
     super(
       context,
-      DATABASE_NAME,
+      databaseName,
       databaseSecret.asString(),
       null,
       DATABASE_VERSION,
@@ -108,12 +122,12 @@ public class SQLCipherOpenHelper extends SQLiteOpenHelper {
       new SQLiteDatabaseHook() {
         @Override
         public void preKey(SQLiteConnection connection) {
-          SQLCipherOpenHelper.applySQLCipherPragmas(connection, true);
+          profile.applyKeyPragmas(connection);
         }
 
         @Override
         public void postKey(SQLiteConnection connection) {
-          SQLCipherOpenHelper.applySQLCipherPragmas(connection, true);
+          profile.applyKeyPragmas(connection);
 
           // if not vacuumed in a while, perform that operation
           long currentTime = System.currentTimeMillis();
@@ -134,18 +148,22 @@ public class SQLCipherOpenHelper extends SQLiteOpenHelper {
 
     this.context        = context.getApplicationContext();
     this.databaseSecret = databaseSecret;
+    this.profile        = profile;
+  }
+
+  public @NonNull SQLCipherProfile getProfile() {
+    return profile;
   }
 
   private static void applySQLCipherPragmas(SQLiteConnection connection, boolean useSQLCipher4) {
     if (useSQLCipher4) {
-      connection.execute("PRAGMA kdf_iter = '256000';", null, null);
+      SQLCipherProfile.DEFAULT.applyKeyPragmas(connection);
     }
     else {
       connection.execute("PRAGMA cipher_compatibility = 3;", null, null);
       connection.execute("PRAGMA kdf_iter = '1';", null, null);
+      connection.execute("PRAGMA cipher_page_size = 4096;", null, null);
     }
-
-    connection.execute("PRAGMA cipher_page_size = 4096;", null, null);
   }
 
   private static SQLiteDatabase open(String path, DatabaseSecret databaseSecret, boolean useSQLCipher4) throws SQLiteException {
@@ -344,6 +362,7 @@ public class SQLCipherOpenHelper extends SQLiteOpenHelper {
     db.execSQL(ThreadDatabase.getUnreadMentionCountCommand());
     db.execSQL(SmsDatabase.CREATE_HAS_MENTION_COMMAND);
     db.execSQL(MmsDatabase.CREATE_HAS_MENTION_COMMAND);
+    db.execSQL(AttachmentDatabase.CREATE_DATA_HASH_COMMAND);
 
     executeStatements(db, SmsDatabase.CREATE_INDEXS);
     executeStatements(db, MmsDatabase.CREATE_INDEXS);
@@ -361,7 +380,7 @@ public class SQLCipherOpenHelper extends SQLiteOpenHelper {
   public void onConfigure(SQLiteDatabase db) {
     super.onConfigure(db);
 
-    db.execSQL("PRAGMA cache_size = 10000");
+    db.execSQL("PRAGMA cache_size = " + profile.getCacheSize());
   }
 
   @Override
@@ -587,6 +606,16 @@ public class SQLCipherOpenHelper extends SQLiteOpenHelper {
         db.execSQL(MmsDatabase.CREATE_HAS_MENTION_COMMAND);
       }
 
+      if (oldVersion < lokiV41) {
+        executeStatements(db, SmsDatabase.CREATE_INDEXS);
+        executeStatements(db, MmsDatabase.CREATE_INDEXS);
+      }
+
+      if (oldVersion < lokiV42) {
+        db.execSQL(AttachmentDatabase.CREATE_DATA_HASH_COMMAND);
+        executeStatements(db, AttachmentDatabase.CREATE_INDEXS);
+      }
+
       db.setTransactionSuccessful();
     } finally {
       db.endTransaction();
@@ -599,7 +628,9 @@ public class SQLCipherOpenHelper extends SQLiteOpenHelper {
 
     // Now that the database is officially open (ie. the migrations are completed) we want to enable
     // write ahead logging (WAL mode) to officially support concurrent read connections
-    db.enableWriteAheadLogging();
+    if (profile.isWriteAheadLogging()) {
+      db.enableWriteAheadLogging();
+    }
   }
 
   public void markCurrent(SQLiteDatabase db) {
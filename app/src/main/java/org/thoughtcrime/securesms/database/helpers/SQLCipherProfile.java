@@ -0,0 +1,118 @@
+package org.thoughtcrime.securesms.database.helpers;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import net.zetetic.database.sqlcipher.SQLiteConnection;
+
+/**
+ * The tunable storage settings {@link SQLCipherOpenHelper} opens the database with.
+ *
+ * Note that the KDF iterations and the cipher page size are part of the on-disk format, so an
+ * existing database can only be opened with the profile it was created with. The other settings
+ * can change between opens.
+ */
+public final class SQLCipherProfile {
+
+  public static final SQLCipherProfile DEFAULT = new Builder().build();
+
+  private final int               kdfIterations;
+  private final int               cipherPageSize;
+  private final int               cacheSize;
+  private final @Nullable Boolean cipherMemorySecurity;
+  private final boolean           writeAheadLogging;
+
+  private SQLCipherProfile(@NonNull Builder builder) {
+    this.kdfIterations        = builder.kdfIterations;
+    this.cipherPageSize       = builder.cipherPageSize;
+    this.cacheSize            = builder.cacheSize;
+    this.cipherMemorySecurity = builder.cipherMemorySecurity;
+    this.writeAheadLogging    = builder.writeAheadLogging;
+  }
+
+  public int getKdfIterations() {
+    return kdfIterations;
+  }
+
+  public int getCipherPageSize() {
+    return cipherPageSize;
+  }
+
+  public int getCacheSize() {
+    return cacheSize;
+  }
+
+  /**
+   * @return Whether SQLCipher should wipe freed memory, or null to keep the library default.
+   */
+  public @Nullable Boolean getCipherMemorySecurity() {
+    return cipherMemorySecurity;
+  }
+
+  public boolean isWriteAheadLogging() {
+    return writeAheadLogging;
+  }
+
+  void applyKeyPragmas(@NonNull SQLiteConnection connection) {
+    connection.execute("PRAGMA kdf_iter = '" + kdfIterations + "';", null, null);
+    connection.execute("PRAGMA cipher_page_size = " + cipherPageSize + ";", null, null);
+
+    if (cipherMemorySecurity != null) {
+      connection.execute("PRAGMA cipher_memory_security = " + (cipherMemorySecurity ? "ON" : "OFF") + ";", null, null);
+    }
+  }
+
+  public @NonNull Builder buildUpon() {
+    return new Builder().setKdfIterations(kdfIterations)
+                        .setCipherPageSize(cipherPageSize)
+                        .setCacheSize(cacheSize)
+                        .setCipherMemorySecurity(cipherMemorySecurity)
+                        .setWriteAheadLogging(writeAheadLogging);
+  }
+
+  @Override
+  public @NonNull String toString() {
+    return "SQLCipherProfile{kdfIterations=" + kdfIterations +
+           ", cipherPageSize=" + cipherPageSize +
+           ", cacheSize=" + cacheSize +
+           ", cipherMemorySecurity=" + cipherMemorySecurity +
+           ", writeAheadLogging=" + writeAheadLogging + "}";
+  }
+
+  public static final class Builder {
+    private int               kdfIterations        = 256000;
+    private int               cipherPageSize       = 4096;
+    private int               cacheSize            = 10000;
+    private @Nullable Boolean cipherMemorySecurity = null;
+    private boolean           writeAheadLogging    = true;
+
+    public @NonNull Builder setKdfIterations(int kdfIterations) {
+      this.kdfIterations = kdfIterations;
+      return this;
+    }
+
+    public @NonNull Builder setCipherPageSize(int cipherPageSize) {
+      this.cipherPageSize = cipherPageSize;
+      return this;
+    }
+
+    public @NonNull Builder setCacheSize(int cacheSize) {
+      this.cacheSize = cacheSize;
+      return this;
+    }
+
+    public @NonNull Builder setCipherMemorySecurity(@Nullable Boolean cipherMemorySecurity) {
+      this.cipherMemorySecurity = cipherMemorySecurity;
+      return this;
+    }
+
+    public @NonNull Builder setWriteAheadLogging(boolean writeAheadLogging) {
+      this.writeAheadLogging = writeAheadLogging;
+      return this;
+    }
+
+    public @NonNull SQLCipherProfile build() {
+      return new SQLCipherProfile(this);
+    }
+  }
+}
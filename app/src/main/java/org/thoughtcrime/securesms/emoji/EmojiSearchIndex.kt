@@ -0,0 +1,184 @@
+package org.thoughtcrime.securesms.emoji
+
+import kotlin.math.max
+import kotlin.math.roundToInt
+
+/**
+ * An in-memory copy of the emoji search table, answering the same queries without scanning it.
+ *
+ * Labels are kept in the table's row order, because that order decides which matches make the cut
+ * and how equally similar matches are ordered. Every character and pair of characters of a label
+ * points to the labels containing it, so a query only checks the labels containing its rarest pair.
+ *
+ * Instances are immutable; [withChanges] returns a new index sharing everything the changes don't
+ * touch. Removed labels are skipped rather than taken out, until enough of them have built up.
+ */
+class EmojiSearchIndex private constructor(
+  private val labels: Array<String>,
+  private val emoji: Array<String>,
+  private val rowIds: LongArray,
+  private val removed: BooleanArray,
+  private val removedCount: Int,
+  private val postings: Map<Long, IntArray>
+) {
+
+  class Entry(val rowId: Long, val label: String, val emoji: String)
+
+  companion object {
+    private const val MIN_CANDIDATES = 100
+
+    @JvmField
+    val EMPTY = build(listOf())
+
+    /** Builds an index of [entries], which must be in row order. */
+    fun build(entries: List<Entry>): EmojiSearchIndex {
+      val postings = HashMap<Long, IntArray>()
+      appendPostings(postings, entries, 0)
+      return EmojiSearchIndex(
+        entries.map { it.label }.toTypedArray(),
+        entries.map { it.emoji }.toTypedArray(),
+        entries.map { it.rowId }.toLongArray(),
+        BooleanArray(entries.size),
+        0,
+        postings
+      )
+    }
+
+    /** Lowercases ASCII letters only, like SQLite's LIKE. */
+    private fun fold(text: String): String {
+      if (text.none { it in 'A'..'Z' }) return text
+      return String(CharArray(text.length) { i -> text[i].let { if (it in 'A'..'Z') it + 32 else it } })
+    }
+
+    private fun key(c: Char): Long = c.code.toLong()
+
+    private fun key(first: Char, second: Char): Long = (1L shl 32) or (first.code.toLong() shl 16) or second.code.toLong()
+
+    private fun keys(label: String): Set<Long> {
+      val keys = HashSet<Long>()
+      for (i in label.indices) {
+        keys += key(label[i])
+        if (i > 0) keys += key(label[i - 1], label[i])
+      }
+      return keys
+    }
+
+    /** Adds [entries], from [firstPosition] on, to [postings], copying the lists they grow. */
+    private fun appendPostings(postings: MutableMap<Long, IntArray>, entries: List<Entry>, firstPosition: Int) {
+      val appended = HashMap<Long, ArrayList<Int>>()
+      entries.forEachIndexed { i, entry ->
+        for (key in keys(fold(entry.label))) appended.getOrPut(key) { ArrayList() } += firstPosition + i
+      }
+      for ((key, positions) in appended) {
+        postings[key] = (postings[key] ?: IntArray(0)) + positions
+      }
+    }
+
+    /**
+     * Ranks how "similar" a match is to the original search term.
+     * A lower score means more similar, with 0 being a perfect match.
+     *
+     * We know that the `searchTerm` must be a substring of the `match`.
+     * We determine similarity by how many letters appear before or after the `searchTerm` in the `match`.
+     * We give letters that come before the term a bigger weight than those that come after as a way to prefer matches that are prefixed by the `searchTerm`.
+     */
+    private fun similarityScore(searchTerm: String, match: String): Int {
+      if (searchTerm == match) {
+        return 0
+      }
+
+      val startIndex = match.indexOf(searchTerm)
+
+      val prefixCount = startIndex
+      val suffixCount = match.length - (startIndex + searchTerm.length)
+
+      val prefixRankWeight = 1.5f
+      val suffixRankWeight = 1f
+
+      return ((prefixCount * prefixRankWeight) + (suffixCount * suffixRankWeight)).roundToInt()
+    }
+  }
+
+  val size: Int get() = labels.size - removedCount
+
+  /** The labels in the index, in row order. */
+  fun entries(): List<Entry> = labels.indices.filter { !removed[it] }.map { Entry(rowIds[it], labels[it], emoji[it]) }
+
+  /**
+   * @param query A search query. Doesn't need any special formatted -- it'll be sanitized.
+   * @return A list of emoji that are related to the search term, ordered by relevance.
+   */
+  fun query(originalQuery: String, originalLimit: Int): List<String> {
+    val query: String = originalQuery.trim()
+
+    if (query.isEmpty()) {
+      return emptyList()
+    }
+
+    val limit: Int = max(originalLimit, MIN_CANDIDATES)
+
+    return candidates(query, limit)
+      .sortedWith { lhs, rhs ->
+        similarityScore(query, labels[lhs]) - similarityScore(query, labels[rhs])
+      }
+      .distinctBy { emoji[it] }
+      .take(originalLimit)
+      .map { emoji[it] }
+  }
+
+  /** The first [limit] labels containing [query], in row order, as `LABEL LIKE '%query%'` finds them. */
+  private fun candidates(query: String, limit: Int): List<Int> {
+    val folded = fold(query)
+    val result = ArrayList<Int>()
+    if (folded.contains('%') || folded.contains('_')) {
+      // LIKE wildcards, which the postings can't help with
+      val pattern = Regex(folded.split('%').joinToString(".*") { part -> part.split('_').joinToString(".") { Regex.escape(it) } }, RegexOption.DOT_MATCHES_ALL)
+      for (i in labels.indices) {
+        if (removed[i] || !pattern.containsMatchIn(fold(labels[i]))) continue
+        result += i
+        if (result.size == limit) break
+      }
+      return result
+    }
+    val positions = if (folded.length == 1) {
+      postings[key(folded[0])]
+    } else {
+      (1 until folded.length).map { postings[key(folded[it - 1], folded[it])] ?: return result }.minByOrNull { it.size }
+    } ?: return result
+    for (i in positions) {
+      if (removed[i] || (folded.length > 2 && !fold(labels[i]).contains(folded))) continue
+      result += i
+      if (result.size == limit) break
+    }
+    return result
+  }
+
+  /**
+   * Returns an index without the [removedRowIds] and with [added] after everything else, as the
+   * table has them once the same rows are deleted and inserted.
+   */
+  fun withChanges(removedRowIds: Set<Long>, added: List<Entry>): EmojiSearchIndex {
+    if (removedRowIds.isEmpty() && added.isEmpty()) return this
+    val removedNow = removed.copyOf(labels.size + added.size)
+    var removedCount = removedCount
+    for (i in labels.indices) {
+      if (!removed[i] && rowIds[i] in removedRowIds) {
+        removedNow[i] = true
+        removedCount++
+      }
+    }
+    if (removedCount > labels.size / 2) {
+      return build(entries().filter { it.rowId !in removedRowIds } + added)
+    }
+    val postings = HashMap(postings)
+    appendPostings(postings, added, labels.size)
+    return EmojiSearchIndex(
+      labels + added.map { it.label },
+      emoji + added.map { it.emoji },
+      rowIds + added.map { it.rowId },
+      removedNow,
+      removedCount,
+      postings
+    )
+  }
+}
@@ -56,7 +56,7 @@ class EmojiSource(
   }
 
   val emojiTree: EmojiTree by lazy {
-    val tree = EmojiTree()
+    val tree = EmojiTree.Builder()
 
     dataPages
       .filter { it.spriteUri != null }
@@ -76,7 +76,7 @@ class EmojiSource(
       tree.add(it.obsolete, tree.getEmoji(it.replaceWith, 0, it.replaceWith.length))
     }
 
-    tree
+    tree.build()
   }
 
   companion object {
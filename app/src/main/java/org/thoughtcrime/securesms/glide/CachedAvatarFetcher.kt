@@ -0,0 +1,79 @@
+package org.thoughtcrime.securesms.glide
+
+import android.content.Context
+import android.graphics.Bitmap
+import android.graphics.BitmapFactory
+import android.graphics.drawable.BitmapDrawable
+import com.bumptech.glide.Priority
+import com.bumptech.glide.load.DataSource
+import com.bumptech.glide.load.data.DataFetcher
+import org.session.libsession.avatars.ContactPhoto
+import org.session.libsignal.utilities.Log
+import org.thoughtcrime.securesms.glide.cache.AvatarCache
+import org.thoughtcrime.securesms.util.AvatarPlaceholderGenerator
+import java.io.FileNotFoundException
+
+/**
+ * Hands out avatars as [BitmapDrawable]s, which Glide doesn't pool, so the cached bitmaps are never
+ * recycled under the cache.
+ */
+class CachedAvatarFetcher(private val context: Context,
+                          private val model: CachedAvatarPhoto): DataFetcher<BitmapDrawable> {
+
+    companion object {
+        private const val TAG = "CachedAvatarFetcher"
+
+        /**
+         * Decodes a profile picture at the smallest power of two scale that still covers [size],
+         * then crops it to a circle.
+         */
+        @JvmStatic
+        fun renderPhoto(context: Context, photo: ContactPhoto, size: Int): Bitmap? {
+            val bounds = BitmapFactory.Options().apply { inJustDecodeBounds = true }
+            photo.openInputStream(context).use { BitmapFactory.decodeStream(it, null, bounds) }
+
+            val shortestSide = minOf(bounds.outWidth, bounds.outHeight)
+            if (shortestSide <= 0) return null
+
+            var sampleSize = 1
+            while (shortestSide / (sampleSize * 2) >= size) sampleSize *= 2
+
+            val options = BitmapFactory.Options().apply { inSampleSize = sampleSize }
+            val decoded = photo.openInputStream(context).use { BitmapFactory.decodeStream(it, null, options) } ?: return null
+
+            return AvatarCache.circleCrop(decoded, size).also { decoded.recycle() }
+        }
+    }
+
+    override fun loadData(priority: Priority, callback: DataFetcher.DataCallback<in BitmapDrawable>) {
+        try {
+            val bitmap = AvatarCache.getInstance(context).get(model.key) { size ->
+                val photo = model.photo
+                val placeholder = model.placeholder
+                if (photo != null) {
+                    renderPhoto(context, photo, size)
+                } else {
+                    AvatarPlaceholderGenerator.generate(context, size, placeholder!!.hashString, placeholder.displayName).bitmap
+                }
+            }
+            if (bitmap != null) {
+                callback.onDataReady(BitmapDrawable(context.resources, bitmap))
+            } else {
+                callback.onLoadFailed(FileNotFoundException("No avatar available"))
+            }
+        } catch (e: Exception) {
+            Log.w(TAG, "Error in fetching avatar", e)
+            callback.onLoadFailed(e)
+        }
+    }
+
+    override fun cleanup() {}
+
+    override fun cancel() {}
+
+    override fun getDataClass(): Class<BitmapDrawable> {
+        return BitmapDrawable::class.java
+    }
+
+    override fun getDataSource(): DataSource = DataSource.LOCAL
+}
@@ -0,0 +1,30 @@
+package org.thoughtcrime.securesms.glide
+
+import android.content.Context
+import android.graphics.drawable.BitmapDrawable
+import com.bumptech.glide.load.Options
+import com.bumptech.glide.load.model.ModelLoader
+import com.bumptech.glide.load.model.ModelLoader.LoadData
+import com.bumptech.glide.load.model.ModelLoaderFactory
+import com.bumptech.glide.load.model.MultiModelLoaderFactory
+
+class CachedAvatarLoader(private val context: Context): ModelLoader<CachedAvatarPhoto, BitmapDrawable> {
+
+    override fun buildLoadData(
+        model: CachedAvatarPhoto,
+        width: Int,
+        height: Int,
+        options: Options
+    ): LoadData<BitmapDrawable> {
+        return LoadData(model, CachedAvatarFetcher(context, model))
+    }
+
+    override fun handles(model: CachedAvatarPhoto): Boolean = true
+
+    class Factory(private val context: Context) : ModelLoaderFactory<CachedAvatarPhoto, BitmapDrawable> {
+        override fun build(multiFactory: MultiModelLoaderFactory): ModelLoader<CachedAvatarPhoto, BitmapDrawable> {
+            return CachedAvatarLoader(context.applicationContext)
+        }
+        override fun teardown() {}
+    }
+}
@@ -0,0 +1,27 @@
+package org.thoughtcrime.securesms.glide
+
+import com.bumptech.glide.load.Key
+import org.session.libsession.avatars.ContactPhoto
+import org.session.libsession.avatars.PlaceholderAvatarPhoto
+import org.thoughtcrime.securesms.glide.cache.AvatarCache
+import java.security.MessageDigest
+
+/**
+ * A profile picture or placeholder avatar, loaded through the shared [AvatarCache].
+ */
+class CachedAvatarPhoto private constructor(val key: AvatarCache.Key,
+                                            val photo: ContactPhoto?,
+                                            val placeholder: PlaceholderAvatarPhoto?): Key {
+
+    constructor(key: AvatarCache.Key, photo: ContactPhoto): this(key, photo, null)
+
+    constructor(key: AvatarCache.Key, placeholder: PlaceholderAvatarPhoto): this(key, null, placeholder)
+
+    override fun updateDiskCacheKey(messageDigest: MessageDigest) {
+        key.updateDiskCacheKey(messageDigest)
+    }
+
+    override fun equals(other: Any?): Boolean = other is CachedAvatarPhoto && key == other.key
+
+    override fun hashCode(): Int = key.hashCode()
+}
@@ -0,0 +1,286 @@
+package org.thoughtcrime.securesms.glide.cache;
+
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapShader;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.Shader;
+import android.util.LruCache;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.session.libsignal.utilities.Hex;
+import org.session.libsignal.utilities.Log;
+import org.thoughtcrime.securesms.crypto.AttachmentSecretProvider;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+/**
+ * A shared cache of scaled, circle cropped avatars, keyed by public key, avatar version and size.
+ *
+ * Rendered avatars are kept in memory, bounded by their total size, and on disk in the same
+ * encrypted format Glide's disk cache uses, so rebinding a row while scrolling doesn't decode the
+ * full size picture (or draw a placeholder) again, and neither does a cold start.
+ */
+public class AvatarCache extends EncryptedCoder {
+
+  private static final String TAG = AvatarCache.class.getSimpleName();
+
+  private static final String DIRECTORY   = "avatar_cache";
+  private static final long   DISK_SIZE   = 10 * 1024 * 1024;
+  private static final int    MEMORY_SIZE = 8 * 1024 * 1024;
+
+  private static AvatarCache instance;
+
+  public static synchronized @NonNull AvatarCache getInstance(@NonNull Context context) {
+    if (instance == null) {
+      byte[] secret     = AttachmentSecretProvider.getInstance(context).getOrCreateAttachmentSecret().getModernKey();
+      int    memorySize = (int) Math.min(MEMORY_SIZE, Runtime.getRuntime().maxMemory() / 32);
+
+      instance = new AvatarCache(new File(context.getCacheDir(), DIRECTORY), secret, memorySize, DISK_SIZE);
+    }
+    return instance;
+  }
+
+  public interface Renderer {
+    /**
+     * @return The avatar, scaled and cropped to a circle of the given size, or null if there is none.
+     */
+    @Nullable Bitmap render(int size) throws IOException;
+  }
+
+  private final File                  directory;
+  private final byte[]                secret;
+  private final long                  maxDiskSize;
+  private final LruCache<Key, Bitmap> memoryCache;
+
+  private long diskSize = -1;
+
+  AvatarCache(@NonNull File directory, @NonNull byte[] secret, int memorySize, long diskSize) {
+    this.directory   = directory;
+    this.secret      = secret;
+    this.maxDiskSize = diskSize;
+    this.memoryCache = new LruCache<Key, Bitmap>(memorySize) {
+      @Override
+      protected int sizeOf(Key key, Bitmap value) {
+        return value.getAllocationByteCount();
+      }
+    };
+  }
+
+  /**
+   * @return The avatar if it's in memory, without touching the disk. Safe to call while binding.
+   */
+  public @Nullable Bitmap getCached(@NonNull Key key) {
+    return memoryCache.get(key);
+  }
+
+  /**
+   * Loads the avatar from memory or disk, or renders and stores it. Must not be called on the main
+   * thread. The returned bitmap is shared, so it must not be modified or recycled.
+   */
+  public @Nullable Bitmap get(@NonNull Key key, @NonNull Renderer renderer) throws IOException {
+    Bitmap bitmap = memoryCache.get(key);
+    if (bitmap != null) return bitmap;
+
+    File file = new File(directory, key.getFileName());
+
+    bitmap = read(file);
+
+    if (bitmap == null) {
+      bitmap = renderer.render(key.size);
+      if (bitmap == null) return null;
+
+      write(file, bitmap);
+    }
+
+    memoryCache.put(key, bitmap);
+    return bitmap;
+  }
+
+  /**
+   * Drops every cached avatar of a public key, for when its profile picture changes.
+   */
+  public void invalidate(@NonNull String publicKey) {
+    for (Key key : memoryCache.snapshot().keySet()) {
+      if (key.publicKey.equals(publicKey)) memoryCache.remove(key);
+    }
+
+    String prefix = Key.getFilePrefix(publicKey);
+    File[] files  = directory.listFiles((dir, name) -> name.startsWith(prefix));
+
+    if (files == null) return;
+
+    synchronized (this) {
+      for (File file : files) {
+        long length = file.length();
+        if (file.delete() && diskSize >= 0) diskSize -= length;
+      }
+    }
+  }
+
+  private @Nullable Bitmap read(@NonNull File file) {
+    if (!file.exists()) return null;
+
+    try (InputStream inputStream = createEncryptedInputStream(secret, file)) {
+      Bitmap bitmap = BitmapFactory.decodeStream(inputStream);
+
+      if (bitmap != null) {
+        // Used as an access time when trimming
+        file.setLastModified(System.currentTimeMillis());
+      }
+
+      return bitmap;
+    } catch (IOException e) {
+      Log.w(TAG, "Dropping unreadable avatar " + file.getName(), e);
+      file.delete();
+      return null;
+    }
+  }
+
+  private void write(@NonNull File file, @NonNull Bitmap bitmap) {
+    if (!directory.exists() && !directory.mkdirs()) {
+      Log.w(TAG, "Couldn't create " + directory);
+      return;
+    }
+
+    File temp = new File(directory, file.getName() + ".tmp" + Thread.currentThread().getId());
+
+    try (OutputStream outputStream = createEncryptedOutputStream(secret, temp)) {
+      bitmap.compress(Bitmap.CompressFormat.PNG, 100, outputStream);
+    } catch (IOException e) {
+      Log.w(TAG, "Failed to store avatar " + file.getName(), e);
+      temp.delete();
+      return;
+    }
+
+    synchronized (this) {
+      long replaced = file.length();
+
+      if (!temp.renameTo(file)) {
+        temp.delete();
+        return;
+      }
+
+      if (diskSize < 0) diskSize = getDirectorySize();
+      else              diskSize += file.length() - replaced;
+
+      if (diskSize > maxDiskSize) trim();
+    }
+  }
+
+  private long getDirectorySize() {
+    File[] files = directory.listFiles();
+    long   size  = 0;
+
+    if (files != null) {
+      for (File file : files) size += file.length();
+    }
+
+    return size;
+  }
+
+  /**
+   * Deletes the least recently used avatars until the cache is down to three quarters of its size.
+   */
+  private void trim() {
+    File[] files = directory.listFiles();
+    if (files == null) return;
+
+    Arrays.sort(files, (a, b) -> Long.compare(a.lastModified(), b.lastModified()));
+
+    for (File file : files) {
+      if (diskSize <= maxDiskSize * 3 / 4) break;
+
+      long length = file.length();
+      if (file.delete()) diskSize -= length;
+    }
+  }
+
+  /**
+   * Scales an image to cover a circle of the given size and crops it to the circle.
+   */
+  public static @NonNull Bitmap circleCrop(@NonNull Bitmap source, int size) {
+    Bitmap result = Bitmap.createBitmap(size, size, Bitmap.Config.ARGB_8888);
+    float  scale  = (float) size / Math.min(source.getWidth(), source.getHeight());
+    Matrix matrix = new Matrix();
+
+    matrix.setScale(scale, scale);
+    matrix.postTranslate((size - source.getWidth() * scale) / 2, (size - source.getHeight() * scale) / 2);
+
+    BitmapShader shader = new BitmapShader(source, Shader.TileMode.CLAMP, Shader.TileMode.CLAMP);
+    shader.setLocalMatrix(matrix);
+
+    Paint paint = new Paint(Paint.ANTI_ALIAS_FLAG | Paint.FILTER_BITMAP_FLAG);
+    paint.setShader(shader);
+
+    new Canvas(result).drawCircle(size / 2f, size / 2f, size / 2f, paint);
+
+    return result;
+  }
+
+  public static final class Key implements com.bumptech.glide.load.Key {
+
+    private final String publicKey;
+    private final String version;
+    private final int    size;
+
+    /**
+     * @param version Identifies what the avatar looks like, e.g. the profile picture's URL, so that
+     *                a new picture is never served from an old entry.
+     * @param size    The width and height in pixels.
+     */
+    public Key(@NonNull String publicKey, @NonNull String version, int size) {
+      this.publicKey = publicKey;
+      this.version   = version;
+      this.size      = size;
+    }
+
+    private @NonNull String getFileName() {
+      return getFilePrefix(publicKey) + hash(version + ":" + size).substring(0, 32);
+    }
+
+    private static @NonNull String getFilePrefix(@NonNull String publicKey) {
+      return hash(publicKey).substring(0, 32) + "_";
+    }
+
+    private static @NonNull String hash(@NonNull String value) {
+      try {
+        return Hex.toStringCondensed(MessageDigest.getInstance("SHA-256").digest(value.getBytes(StandardCharsets.UTF_8)));
+      } catch (NoSuchAlgorithmException e) {
+        throw new AssertionError(e);
+      }
+    }
+
+    @Override
+    public void updateDiskCacheKey(@NonNull MessageDigest messageDigest) {
+      messageDigest.update(getFileName().getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      if (!(other instanceof Key)) return false;
+
+      Key that = (Key) other;
+
+      return this.size == that.size && this.publicKey.equals(that.publicKey) && this.version.equals(that.version);
+    }
+
+    @Override
+    public int hashCode() {
+      return (publicKey.hashCode() * 31 + version.hashCode()) * 31 + size;
+    }
+  }
+}
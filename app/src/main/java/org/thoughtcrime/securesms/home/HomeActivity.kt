@@ -48,6 +48,7 @@ import org.thoughtcrime.securesms.crypto.IdentityKeyUtil
 import org.thoughtcrime.securesms.database.GroupDatabase
 import org.thoughtcrime.securesms.database.MmsSmsDatabase
 import org.thoughtcrime.securesms.database.RecipientDatabase
+import org.thoughtcrime.securesms.database.SessionContactDatabase
 import org.thoughtcrime.securesms.database.ThreadDatabase
 import org.thoughtcrime.securesms.database.model.ThreadRecord
 import org.thoughtcrime.securesms.dependencies.DatabaseComponent
@@ -173,6 +174,15 @@ class HomeActivity : PassphraseRequiredActionBarActivity(),
         homeAdapter.glide = glide
         binding.recyclerView.adapter = homeAdapter
         binding.globalSearchRecycler.adapter = globalSearchAdapter
+        binding.globalSearchRecycler.addOnScrollListener(object : RecyclerView.OnScrollListener() {
+            override fun onScrolled(recyclerView: RecyclerView, dx: Int, dy: Int) {
+                // Messages are read a page at a time, get the next one before the end is reached
+                val layoutManager = recyclerView.layoutManager as LinearLayoutManager
+                if (dy > 0 && layoutManager.findLastVisibleItemPosition() >= globalSearchAdapter.itemCount - 10) {
+                    globalSearchViewModel.loadMoreMessages()
+                }
+            }
+        })
 
         // Set up empty state view
         binding.createNewPrivateChatButton.setOnClickListener { showNewConversation() }
@@ -360,10 +370,11 @@ class HomeActivity : PassphraseRequiredActionBarActivity(),
                     manager.getDecoratedTop(view) - manager.getTopDecorationHeight(view)
                 } ?: 0
             } else 0
-            homeAdapter.data = newData
-            if(firstPos >= 0) { manager.scrollToPositionWithOffset(firstPos, offsetTop) }
-            setupMessageRequestsBanner()
-            updateEmptyState()
+            homeAdapter.submitData(newData) {
+                if(firstPos >= 0) { manager.scrollToPositionWithOffset(firstPos, offsetTop) }
+                setupMessageRequestsBanner()
+                updateEmptyState()
+            }
         }
 
         ApplicationContext.getInstance(this@HomeActivity).typingStatusRepository.typingThreads.observe(this) { threadIds ->
@@ -385,6 +396,11 @@ class HomeActivity : PassphraseRequiredActionBarActivity(),
         }
     }
 
+    @Subscribe(threadMode = ThreadMode.MAIN)
+    fun onContactUpdatedEvent(event: SessionContactDatabase.ContactUpdatedEvent) {
+        homeAdapter.contactUpdated(event.sessionID)
+    }
+
     private fun updateProfileButton() {
         binding.profileButton.root.publicKey = publicKey
         binding.profileButton.root.displayName = textSecurePreferences.getProfileName()
@@ -4,7 +4,8 @@ import android.content.Context
 import android.view.LayoutInflater
 import android.view.View
 import android.view.ViewGroup
-import androidx.recyclerview.widget.DiffUtil
+import androidx.recyclerview.widget.AsyncDifferConfig
+import androidx.recyclerview.widget.AsyncListDiffer
 import androidx.recyclerview.widget.ListUpdateCallback
 import androidx.recyclerview.widget.RecyclerView
 import androidx.recyclerview.widget.RecyclerView.NO_ID
@@ -24,19 +25,28 @@ class HomeAdapter(
 
     var header: View? = null
 
-    private var _data: List<ThreadRecord> = emptyList()
-    var data: List<ThreadRecord>
-        get() = _data.toList()
-        set(newData) {
-            val previousData = _data.toList()
-            val diff = HomeDiffUtil(previousData, newData, context)
-            val diffResult = DiffUtil.calculateDiff(diff)
-            _data = newData
-            diffResult.dispatchUpdatesTo(this as ListUpdateCallback)
-        }
+    // Diffing runs on a background thread, only the resulting updates are dispatched on the main thread
+    private val differ = AsyncListDiffer(this as ListUpdateCallback, AsyncDifferConfig.Builder(HomeDiffUtil(context)).build())
+
+    val data: List<ThreadRecord>
+        get() = differ.currentList
+
+    fun submitData(newData: List<ThreadRecord>, onCommitted: () -> Unit = {}) {
+        differ.submitList(newData) { onCommitted() }
+    }
 
     fun hasHeaderView(): Boolean = header != null
 
+    /**
+     * Binds the conversation with [sessionID] again, for when its name or profile picture changed.
+     * Its thread row doesn't change, so diffing the list wouldn't pick that up.
+     */
+    fun contactUpdated(sessionID: String) {
+        data.forEachIndexed { index, thread ->
+            if (thread.recipient.address.serialize() == sessionID) notifyItemChanged(index + headerCount)
+        }
+    }
+
     private val headerCount: Int
         get() = if (header == null) 0 else 1
 
@@ -59,7 +69,7 @@ class HomeAdapter(
     override fun getItemId(position: Int): Long  {
         if (hasHeaderView() && position == 0) return NO_ID
         val offsetPosition = if (hasHeaderView()) position-1 else position
-        return _data[offsetPosition].threadId
+        return data[offsetPosition].threadId
     }
 
     lateinit var glide: GlideRequests
@@ -5,21 +5,15 @@ import androidx.recyclerview.widget.DiffUtil
 import org.thoughtcrime.securesms.database.model.ThreadRecord
 
 class HomeDiffUtil(
-    private val old: List<ThreadRecord>,
-    private val new: List<ThreadRecord>,
     private val context: Context
-): DiffUtil.Callback() {
+): DiffUtil.ItemCallback<ThreadRecord>() {
 
-    override fun getOldListSize(): Int = old.size
+    override fun areItemsTheSame(oldItem: ThreadRecord, newItem: ThreadRecord): Boolean =
+        oldItem.threadId == newItem.threadId
 
-    override fun getNewListSize(): Int = new.size
-
-    override fun areItemsTheSame(oldItemPosition: Int, newItemPosition: Int): Boolean =
-        old[oldItemPosition].threadId == new[newItemPosition].threadId
-
-    override fun areContentsTheSame(oldItemPosition: Int, newItemPosition: Int): Boolean {
-        val oldItem = old[oldItemPosition]
-        val newItem = new[newItemPosition]
+    override fun areContentsTheSame(oldItem: ThreadRecord, newItem: ThreadRecord): Boolean {
+        // ThreadDatabase.Reader hands back the same instance for rows which haven't changed
+        if (oldItem === newItem) { return true }
 
         // return early to save getDisplayBody or expensive calls
         var isSameItem = true
@@ -46,4 +40,4 @@ class HomeDiffUtil(
         return isSameItem
     }
 
-}
\ No newline at end of file
+}
@@ -22,12 +22,7 @@ data class GlobalSearchResult(
         const val SEARCH_LIMIT = 5
 
         fun from(searchResult: SearchResult): GlobalSearchResult {
-            val query = searchResult.query
-            val contactList = searchResult.contacts.toList()
-            val threads = searchResult.conversations.toList()
-            val messages = searchResult.messages.toList()
-            searchResult.close()
-            return GlobalSearchResult(query, contactList, threads, messages)
+            return GlobalSearchResult(searchResult.query, searchResult.contacts, searchResult.conversations, searchResult.messages)
         }
 
     }
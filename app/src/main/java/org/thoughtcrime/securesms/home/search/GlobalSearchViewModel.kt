@@ -3,6 +3,7 @@ package org.thoughtcrime.securesms.home.search
 import androidx.lifecycle.ViewModel
 import androidx.lifecycle.viewModelScope
 import dagger.hilt.android.lifecycle.HiltViewModel
+import kotlinx.coroutines.Job
 import kotlinx.coroutines.SupervisorJob
 import kotlinx.coroutines.channels.BufferOverflow
 import kotlinx.coroutines.delay
@@ -12,12 +13,13 @@ import kotlinx.coroutines.flow.buffer
 import kotlinx.coroutines.flow.launchIn
 import kotlinx.coroutines.flow.mapLatest
 import kotlinx.coroutines.flow.onEach
+import kotlinx.coroutines.launch
 import kotlinx.coroutines.plus
-import org.session.libsignal.utilities.SettableFuture
+import kotlinx.coroutines.suspendCancellableCoroutine
 import org.thoughtcrime.securesms.search.SearchRepository
 import org.thoughtcrime.securesms.search.model.SearchResult
-import java.util.concurrent.TimeUnit
 import javax.inject.Inject
+import kotlin.coroutines.resume
 
 @HiltViewModel
 class GlobalSearchViewModel @Inject constructor(private val searchRepository: SearchRepository) : ViewModel() {
@@ -31,16 +33,39 @@ class GlobalSearchViewModel @Inject constructor(private val searchRepository: Se
 
     private val _queryText: MutableStateFlow<CharSequence> = MutableStateFlow("")
 
+    private var searchResult: SearchResult = SearchResult.EMPTY
+    private var loadMoreJob: Job? = null
+
     fun postQuery(charSequence: CharSequence?) {
         charSequence ?: return
         _queryText.value = charSequence
     }
 
+    /** Adds the next page of messages to the result, if there is one. */
+    fun loadMoreMessages() {
+        val current = searchResult
+        if (!current.hasMoreMessages() || loadMoreJob?.isActive == true) return
+        loadMoreJob = executor.launch {
+            val result = suspendCancellableCoroutine<SearchResult> { continuation ->
+                val cancellationSignal = searchRepository.loadMoreMessages(current) { continuation.resume(it) }
+                continuation.invokeOnCancellation { cancellationSignal.cancel() }
+            }
+            // Unless there's been a new search since
+            if (searchResult === current) publish(result)
+        }
+    }
+
+    private fun publish(result: SearchResult) {
+        searchResult = result
+        _result.value = GlobalSearchResult.from(result)
+    }
+
     init {
         //
         _queryText
                 .buffer(onBufferOverflow = BufferOverflow.DROP_OLDEST)
                 .mapLatest { query ->
+                    loadMoreJob?.cancel()
                     if (query.trim().length < 2) {
                         SearchResult.EMPTY
                     } else {
@@ -48,22 +73,19 @@ class GlobalSearchViewModel @Inject constructor(private val searchRepository: Se
                         // this coroutine will be cancelled and expensive query will not be run if typing quickly
                         // first query of 2 characters will be instant however
                         delay(300)
-                        val settableFuture = SettableFuture<SearchResult>()
-                        searchRepository.query(query.toString(), settableFuture::set)
-                        try {
-                            // search repository doesn't play nicely with suspend functions (yet)
-                            settableFuture.get(10_000, TimeUnit.MILLISECONDS)
-                        } catch (e: Exception) {
-                            SearchResult.EMPTY
+                        // a query that's still running when the next one comes in is cancelled with it
+                        suspendCancellableCoroutine<SearchResult> { continuation ->
+                            val cancellationSignal = searchRepository.query(query.toString()) { continuation.resume(it) }
+                            continuation.invokeOnCancellation { cancellationSignal.cancel() }
                         }
                     }
                 }
                 .onEach { result ->
                     // update the latest _result value
-                    _result.value = GlobalSearchResult.from(result)
+                    publish(result)
                 }
                 .launchIn(executor)
     }
 
 
-}
\ No newline at end of file
+}
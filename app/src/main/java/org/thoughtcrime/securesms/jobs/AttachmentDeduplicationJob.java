@@ -0,0 +1,82 @@
+package org.thoughtcrime.securesms.jobs;
+
+import androidx.annotation.NonNull;
+
+import org.session.libsession.messaging.sending_receiving.attachments.AttachmentId;
+import org.session.libsession.messaging.utilities.Data;
+import org.session.libsignal.utilities.Log;
+import org.thoughtcrime.securesms.database.AttachmentDatabase;
+import org.thoughtcrime.securesms.dependencies.DatabaseComponent;
+import org.thoughtcrime.securesms.jobmanager.Job;
+
+import java.util.List;
+
+/**
+ * Hashes the parts that were stored before attachments were content addressed (or that were
+ * restored from a backup), sharing one file between the ones with the same content.
+ */
+public class AttachmentDeduplicationJob extends BaseJob {
+
+  public static final String KEY = "AttachmentDeduplicationJob";
+
+  private static final String TAG = AttachmentDeduplicationJob.class.getSimpleName();
+
+  private static final int BATCH_SIZE = 100;
+
+  public AttachmentDeduplicationJob() {
+    this(new Job.Parameters.Builder()
+                           .setQueue(KEY)
+                           .setMaxInstances(1)
+                           .setMaxAttempts(3)
+                           .build());
+  }
+
+  private AttachmentDeduplicationJob(@NonNull Job.Parameters parameters) {
+    super(parameters);
+  }
+
+  @Override
+  public @NonNull Data serialize() {
+    return Data.EMPTY;
+  }
+
+  @Override
+  public @NonNull String getFactoryKey() {
+    return KEY;
+  }
+
+  @Override
+  public void onRun() {
+    AttachmentDatabase attachmentDatabase = DatabaseComponent.get(context).attachmentDatabase();
+    int                count              = 0;
+
+    List<AttachmentId> batch;
+
+    // Every processed part gets a hash, so each batch picks up where the previous one stopped
+    while (!(batch = attachmentDatabase.getUnhashedAttachments(BATCH_SIZE)).isEmpty()) {
+      for (AttachmentId attachmentId : batch) {
+        attachmentDatabase.deduplicateAttachment(attachmentId);
+      }
+
+      count += batch.size();
+    }
+
+    Log.i(TAG, "Hashed " + count + " attachments");
+  }
+
+  @Override
+  public boolean onShouldRetry(@NonNull Exception e) {
+    return false;
+  }
+
+  @Override
+  public void onCanceled() {
+  }
+
+  public static class Factory implements Job.Factory<AttachmentDeduplicationJob> {
+    @Override
+    public @NonNull AttachmentDeduplicationJob create(@NonNull Parameters parameters, @NonNull Data data) {
+      return new AttachmentDeduplicationJob(parameters);
+    }
+  }
+}
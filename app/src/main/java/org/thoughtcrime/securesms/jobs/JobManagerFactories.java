@@ -33,6 +33,7 @@ public final class JobManagerFactories {
       put(RetrieveProfileAvatarJob.KEY,              new RetrieveProfileAvatarJob.Factory(application));
       put(UpdateApkJob.KEY,                          new UpdateApkJob.Factory());
       put(PrepareAttachmentAudioExtrasJob.KEY,       new PrepareAttachmentAudioExtrasJob.Factory());
+      put(AttachmentDeduplicationJob.KEY,            new AttachmentDeduplicationJob.Factory());
     }};
     factoryKeys.addAll(factoryHashMap.keySet());
     return factoryHashMap;
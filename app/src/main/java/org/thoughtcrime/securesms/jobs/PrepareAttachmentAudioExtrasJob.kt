@@ -6,13 +6,11 @@ import org.session.libsession.messaging.sending_receiving.attachments.Attachment
 import org.session.libsession.messaging.sending_receiving.attachments.AttachmentId
 import org.session.libsession.messaging.sending_receiving.attachments.DatabaseAttachmentAudioExtras
 import org.session.libsession.messaging.utilities.Data
-import org.session.libsession.utilities.DecodedAudio
-import org.session.libsession.utilities.InputStreamMediaDataSource
+import org.session.libsession.utilities.AudioWaveform
 import org.session.libsignal.utilities.Log
 import org.thoughtcrime.securesms.dependencies.DatabaseComponent
 import org.thoughtcrime.securesms.jobmanager.Job
 import org.thoughtcrime.securesms.jobs.PrepareAttachmentAudioExtrasJob.AudioExtrasUpdatedEvent
-import org.thoughtcrime.securesms.mms.PartAuthority
 import java.util.*
 import java.util.concurrent.TimeUnit
 
@@ -22,7 +20,7 @@ import java.util.concurrent.TimeUnit
  *
  * It only process attachments with "audio" mime types.
  *
- * Due to [DecodedAudio] implementation limitations, it only works for API 23+.
+ * Due to [AudioWaveform] implementation limitations, it only works for API 23+.
  * For any lower targets fake data will be generated.
  *
  * You can subscribe to [AudioExtrasUpdatedEvent] to be notified about the successful result.
@@ -78,8 +76,8 @@ class PrepareAttachmentAudioExtrasJob : BaseJob {
             throw IllegalStateException("Attachment $attachmentId is not of audio type.")
         }
 
-        // Check if the audio extras already exist.
-        if (attachDb.getAttachmentAudioExtras(attachmentId) != null) return
+        // Check if the audio extras already exist, e.g. from the upload or download.
+        if (attachDb.getAttachmentAudioExtras(attachmentId)?.visualSamples?.isNotEmpty() == true) return
 
         fun extractAttachmentRandomSeed(attachment: Attachment): Int {
             return when {
@@ -101,12 +99,14 @@ class PrepareAttachmentAudioExtrasJob : BaseJob {
             rmsValues = generateFakeRms(extractAttachmentRandomSeed(attachment))
         } else {
             try {
-                @Suppress("BlockingMethodInNonBlockingContext")
-                val decodedAudio = PartAuthority.getAttachmentStream(context, attachment.dataUri!!).use {
-                    DecodedAudio.create(InputStreamMediaDataSource(it))
+                val audioExtras = attachDb.getOrExtractAttachmentAudioExtras(attachmentId, VISUAL_RMS_FRAMES, -1)
+                if (audioExtras != null && audioExtras.visualSamples.isNotEmpty()) {
+                    EventBus.getDefault().post(AudioExtrasUpdatedEvent(attachmentId))
+                    return
                 }
-                rmsValues = decodedAudio.calculateRms(VISUAL_RMS_FRAMES)
-                totalDurationMs = (decodedAudio.totalDuration / 1000.0).toLong()
+                // Decoded without any samples, the duration may still be known
+                if (audioExtras != null) totalDurationMs = audioExtras.durationMs
+                rmsValues = generateFakeRms(extractAttachmentRandomSeed(attachment))
             } catch (e: Exception) {
                 Log.w(TAG, "Failed to decode sample values for the audio attachment \"${attachment.fileName}\".", e)
                 rmsValues = generateFakeRms(extractAttachmentRandomSeed(attachment))
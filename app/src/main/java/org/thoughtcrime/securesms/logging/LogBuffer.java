@@ -0,0 +1,103 @@
+package org.thoughtcrime.securesms.logging;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A fixed size ring buffer which any number of threads add to without locking, and one thread
+ * takes from. When the taker falls a whole buffer behind, the oldest values are overwritten and
+ * counted as lost rather than making the adding threads wait.
+ */
+class LogBuffer<T> {
+
+  /** A value with its sequence number, which is only ever replaced by a newer one. */
+  private static final class Slot<T> {
+    private final long sequence;
+    private final T    value;
+
+    private Slot(long sequence, @NonNull T value) {
+      this.sequence = sequence;
+      this.value    = value;
+    }
+  }
+
+  private final int                           capacity;
+  private final int                           mask;
+  private final AtomicReferenceArray<Slot<T>> slots;
+  private final AtomicLong                    nextSequence = new AtomicLong();
+
+  private long nextToTake;
+  private long lost;
+
+  /** @param capacity A power of two. */
+  LogBuffer(int capacity) {
+    if (Integer.bitCount(capacity) != 1) throw new IllegalArgumentException("Capacity must be a power of two: " + capacity);
+
+    this.capacity = capacity;
+    this.mask     = capacity - 1;
+    this.slots    = new AtomicReferenceArray<>(capacity);
+  }
+
+  /** Adds {@code value}. Safe to call from any thread. */
+  void add(@NonNull T value) {
+    publish(claim(), value);
+  }
+
+  /** Reserves the next sequence number, for {@link #publish}. */
+  @VisibleForTesting
+  long claim() {
+    return nextSequence.getAndIncrement();
+  }
+
+  /**
+   * Stores {@code value} as {@code sequence}, unless a thread that claimed a later sequence number
+   * has already stored its value in the same slot. The value is then lost, and {@link #take} counts
+   * it as such.
+   */
+  @VisibleForTesting
+  void publish(long sequence, @NonNull T value) {
+    int     index = (int) sequence & mask;
+    Slot<T> slot  = new Slot<>(sequence, value);
+
+    while (true) {
+      Slot<T> current = slots.get(index);
+      if (current != null && current.sequence > sequence) return;
+      if (slots.compareAndSet(index, current, slot)) return;
+    }
+  }
+
+  /**
+   * Returns the oldest value not yet taken, or null if there's none ready. Must only be called by
+   * one thread at a time.
+   */
+  @Nullable T take() {
+    while (true) {
+      Slot<T> slot = slots.get((int) nextToTake & mask);
+
+      if (slot != null && slot.sequence == nextToTake) {
+        nextToTake++;
+        return slot.value;
+      }
+
+      // Either the value was overwritten by a newer one, or it hasn't been stored yet. Its slot has
+      // been claimed again since if the adding threads are a whole buffer ahead, so it never will be.
+      long oldest = nextSequence.get() - capacity;
+      if (oldest <= nextToTake) {
+        return null;
+      }
+      lost       += oldest - nextToTake;
+      nextToTake  = oldest;
+    }
+  }
+
+  /** Returns how many values were overwritten before they could be taken since the last call. */
+  long takeLostCount() {
+    long count = lost;
+    lost = 0;
+    return count;
+  }
+}
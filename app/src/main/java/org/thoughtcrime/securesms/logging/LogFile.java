@@ -7,6 +7,7 @@ import org.session.libsession.utilities.Util;
 
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
+import java.io.Closeable;
 import java.io.EOFException;
 import java.io.File;
 import java.io.FileInputStream;
@@ -43,6 +44,7 @@ class LogFile {
 
     private final byte[]        ivBuffer         = new byte[16];
     private final GrowingBuffer ciphertextBuffer = new GrowingBuffer();
+    private final SecureRandom  random           = new SecureRandom();
 
     private final byte[]               secret;
     private final File                 file;
@@ -62,7 +64,7 @@ class LogFile {
     }
 
     void writeEntry(@NonNull String entry) throws IOException {
-      new SecureRandom().nextBytes(ivBuffer);
+      random.nextBytes(ivBuffer);
 
       byte[] plaintext = entry.getBytes();
       try {
@@ -91,7 +93,7 @@ class LogFile {
     }
   }
 
-  static class Reader {
+  static class Reader implements Closeable {
 
     private final byte[]        ivBuffer         = new byte[16];
     private final byte[]        intBuffer        = new byte[4];
@@ -145,5 +147,10 @@ class LogFile {
         return null;
       }
     }
+
+    @Override
+    public void close() {
+      Util.close(inputStream);
+    }
   }
 }
@@ -0,0 +1,57 @@
+package org.thoughtcrime.securesms.logging;
+
+import androidx.annotation.NonNull;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lets through at most a fixed number of entries per tag each second, so one noisy tag can't push
+ * everything else out of the logs. Doesn't lock, and only allocates the first time it sees a tag.
+ */
+class LogRateLimiter {
+
+  /** Returned by {@link #acquire} when an entry should be dropped. */
+  static final int DROP = -1;
+
+  private static class Window {
+    private final AtomicLong    second  = new AtomicLong(Long.MIN_VALUE);
+    private final AtomicInteger count   = new AtomicInteger();
+    private final AtomicInteger dropped = new AtomicInteger();
+  }
+
+  private final int                               maxPerSecond;
+  private final ConcurrentHashMap<String, Window> windows = new ConcurrentHashMap<>();
+
+  LogRateLimiter(int maxPerSecond) {
+    this.maxPerSecond = maxPerSecond;
+  }
+
+  /**
+   * @param now The current time in milliseconds.
+   * @return {@link #DROP} if the entry should be dropped, or else how many entries of this tag were
+   *         dropped since the last one let through, for the log to say so.
+   */
+  int acquire(@NonNull String tag, long now) {
+    Window window = windows.get(tag);
+    if (window == null) {
+      Window created = new Window();
+      window = windows.putIfAbsent(tag, created);
+      if (window == null) window = created;
+    }
+
+    long second  = now / 1000;
+    long current = window.second.get();
+    if (second != current && window.second.compareAndSet(current, second)) {
+      window.count.set(0);
+    }
+
+    if (window.count.incrementAndGet() > maxPerSecond) {
+      window.dropped.incrementAndGet();
+      return DROP;
+    }
+
+    return window.dropped.getAndSet(0);
+  }
+}
@@ -3,26 +3,32 @@ package org.thoughtcrime.securesms.logging;
 import android.content.Context;
 
 import androidx.annotation.AnyThread;
+import androidx.annotation.NonNull;
 import androidx.annotation.WorkerThread;
 
-import org.session.libsignal.utilities.ListenableFuture;
 import org.session.libsignal.utilities.Log;
 import org.session.libsignal.utilities.NoExternalStorageException;
-import org.session.libsignal.utilities.SettableFuture;
 
+import java.io.BufferedOutputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.PrintStream;
 import java.text.SimpleDateFormat;
 import java.util.Arrays;
 import java.util.Date;
-import java.util.LinkedList;
-import java.util.List;
 import java.util.concurrent.CountDownLatch;
-import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
-
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Keeps the logs in encrypted files. Logging threads only add entries to an in-memory
+ * {@link LogBuffer}; a background thread formats them and writes them out in batches, each batch
+ * encrypted as one entry of the {@link LogFile}.
+ */
 public class PersistentLogger extends Log.Logger {
 
   private static final String TAG     = PersistentLogger.class.getSimpleName();
@@ -34,23 +40,32 @@ public class PersistentLogger extends Log.Logger {
   private static final String LOG_E   = "E";
   private static final String LOG_WTF = "A";
 
-  private static final String           LOG_DIRECTORY   = "log";
-  private static final String           FILENAME_PREFIX = "log-";
-  private static final int              MAX_LOG_FILES   = 5;
-  private static final int              MAX_LOG_SIZE    = 300 * 1024;
-  private static final int              MAX_LOG_EXPORT  = 10_000;
-  private static final SimpleDateFormat DATE_FORMAT     = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS zzz");
-
-  private final Context  context;
-  private final Executor executor;
-  private final byte[]   secret;
+  private static final String           LOG_DIRECTORY          = "log";
+  private static final String           FILENAME_PREFIX        = "log-";
+  private static final int              MAX_LOG_FILES          = 5;
+  private static final int              MAX_LOG_SIZE           = 300 * 1024;
+  private static final int              BUFFER_CAPACITY        = 4096;
+  private static final int              MAX_BATCH_LENGTH       = 16 * 1024;
+  private static final long             BATCH_DELAY_MILLIS     = 250;
+  private static final int              MAX_PER_TAG_PER_SECOND = 50;
+  private static final SimpleDateFormat DATE_FORMAT            = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS zzz");
+
+  private final Context                  context;
+  private final ScheduledExecutorService executor;
+  private final byte[]                   secret;
+  private final LogBuffer<Entry>         buffer      = new LogBuffer<>(BUFFER_CAPACITY);
+  private final LogRateLimiter           rateLimiter = new LogRateLimiter(MAX_PER_TAG_PER_SECOND);
+  private final AtomicBoolean            scheduled   = new AtomicBoolean();
+  private final Runnable                 writeTask   = this::writeBufferedEntries;
+
+  private final Date                     date        = new Date();
 
   private LogFile.Writer writer;
 
   public PersistentLogger(Context context) {
     this.context  = context.getApplicationContext();
     this.secret   = LogSecretProvider.getOrCreateAttachmentSecret(context);
-    this.executor = Executors.newSingleThreadExecutor(r -> {
+    this.executor = Executors.newSingleThreadScheduledExecutor(r -> {
       Thread thread = new Thread(r, "PersistentLogger");
       thread.setPriority(Thread.MIN_PRIORITY);
       return thread;
@@ -93,7 +108,10 @@ public class PersistentLogger extends Log.Logger {
   public void blockUntilAllWritesFinished() {
     CountDownLatch latch = new CountDownLatch(1);
 
-    executor.execute(latch::countDown);
+    executor.execute(() -> {
+      writeBufferedEntries();
+      latch.countDown();
+    });
 
     try {
       latch.await();
@@ -102,37 +120,52 @@ public class PersistentLogger extends Log.Logger {
     }
   }
 
+  /**
+   * Writes the logs to {@code outputStream}, oldest first, an entry at a time so that they never
+   * have to fit in memory at once. Doesn't close {@code outputStream}.
+   *
+   * @return The number of bytes written.
+   */
   @WorkerThread
-  public ListenableFuture<String> getLogs() {
-    final SettableFuture<String> future = new SettableFuture<>();
+  public long writeLogs(@NonNull OutputStream outputStream) throws IOException, NoExternalStorageException {
+    blockUntilAllWritesFinished();
 
-    executor.execute(() -> {
-      StringBuilder builder = new StringBuilder();
-      long entriesWritten = 0;
+    BufferedOutputStream output  = new BufferedOutputStream(outputStream);
+    long                 written = 0;
+    File[]               logs    = getSortedLogFiles();
+
+    for (int i = logs.length - 1; i >= 0; i--) {
+      LogFile.Reader reader;
+      try {
+        reader = new LogFile.Reader(secret, logs[i]);
+      } catch (IOException e) {
+        // Trimmed since we listed it
+        continue;
+      }
 
       try {
-        File[] logs = getSortedLogFiles();
-        for (int i = logs.length - 1; i >= 0 && entriesWritten <= MAX_LOG_EXPORT; i--) {
+        while (true) {
+          String entry;
           try {
-            LogFile.Reader reader = new LogFile.Reader(secret, logs[i]);
-            String entry;
-            while ((entry = reader.readEntry()) != null) {
-              entriesWritten++;
-              builder.append(entry).append('\n');
-            }
+            entry = reader.readEntry();
           } catch (IOException e) {
             android.util.Log.w(TAG, "Failed to read log at index " + i + ". Removing reference.");
             logs[i].delete();
+            break;
           }
-        }
+          if (entry == null) break;
 
-        future.set(builder.toString());
-      } catch (NoExternalStorageException e) {
-        future.setException(e);
+          byte[] bytes = (entry + '\n').getBytes();
+          output.write(bytes);
+          written += bytes.length;
+        }
+      } finally {
+        reader.close();
       }
-    });
+    }
 
-    return future;
+    output.flush();
+    return written;
   }
 
   @WorkerThread
@@ -146,30 +179,73 @@ public class PersistentLogger extends Log.Logger {
 
   @AnyThread
   private void write(String level, String tag, String message, Throwable t) {
-    executor.execute(() -> {
-      try {
-        if (writer == null) {
-          return;
-        }
+    long now     = System.currentTimeMillis();
+    int  dropped = 0;
 
-        if (writer.getLogSize() >= MAX_LOG_SIZE) {
-          writer.close();
-          writer = new LogFile.Writer(secret, createNewLogFile());
-          trimLogFilesOverMax();
-        }
+    // Errors always get through
+    if (!LOG_E.equals(level) && !LOG_WTF.equals(level)) {
+      dropped = rateLimiter.acquire(String.valueOf(tag), now);
+      if (dropped == LogRateLimiter.DROP) return;
+    }
 
-        for (String entry : buildLogEntries(level, tag, message, t)) {
-          writer.writeEntry(entry);
-        }
+    buffer.add(new Entry(now, level, tag, message, t, dropped));
 
-      } catch (NoExternalStorageException e) {
-        android.util.Log.w(TAG, "Cannot persist logs.", e);
-      } catch (IOException e) {
-        android.util.Log.w(TAG, "Failed to write line. Deleting all logs and starting over.");
-        deleteAllLogs();
-        initializeWriter();
+    if (scheduled.compareAndSet(false, true)) {
+      executor.schedule(writeTask, BATCH_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  @WorkerThread
+  private void writeBufferedEntries() {
+    // Before taking entries, so that any added from here on schedule another write
+    scheduled.set(false);
+
+    StringBuilder batch = new StringBuilder();
+    Entry         entry;
+
+    while ((entry = buffer.take()) != null) {
+      long lost = buffer.takeLostCount();
+      if (lost > 0) {
+        appendLine(batch, LOG_W, TAG, lost + " entries were lost because logging fell behind.", entry.time);
       }
-    });
+      if (entry.droppedBefore > 0) {
+        appendLine(batch, LOG_W, entry.tag, entry.droppedBefore + " entries of this tag were dropped for logging too often.", entry.time);
+      }
+      appendEntry(batch, entry);
+
+      if (batch.length() >= MAX_BATCH_LENGTH) {
+        writeBatch(batch.toString());
+        batch.setLength(0);
+      }
+    }
+
+    if (batch.length() > 0) {
+      writeBatch(batch.toString());
+    }
+  }
+
+  @WorkerThread
+  private void writeBatch(String batch) {
+    try {
+      if (writer == null) {
+        return;
+      }
+
+      if (writer.getLogSize() >= MAX_LOG_SIZE) {
+        writer.close();
+        writer = new LogFile.Writer(secret, createNewLogFile());
+        trimLogFilesOverMax();
+      }
+
+      writer.writeEntry(batch);
+
+    } catch (NoExternalStorageException e) {
+      android.util.Log.w(TAG, "Cannot persist logs.", e);
+    } catch (IOException e) {
+      android.util.Log.w(TAG, "Failed to write line. Deleting all logs and starting over.");
+      deleteAllLogs();
+      initializeWriter();
+    }
   }
 
   private void trimLogFilesOverMax() throws NoExternalStorageException {
@@ -223,28 +299,45 @@ public class PersistentLogger extends Log.Logger {
     return logDir;
   }
 
-  private List<String> buildLogEntries(String level, String tag, String message, Throwable t) {
-    List<String> entries = new LinkedList<>();
-    Date         date    = new Date();
-
-    entries.add(buildEntry(level, tag, message, date));
+  private void appendEntry(StringBuilder batch, Entry entry) {
+    appendLine(batch, entry.level, entry.tag, entry.message, entry.time);
 
-    if (t != null) {
+    if (entry.throwable != null) {
       ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-      t.printStackTrace(new PrintStream(outputStream));
+      entry.throwable.printStackTrace(new PrintStream(outputStream));
 
       String   trace = new String(outputStream.toByteArray());
       String[] lines = trace.split("\\n");
 
       for (String line : lines) {
-        entries.add(buildEntry(level, tag, line, date));
+        appendLine(batch, entry.level, entry.tag, line, entry.time);
       }
     }
+  }
+
+  private void appendLine(StringBuilder batch, String level, String tag, String message, long time) {
+    date.setTime(time);
 
-    return entries;
+    if (batch.length() > 0) batch.append('\n');
+    batch.append(DATE_FORMAT.format(date)).append(' ').append(level).append(' ').append(tag).append(": ").append(message);
   }
 
-  private String buildEntry(String level, String tag, String message, Date date) {
-    return DATE_FORMAT.format(date) + ' ' + level + ' ' + tag + ": " + message;
+  private static class Entry {
+    private final long      time;
+    private final String    level;
+    private final String    tag;
+    private final String    message;
+    private final Throwable throwable;
+    /** How many entries of this tag were rate limited since the last one let through. */
+    private final int       droppedBefore;
+
+    private Entry(long time, String level, String tag, String message, Throwable throwable, int droppedBefore) {
+      this.time          = time;
+      this.level         = level;
+      this.tag           = tag;
+      this.message       = message;
+      this.throwable     = throwable;
+      this.droppedBefore = droppedBefore;
+    }
   }
 }
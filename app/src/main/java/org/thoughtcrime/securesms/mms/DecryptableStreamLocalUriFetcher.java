@@ -8,6 +8,9 @@ import org.session.libsignal.utilities.Log;
 
 import com.bumptech.glide.load.data.StreamLocalUriFetcher;
 
+import org.session.libsession.messaging.sending_receiving.attachments.AttachmentId;
+import org.thoughtcrime.securesms.database.ThumbnailPipeline;
+import org.thoughtcrime.securesms.dependencies.DatabaseComponent;
 import org.thoughtcrime.securesms.util.MediaUtil;
 
 import java.io.ByteArrayInputStream;
@@ -22,6 +25,8 @@ class DecryptableStreamLocalUriFetcher extends StreamLocalUriFetcher {
 
   private Context context;
 
+  private volatile ThumbnailPipeline.Request thumbnailRequest;
+
   DecryptableStreamLocalUriFetcher(Context context, Uri uri) {
     super(context.getContentResolver(), uri);
     this.context      = context;
@@ -39,6 +44,20 @@ class DecryptableStreamLocalUriFetcher extends StreamLocalUriFetcher {
       }
     }
 
+    AttachmentId thumbnailId = PartAuthority.getThumbnailAttachmentId(uri);
+
+    // Thumbnails are requested directly, so a cancelled load stops waiting for one to be generated
+    if (thumbnailId != null) {
+      thumbnailRequest = DatabaseComponent.get(context).attachmentDatabase().requestThumbnail(thumbnailId);
+
+      try {
+        return new ByteArrayInputStream(thumbnailRequest.get());
+      } catch (IOException ioe) {
+        Log.w(TAG, ioe);
+        throw new FileNotFoundException("Couldn't load thumbnail.");
+      }
+    }
+
     try {
       return PartAuthority.getAttachmentStream(context, uri);
     } catch (IOException ioe) {
@@ -46,4 +65,15 @@ class DecryptableStreamLocalUriFetcher extends StreamLocalUriFetcher {
       throw new FileNotFoundException("PartAuthority couldn't load Uri resource.");
     }
   }
+
+  @Override
+  public void cancel() {
+    ThumbnailPipeline.Request request = thumbnailRequest;
+
+    if (request != null) {
+      request.cancel();
+    }
+
+    super.cancel();
+  }
 }
@@ -114,6 +114,16 @@ public class PartAuthority {
     return PartProvider.getContentUri(partUri.getPartId());
   }
 
+  public static @Nullable AttachmentId getAttachmentId(@NonNull Uri uri) {
+    if (uriMatcher.match(uri) == PART_ROW) return new PartUriParser(uri).getPartId();
+    else                                   return null;
+  }
+
+  public static @Nullable AttachmentId getThumbnailAttachmentId(@NonNull Uri uri) {
+    if (uriMatcher.match(uri) == THUMB_ROW) return new PartUriParser(uri).getPartId();
+    else                                    return null;
+  }
+
   public static Uri getAttachmentDataUri(AttachmentId attachmentId) {
     Uri uri = Uri.withAppendedPath(PART_CONTENT_URI, String.valueOf(attachmentId.getUniqueId()));
     return ContentUris.withAppendedId(uri, attachmentId.getRowId());
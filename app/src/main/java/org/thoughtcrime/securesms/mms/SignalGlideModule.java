@@ -27,6 +27,8 @@ import org.session.libsession.avatars.PlaceholderAvatarPhoto;
 import org.thoughtcrime.securesms.crypto.AttachmentSecret;
 import org.thoughtcrime.securesms.crypto.AttachmentSecretProvider;
 import org.thoughtcrime.securesms.giph.model.ChunkedImageUrl;
+import org.thoughtcrime.securesms.glide.CachedAvatarLoader;
+import org.thoughtcrime.securesms.glide.CachedAvatarPhoto;
 import org.thoughtcrime.securesms.glide.ChunkedImageUrlLoader;
 import org.thoughtcrime.securesms.glide.ContactPhotoLoader;
 import org.thoughtcrime.securesms.glide.OkHttpUrlLoader;
@@ -74,6 +76,7 @@ public class SignalGlideModule extends AppGlideModule {
     registry.append(AttachmentModel.class, InputStream.class, new AttachmentStreamUriLoader.Factory());
     registry.append(ChunkedImageUrl.class, InputStream.class, new ChunkedImageUrlLoader.Factory());
     registry.append(PlaceholderAvatarPhoto.class, BitmapDrawable.class, new PlaceholderAvatarLoader.Factory());
+    registry.append(CachedAvatarPhoto.class, BitmapDrawable.class, new CachedAvatarLoader.Factory(context));
     registry.replace(GlideUrl.class, InputStream.class, new OkHttpUrlLoader.Factory());
   }
 
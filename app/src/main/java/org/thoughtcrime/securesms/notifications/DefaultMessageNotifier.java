@@ -24,7 +24,6 @@ import android.app.PendingIntent;
 import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
-import android.database.Cursor;
 import android.net.Uri;
 import android.os.AsyncTask;
 import android.os.Build;
@@ -61,7 +60,6 @@ import org.thoughtcrime.securesms.crypto.KeyPairUtilities;
 import org.thoughtcrime.securesms.database.LokiThreadDatabase;
 import org.thoughtcrime.securesms.database.MessagingDatabase.MarkedMessageInfo;
 import org.thoughtcrime.securesms.database.MmsSmsDatabase;
-import org.thoughtcrime.securesms.database.RecipientDatabase;
 import org.thoughtcrime.securesms.database.ThreadDatabase;
 import org.thoughtcrime.securesms.database.model.MediaMmsMessageRecord;
 import org.thoughtcrime.securesms.database.model.MessageRecord;
@@ -74,7 +72,8 @@ import org.thoughtcrime.securesms.service.KeyCachingService;
 import org.thoughtcrime.securesms.util.SessionMetaProtocol;
 import org.thoughtcrime.securesms.util.SpanUtil;
 
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashSet;
 import java.util.List;
 import java.util.ListIterator;
@@ -109,6 +108,8 @@ public class DefaultMessageNotifier implements MessageNotifier {
   private static final String NOTIFICATION_GROUP        = "messages";
   private static final long   MIN_AUDIBLE_PERIOD_MILLIS = TimeUnit.SECONDS.toMillis(5);
   private static final long   DESKTOP_ACTIVITY_PERIOD   = TimeUnit.MINUTES.toMillis(1);
+  private static final int    MAX_THREAD_NOTIFICATIONS  = 20;
+  private static final int    MAX_MESSAGE_LINES         = 20;
 
   private volatile static       long               visibleThread                = -1;
   private volatile static       boolean            homeScreenVisible            = false;
@@ -116,6 +117,13 @@ public class DefaultMessageNotifier implements MessageNotifier {
   private volatile static       long               lastAudibleNotification      = -1;
   private          static final CancelableExecutor executor                     = new CancelableExecutor();
 
+  private static final UnreadNotificationModel unreadNotifications = new UnreadNotificationModel();
+  private static final Object                  updateLock          = new Object();
+  private static       boolean                 updating            = false;
+  private static       boolean                 updateAgain         = false;
+  private static       boolean                 pendingSignal       = false;
+  private static       int                     pendingReminderCount = 0;
+
   @Override
   public void setVisibleThread(long threadId) {
     visibleThread = threadId;
@@ -176,7 +184,7 @@ public class DefaultMessageNotifier implements MessageNotifier {
     }
   }
 
-  private void cancelOrphanedNotifications(@NonNull Context context, NotificationState notificationState) {
+  private void cancelOrphanedNotifications(@NonNull Context context, Collection<Long> threadIds) {
     try {
       NotificationManager     notifications       = ServiceUtil.getNotificationManager(context);
       StatusBarNotification[] activeNotifications = notifications.getActiveNotifications();
@@ -189,8 +197,8 @@ public class DefaultMessageNotifier implements MessageNotifier {
             notification.getId() != FOREGROUND_ID         &&
             notification.getId() != PENDING_MESSAGES_ID)
         {
-          for (NotificationItem item : notificationState.getNotifications()) {
-            if (notification.getId() == (SUMMARY_NOTIFICATION_ID + item.getThreadId())) {
+          for (long threadId : threadIds) {
+            if (notification.getId() == (SUMMARY_NOTIFICATION_ID + threadId)) {
               validNotification = true;
               break;
             }
@@ -213,6 +221,8 @@ public class DefaultMessageNotifier implements MessageNotifier {
       return;
     }
 
+    // Called when anything may have changed, including how messages are shown
+    unreadNotifications.invalidateAll();
     updateNotification(context, false, 0);
   }
 
@@ -232,6 +242,8 @@ public class DefaultMessageNotifier implements MessageNotifier {
   {
     boolean    isVisible  = visibleThread == threadId;
 
+    unreadNotifications.invalidate(threadId);
+
     ThreadDatabase threads    = DatabaseComponent.get(context).threadDatabase();
     Recipient      recipient = threads.getRecipientForThreadId(threadId);
 
@@ -255,54 +267,122 @@ public class DefaultMessageNotifier implements MessageNotifier {
     }
   }
 
+  /**
+   * Updates the notifications to match the unread messages. Updates asked for while one is running
+   * are coalesced into a single one which runs after it.
+   */
   @Override
   public void updateNotification(@NonNull Context context, boolean signal, int reminderCount)
   {
-    Cursor telcoCursor = null;
-    Cursor pushCursor  = null;
+    synchronized (updateLock) {
+      pendingSignal        = pendingSignal || signal;
+      pendingReminderCount = Math.max(pendingReminderCount, reminderCount);
 
-    try {
-      telcoCursor = DatabaseComponent.get(context).mmsSmsDatabase().getUnread(); // TODO: add a notification specific lighter query here
-
-      if ((telcoCursor == null || telcoCursor.isAfterLast()) || !TextSecurePreferences.hasSeenWelcomeScreen(context))
-      {
-        cancelActiveNotifications(context);
-        updateBadge(context, 0);
-        clearReminder(context);
+      if (updating) {
+        updateAgain = true;
         return;
       }
 
-      NotificationState notificationState = constructNotificationState(context, telcoCursor);
+      updating = true;
+    }
+
+    boolean finished = false;
+
+    try {
+      while (!finished) {
+        boolean updateSignal;
+        int     updateReminderCount;
+
+        synchronized (updateLock) {
+          updateSignal         = pendingSignal;
+          updateReminderCount  = pendingReminderCount;
+          pendingSignal        = false;
+          pendingReminderCount = 0;
+          updateAgain          = false;
+        }
+
+        performUpdate(context, updateSignal, updateReminderCount);
 
-      if (signal && (System.currentTimeMillis() - lastAudibleNotification) < MIN_AUDIBLE_PERIOD_MILLIS) {
-        signal = false;
-      } else if (signal) {
-        lastAudibleNotification = System.currentTimeMillis();
+        synchronized (updateLock) {
+          finished = !updateAgain;
+          updating = !finished;
+        }
+      }
+    } finally {
+      if (!finished) {
+        synchronized (updateLock) {
+          updating = false;
+        }
       }
+    }
+  }
 
-      try {
-        if (notificationState.hasMultipleThreads()) {
-          for (long threadId : notificationState.getThreads()) {
+  private void performUpdate(@NonNull Context context, boolean signal, int reminderCount)
+  {
+    if (!TextSecurePreferences.hasSeenWelcomeScreen(context)) {
+      cancelActiveNotifications(context);
+      updateBadge(context, 0);
+      clearReminder(context);
+      return;
+    }
+
+    UnreadNotificationModel.Update update            = unreadNotifications.update(new DatabaseSource(context));
+    NotificationState              notificationState = update.getState();
+
+    if (notificationState.getMessageCount() == 0) {
+      cancelActiveNotifications(context);
+      updateBadge(context, 0);
+      clearReminder(context);
+      return;
+    }
+
+    if (signal && (System.currentTimeMillis() - lastAudibleNotification) < MIN_AUDIBLE_PERIOD_MILLIS) {
+      signal = false;
+    } else if (signal) {
+      lastAudibleNotification = System.currentTimeMillis();
+    }
+
+    // Only the most recent threads get a notification of their own, the summary covers the rest
+    List<Long> threadIds = new ArrayList<>(notificationState.getThreads());
+    threadIds = threadIds.subList(Math.max(0, threadIds.size() - MAX_THREAD_NOTIFICATIONS), threadIds.size());
+
+    try {
+      if (notificationState.hasMultipleThreads()) {
+        Set<Integer> activeNotificationIds = getActiveNotificationIds(context);
+
+        for (long threadId : threadIds) {
+          if (update.hasChanged(threadId) || !activeNotificationIds.contains((int) (SUMMARY_NOTIFICATION_ID + threadId))) {
             sendSingleThreadNotification(context, new NotificationState(notificationState.getNotificationsForThread(threadId)), false, true);
           }
-          sendMultipleThreadNotification(context, notificationState, signal);
-        } else if (notificationState.getMessageCount() > 0) {
-          sendSingleThreadNotification(context, notificationState, signal, false);
-        } else {
-          cancelActiveNotifications(context);
         }
-      } catch (Exception e) {
-        Log.e(TAG, "Error creating notification", e);
+        sendMultipleThreadNotification(context, notificationState, signal);
+      } else {
+        sendSingleThreadNotification(context, notificationState, signal, false);
       }
-      cancelOrphanedNotifications(context, notificationState);
-      updateBadge(context, notificationState.getMessageCount());
+    } catch (Exception e) {
+      Log.e(TAG, "Error creating notification", e);
+    }
+    cancelOrphanedNotifications(context, threadIds);
+    updateBadge(context, notificationState.getMessageCount());
+
+    if (signal) {
+      scheduleReminder(context, reminderCount);
+    }
+  }
 
-      if (signal) {
-        scheduleReminder(context, reminderCount);
+  private Set<Integer> getActiveNotificationIds(@NonNull Context context) {
+    Set<Integer> ids = new HashSet<>();
+
+    try {
+      for (StatusBarNotification notification : ServiceUtil.getNotificationManager(context).getActiveNotifications()) {
+        ids.add(notification.getId());
       }
-    } finally {
-      if (telcoCursor != null) telcoCursor.close();
+    } catch (Throwable e) {
+      // XXX Android ROM Bug, see #6043
+      Log.w(TAG, e);
     }
+
+    return ids;
   }
 
   private void sendSingleThreadNotification(@NonNull  Context context,
@@ -370,7 +450,8 @@ public class DefaultMessageNotifier implements MessageNotifier {
                                    notifications.get(0).getTimestamp());
     }
 
-    ListIterator<NotificationItem> iterator = notifications.listIterator(notifications.size());
+    List<NotificationItem>         lines    = notifications.subList(0, Math.min(notifications.size(), MAX_MESSAGE_LINES));
+    ListIterator<NotificationItem> iterator = lines.listIterator(lines.size());
 
     while(iterator.hasPrevious()) {
       NotificationItem item = iterator.previous();
@@ -425,7 +506,8 @@ public class DefaultMessageNotifier implements MessageNotifier {
 
     builder.addActions(notificationState.getMarkAsReadIntent(context, SUMMARY_NOTIFICATION_ID));
 
-    ListIterator<NotificationItem> iterator = notifications.listIterator(notifications.size());
+    List<NotificationItem>         lines    = notifications.subList(0, Math.min(notifications.size(), MAX_MESSAGE_LINES));
+    ListIterator<NotificationItem> iterator = lines.listIterator(lines.size());
 
     while(iterator.hasPrevious()) {
       NotificationItem item = iterator.previous();
@@ -446,62 +528,73 @@ public class DefaultMessageNotifier implements MessageNotifier {
     Log.i(TAG, "Posted notification. " + notification);
   }
 
-  private NotificationState constructNotificationState(@NonNull  Context context,
-                                                       @NonNull  Cursor cursor)
-  {
-    NotificationState     notificationState = new NotificationState();
-    MmsSmsDatabase.Reader reader            = DatabaseComponent.get(context).mmsSmsDatabase().readerFor(cursor);
-    ThreadDatabase        threadDatabase    = DatabaseComponent.get(context).threadDatabase();
-
-    MessageRecord record;
-    Map<Long, String> cache = new HashMap<Long, String>();
-
-    while ((record = reader.getNext()) != null) {
-      long         id                    = record.getId();
-      boolean      mms                   = record.isMms() || record.isMmsNotification();
-      Recipient    recipient             = record.getIndividualRecipient();
-      Recipient    conversationRecipient = record.getRecipient();
-      long         threadId              = record.getThreadId();
-      CharSequence body                  = record.getDisplayBody(context);
-      Recipient    threadRecipients      = null;
-      SlideDeck    slideDeck             = null;
-      long         timestamp             = record.getTimestamp();
-      boolean      messageRequest        = false;
-
-      if (threadId != -1) {
-        threadRecipients = threadDatabase.getRecipientForThreadId(threadId);
-        messageRequest = threadRecipients != null && !threadRecipients.isGroupRecipient() &&
-                !threadRecipients.isApproved() && !threadDatabase.getLastSeenAndHasSent(threadId).second();
-        if (messageRequest && (threadDatabase.getMessageCount(threadId) > 1 || !TextSecurePreferences.hasHiddenMessageRequests(context))) {
-          continue;
-        }
-      }
-      if (messageRequest) {
-        body = SpanUtil.italic(context.getString(R.string.message_requests_notification));
-      } else if (KeyCachingService.isLocked(context)) {
-        body = SpanUtil.italic(context.getString(R.string.MessageNotifier_locked_message));
-      } else if (record.isMms() && !((MmsMessageRecord) record).getSharedContacts().isEmpty()) {
-        Contact contact = ((MmsMessageRecord) record).getSharedContacts().get(0);
-        body = ContactUtil.getStringSummary(context, contact);
-      } else if (record.isMms() && TextUtils.isEmpty(body) && !((MmsMessageRecord) record).getSlideDeck().getSlides().isEmpty()) {
-        slideDeck = ((MediaMmsMessageRecord)record).getSlideDeck();
-        body = SpanUtil.italic(slideDeck.getBody());
-      } else if (record.isMms() && !record.isMmsNotification() && !((MmsMessageRecord) record).getSlideDeck().getSlides().isEmpty()) {
-        slideDeck = ((MediaMmsMessageRecord)record).getSlideDeck();
-        String message      = slideDeck.getBody() + ": " + record.getBody();
-        int    italicLength = message.length() - body.length();
-        body = SpanUtil.italic(message, italicLength);
-      } else if (record.isOpenGroupInvitation()) {
-        body = SpanUtil.italic(context.getString(R.string.ThreadRecord_open_group_invitation));
-      }
-      String userPublicKey = TextSecurePreferences.getLocalNumber(context);
-      String blindedPublicKey = cache.get(threadId);
-      if (blindedPublicKey == null) {
-        blindedPublicKey = generateBlindedId(threadId, context);
-        cache.put(threadId, blindedPublicKey);
+  /** Reads the unread messages for {@link UnreadNotificationModel}. */
+  public static class DatabaseSource implements UnreadNotificationModel.Source {
+
+    private final Context        context;
+    private final MmsSmsDatabase mmsSmsDatabase;
+    private final ThreadDatabase threadDatabase;
+
+    public DatabaseSource(@NonNull Context context) {
+      this.context        = context;
+      this.mmsSmsDatabase = DatabaseComponent.get(context).mmsSmsDatabase();
+      this.threadDatabase = DatabaseComponent.get(context).threadDatabase();
+    }
+
+    @Override
+    public @NonNull Map<Long, String> getUnreadSignatures() {
+      return mmsSmsDatabase.getUnreadSignatures();
+    }
+
+    @Override
+    public @Nullable Recipient getThreadRecipient(long threadId) {
+      return threadDatabase.getRecipientForThreadId(threadId);
+    }
+
+    @Override
+    public @NonNull List<UnreadNotificationModel.Entry> getNotifications(long threadId, @Nullable Recipient threadRecipients) {
+      List<UnreadNotificationModel.Entry> entries = new ArrayList<>();
+
+      boolean messageRequest = threadRecipients != null && !threadRecipients.isGroupRecipient() &&
+              !threadRecipients.isApproved() && !threadDatabase.getLastSeenAndHasSent(threadId).second();
+      if (messageRequest && (threadDatabase.getMessageCount(threadId) > 1 || !TextSecurePreferences.hasHiddenMessageRequests(context))) {
+        return entries;
       }
-      if (threadRecipients == null || !threadRecipients.isMuted()) {
-        if (threadRecipients != null && threadRecipients.notifyType == RecipientDatabase.NOTIFY_TYPE_MENTIONS) {
+
+      String userPublicKey    = TextSecurePreferences.getLocalNumber(context);
+      String blindedPublicKey = generateBlindedId(threadId);
+
+      try (MmsSmsDatabase.Reader reader = mmsSmsDatabase.readerFor(mmsSmsDatabase.getUnread(threadId))) {
+        MessageRecord record;
+
+        while ((record = reader.getNext()) != null) {
+          long         id                    = record.getId();
+          boolean      mms                   = record.isMms() || record.isMmsNotification();
+          Recipient    recipient             = record.getIndividualRecipient();
+          Recipient    conversationRecipient = record.getRecipient();
+          CharSequence body                  = record.getDisplayBody(context);
+          SlideDeck    slideDeck             = null;
+          long         timestamp             = record.getTimestamp();
+
+          if (messageRequest) {
+            body = SpanUtil.italic(context.getString(R.string.message_requests_notification));
+          } else if (KeyCachingService.isLocked(context)) {
+            body = SpanUtil.italic(context.getString(R.string.MessageNotifier_locked_message));
+          } else if (record.isMms() && !((MmsMessageRecord) record).getSharedContacts().isEmpty()) {
+            Contact contact = ((MmsMessageRecord) record).getSharedContacts().get(0);
+            body = ContactUtil.getStringSummary(context, contact);
+          } else if (record.isMms() && TextUtils.isEmpty(body) && !((MmsMessageRecord) record).getSlideDeck().getSlides().isEmpty()) {
+            slideDeck = ((MediaMmsMessageRecord)record).getSlideDeck();
+            body = SpanUtil.italic(slideDeck.getBody());
+          } else if (record.isMms() && !record.isMmsNotification() && !((MmsMessageRecord) record).getSlideDeck().getSlides().isEmpty()) {
+            slideDeck = ((MediaMmsMessageRecord)record).getSlideDeck();
+            String message      = slideDeck.getBody() + ": " + record.getBody();
+            int    italicLength = message.length() - body.length();
+            body = SpanUtil.italic(message, italicLength);
+          } else if (record.isOpenGroupInvitation()) {
+            body = SpanUtil.italic(context.getString(R.string.ThreadRecord_open_group_invitation));
+          }
+
           // check if mentioned here
           boolean isQuoteMentioned = false;
           if (record instanceof MmsMessageRecord) {
@@ -511,46 +604,42 @@ public class DefaultMessageNotifier implements MessageNotifier {
             isQuoteMentioned = (serializedAddress!= null && Objects.equals(userPublicKey, serializedAddress)) ||
                     (blindedPublicKey != null && Objects.equals(userPublicKey, blindedPublicKey));
           }
-          if (body.toString().contains("@"+userPublicKey) || body.toString().contains("@"+blindedPublicKey) || isQuoteMentioned) {
-            notificationState.addNotification(new NotificationItem(id, mms, recipient, conversationRecipient, threadRecipients, threadId, body, timestamp, slideDeck));
-          }
-        } else if (threadRecipients != null && threadRecipients.notifyType == RecipientDatabase.NOTIFY_TYPE_NONE) {
-          // do nothing, no notifications
-        } else {
-          notificationState.addNotification(new NotificationItem(id, mms, recipient, conversationRecipient, threadRecipients, threadId, body, timestamp, slideDeck));
-        }
-
-        String userBlindedPublicKey = blindedPublicKey;
-        Optional<ReactionRecord> lastReact = Stream.of(record.getReactions())
-                .filter(r -> !(r.getAuthor().equals(userPublicKey) || r.getAuthor().equals(userBlindedPublicKey)))
-                .findLast();
-
-        if (lastReact.isPresent()) {
-          if (threadRecipients != null && !threadRecipients.isGroupRecipient()) {
-            ReactionRecord reaction = lastReact.get();
-            Recipient reactor = Recipient.from(context, Address.fromSerialized(reaction.getAuthor()), false);
-            String emoji = context.getString(R.string.reaction_notification, reactor.toShortString(), reaction.getEmoji());
-            notificationState.addNotification(new NotificationItem(id, mms, reactor, reactor, threadRecipients, threadId, emoji, reaction.getDateSent(), slideDeck));
+          boolean mentioned = body.toString().contains("@"+userPublicKey) || body.toString().contains("@"+blindedPublicKey) || isQuoteMentioned;
+
+          entries.add(new UnreadNotificationModel.Entry(new NotificationItem(id, mms, recipient, conversationRecipient, threadRecipients, threadId, body, timestamp, slideDeck),
+                                                        record.getDateSent(), false, mentioned));
+
+          Optional<ReactionRecord> lastReact = Stream.of(record.getReactions())
+                  .filter(r -> !(r.getAuthor().equals(userPublicKey) || r.getAuthor().equals(blindedPublicKey)))
+                  .findLast();
+
+          if (lastReact.isPresent()) {
+            if (threadRecipients != null && !threadRecipients.isGroupRecipient()) {
+              ReactionRecord reaction = lastReact.get();
+              Recipient reactor = Recipient.from(context, Address.fromSerialized(reaction.getAuthor()), false);
+              String emoji = context.getString(R.string.reaction_notification, reactor.toShortString(), reaction.getEmoji());
+              entries.add(new UnreadNotificationModel.Entry(new NotificationItem(id, mms, reactor, reactor, threadRecipients, threadId, emoji, reaction.getDateSent(), slideDeck),
+                                                            record.getDateSent(), true, false));
+            }
           }
         }
       }
-    }
 
-    reader.close();
-    return notificationState;
-  }
+      return entries;
+    }
 
-  private @Nullable String generateBlindedId(long threadId, Context context) {
-    LokiThreadDatabase lokiThreadDatabase   = DatabaseComponent.get(context).lokiThreadDatabase();
-    OpenGroup openGroup = lokiThreadDatabase.getOpenGroupChat(threadId);
-    KeyPair edKeyPair = KeyPairUtilities.INSTANCE.getUserED25519KeyPair(context);
-    if (openGroup != null && edKeyPair != null) {
-      KeyPair blindedKeyPair = SodiumUtilities.blindedKeyPair(openGroup.getPublicKey(), edKeyPair);
-      if (blindedKeyPair != null) {
-        return new SessionId(IdPrefix.BLINDED, blindedKeyPair.getPublicKey().getAsBytes()).getHexString();
+    private @Nullable String generateBlindedId(long threadId) {
+      LokiThreadDatabase lokiThreadDatabase   = DatabaseComponent.get(context).lokiThreadDatabase();
+      OpenGroup openGroup = lokiThreadDatabase.getOpenGroupChat(threadId);
+      KeyPair edKeyPair = KeyPairUtilities.INSTANCE.getUserED25519KeyPair(context);
+      if (openGroup != null && edKeyPair != null) {
+        KeyPair blindedKeyPair = SodiumUtilities.blindedKeyPair(openGroup.getPublicKey(), edKeyPair);
+        if (blindedKeyPair != null) {
+          return new SessionId(IdPrefix.BLINDED, blindedKeyPair.getPublicKey().getAsBytes()).getHexString();
+        }
       }
+      return null;
     }
-    return null;
   }
 
   private void updateBadge(Context context, int count) {
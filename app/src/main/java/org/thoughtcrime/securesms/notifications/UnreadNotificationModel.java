@@ -0,0 +1,167 @@
+package org.thoughtcrime.securesms.notifications;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.session.libsession.utilities.recipients.Recipient;
+import org.thoughtcrime.securesms.database.RecipientDatabase;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The notifications of every thread with unread messages, kept between updates so that an update
+ * only reads the messages of threads which changed since the last one.
+ *
+ * A thread has changed when its {@link Source#getUnreadSignatures() signature} has, or when it's
+ * been {@link #invalidate(long) invalidated}. Whether the user wants to hear about a thread is
+ * checked on every update instead, as muting a thread doesn't change its messages.
+ */
+public class UnreadNotificationModel {
+
+  /** Where the model reads unread messages from. */
+  public interface Source {
+
+    /** A value for each thread with unread messages, which changes whenever they do. */
+    @NonNull Map<Long, String> getUnreadSignatures();
+
+    @Nullable Recipient getThreadRecipient(long threadId);
+
+    /** The notifications for the unread messages of {@code threadId}, oldest first. */
+    @NonNull List<Entry> getNotifications(long threadId, @Nullable Recipient threadRecipient);
+  }
+
+  public static class Entry {
+
+    private final NotificationItem item;
+    private final long             dateSent;
+    private final boolean          reaction;
+    private final boolean          mention;
+
+    /**
+     * @param dateSent When the message was sent, which orders notifications across threads.
+     * @param reaction Whether this is about a reaction, which is shown regardless of the thread's
+     *                 notification type.
+     * @param mention  Whether the message mentions the user.
+     */
+    public Entry(@NonNull NotificationItem item, long dateSent, boolean reaction, boolean mention) {
+      this.item     = item;
+      this.dateSent = dateSent;
+      this.reaction = reaction;
+      this.mention  = mention;
+    }
+  }
+
+  public static class Update {
+
+    private final NotificationState state;
+    private final Set<Long>         changedThreads;
+
+    private Update(@NonNull NotificationState state, @NonNull Set<Long> changedThreads) {
+      this.state          = state;
+      this.changedThreads = changedThreads;
+    }
+
+    public @NonNull NotificationState getState() {
+      return state;
+    }
+
+    /** Whether the notifications of {@code threadId} changed since the previous update. */
+    public boolean hasChanged(long threadId) {
+      return changedThreads.contains(threadId);
+    }
+  }
+
+  private static class ThreadNotifications {
+    private final String              signature;
+    private final @Nullable Recipient threadRecipient;
+    private final List<Entry>         entries;
+    private       int                 shownCount = -1;
+
+    private ThreadNotifications(String signature, @Nullable Recipient threadRecipient, List<Entry> entries) {
+      this.signature       = signature;
+      this.threadRecipient = threadRecipient;
+      this.entries         = entries;
+    }
+  }
+
+  private final Map<Long, ThreadNotifications> threads     = new HashMap<>();
+  private final Set<Long>                      invalidated = new HashSet<>();
+  private       boolean                        invalidatedAll;
+
+  /** Makes the next update read {@code threadId} again, whether or not its signature changed. */
+  public synchronized void invalidate(long threadId) {
+    invalidated.add(threadId);
+  }
+
+  /** Makes the next update read every thread again, eg. because how messages are shown changed. */
+  public synchronized void invalidateAll() {
+    invalidatedAll = true;
+  }
+
+  /** Brings the model up to date with {@code source} and returns the notifications to show. */
+  public @NonNull Update update(@NonNull Source source) {
+    Set<Long> invalidated;
+    boolean   invalidatedAll;
+    synchronized (this) {
+      invalidated         = new HashSet<>(this.invalidated);
+      invalidatedAll      = this.invalidatedAll;
+      this.invalidated.clear();
+      this.invalidatedAll = false;
+    }
+
+    Map<Long, String> signatures = source.getUnreadSignatures();
+    Set<Long>         changed    = new HashSet<>();
+    List<Entry>       shown      = new ArrayList<>();
+
+    synchronized (threads) {
+      threads.keySet().retainAll(signatures.keySet());
+
+      for (Map.Entry<Long, String> signature : signatures.entrySet()) {
+        long                threadId = signature.getKey();
+        ThreadNotifications thread   = threads.get(threadId);
+
+        if (thread == null || invalidatedAll || invalidated.contains(threadId) || !thread.signature.equals(signature.getValue())) {
+          Recipient threadRecipient = source.getThreadRecipient(threadId);
+          thread = new ThreadNotifications(signature.getValue(), threadRecipient, source.getNotifications(threadId, threadRecipient));
+          threads.put(threadId, thread);
+          changed.add(threadId);
+        }
+
+        int shownBefore = shown.size();
+        for (Entry entry : thread.entries) {
+          if (isShown(thread.threadRecipient, entry)) shown.add(entry);
+        }
+
+        int shownCount = shown.size() - shownBefore;
+        if (shownCount != thread.shownCount) changed.add(threadId);
+        thread.shownCount = shownCount;
+      }
+    }
+
+    // Stable, so a thread's notifications stay in the order they were read in
+    Collections.sort(shown, (lhs, rhs) -> Long.compare(lhs.dateSent, rhs.dateSent));
+
+    NotificationState state = new NotificationState();
+    for (Entry entry : shown) state.addNotification(entry.item);
+
+    return new Update(state, changed);
+  }
+
+  private static boolean isShown(@Nullable Recipient threadRecipient, @NonNull Entry entry) {
+    if (threadRecipient == null) return true;
+    if (threadRecipient.isMuted()) return false;
+    if (entry.reaction) return true;
+
+    switch (threadRecipient.notifyType) {
+      case RecipientDatabase.NOTIFY_TYPE_MENTIONS: return entry.mention;
+      case RecipientDatabase.NOTIFY_TYPE_NONE:     return false;
+      default:                                     return true;
+    }
+  }
+}
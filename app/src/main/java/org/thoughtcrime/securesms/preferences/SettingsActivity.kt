@@ -35,6 +35,7 @@ import org.session.libsession.utilities.SSKEnvironment.ProfileManagerProtocol
 import org.session.libsession.utilities.TextSecurePreferences
 import org.thoughtcrime.securesms.PassphraseRequiredActionBarActivity
 import org.thoughtcrime.securesms.avatar.AvatarSelection
+import org.thoughtcrime.securesms.glide.cache.AvatarCache
 import org.thoughtcrime.securesms.home.PathActivity
 import org.thoughtcrime.securesms.messagerequests.MessageRequestsActivity
 import org.thoughtcrime.securesms.mms.GlideApp
@@ -206,6 +207,7 @@ class SettingsActivity : PassphraseRequiredActionBarActivity() {
         compoundPromise.successUi { // Do this on the UI thread so that it happens before the alwaysUi clause below
             if (isUpdatingProfilePicture && profilePicture != null) {
                 AvatarHelper.setAvatar(this, Address.fromSerialized(TextSecurePreferences.getLocalNumber(this)!!), profilePicture)
+                AvatarCache.getInstance(this).invalidate(TextSecurePreferences.getLocalNumber(this)!!)
                 TextSecurePreferences.setProfileAvatarId(this, SecureRandom().nextInt())
                 TextSecurePreferences.setLastProfilePictureUpload(this, Date().time)
                 ProfileKeyUtil.setEncodedProfileKey(this, encodedProfileKey)
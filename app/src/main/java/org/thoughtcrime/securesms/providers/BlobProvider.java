@@ -7,6 +7,7 @@ import android.net.Uri;
 import androidx.annotation.IntRange;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
 import androidx.annotation.WorkerThread;
 
 import org.thoughtcrime.securesms.crypto.AttachmentSecret;
@@ -22,12 +23,20 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.util.HashMap;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Allows for the creation and retrieval of blobs.
+ *
+ * Blobs are independent of each other, so there's no lock around the provider: memory blobs live
+ * in a concurrent map and every change to one of them is a single atomic operation on its entry.
+ * Memory blobs of {@link #SPILL_THRESHOLD} bytes or more are moved to an encrypted file in the
+ * background once they're created, so that a few camera captures or shared images don't keep
+ * megabytes on the heap for the whole session. Until they're spilled they're read from memory.
  */
 public class BlobProvider {
 
@@ -35,6 +44,9 @@ public class BlobProvider {
 
   private static final String MULTI_SESSION_DIRECTORY  = "multi_session_blobs";
   private static final String SINGLE_SESSION_DIRECTORY = "single_session_blobs";
+  private static final String SPILLED_MEMORY_DIRECTORY = "spilled_memory_blobs";
+
+  @VisibleForTesting static final int SPILL_THRESHOLD = 1024 * 1024;
 
   public static final Uri        CONTENT_URI = Uri.parse("content://network.loki.provider.securesms/blob");
   public static final String     AUTHORITY   = "network.loki.provider.securesms";
@@ -51,10 +63,21 @@ public class BlobProvider {
     addURI(AUTHORITY, PATH, MATCH);
   }};
 
-  private static final BlobProvider INSTANCE = new BlobProvider();
+  private static final BlobProvider INSTANCE = new BlobProvider(SPILL_THRESHOLD, SignalExecutors.BOUNDED);
+
+  private final Map<Uri, MemoryBlob> memoryBlobs   = new ConcurrentHashMap<>();
+  private final AtomicLong           residentBytes = new AtomicLong();
+  private final AtomicLong           spilledBytes  = new AtomicLong();
+  private final int                  spillThreshold;
+  private final Executor             spillExecutor;
 
-  private final Map<Uri, byte[]> memoryBlobs = new HashMap<>();
+  private volatile @Nullable SpillStorage spillStorage;
 
+  @VisibleForTesting
+  BlobProvider(int spillThreshold, @NonNull Executor spillExecutor) {
+    this.spillThreshold = spillThreshold;
+    this.spillExecutor  = spillExecutor;
+  }
 
   public static BlobProvider getInstance() {
     return INSTANCE;
@@ -78,18 +101,21 @@ public class BlobProvider {
    * Retrieve a stream for the content with the specified URI.
    * @throws IOException If the stream fails to open or the spec of the URI doesn't match.
    */
-  public synchronized @NonNull InputStream getStream(@NonNull Context context, @NonNull Uri uri) throws IOException {
+  public @NonNull InputStream getStream(@NonNull Context context, @NonNull Uri uri) throws IOException {
     if (isAuthority(uri)) {
       StorageType storageType = StorageType.decode(uri.getPathSegments().get(STORAGE_TYPE_PATH_SEGMENT));
 
       if (storageType.isMemory()) {
-        byte[] data = memoryBlobs.get(uri);
-
-        if (data != null) {
-          if (storageType == StorageType.SINGLE_USE_MEMORY) {
-            memoryBlobs.remove(uri);
+        boolean    singleUse = storageType == StorageType.SINGLE_USE_MEMORY;
+        MemoryBlob blob      = singleUse ? memoryBlobs.remove(uri) : memoryBlobs.get(uri);
+
+        if (blob != null) {
+          try {
+            return blob.open();
+          } finally {
+            // An open stream of a spilled blob keeps reading after its file is deleted
+            if (singleUse) release(blob);
           }
-          return new ByteArrayInputStream(data);
         } else {
           throw new IOException("Failed to find in-memory blob for: " + uri);
         }
@@ -108,7 +134,7 @@ public class BlobProvider {
   /**
    * Delete the content with the specified URI.
    */
-  public synchronized void delete(@NonNull Context context, @NonNull Uri uri) {
+  public void delete(@NonNull Context context, @NonNull Uri uri) {
     if (!isAuthority(uri)) {
       Log.d(TAG, "Can't delete. Not the authority for uri: " + uri);
       return;
@@ -118,7 +144,8 @@ public class BlobProvider {
       StorageType storageType = StorageType.decode(uri.getPathSegments().get(STORAGE_TYPE_PATH_SEGMENT));
 
       if (storageType.isMemory()) {
-        memoryBlobs.remove(uri);
+        MemoryBlob blob = memoryBlobs.remove(uri);
+        if (blob != null) release(blob);
       } else {
         String id        = uri.getPathSegments().get(ID_PATH_SEGMENT);
         String directory = getDirectory(storageType);
@@ -136,11 +163,41 @@ public class BlobProvider {
   /**
    * Indicates a new app session has started, allowing old single-session blobs to be deleted.
    */
-  public synchronized void onSessionStart(@NonNull Context context) {
+  public void onSessionStart(@NonNull Context context) {
     File directory = getOrCreateCacheDirectory(context, SINGLE_SESSION_DIRECTORY);
     for (File file : directory.listFiles()) {
       file.delete();
     }
+
+    File spillDirectory = getOrCreateCacheDirectory(context, SPILLED_MEMORY_DIRECTORY);
+    for (File file : spillDirectory.listFiles()) {
+      file.delete();
+    }
+
+    setSpillStorage(spillDirectory, AttachmentSecretProvider.getInstance(context).getOrCreateAttachmentSecret());
+  }
+
+  /**
+   * Memory blobs are only spilled once there's somewhere to spill them to, which for the app is
+   * after {@link #onSessionStart(Context)} has cleared the previous session's files.
+   */
+  @VisibleForTesting
+  void setSpillStorage(@NonNull File directory, @NonNull AttachmentSecret attachmentSecret) {
+    this.spillStorage = new SpillStorage(directory, attachmentSecret);
+  }
+
+  /**
+   * @return The number of bytes of memory blobs currently held on the heap.
+   */
+  public long getResidentMemoryBlobBytes() {
+    return residentBytes.get();
+  }
+
+  /**
+   * @return The number of bytes of memory blobs that have been spilled to disk.
+   */
+  public long getSpilledMemoryBlobBytes() {
+    return spilledBytes.get();
   }
 
   public static @Nullable String getMimeType(@NonNull Uri uri) {
@@ -173,7 +230,7 @@ public class BlobProvider {
   }
 
   @WorkerThread
-  private synchronized @NonNull Uri writeBlobSpecToDisk(@NonNull Context context, @NonNull BlobSpec blobSpec, @Nullable ErrorListener errorListener) throws IOException {
+  private @NonNull Uri writeBlobSpecToDisk(@NonNull Context context, @NonNull BlobSpec blobSpec, @Nullable ErrorListener errorListener) throws IOException {
     AttachmentSecret attachmentSecret = AttachmentSecretProvider.getInstance(context).getOrCreateAttachmentSecret();
     String           directory        = getDirectory(blobSpec.getStorageType());
     File             outputFile       = new File(getOrCreateCacheDirectory(context, directory), buildFileName(blobSpec.id));
@@ -192,12 +249,60 @@ public class BlobProvider {
     return buildUri(blobSpec);
   }
 
-  private synchronized @NonNull Uri writeBlobSpecToMemory(@NonNull BlobSpec blobSpec, @NonNull byte[] data) {
-    Uri uri = buildUri(blobSpec);
-    memoryBlobs.put(uri, data);
+  private @NonNull Uri writeBlobSpecToMemory(@NonNull BlobSpec blobSpec, @NonNull byte[] data) {
+    Uri          uri     = buildUri(blobSpec);
+    MemoryBlob   blob    = new MemoryBlob(data);
+    SpillStorage storage = spillStorage;
+
+    residentBytes.addAndGet(data.length);
+    memoryBlobs.put(uri, blob);
+
+    if (storage != null && data.length >= spillThreshold) {
+      spillExecutor.execute(() -> spill(storage, uri, blob, blobSpec.getId()));
+    }
+
     return uri;
   }
 
+  @WorkerThread
+  private void spill(@NonNull SpillStorage storage, @NonNull Uri uri, @NonNull MemoryBlob blob, @NonNull String id) {
+    // Read or deleted in the meantime
+    if (memoryBlobs.get(uri) != blob) return;
+
+    File file = new File(storage.directory, buildFileName(id));
+
+    try (OutputStream outputStream = ModernEncryptingPartOutputStream.createFor(storage.attachmentSecret, file, true).second) {
+      //noinspection ConstantConditions
+      outputStream.write(blob.data);
+    } catch (IOException e) {
+      Log.w(TAG, "Failed to spill memory blob, keeping it in memory.", e);
+      file.delete();
+      return;
+    }
+
+    MemoryBlob spilled = new MemoryBlob(file, storage.attachmentSecret, blob.size);
+
+    if (memoryBlobs.replace(uri, blob, spilled)) {
+      residentBytes.addAndGet(-blob.size);
+      spilledBytes.addAndGet(blob.size);
+      Log.d(TAG, "Spilled memory blob of " + blob.size + " bytes, resident: " + residentBytes.get() + ", spilled: " + spilledBytes.get());
+    } else {
+      file.delete();
+    }
+  }
+
+  /**
+   * Accounts for a memory blob that has been removed from {@link #memoryBlobs}.
+   */
+  private void release(@NonNull MemoryBlob blob) {
+    if (blob.file != null) {
+      spilledBytes.addAndGet(-blob.size);
+      blob.file.delete();
+    } else {
+      residentBytes.addAndGet(-blob.size);
+    }
+  }
+
   private static @NonNull String buildFileName(@NonNull String id) {
     return id + ".blob";
   }
@@ -311,6 +416,45 @@ public class BlobProvider {
     }
   }
 
+  private static class MemoryBlob {
+
+    private final @Nullable byte[]           data;
+    private final @Nullable File             file;
+    private final @Nullable AttachmentSecret attachmentSecret;
+    private final           long             size;
+
+    private MemoryBlob(@NonNull byte[] data) {
+      this.data             = data;
+      this.file             = null;
+      this.attachmentSecret = null;
+      this.size             = data.length;
+    }
+
+    private MemoryBlob(@NonNull File file, @NonNull AttachmentSecret attachmentSecret, long size) {
+      this.data             = null;
+      this.file             = file;
+      this.attachmentSecret = attachmentSecret;
+      this.size             = size;
+    }
+
+    private @NonNull InputStream open() throws IOException {
+      if (data != null) return new ByteArrayInputStream(data);
+      //noinspection ConstantConditions
+      return ModernDecryptingPartInputStream.createFor(attachmentSecret, file, 0);
+    }
+  }
+
+  private static class SpillStorage {
+
+    private final File             directory;
+    private final AttachmentSecret attachmentSecret;
+
+    private SpillStorage(@NonNull File directory, @NonNull AttachmentSecret attachmentSecret) {
+      this.directory        = directory;
+      this.attachmentSecret = attachmentSecret;
+    }
+  }
+
   public interface ErrorListener {
     @WorkerThread
     void onError(IOException e);
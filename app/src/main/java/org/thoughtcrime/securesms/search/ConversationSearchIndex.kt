@@ -0,0 +1,123 @@
+package org.thoughtcrime.securesms.search
+
+import android.content.Context
+import android.database.ContentObserver
+import org.session.libsession.messaging.contacts.Contact
+import org.session.libsession.utilities.DelimiterUtil
+import org.session.libsession.utilities.GroupRecord
+import org.session.libsession.utilities.TextSecurePreferences
+import org.thoughtcrime.securesms.database.DatabaseContentProviders
+import org.thoughtcrime.securesms.database.ThreadDatabase
+import org.thoughtcrime.securesms.dependencies.DatabaseComponent
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * The contacts and groups search looks through, kept in memory so that typing doesn't query the
+ * contacts, threads and groups for every keystroke. Read on first use, and again after the
+ * conversation list changes.
+ *
+ * Matches what the queries it replaced did: contacts whose name or nickname contains the query,
+ * or whose session ID starts with it, and groups whose title contains the query or which have one
+ * of those contacts as a member. Only conversations which exist are returned, in the order of the
+ * conversation list.
+ */
+class ConversationSearchIndex private constructor(private val context: Context) {
+
+    companion object {
+        @Volatile
+        private var instance: ConversationSearchIndex? = null
+
+        @JvmStatic
+        fun getInstance(context: Context): ConversationSearchIndex =
+            instance ?: synchronized(this) {
+                instance ?: ConversationSearchIndex(context.applicationContext).also { instance = it }
+            }
+    }
+
+    class Result(val contacts: List<Contact>, val groups: List<GroupRecord>)
+
+    private class ThreadEntry(val id: Long, val address: String, val hasMessages: Boolean)
+
+    private class GroupEntry(val record: GroupRecord, val title: String, val members: Set<String>)
+
+    private class Snapshot(
+        val version: Int,
+        /** In the order of the conversation list. */
+        val threads: List<ThreadEntry>,
+        val contacts: Map<String, Contact>,
+        val searchableNames: Map<String, List<String>>,
+        val groups: Map<String, GroupEntry>
+    )
+
+    private val version = AtomicInteger()
+    @Volatile
+    private var snapshot: Snapshot? = null
+
+    init {
+        context.contentResolver.registerContentObserver(DatabaseContentProviders.ConversationList.CONTENT_URI, true, object : ContentObserver(null) {
+            override fun onChange(selfChange: Boolean) {
+                version.incrementAndGet()
+            }
+        })
+    }
+
+    fun search(query: String): Result {
+        val snapshot = getSnapshot()
+        val lowercaseQuery = query.toLowerCase()
+        val matchingContacts = snapshot.searchableNames.filterValues { names -> names.any { it.contains(lowercaseQuery) } }.keys
+
+        val contacts = ArrayList<Contact>()
+        val groups = ArrayList<GroupRecord>()
+        val localNumber = TextSecurePreferences.getLocalNumber(context)
+        for (thread in snapshot.threads) {
+            val group = snapshot.groups[thread.address]
+            if (group != null) {
+                if (group.title.contains(lowercaseQuery) || group.members.any { it != localNumber && matchingContacts.contains(it) }) {
+                    groups += group.record
+                }
+            } else if (matchingContacts.contains(thread.address) || (thread.hasMessages && thread.address.startsWith(query, ignoreCase = true))) {
+                contacts += snapshot.contacts[thread.address] ?: Contact(thread.address).apply { threadID = thread.id }
+            }
+        }
+        return Result(contacts, groups)
+    }
+
+    private fun getSnapshot(): Snapshot {
+        snapshot?.takeIf { it.version == version.get() }?.let { return it }
+        synchronized(this) {
+            snapshot?.takeIf { it.version == version.get() }?.let { return it }
+            return read().also { snapshot = it }
+        }
+    }
+
+    private fun read(): Snapshot {
+        // Taken first, so a change while reading leads to reading again next time
+        val readVersion = version.get()
+        val databases = DatabaseComponent.get(context)
+
+        val threads = ArrayList<ThreadEntry>()
+        databases.threadDatabase().threadAddresses.use { cursor ->
+            while (cursor.moveToNext()) {
+                threads += ThreadEntry(
+                    cursor.getLong(cursor.getColumnIndexOrThrow(ThreadDatabase.ID)),
+                    cursor.getString(cursor.getColumnIndexOrThrow(ThreadDatabase.ADDRESS)),
+                    cursor.getLong(cursor.getColumnIndexOrThrow(ThreadDatabase.MESSAGE_COUNT)) != 0L
+                )
+            }
+        }
+
+        val contacts = databases.sessionContactDatabase().getAllContacts().associateBy { it.sessionID }
+        val searchableNames = contacts.mapValues { (_, contact) -> listOfNotNull(contact.name, contact.nickname).map { it.toLowerCase() } }
+
+        val groups = HashMap<String, GroupEntry>()
+        databases.groupDatabase().groups.use { reader ->
+            var record = reader.next
+            while (record != null) {
+                // Group threads are stored under their escaped id
+                groups[DelimiterUtil.escape(record.encodedId, ' ')] = GroupEntry(record, record.title.toLowerCase(), record.members.map { it.serialize() }.toSet())
+                record = reader.next
+            }
+        }
+        return Snapshot(readVersion, threads, contacts, searchableNames, groups)
+    }
+}
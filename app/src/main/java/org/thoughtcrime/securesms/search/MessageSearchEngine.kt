@@ -0,0 +1,99 @@
+package org.thoughtcrime.securesms.search
+
+import android.content.Context
+import android.os.CancellationSignal
+import org.thoughtcrime.securesms.database.SearchDatabase
+import org.thoughtcrime.securesms.search.model.MessageResult
+
+/**
+ * Searches all messages, best match first, a page at a time.
+ *
+ * A search only reads the full-text index, ranking the matches by bm25 and keeping the ids of the
+ * best [MAX_RESULTS]; the messages themselves and their snippets are read for a page of those at a
+ * time. When a query refines the previous one (eg. a letter was typed), the previous one found
+ * all of its matches and no message arrived in between, only those are searched again.
+ */
+class MessageSearchEngine(private val context: Context, private val searchDatabase: SearchDatabase) {
+
+    companion object {
+        const val MAX_RESULTS = 500
+        const val PAGE_SIZE = 50
+
+        private val whitespace = Regex("\\s+")
+
+        /**
+         * Whether everything [query] matches is matched by [previous] too: each term of [previous]
+         * is a prefix of the term in the same place in [query], which may have more of them.
+         */
+        fun refines(previous: List<String>, query: List<String>): Boolean {
+            if (previous.isEmpty() || query.size < previous.size) return false
+            return previous.indices.all { query[it].startsWith(previous[it], ignoreCase = true) }
+        }
+
+        fun tokenize(query: String): List<String> = query.trim().split(whitespace).filter { it.isNotEmpty() }
+    }
+
+    internal class Match(val id: Long, val isMms: Boolean)
+
+    /**
+     * The ranked matches of a query.
+     *
+     * @param latestMessageIds What [SearchDatabase.getLatestMessageIds] returned before searching.
+     */
+    class Matches internal constructor(
+        val query: String,
+        internal val tokens: List<String>,
+        private val matches: List<Match>,
+        internal val isComplete: Boolean,
+        internal val latestMessageIds: LongArray
+    ) {
+        val size get() = matches.size
+
+        internal fun page(offset: Int, count: Int) = matches.subList(minOf(offset, size), minOf(offset + count, size))
+
+        internal fun candidates(isMms: Boolean) = matches.filter { it.isMms == isMms }.map { it.id }.toLongArray()
+    }
+
+    @Volatile
+    private var previous: Matches? = null
+
+    /** Finds and ranks the messages matching [query], which must already be sanitized. */
+    fun search(query: String, cancellationSignal: CancellationSignal?): Matches {
+        val tokens = tokenize(query)
+        // Read first, so a message stored during the search makes the next one search everything
+        val latestMessageIds = searchDatabase.latestMessageIds
+        val previous = previous?.takeIf {
+            it.isComplete && it.latestMessageIds.contentEquals(latestMessageIds) && refines(it.tokens, tokens)
+        }
+        val found = ArrayList<Match>()
+        searchDatabase.queryRankedMessageIds(query, previous?.candidates(false), previous?.candidates(true), MAX_RESULTS + 1, cancellationSignal)?.use { cursor ->
+            val idColumn = cursor.getColumnIndexOrThrow(SearchDatabase.MESSAGE_ID)
+            val isMmsColumn = cursor.getColumnIndexOrThrow(SearchDatabase.IS_MMS)
+            while (cursor.moveToNext()) found += Match(cursor.getLong(idColumn), cursor.getInt(isMmsColumn) == 1)
+        }
+        val isComplete = found.size <= MAX_RESULTS
+        return Matches(query, tokens, if (isComplete) found else found.subList(0, MAX_RESULTS), isComplete, latestMessageIds)
+            .also { this.previous = it }
+    }
+
+    /**
+     * Reads up to [count] of [matches] from [offset], in rank order. Messages which were deleted
+     * since the search are left out.
+     */
+    fun getMessages(matches: Matches, offset: Int, count: Int, cancellationSignal: CancellationSignal?): List<MessageResult> {
+        val page = matches.page(offset, count)
+        if (page.isEmpty()) return listOf()
+        val smsIds = page.filter { !it.isMms }.map { it.id }.toLongArray()
+        val mmsIds = page.filter { it.isMms }.map { it.id }.toLongArray()
+        val results = HashMap<Pair<Long, Boolean>, MessageResult>()
+        searchDatabase.queryMessagesById(matches.query, smsIds, mmsIds, cancellationSignal)?.use { cursor ->
+            val builder = SearchRepository.MessageModelBuilder(context)
+            val idColumn = cursor.getColumnIndexOrThrow(SearchDatabase.MESSAGE_ID)
+            val isMmsColumn = cursor.getColumnIndexOrThrow(SearchDatabase.IS_MMS)
+            while (cursor.moveToNext()) {
+                results[cursor.getLong(idColumn) to (cursor.getInt(isMmsColumn) == 1)] = builder.build(cursor)
+            }
+        }
+        return page.mapNotNull { results[it.id to it.isMms] }
+    }
+}
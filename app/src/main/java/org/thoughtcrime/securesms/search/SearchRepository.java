@@ -3,38 +3,30 @@ package org.thoughtcrime.securesms.search;
 import android.content.Context;
 import android.database.Cursor;
 import android.database.DatabaseUtils;
-import android.database.MergeCursor;
+import android.os.CancellationSignal;
+import android.os.OperationCanceledException;
 import android.text.TextUtils;
 
 import androidx.annotation.NonNull;
 
-import com.annimon.stream.Stream;
+import net.zetetic.database.sqlcipher.SQLiteException;
 
-import org.session.libsession.messaging.contacts.Contact;
 import org.session.libsession.utilities.Address;
-import org.session.libsession.utilities.GroupRecord;
-import org.session.libsession.utilities.TextSecurePreferences;
 import org.session.libsession.utilities.recipients.Recipient;
 import org.session.libsignal.utilities.Log;
-import org.thoughtcrime.securesms.contacts.ContactAccessor;
 import org.thoughtcrime.securesms.database.CursorList;
-import org.thoughtcrime.securesms.database.GroupDatabase;
 import org.thoughtcrime.securesms.database.MmsSmsColumns;
 import org.thoughtcrime.securesms.database.SearchDatabase;
-import org.thoughtcrime.securesms.database.SessionContactDatabase;
-import org.thoughtcrime.securesms.database.ThreadDatabase;
-import org.thoughtcrime.securesms.database.model.ThreadRecord;
 import org.thoughtcrime.securesms.search.model.MessageResult;
 import org.thoughtcrime.securesms.search.model.SearchResult;
 import org.thoughtcrime.securesms.util.Stopwatch;
 
-import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 import java.util.concurrent.Executor;
-
-import kotlin.Pair;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Manages data retrieval for search.
@@ -60,141 +52,147 @@ public class SearchRepository {
     }
   }
 
-  private final Context                context;
-  private final SearchDatabase         searchDatabase;
-  private final ThreadDatabase         threadDatabase;
-  private final GroupDatabase          groupDatabase;
-  private final SessionContactDatabase contactDatabase;
-  private final ContactAccessor        contactAccessor;
-  private final Executor               executor;
+  private final Context                            context;
+  private final SearchDatabase                     searchDatabase;
+  private final MessageSearchEngine                messageSearchEngine;
+  private final ConversationSearchIndex            conversationSearchIndex;
+  private final Executor                           executor;
+  private final AtomicReference<CancellationSignal> currentSearch       = new AtomicReference<>();
+  private final AtomicReference<CancellationSignal> currentThreadSearch = new AtomicReference<>();
 
   public SearchRepository(@NonNull Context context,
                           @NonNull SearchDatabase searchDatabase,
-                          @NonNull ThreadDatabase threadDatabase,
-                          @NonNull GroupDatabase groupDatabase,
-                          @NonNull SessionContactDatabase contactDatabase,
-                          @NonNull ContactAccessor contactAccessor,
                           @NonNull Executor executor)
   {
-    this.context          = context.getApplicationContext();
-    this.searchDatabase   = searchDatabase;
-    this.threadDatabase   = threadDatabase;
-    this.groupDatabase    = groupDatabase;
-    this.contactDatabase  = contactDatabase;
-    this.contactAccessor  = contactAccessor;
-    this.executor         = executor;
+    this.context                 = context.getApplicationContext();
+    this.searchDatabase          = searchDatabase;
+    this.messageSearchEngine     = new MessageSearchEngine(this.context, searchDatabase);
+    this.conversationSearchIndex = ConversationSearchIndex.getInstance(this.context);
+    this.executor                = executor;
   }
 
-  public void query(@NonNull String query, @NonNull Callback<SearchResult> callback) {
+  /**
+   * Searches contacts, groups and the first page of messages. Starting another search cancels
+   * this one, whose callback then isn't called, as does cancelling the returned signal.
+   */
+  public @NonNull CancellationSignal query(@NonNull String query, @NonNull Callback<SearchResult> callback) {
+    CancellationSignal cancellationSignal = supersede(currentSearch);
+
     if (TextUtils.isEmpty(query)) {
       callback.onResult(SearchResult.EMPTY);
-      return;
+      return cancellationSignal;
     }
 
     executor.execute(() -> {
-      Stopwatch timer = new Stopwatch("FtsQuery");
+      if (cancellationSignal.isCanceled()) return;
 
-      String cleanQuery = sanitizeQuery(query);
-      timer.split("clean");
+      try {
+        Stopwatch timer = new Stopwatch("FtsQuery");
+
+        String cleanQuery = sanitizeQuery(query);
+        timer.split("clean");
+
+        if (cleanQuery.trim().isEmpty()) {
+          callback.onResult(SearchResult.EMPTY);
+          return;
+        }
+
+        ConversationSearchIndex.Result conversations = conversationSearchIndex.search(cleanQuery);
+        timer.split("contacts");
+
+        MessageSearchEngine.Matches matches;
+        List<MessageResult>         messages;
+        try {
+          matches = messageSearchEngine.search(cleanQuery, cancellationSignal);
+          timer.split("messages");
+
+          messages = messageSearchEngine.getMessages(matches, 0, MessageSearchEngine.PAGE_SIZE, cancellationSignal);
+          timer.split("page");
+        } catch (SQLiteException e) {
+          Log.w(TAG, "Message search failed", e);
+          callback.onResult(new SearchResult(cleanQuery, conversations.getContacts(), conversations.getGroups(), Collections.emptyList(), null, 0));
+          return;
+        }
+
+        timer.stop(TAG);
+
+        callback.onResult(new SearchResult(cleanQuery, conversations.getContacts(), conversations.getGroups(), messages, matches, MessageSearchEngine.PAGE_SIZE));
+      } catch (OperationCanceledException e) {
+        Log.d(TAG, "Search superseded");
+      }
+    });
 
-      Pair<CursorList<Contact>, List<String>> contacts = queryContacts(cleanQuery);
-      timer.split("contacts");
+    return cancellationSignal;
+  }
 
-      CursorList<GroupRecord> conversations = queryConversations(cleanQuery, contacts.getSecond());
-      timer.split("conversations");
+  /** Reads the next page of the messages of {@code result}, returning it with them added. */
+  public @NonNull CancellationSignal loadMoreMessages(@NonNull SearchResult result, @NonNull Callback<SearchResult> callback) {
+    CancellationSignal          cancellationSignal = new CancellationSignal();
+    MessageSearchEngine.Matches matches            = result.getMessageMatches();
 
-      CursorList<MessageResult> messages = queryMessages(cleanQuery);
-      timer.split("messages");
+    if (matches == null || !result.hasMoreMessages()) {
+      callback.onResult(result);
+      return cancellationSignal;
+    }
 
-      timer.stop(TAG);
+    executor.execute(() -> {
+      if (cancellationSignal.isCanceled()) return;
 
-      callback.onResult(new SearchResult(cleanQuery, contacts.getFirst(), conversations, messages));
+      try {
+        List<MessageResult> messages = messageSearchEngine.getMessages(matches, result.getMessagesRead(), MessageSearchEngine.PAGE_SIZE, cancellationSignal);
+        callback.onResult(result.withMoreMessages(messages, MessageSearchEngine.PAGE_SIZE));
+      } catch (OperationCanceledException e) {
+        Log.d(TAG, "Loading more messages cancelled");
+      } catch (SQLiteException e) {
+        Log.w(TAG, "Loading more messages failed", e);
+        // Without any more, so the list stops asking for them
+        callback.onResult(result.withMoreMessages(Collections.emptyList(), matches.getSize() - result.getMessagesRead()));
+      }
     });
+
+    return cancellationSignal;
   }
 
+  /** Searches the messages of a thread, newest first. Starting another search cancels this one. */
   public void query(@NonNull String query, long threadId, @NonNull Callback<CursorList<MessageResult>> callback) {
+    CancellationSignal cancellationSignal = supersede(currentThreadSearch);
+
     if (TextUtils.isEmpty(query)) {
       callback.onResult(CursorList.emptyList());
       return;
     }
 
     executor.execute(() -> {
-      long startTime = System.currentTimeMillis();
-      CursorList<MessageResult> messages = queryMessages(sanitizeQuery(query), threadId);
-      Log.d(TAG, "[ConversationQuery] " + (System.currentTimeMillis() - startTime) + " ms");
-
-      callback.onResult(messages);
-    });
-  }
-
-  private Pair<CursorList<Contact>, List<String>> queryContacts(String query) {
-
-    Cursor contacts = contactDatabase.queryContactsByName(query);
-    List<Address> contactList = new ArrayList<>();
-    List<String> contactStrings = new ArrayList<>();
+      if (cancellationSignal.isCanceled()) return;
 
-    while (contacts.moveToNext()) {
+      long   startTime = System.currentTimeMillis();
+      Cursor cursor    = null;
       try {
-        Contact contact = contactDatabase.contactFromCursor(contacts);
-        String contactSessionId = contact.getSessionID();
-        Address address = Address.fromSerialized(contactSessionId);
-        contactList.add(address);
-        contactStrings.add(contactSessionId);
-      } catch (Exception e) {
-        Log.e("Loki", "Error building Contact from cursor in query", e);
+        cursor = searchDatabase.queryMessages(sanitizeQuery(query), threadId, cancellationSignal);
+        // Run the query here, where it can still be cancelled
+        cursor.getCount();
+      } catch (OperationCanceledException e) {
+        if (cursor != null) cursor.close();
+        Log.d(TAG, "[ConversationQuery] superseded");
+        return;
+      } catch (SQLiteException e) {
+        if (cursor != null) cursor.close();
+        Log.w(TAG, "[ConversationQuery] failed", e);
+        callback.onResult(CursorList.emptyList());
+        return;
       }
-    }
-
-    contacts.close();
-
-    Cursor addressThreads = threadDatabase.searchConversationAddresses(query);
-    Cursor individualRecipients = threadDatabase.getFilteredConversationList(contactList);
-    if (individualRecipients == null && addressThreads == null) {
-      return new Pair<>(CursorList.emptyList(),contactStrings);
-    }
-    MergeCursor merged = new MergeCursor(new Cursor[]{addressThreads, individualRecipients});
-
-    return new Pair<>(new CursorList<>(merged, new ContactModelBuilder(contactDatabase, threadDatabase)), contactStrings);
-
-  }
-
-  private CursorList<GroupRecord> queryConversations(@NonNull String query, List<String> matchingAddresses) {
-    List<String>  numbers   = contactAccessor.getNumbersForThreadSearchFilter(context, query);
-    String localUserNumber = TextSecurePreferences.getLocalNumber(context);
-    if (localUserNumber != null) {
-      matchingAddresses.remove(localUserNumber);
-    }
-    Set<Address> addresses = new HashSet<>(Stream.of(numbers).map(number -> Address.fromExternal(context, number)).toList());
-
-    Cursor membersGroupList = groupDatabase.getGroupsFilteredByMembers(matchingAddresses);
-    if (membersGroupList != null) {
-      GroupDatabase.Reader reader = new GroupDatabase.Reader(membersGroupList);
-      while (membersGroupList.moveToNext()) {
-        GroupRecord record = reader.getCurrent();
-        if (record == null) continue;
-
-        addresses.add(Address.fromSerialized(record.getEncodedId()));
-      }
-      membersGroupList.close();
-    }
-
-
-    Cursor conversations = threadDatabase.getFilteredConversationList(new ArrayList<>(addresses));
-
-    return conversations != null ? new CursorList<>(conversations, new GroupModelBuilder(threadDatabase, groupDatabase))
-            : CursorList.emptyList();
-  }
+      CursorList<MessageResult> messages = new CursorList<>(cursor, new MessageModelBuilder(context));
+      Log.d(TAG, "[ConversationQuery] " + (System.currentTimeMillis() - startTime) + " ms");
 
-  private CursorList<MessageResult> queryMessages(@NonNull String query) {
-    Cursor messages = searchDatabase.queryMessages(query);
-    return messages != null ? new CursorList<>(messages, new MessageModelBuilder(context))
-                            : CursorList.emptyList();
+      callback.onResult(messages);
+    });
   }
 
-  private CursorList<MessageResult> queryMessages(@NonNull String query, long threadId) {
-    Cursor messages = searchDatabase.queryMessages(query, threadId);
-    return messages != null ? new CursorList<>(messages, new MessageModelBuilder(context))
-                            : CursorList.emptyList();
+  private static @NonNull CancellationSignal supersede(@NonNull AtomicReference<CancellationSignal> current) {
+    CancellationSignal cancellationSignal = new CancellationSignal();
+    CancellationSignal previous           = current.getAndSet(cancellationSignal);
+    if (previous != null) previous.cancel();
+    return cancellationSignal;
   }
 
   /**
@@ -219,74 +217,7 @@ public class SearchRepository {
     return out.toString();
   }
 
-  private static class ContactModelBuilder implements CursorList.ModelBuilder<Contact> {
-
-    private final SessionContactDatabase contactDb;
-    private final ThreadDatabase threadDb;
-
-    public ContactModelBuilder(SessionContactDatabase contactDb, ThreadDatabase threadDb) {
-      this.contactDb = contactDb;
-      this.threadDb = threadDb;
-    }
-
-    @Override
-    public Contact build(@NonNull Cursor cursor) {
-      ThreadRecord threadRecord = threadDb.readerFor(cursor).getCurrent();
-      Contact contact = contactDb.getContactWithSessionID(threadRecord.getRecipient().getAddress().serialize());
-      if (contact == null) {
-        contact = new Contact(threadRecord.getRecipient().getAddress().serialize());
-        contact.setThreadID(threadRecord.getThreadId());
-      }
-      return contact;
-    }
-  }
-
-  private static class RecipientModelBuilder implements CursorList.ModelBuilder<Recipient> {
-
-    private final Context context;
-
-    RecipientModelBuilder(@NonNull Context context) {
-      this.context = context;
-    }
-
-    @Override
-    public Recipient build(@NonNull Cursor cursor) {
-      Address address = Address.fromExternal(context, cursor.getString(1));
-      return Recipient.from(context, address, false);
-    }
-  }
-
-  private static class GroupModelBuilder implements CursorList.ModelBuilder<GroupRecord> {
-    private final ThreadDatabase threadDatabase;
-    private final GroupDatabase groupDatabase;
-
-    public GroupModelBuilder(ThreadDatabase threadDatabase, GroupDatabase groupDatabase) {
-      this.threadDatabase = threadDatabase;
-      this.groupDatabase = groupDatabase;
-    }
-
-    @Override
-    public GroupRecord build(@NonNull Cursor cursor) {
-      ThreadRecord threadRecord = threadDatabase.readerFor(cursor).getCurrent();
-      return groupDatabase.getGroup(threadRecord.getRecipient().getAddress().toGroupString()).get();
-    }
-  }
-
-  private static class ThreadModelBuilder implements CursorList.ModelBuilder<ThreadRecord> {
-
-    private final ThreadDatabase threadDatabase;
-
-    ThreadModelBuilder(@NonNull ThreadDatabase threadDatabase) {
-      this.threadDatabase = threadDatabase;
-    }
-
-    @Override
-    public ThreadRecord build(@NonNull Cursor cursor) {
-      return threadDatabase.readerFor(cursor).getCurrent();
-    }
-  }
-
-  private static class MessageModelBuilder implements CursorList.ModelBuilder<MessageResult> {
+  static class MessageModelBuilder implements CursorList.ModelBuilder<MessageResult> {
 
     private final Context context;
 
@@ -1,38 +1,44 @@
 package org.thoughtcrime.securesms.search.model;
 
-import android.database.ContentObserver;
-
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 
 import org.session.libsession.messaging.contacts.Contact;
 import org.session.libsession.utilities.GroupRecord;
-import org.thoughtcrime.securesms.database.CursorList;
-import org.thoughtcrime.securesms.database.model.ThreadRecord;
+import org.thoughtcrime.securesms.search.MessageSearchEngine;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 /**
  * Represents an all-encompassing search result that can contain various result for different
- * subcategories.
+ * subcategories. Messages are read a page at a time, see {@link #hasMoreMessages()}.
  */
 public class SearchResult {
 
-  public static final SearchResult EMPTY = new SearchResult("", CursorList.emptyList(), CursorList.emptyList(), CursorList.emptyList());
-
-  private final String                    query;
-  private final CursorList<Contact>     contacts;
-  private final CursorList<GroupRecord>  conversations;
-  private final CursorList<MessageResult> messages;
-
-  public SearchResult(@NonNull String                    query,
-                      @NonNull CursorList<Contact>     contacts,
-                      @NonNull CursorList<GroupRecord>  conversations,
-                      @NonNull CursorList<MessageResult> messages)
+  public static final SearchResult EMPTY = new SearchResult("", Collections.emptyList(), Collections.emptyList(), Collections.emptyList(), null, 0);
+
+  private final String                        query;
+  private final List<Contact>                 contacts;
+  private final List<GroupRecord>             conversations;
+  private final List<MessageResult>           messages;
+  private final MessageSearchEngine.Matches   messageMatches;
+  private final int                           messagesRead;
+
+  public SearchResult(@NonNull String                       query,
+                      @NonNull List<Contact>                contacts,
+                      @NonNull List<GroupRecord>            conversations,
+                      @NonNull List<MessageResult>          messages,
+                      @Nullable MessageSearchEngine.Matches messageMatches,
+                      int                                   messagesRead)
   {
-    this.query         = query;
-    this.contacts      = contacts;
-    this.conversations = conversations;
-    this.messages      = messages;
+    this.query          = query;
+    this.contacts       = contacts;
+    this.conversations  = conversations;
+    this.messages       = messages;
+    this.messageMatches = messageMatches;
+    this.messagesRead   = messagesRead;
   }
 
   public List<Contact> getContacts() {
@@ -59,21 +65,23 @@ public class SearchResult {
     return size() == 0;
   }
 
-  public void registerContentObserver(@NonNull ContentObserver observer) {
-    contacts.registerContentObserver(observer);
-    conversations.registerContentObserver(observer);
-    messages.registerContentObserver(observer);
+  public @Nullable MessageSearchEngine.Matches getMessageMatches() {
+    return messageMatches;
+  }
+
+  /** How many of the matching messages have been read, including any left out as deleted. */
+  public int getMessagesRead() {
+    return messagesRead;
   }
 
-  public void unregisterContentObserver(@NonNull ContentObserver observer) {
-    contacts.unregisterContentObserver(observer);
-    conversations.unregisterContentObserver(observer);
-    messages.unregisterContentObserver(observer);
+  public boolean hasMoreMessages() {
+    return messageMatches != null && messagesRead < messageMatches.getSize();
   }
 
-  public void close() {
-    contacts.close();
-    conversations.close();
-    messages.close();
+  public @NonNull SearchResult withMoreMessages(@NonNull List<MessageResult> moreMessages, int read) {
+    List<MessageResult> allMessages = new ArrayList<>(messages.size() + moreMessages.size());
+    allMessages.addAll(messages);
+    allMessages.addAll(moreMessages);
+    return new SearchResult(query, contacts, conversations, allMessages, messageMatches, messagesRead + read);
   }
 }
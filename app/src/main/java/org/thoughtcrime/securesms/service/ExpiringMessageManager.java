@@ -15,34 +15,39 @@ import org.session.libsignal.messages.SignalServiceGroup;
 import org.session.libsignal.utilities.Log;
 import org.session.libsignal.utilities.guava.Optional;
 import org.thoughtcrime.securesms.database.MmsDatabase;
+import org.thoughtcrime.securesms.database.MmsSmsDatabase;
 import org.thoughtcrime.securesms.database.SmsDatabase;
 import org.thoughtcrime.securesms.database.model.MessageRecord;
 import org.thoughtcrime.securesms.dependencies.DatabaseComponent;
 import org.thoughtcrime.securesms.mms.MmsException;
 
 import java.io.IOException;
-import java.util.Comparator;
-import java.util.TreeSet;
 import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 public class ExpiringMessageManager implements SSKEnvironment.MessageExpirationManagerProtocol {
 
   private static final String TAG = ExpiringMessageManager.class.getSimpleName();
 
-  private final TreeSet<ExpiringMessageReference> expiringMessageReferences = new TreeSet<>(new ExpiringMessageComparator());
-  private final Executor                          executor                  = Executors.newSingleThreadExecutor();
+  private static final long RETRY_DELAY = TimeUnit.SECONDS.toMillis(30);
 
-  private final SmsDatabase smsDatabase;
-  private final MmsDatabase mmsDatabase;
-  private final Context     context;
+  private final Object   lock     = new Object();
+  private final Executor executor = Executors.newSingleThreadExecutor();
+
+  private final SmsDatabase    smsDatabase;
+  private final MmsDatabase    mmsDatabase;
+  private final MmsSmsDatabase mmsSmsDatabase;
+  private final Context        context;
+
+  private boolean scheduleChanged = false;
 
   public ExpiringMessageManager(Context context) {
-    this.context     = context.getApplicationContext();
-    this.smsDatabase = DatabaseComponent.get(context).smsDatabase();
-    this.mmsDatabase = DatabaseComponent.get(context).mmsDatabase();
+    this.context        = context.getApplicationContext();
+    this.smsDatabase    = DatabaseComponent.get(context).smsDatabase();
+    this.mmsDatabase    = DatabaseComponent.get(context).mmsDatabase();
+    this.mmsSmsDatabase = DatabaseComponent.get(context).mmsSmsDatabase();
 
-    executor.execute(new LoadTask());
     executor.execute(new ProcessTask());
   }
 
@@ -51,17 +56,15 @@ public class ExpiringMessageManager implements SSKEnvironment.MessageExpirationM
   }
 
   public void scheduleDeletion(long id, boolean mms, long startedAtTimestamp, long expiresInMillis) {
-    long expiresAtMillis = startedAtTimestamp + expiresInMillis;
-
-    synchronized (expiringMessageReferences) {
-      expiringMessageReferences.add(new ExpiringMessageReference(id, mms, expiresAtMillis));
-      expiringMessageReferences.notifyAll();
-    }
+    // The expiry has already been written to the database by the caller, the processing thread only
+    // needs to re-read when the next message is due
+    checkSchedule();
   }
 
   public void checkSchedule() {
-    synchronized (expiringMessageReferences) {
-      expiringMessageReferences.notifyAll();
+    synchronized (lock) {
+      scheduleChanged = true;
+      lock.notifyAll();
     }
   }
 
@@ -177,102 +180,44 @@ public class ExpiringMessageManager implements SSKEnvironment.MessageExpirationM
     }
   }
 
-  private class LoadTask implements Runnable {
-
-    public void run() {
-      SmsDatabase.Reader smsReader = smsDatabase.readerFor(smsDatabase.getExpirationStartedMessages());
-      MmsDatabase.Reader mmsReader = mmsDatabase.getExpireStartedMessages();
-
-      MessageRecord messageRecord;
-
-      while ((messageRecord = smsReader.getNext()) != null) {
-        expiringMessageReferences.add(new ExpiringMessageReference(messageRecord.getId(),
-                                                                   messageRecord.isMms(),
-                                                                   messageRecord.getExpireStarted() + messageRecord.getExpiresIn()));
-      }
-
-      while ((messageRecord = mmsReader.getNext()) != null) {
-        expiringMessageReferences.add(new ExpiringMessageReference(messageRecord.getId(),
-                                                                   messageRecord.isMms(),
-                                                                   messageRecord.getExpireStarted() + messageRecord.getExpiresIn()));
-      }
-
-      smsReader.close();
-      mmsReader.close();
-    }
-  }
-
   @SuppressWarnings("InfiniteLoopStatement")
   private class ProcessTask implements Runnable {
     public void run() {
       while (true) {
-        ExpiringMessageReference expiredMessage = null;
+        long now = System.currentTimeMillis();
+        long next;
+
+        try {
+          int deleted = mmsSmsDatabase.deleteExpiredMessages(now);
+          if (deleted > 0) Log.i(TAG, "Deleted " + deleted + " expired messages in " + (System.currentTimeMillis() - now) + "ms.");
+          next = mmsSmsDatabase.getNextExpiration();
+        } catch (Exception e) {
+          Log.w(TAG, "Failed to process expired messages.", e);
+          next = now + RETRY_DELAY;
+        }
 
-        synchronized (expiringMessageReferences) {
+        synchronized (lock) {
           try {
-            while (expiringMessageReferences.isEmpty()) expiringMessageReferences.wait();
-
-            ExpiringMessageReference nextReference = expiringMessageReferences.first();
-            long                     waitTime      = nextReference.expiresAtMillis - System.currentTimeMillis();
-
-            if (waitTime > 0) {
-              ExpirationListener.setAlarm(context, waitTime);
-              expiringMessageReferences.wait(waitTime);
-            } else {
-              expiredMessage = nextReference;
-              expiringMessageReferences.remove(nextReference);
+            if (!scheduleChanged) {
+              if (next == -1) {
+                lock.wait();
+              } else {
+                long waitTime = next - System.currentTimeMillis();
+
+                if (waitTime > 0) {
+                  ExpirationListener.setAlarm(context, waitTime);
+                  lock.wait(waitTime);
+                }
+              }
             }
 
+            scheduleChanged = false;
           } catch (InterruptedException e) {
             Log.w(TAG, e);
           }
         }
-
-        if (expiredMessage != null) {
-          if (expiredMessage.mms) mmsDatabase.deleteMessage(expiredMessage.id);
-          else                    smsDatabase.deleteMessage(expiredMessage.id);
-        }
       }
     }
   }
 
-  private static class ExpiringMessageReference {
-    private final long    id;
-    private final boolean mms;
-    private final long    expiresAtMillis;
-
-    private ExpiringMessageReference(long id, boolean mms, long expiresAtMillis) {
-      this.id = id;
-      this.mms = mms;
-      this.expiresAtMillis = expiresAtMillis;
-    }
-
-    @Override
-    public boolean equals(Object other) {
-      if (other == null) return false;
-      if (!(other instanceof ExpiringMessageReference)) return false;
-
-      ExpiringMessageReference that = (ExpiringMessageReference)other;
-      return this.id == that.id && this.mms == that.mms && this.expiresAtMillis == that.expiresAtMillis;
-    }
-
-    @Override
-    public int hashCode() {
-      return (int)this.id ^ (mms ? 1 : 0) ^ (int)expiresAtMillis;
-    }
-  }
-
-  private static class ExpiringMessageComparator implements Comparator<ExpiringMessageReference> {
-    @Override
-    public int compare(ExpiringMessageReference lhs, ExpiringMessageReference rhs) {
-      if      (lhs.expiresAtMillis < rhs.expiresAtMillis) return -1;
-      else if (lhs.expiresAtMillis > rhs.expiresAtMillis) return 1;
-      else if (lhs.id < rhs.id)                           return -1;
-      else if (lhs.id > rhs.id)                           return 1;
-      else if (!lhs.mms && rhs.mms)                       return -1;
-      else if (lhs.mms && !rhs.mms)                       return 1;
-      else                                                return 0;
-    }
-  }
-
 }
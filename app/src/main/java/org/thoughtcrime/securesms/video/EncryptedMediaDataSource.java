@@ -8,13 +8,10 @@ import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
 import org.thoughtcrime.securesms.crypto.AttachmentSecret;
-import org.thoughtcrime.securesms.crypto.ClassicDecryptingPartInputStream;
-import org.thoughtcrime.securesms.crypto.ModernDecryptingPartInputStream;
-import org.session.libsession.utilities.Util;
+import org.thoughtcrime.securesms.crypto.SeekableDecryptingPartReader;
 
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
 
 @TargetApi(Build.VERSION_CODES.M)
 public class EncryptedMediaDataSource extends MediaDataSource {
@@ -24,6 +21,8 @@ public class EncryptedMediaDataSource extends MediaDataSource {
   private final byte[]           random;
   private final long             length;
 
+  private SeekableDecryptingPartReader reader;
+
   public EncryptedMediaDataSource(@NonNull AttachmentSecret attachmentSecret, @NonNull File mediaFile, @Nullable byte[] random, long length) {
     this.attachmentSecret = attachmentSecret;
     this.mediaFile        = mediaFile;
@@ -32,38 +31,18 @@ public class EncryptedMediaDataSource extends MediaDataSource {
   }
 
   @Override
-  public int readAt(long position, byte[] bytes, int offset, int length) throws IOException {
-    if (random == null) return readAtClassic(position, bytes, offset, length);
-    else                return readAtModern(position, bytes, offset, length);
+  public synchronized int readAt(long position, byte[] bytes, int offset, int length) throws IOException {
+    if (length == 0) return 0;
+    return getReader().readAt(position, bytes, offset, length);
   }
 
-  private int readAtClassic(long position, byte[] bytes, int offset, int length) throws IOException {
-    InputStream inputStream     = ClassicDecryptingPartInputStream.createFor(attachmentSecret, mediaFile);
-    byte[]      buffer          = new byte[4096];
-    long        headerRemaining = position;
-
-    while (headerRemaining > 0) {
-      int read = inputStream.read(buffer, 0, Util.toIntExact(Math.min((long)buffer.length, headerRemaining)));
-
-      if (read == -1) return -1;
-
-      headerRemaining -= read;
+  private SeekableDecryptingPartReader getReader() throws IOException {
+    if (reader == null) {
+      if (random == null) reader = SeekableDecryptingPartReader.createForClassic(attachmentSecret, mediaFile, length);
+      else                reader = SeekableDecryptingPartReader.createFor(attachmentSecret, random, mediaFile, length);
     }
 
-    int returnValue = inputStream.read(bytes, offset, length);
-    inputStream.close();
-    return returnValue;
-  }
-
-  private int readAtModern(long position, byte[] bytes, int offset, int length) throws IOException {
-    assert(random != null);
-
-    InputStream inputStream = ModernDecryptingPartInputStream.createFor(attachmentSecret, random, mediaFile, position);
-    int         returnValue = inputStream.read(bytes, offset, length);
-
-    inputStream.close();
-
-    return returnValue;
+    return reader;
   }
 
   @Override
@@ -72,7 +51,10 @@ public class EncryptedMediaDataSource extends MediaDataSource {
   }
 
   @Override
-  public void close() throws IOException {
-
+  public synchronized void close() throws IOException {
+    if (reader != null) {
+      reader.close();
+      reader = null;
+    }
   }
 }
@@ -17,7 +17,6 @@
 package org.thoughtcrime.securesms.video;
 
 import android.content.Context;
-import android.os.Build;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import android.util.AttributeSet;
@@ -25,9 +24,6 @@ import android.view.View;
 import android.view.Window;
 import android.view.WindowManager;
 import android.widget.FrameLayout;
-import android.widget.MediaController;
-import android.widget.Toast;
-import android.widget.VideoView;
 
 import com.google.android.exoplayer2.DefaultLoadControl;
 import com.google.android.exoplayer2.ExoPlayerFactory;
@@ -48,9 +44,6 @@ import com.google.android.exoplayer2.upstream.BandwidthMeter;
 import com.google.android.exoplayer2.upstream.DefaultBandwidthMeter;
 import com.google.android.exoplayer2.upstream.DefaultDataSourceFactory;
 
-import org.thoughtcrime.securesms.attachments.AttachmentServer;
-import org.session.libsignal.utilities.Log;
-import org.thoughtcrime.securesms.mms.PartAuthority;
 import org.thoughtcrime.securesms.mms.VideoSlide;
 import org.session.libsession.utilities.ViewUtil;
 import org.thoughtcrime.securesms.video.exo.AttachmentDataSourceFactory;
@@ -63,12 +56,10 @@ public class VideoPlayer extends FrameLayout {
 
   private static final String TAG = VideoPlayer.class.getSimpleName();
 
-  @Nullable private final VideoView           videoView;
-  @Nullable private final PlayerView          exoView;
+  @NonNull  private final PlayerView          exoView;
+  @NonNull  private final PlayerControlView   exoControls;
 
   @Nullable private       SimpleExoPlayer     exoPlayer;
-  @Nullable private       PlayerControlView   exoControls;
-  @Nullable private       AttachmentServer    attachmentServer;
   @Nullable private       Window              window;
 
   public VideoPlayer(Context context) {
@@ -84,51 +75,32 @@ public class VideoPlayer extends FrameLayout {
 
     inflate(context, R.layout.video_player, this);
 
-    if (Build.VERSION.SDK_INT >= 16) {
-      this.exoView   = ViewUtil.findById(this, R.id.video_view);
-      this.videoView = null;
-      this.exoControls = new PlayerControlView(getContext());
-      this.exoControls.setShowTimeoutMs(-1);
-    } else {
-      this.videoView = ViewUtil.findById(this, R.id.video_view);
-      this.exoView   = null;
-      initializeVideoViewControls(videoView);
-    }
+    this.exoView     = ViewUtil.findById(this, R.id.video_view);
+    this.exoControls = new PlayerControlView(getContext());
+    this.exoControls.setShowTimeoutMs(-1);
   }
 
   public void setVideoSource(@NonNull VideoSlide videoSource, boolean autoplay)
       throws IOException
   {
-    if (Build.VERSION.SDK_INT >= 16) setExoViewSource(videoSource, autoplay);
-    else                             setVideoViewSource(videoSource, autoplay);
+    setExoViewSource(videoSource, autoplay);
   }
 
   public void pause() {
-    if (this.attachmentServer != null && this.videoView != null) {
-      this.videoView.stopPlayback();
-    } else if (this.exoPlayer != null) {
+    if (this.exoPlayer != null) {
       this.exoPlayer.setPlayWhenReady(false);
     }
   }
 
   public void hideControls() {
-    if (this.exoView != null) {
-      this.exoView.hideController();
-    }
+    this.exoView.hideController();
   }
 
   public @Nullable View getControlView() {
-    if (this.exoControls != null) {
-      return this.exoControls;
-    }
-    return null;
+    return this.exoControls;
   }
 
   public void cleanup() {
-    if (this.attachmentServer != null) {
-      this.attachmentServer.stop();
-    }
-
     if (this.exoPlayer != null) {
       this.exoPlayer.release();
     }
@@ -148,9 +120,7 @@ public class VideoPlayer extends FrameLayout {
 
     exoPlayer = ExoPlayerFactory.newSimpleInstance(getContext(), trackSelector, loadControl);
     exoPlayer.addListener(new ExoPlayerListener(window));
-    //noinspection ConstantConditions
     exoView.setPlayer(exoPlayer);
-    //noinspection ConstantConditions
     exoControls.setPlayer(exoPlayer);
 
     DefaultDataSourceFactory    defaultDataSourceFactory    = new DefaultDataSourceFactory(getContext(), "GenericUserAgent", null);
@@ -163,40 +133,6 @@ public class VideoPlayer extends FrameLayout {
     exoPlayer.setPlayWhenReady(autoplay);
   }
 
-  private void setVideoViewSource(@NonNull VideoSlide videoSource, boolean autoplay)
-    throws IOException
-  {
-    if (this.attachmentServer != null) {
-      this.attachmentServer.stop();
-    }
-
-    if (videoSource.getUri() != null && PartAuthority.isLocalUri(videoSource.getUri())) {
-      Log.i(TAG, "Starting video attachment server for part provider Uri...");
-      this.attachmentServer = new AttachmentServer(getContext(), videoSource.asAttachment());
-      this.attachmentServer.start();
-
-      //noinspection ConstantConditions
-      this.videoView.setVideoURI(this.attachmentServer.getUri());
-    } else if (videoSource.getUri() != null) {
-      Log.i(TAG, "Playing video directly from non-local Uri...");
-      //noinspection ConstantConditions
-      this.videoView.setVideoURI(videoSource.getUri());
-    } else {
-      Toast.makeText(getContext(), getContext().getString(R.string.VideoPlayer_error_playing_video), Toast.LENGTH_LONG).show();
-      return;
-    }
-
-    if (autoplay) this.videoView.start();
-  }
-
-  private void initializeVideoViewControls(@NonNull VideoView videoView) {
-    MediaController mediaController = new MediaController(getContext());
-    mediaController.setAnchorView(videoView);
-    mediaController.setMediaPlayer(videoView);
-
-    videoView.setMediaController(mediaController);
-  }
-
   private static class ExoPlayerListener extends Player.DefaultEventListener {
     private final Window window;
 
@@ -7,14 +7,15 @@ import android.net.Uri;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
+import com.google.android.exoplayer2.C;
 import com.google.android.exoplayer2.upstream.DataSource;
 import com.google.android.exoplayer2.upstream.DataSpec;
 import com.google.android.exoplayer2.upstream.TransferListener;
 
-import org.session.libsession.messaging.sending_receiving.attachments.Attachment;
-import org.thoughtcrime.securesms.database.AttachmentDatabase;
+import org.session.libsession.messaging.sending_receiving.attachments.AttachmentId;
+import org.thoughtcrime.securesms.crypto.SeekableDecryptingPartReader;
 import org.thoughtcrime.securesms.dependencies.DatabaseComponent;
-import org.thoughtcrime.securesms.mms.PartUriParser;
+import org.thoughtcrime.securesms.mms.PartAuthority;
 
 import java.io.EOFException;
 import java.io.IOException;
@@ -23,13 +24,24 @@ import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 
+/**
+ * Reads local attachments for ExoPlayer.
+ *
+ * Parts are read at the requested position straight from their encrypted file, so seeking only
+ * decrypts the blocks around the new position. Other local URIs, e.g. blobs of a draft, are small
+ * and plainly streamed.
+ */
 public class PartDataSource implements DataSource {
 
   private final @NonNull  Context          context;
   private final @Nullable TransferListener listener;
 
-  private Uri         uri;
-  private InputStream inputSteam;
+  private Uri                          uri;
+  private DataSpec                     dataSpec;
+  private SeekableDecryptingPartReader reader;
+  private InputStream                  inputStream;
+  private long                         position;
+  private long                         bytesRemaining;
 
   PartDataSource(@NonNull Context context, @Nullable TransferListener listener) {
     this.context  = context.getApplicationContext();
@@ -42,36 +54,71 @@ public class PartDataSource implements DataSource {
 
   @Override
   public long open(DataSpec dataSpec) throws IOException {
-    this.uri = dataSpec.uri;
-
-    AttachmentDatabase attachmentDatabase = DatabaseComponent.get(context).attachmentDatabase();
-    PartUriParser      partUri            = new PartUriParser(uri);
-    Attachment         attachment         = attachmentDatabase.getAttachment(partUri.getPartId());
+    this.uri      = dataSpec.uri;
+    this.dataSpec = dataSpec;
+    this.position = dataSpec.position;
+
+    AttachmentId partId = PartAuthority.getAttachmentId(uri);
+    long         length;
+
+    if (partId != null) {
+      this.reader = DatabaseComponent.get(context).attachmentDatabase().getAttachmentReader(partId);
+      length      = reader.getLength();
+    } else {
+      this.inputStream = PartAuthority.getAttachmentStream(context, uri);
+      Long size        = PartAuthority.getAttachmentSize(context, uri);
+      length           = size != null ? size : C.LENGTH_UNSET;
+
+      skipFully(inputStream, dataSpec.position);
+    }
 
-    if (attachment == null) throw new IOException("Attachment not found");
+    if (length != C.LENGTH_UNSET && length - dataSpec.position <= 0) throw new EOFException("No more data");
 
-    this.inputSteam = attachmentDatabase.getAttachmentStream(partUri.getPartId(), dataSpec.position);
+    if      (dataSpec.length != C.LENGTH_UNSET) bytesRemaining = dataSpec.length;
+    else if (length != C.LENGTH_UNSET)          bytesRemaining = length - dataSpec.position;
+    else                                        bytesRemaining = C.LENGTH_UNSET;
 
     if (listener != null) {
       listener.onTransferStart(this, dataSpec, false);
     }
 
-    if (attachment.getSize() - dataSpec.position <= 0) throw new EOFException("No more data");
-
-    return attachment.getSize() - dataSpec.position;
+    return bytesRemaining;
   }
 
   @Override
   public int read(byte[] buffer, int offset, int readLength) throws IOException {
-    int read = inputSteam.read(buffer, offset, readLength);
+    if (readLength == 0)     return 0;
+    if (bytesRemaining == 0) return C.RESULT_END_OF_INPUT;
+
+    int count = bytesRemaining == C.LENGTH_UNSET ? readLength : (int) Math.min(readLength, bytesRemaining);
+    int read  = reader != null ? reader.readAt(position, buffer, offset, count)
+                               : inputStream.read(buffer, offset, count);
 
-    if (read > 0 && listener != null) {
-      listener.onBytesTransferred(this, null, false, read);
+    if (read == -1) return C.RESULT_END_OF_INPUT;
+
+    position += read;
+    if (bytesRemaining != C.LENGTH_UNSET) bytesRemaining -= read;
+
+    if (listener != null) {
+      listener.onBytesTransferred(this, dataSpec, false, read);
     }
 
     return read;
   }
 
+  private static void skipFully(@NonNull InputStream in, long count) throws IOException {
+    while (count > 0) {
+      long skipped = in.skip(count);
+
+      if (skipped <= 0) {
+        if (in.read() == -1) throw new EOFException("No more data");
+        skipped = 1;
+      }
+
+      count -= skipped;
+    }
+  }
+
   @Override
   public Uri getUri() {
     return uri;
@@ -84,6 +131,17 @@ public class PartDataSource implements DataSource {
 
   @Override
   public void close() throws IOException {
-    inputSteam.close();
+    try {
+      if (reader != null)      reader.close();
+      if (inputStream != null) inputStream.close();
+    } finally {
+      reader      = null;
+      inputStream = null;
+
+      if (listener != null && dataSpec != null) {
+        listener.onTransferEnd(this, dataSpec, false);
+      }
+      dataSpec = null;
+    }
   }
 }
@@ -0,0 +1,66 @@
+package org.thoughtcrime.securesms.components.emoji.parsing
+
+import android.net.Uri
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import org.mockito.kotlin.mock
+import org.thoughtcrime.securesms.emoji.EmojiPage
+
+class EmojiParserTest {
+
+    private val page = EmojiPage.Asset(mock<Uri>())
+    private val grinning = EmojiDrawInfo(page, 0, "😀", null, null)
+    private val heart = EmojiDrawInfo(page, 1, "\u2764\uFE0F", null, null)
+    private val thumbsUp = EmojiDrawInfo(page, 2, "👍", null, null)
+    private val keycapOne = EmojiDrawInfo(page, 3, "1\uFE0F\u20E3", null, null)
+
+    private val tree = EmojiTree.Builder()
+        .add("😀", grinning)
+        .add("\u2764\uFE0F", heart)
+        .add("👍", thumbsUp)
+        .add("1\uFE0F\u20E3", keycapOne)
+        .build()
+
+    private val parser = EmojiParser(tree)
+
+    private fun spans(text: String) = parser.findCandidates(text).map { Triple(it.startIndex, it.endIndex, it.drawInfo) }
+
+    @Test
+    fun findsEmojiAmongText() {
+        assertEquals(listOf(Triple(3, 5, grinning)), spans("hi 😀!"))
+        assertFalse(parser.findCandidates("hi 😀!").allEmojis)
+        assertTrue(parser.findCandidates("😀😀").allEmojis)
+    }
+
+    @Test
+    fun matchesWithOrWithoutVariationSelector() {
+        assertEquals(listOf(Triple(0, 1, heart)), spans("\u2764"))
+        assertEquals(listOf(Triple(0, 2, heart)), spans("\u2764\uFE0F"))
+        assertEquals(listOf(Triple(0, 3, keycapOne)), spans("1\uFE0F\u20E3"))
+    }
+
+    @Test
+    fun includesSkinToneModifier() {
+        assertEquals(listOf(Triple(0, 4, thumbsUp)), spans("👍🏽"))
+    }
+
+    @Test
+    fun ignoresPartialMatches() {
+        assertEquals(listOf<Triple<Int, Int, EmojiDrawInfo>>(), spans("1 apple"))
+        assertFalse(parser.findCandidates("").allEmojis)
+        assertEquals(0, parser.findCandidates(null).size())
+    }
+
+    @Test
+    fun looksUpEmoji() {
+        assertEquals(heart, tree.getEmoji("\u2764", 0, 1))
+        assertEquals(keycapOne, tree.getEmoji("1\uFE0F\u20E3", 0, 3))
+        assertNull(tree.getEmoji("1", 0, 1))
+        assertTrue(tree.isEmoji("😀", 0, 2).exactMatch())
+        assertTrue(tree.isEmoji("a", 0, 1).impossibleMatch())
+        assertFalse(tree.isEmoji("1\uFE0F", 0, 2).exactMatch())
+    }
+}
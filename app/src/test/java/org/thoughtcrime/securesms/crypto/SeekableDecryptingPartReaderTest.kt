@@ -0,0 +1,76 @@
+package org.thoughtcrime.securesms.crypto
+
+import org.junit.After
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Test
+import java.io.File
+import javax.crypto.Cipher
+import javax.crypto.Mac
+import javax.crypto.spec.IvParameterSpec
+import javax.crypto.spec.SecretKeySpec
+import kotlin.random.Random
+
+class SeekableDecryptingPartReaderTest {
+
+    private val random = Random(31)
+    private val classicCipherKey = random.nextBytes(32)
+    private val classicMacKey = random.nextBytes(20)
+    private val modernKey = random.nextBytes(32)
+    private val attachmentSecret = AttachmentSecret(classicCipherKey, classicMacKey, modernKey)
+
+    // Spans several read blocks and ends in a partial AES block
+    private val plaintext = random.nextBytes(200_003)
+    private val file = File.createTempFile("part", ".mms")
+
+    @After
+    fun tearDown() {
+        file.delete()
+    }
+
+    private fun writeModern(): ByteArray {
+        val mac = Mac.getInstance("HmacSHA256")
+        mac.init(SecretKeySpec(modernKey, "HmacSHA256"))
+        val partRandom = random.nextBytes(32)
+        val cipher = Cipher.getInstance("AES/CTR/NoPadding")
+        cipher.init(Cipher.ENCRYPT_MODE, SecretKeySpec(mac.doFinal(partRandom), "AES"), IvParameterSpec(ByteArray(16)))
+        file.writeBytes(cipher.doFinal(plaintext))
+        return partRandom
+    }
+
+    private fun writeClassic() {
+        val iv = random.nextBytes(16)
+        val cipher = Cipher.getInstance("AES/CBC/PKCS5Padding")
+        cipher.init(Cipher.ENCRYPT_MODE, SecretKeySpec(classicCipherKey, "AES"), IvParameterSpec(iv))
+        val data = iv + cipher.doFinal(plaintext)
+        val mac = Mac.getInstance("HmacSHA1")
+        mac.init(SecretKeySpec(classicMacKey, "HmacSHA1"))
+        file.writeBytes(data + mac.doFinal(data))
+    }
+
+    private fun assertRandomReads(reader: SeekableDecryptingPartReader) {
+        val positions = listOf(0L, 15L, 16L, 32 * 1024L - 1, 32 * 1024L, plaintext.size - 20L) + List(200) { random.nextLong(plaintext.size.toLong()) }
+        positions.forEach { position ->
+            val count = random.nextInt(1, 70_000)
+            val buffer = ByteArray(count + 3)
+            val read = reader.readAt(position, buffer, 3, count)
+
+            val expected = minOf(count.toLong(), plaintext.size - position).toInt()
+            assertEquals(expected, read)
+            assertArrayEquals(plaintext.copyOfRange(position.toInt(), position.toInt() + read), buffer.copyOfRange(3, 3 + read))
+        }
+        assertEquals(-1, reader.readAt(plaintext.size.toLong(), ByteArray(1), 0, 1))
+    }
+
+    @Test
+    fun readsModernFilesAtAnyPosition() {
+        val partRandom = writeModern()
+        SeekableDecryptingPartReader.createFor(attachmentSecret, partRandom, file, plaintext.size.toLong()).use { assertRandomReads(it) }
+    }
+
+    @Test
+    fun readsClassicFilesAtAnyPosition() {
+        writeClassic()
+        SeekableDecryptingPartReader.createForClassic(attachmentSecret, file, plaintext.size.toLong()).use { assertRandomReads(it) }
+    }
+}
@@ -0,0 +1,136 @@
+package org.thoughtcrime.securesms.database
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Test
+import org.session.libsession.messaging.contacts.Contact
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+import kotlin.concurrent.thread
+import kotlin.random.Random
+
+class ContactCacheTest {
+
+    /** Stands in for the table. */
+    private val table = ConcurrentHashMap<String, String>()
+    private val loads = AtomicInteger()
+
+    private fun contact(sessionID: String, name: String?) = Contact(sessionID).apply { this.name = name }
+
+    private fun load(sessionID: String): Contact? {
+        loads.incrementAndGet()
+        return table[sessionID]?.let { contact(sessionID, it) }
+    }
+
+    private fun write(cache: ContactCache, sessionID: String, name: String) {
+        cache.write(sessionID) {
+            table[sessionID] = name
+            contact(sessionID, name)
+        }
+    }
+
+    @Test
+    fun readsEachContactOnce() {
+        val cache = ContactCache()
+        table["a"] = "Alice"
+        assertEquals("Alice", cache.get("a", ::load)?.name)
+        assertEquals("Alice", cache.get("a", ::load)?.name)
+        assertNull(cache.get("b", ::load))
+        assertNull(cache.get("b", ::load))
+        assertEquals(2, loads.get())
+    }
+
+    @Test
+    fun returnsCopies() {
+        val cache = ContactCache()
+        table["a"] = "Alice"
+        cache.get("a", ::load)!!.name = "Mallory"
+        assertEquals("Alice", cache.get("a", ::load)?.name)
+    }
+
+    @Test
+    fun loadsMissingContactsInOneBatch() {
+        val cache = ContactCache()
+        table["a"] = "Alice"
+        table["b"] = "Bob"
+        cache.get("a", ::load)
+        val batches = mutableListOf<Collection<String>>()
+        val contacts = cache.getAll(listOf("a", "b", "c")) { missing ->
+            batches += missing.toList()
+            missing.mapNotNull { load(it) }
+        }
+        assertEquals(setOf("Alice", "Bob"), contacts.map { it.name }.toSet())
+        assertEquals(listOf(listOf("b", "c")), batches)
+        assertEquals(listOf("Bob"), cache.getAll(listOf("b", "c")) { error("Should be cached") }.map { it.name })
+    }
+
+    @Test
+    fun evictsLeastRecentlyUsed() {
+        val cache = ContactCache(2)
+        table["a"] = "Alice"
+        table["b"] = "Bob"
+        table["c"] = "Carol"
+        cache.get("a", ::load)
+        cache.get("b", ::load)
+        cache.get("a", ::load)
+        cache.get("c", ::load)
+        loads.set(0)
+        cache.get("a", ::load)
+        cache.get("b", ::load)
+        assertEquals(1, loads.get())
+    }
+
+    @Test
+    fun readRacingWriteDoesNotCacheOlderContact() {
+        val cache = ContactCache()
+        table["a"] = "Alice"
+        val read = CountDownLatch(1)
+        val written = CountDownLatch(1)
+        val reader = thread {
+            cache.get("a") { sessionID ->
+                val stale = load(sessionID)
+                read.countDown()
+                written.await()
+                stale
+            }
+        }
+        read.await()
+        write(cache, "a", "Alicia")
+        written.countDown()
+        reader.join()
+        assertEquals("Alicia", cache.get("a", ::load)?.name)
+
+        // A partial update leaves nothing to go stale either
+        cache.update("a") { table["a"] = "Ally" }
+        assertEquals("Ally", cache.get("a", ::load)?.name)
+    }
+
+    @Test
+    fun staysCoherentUnderConcurrentWrites() {
+        val cache = ContactCache(50)
+        val sessionIDs = List(100) { "05%064x".format(it) }
+        sessionIDs.forEach { table[it] = "$it-0" }
+        val executor = Executors.newFixedThreadPool(8)
+        repeat(8) { worker ->
+            executor.execute {
+                val random = Random(worker)
+                repeat(5000) { i ->
+                    val sessionID = sessionIDs.random(random)
+                    when (random.nextInt(10)) {
+                        0 -> write(cache, sessionID, "$sessionID-$worker-$i")
+                        1 -> cache.getAll(sessionIDs.shuffled(random).take(10)) { missing -> missing.mapNotNull { load(it) } }
+                        else -> cache.get(sessionID, ::load)
+                    }
+                }
+            }
+        }
+        executor.shutdown()
+        executor.awaitTermination(1, TimeUnit.MINUTES)
+        for (sessionID in sessionIDs) {
+            assertEquals(table[sessionID], cache.get(sessionID, ::load)?.name)
+        }
+    }
+}
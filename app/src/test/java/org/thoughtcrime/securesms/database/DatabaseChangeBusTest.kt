@@ -0,0 +1,111 @@
+package org.thoughtcrime.securesms.database
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import org.thoughtcrime.securesms.database.DatabaseChangeBus.Scope
+import java.util.PriorityQueue
+
+class DatabaseChangeBusTest {
+
+    private class ManualScheduler {
+        private class Task(val at: Long, val order: Int, val runnable: Runnable)
+
+        private val tasks = PriorityQueue<Task>(compareBy({ it.at }, { it.order }))
+        private var order = 0
+        var now = 0L
+
+        val scheduler = DatabaseChangeBus.Scheduler { delay, task -> tasks += Task(now + delay, order++, task) }
+
+        fun advanceBy(millis: Long) {
+            val target = now + millis
+            while (tasks.isNotEmpty() && tasks.peek()!!.at <= target) {
+                val task = tasks.poll()!!
+                now = task.at
+                task.runnable.run()
+            }
+            now = target
+        }
+    }
+
+    private class RecordingListener : DatabaseChangeBus.Listener {
+        val threadNotifications = mutableListOf<Long>()
+        val scopeNotifications = mutableListOf<Scope>()
+
+        override fun onThreadsChanged(threadIds: Set<Long>) { threadNotifications += threadIds }
+        override fun onScopeChanged(scope: Scope) { scopeNotifications += scope }
+    }
+
+    private val manualScheduler = ManualScheduler()
+    private val listener = RecordingListener()
+    private val bus = DatabaseChangeBus(manualScheduler.scheduler, listener) { manualScheduler.now }
+
+    @Test
+    fun coalescesThreadNotificationsWithinWindow() {
+        repeat(10) { bus.notifyThread(1) }
+        bus.notifyThread(2)
+        assertTrue(listener.threadNotifications.isEmpty())
+
+        manualScheduler.advanceBy(DatabaseChangeBus.WINDOW)
+
+        assertEquals(listOf(1L, 2L), listener.threadNotifications.sorted())
+        assertEquals(11, bus.requestedCount)
+        assertEquals(2, bus.dispatchedCount)
+        assertEquals(9, bus.coalescedCount)
+    }
+
+    @Test
+    fun conversationListIsDispatchedAtMostOncePerItsWindow() {
+        bus.notifyScope(Scope.CONVERSATION_LIST)
+        manualScheduler.advanceBy(DatabaseChangeBus.WINDOW)
+        assertEquals(1, listener.scopeNotifications.size)
+
+        bus.notifyScope(Scope.CONVERSATION_LIST)
+        manualScheduler.advanceBy(DatabaseChangeBus.WINDOW)
+        assertEquals(1, listener.scopeNotifications.size)
+
+        manualScheduler.advanceBy(Scope.CONVERSATION_LIST.window)
+        assertEquals(2, listener.scopeNotifications.size)
+    }
+
+    @Test
+    fun batchHoldsNotificationsUntilItEnds() {
+        bus.beginBatch()
+        bus.notifyThread(1)
+        manualScheduler.advanceBy(DatabaseChangeBus.WINDOW * 2)
+        assertTrue(listener.threadNotifications.isEmpty())
+
+        bus.endBatch()
+        manualScheduler.advanceBy(0)
+        assertEquals(listOf(1L), listener.threadNotifications)
+    }
+
+    @Test
+    fun batchIsNotHeldLongerThanMaxHold() {
+        bus.beginBatch()
+        bus.notifyThread(1)
+        manualScheduler.advanceBy(DatabaseChangeBus.MAX_HOLD)
+        assertEquals(listOf(1L), listener.threadNotifications)
+        bus.endBatch()
+    }
+
+    @Test
+    fun thousandMessageBurst() {
+        val threadCount = 20
+        // 1,000 incoming messages arriving 1ms apart, each touching its thread and the conversation list
+        repeat(1000) { i ->
+            bus.notifyThread((i % threadCount).toLong())
+            bus.notifyScope(Scope.CONVERSATION_LIST)
+            manualScheduler.advanceBy(1)
+        }
+        manualScheduler.advanceBy(Scope.CONVERSATION_LIST.window)
+
+        // Every thread is notified once per window and the list once per second
+        assertEquals(2000, bus.requestedCount)
+        assertTrue(listener.threadNotifications.size <= threadCount * (1000 / DatabaseChangeBus.WINDOW.toInt() + 1))
+        assertTrue(listener.scopeNotifications.size <= 2)
+        assertEquals((0 until threadCount).map { it.toLong() }.toSet(), listener.threadNotifications.toSet())
+        assertEquals(bus.requestedCount - bus.dispatchedCount, bus.coalescedCount)
+        assertTrue(bus.coalescedCount >= 1700)
+    }
+}
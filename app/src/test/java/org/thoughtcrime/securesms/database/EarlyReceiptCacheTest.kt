@@ -0,0 +1,146 @@
+package org.thoughtcrime.securesms.database
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import org.session.libsession.utilities.Address
+import java.util.Random
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.atomic.AtomicLong
+import kotlin.concurrent.thread
+
+class EarlyReceiptCacheTest {
+
+    private val alice = Address.fromSerialized("05" + "a".repeat(64))
+    private val bob = Address.fromSerialized("05" + "b".repeat(64))
+
+    @Test
+    fun countsReceiptsByAddress() {
+        val cache = EarlyReceiptCache()
+        cache.increment(1, alice)
+        cache.increment(1, alice)
+        cache.increment(1, bob)
+        cache.increment(2, bob)
+
+        assertEquals(mapOf(alice to 2L, bob to 1L), cache.remove(1))
+        assertEquals(mapOf(bob to 1L), cache.remove(2))
+        assertEquals(0, cache.size())
+    }
+
+    @Test
+    fun countsHitsAndMisses() {
+        val cache = EarlyReceiptCache()
+        cache.increment(1, alice)
+
+        assertEquals(mapOf(alice to 1L), cache.remove(1))
+        assertTrue(cache.remove(1).isEmpty())
+        assertTrue(cache.remove(2).isEmpty())
+        assertEquals(1, cache.hitCount)
+        assertEquals(2, cache.missCount)
+    }
+
+    @Test
+    fun dropsOldestTimestampsWhenFull() {
+        val cache = EarlyReceiptCache(3, 60_000)
+        (1L..5L).forEach { cache.increment(it, alice) }
+
+        assertEquals(3, cache.size())
+        assertEquals(2, cache.evictionCount)
+        assertTrue(cache.remove(1).isEmpty())
+        assertTrue(cache.remove(2).isEmpty())
+        assertEquals(mapOf(alice to 1L), cache.remove(5))
+    }
+
+    @Test
+    fun keepsTimestampsWhichWereUpdatedInOrderAdded() {
+        val cache = EarlyReceiptCache(2, 60_000)
+        cache.increment(1, alice)
+        cache.increment(2, alice)
+        cache.increment(1, bob)
+        cache.increment(3, alice)
+
+        assertTrue(cache.remove(1).isEmpty())
+        assertEquals(mapOf(alice to 1L), cache.remove(2))
+        assertEquals(mapOf(alice to 1L), cache.remove(3))
+    }
+
+    @Test
+    fun doesNotCountTakenTimestampsTowardsSize() {
+        val cache = EarlyReceiptCache(2, 60_000)
+        cache.increment(1, alice)
+        cache.remove(1)
+        cache.increment(2, alice)
+        cache.increment(3, alice)
+
+        assertEquals(0, cache.evictionCount)
+        assertEquals(mapOf(alice to 1L), cache.remove(2))
+    }
+
+    @Test
+    fun dropsExpiredTimestamps() {
+        val cache = EarlyReceiptCache(100, 10)
+        cache.increment(1, alice)
+        Thread.sleep(50)
+
+        assertTrue(cache.remove(1).isEmpty())
+        assertEquals(1, cache.missCount)
+        assertEquals(1, cache.evictionCount)
+
+        cache.increment(2, alice)
+        Thread.sleep(50)
+        cache.increment(3, alice)
+        assertEquals(1, cache.size())
+    }
+
+    @Test
+    fun countsEveryReceiptFromManyThreads() {
+        val threadCount = 8
+        val receiptsPerThread = 50_000
+        val timestamps = 500
+        val origins = List(5) { Address.fromSerialized("05" + it.toString().repeat(64)) }
+        val cache = EarlyReceiptCache(timestamps, 60_000)
+        val taken = AtomicLong()
+        val done = AtomicBoolean()
+        val start = CountDownLatch(1)
+
+        val incrementers = List(threadCount) { t ->
+            thread {
+                val random = Random(t.toLong())
+                start.await()
+                repeat(receiptsPerThread) {
+                    cache.increment(random.nextInt(timestamps).toLong(), origins[random.nextInt(origins.size)])
+                }
+            }
+        }
+        val remover = thread {
+            val random = Random()
+            start.await()
+            while (!done.get()) {
+                taken.addAndGet(cache.remove(random.nextInt(timestamps).toLong()).values.sum())
+            }
+        }
+
+        start.countDown()
+        incrementers.forEach { it.join() }
+        done.set(true)
+        remover.join()
+        (0 until timestamps).forEach { taken.addAndGet(cache.remove(it.toLong()).values.sum()) }
+
+        assertEquals(0, cache.evictionCount)
+        assertEquals(threadCount.toLong() * receiptsPerThread, taken.get())
+    }
+
+    @Test
+    fun staysBoundedFromManyThreads() {
+        val cache = EarlyReceiptCache(100, 60_000)
+        val next = AtomicLong()
+
+        List(8) {
+            thread { repeat(10_000) { cache.increment(next.getAndIncrement(), alice) } }
+        }.forEach { it.join() }
+
+        assertTrue(cache.size() <= 100)
+        assertEquals(80_000L - cache.size(), cache.evictionCount)
+    }
+}
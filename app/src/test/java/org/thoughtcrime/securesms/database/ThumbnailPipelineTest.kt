@@ -0,0 +1,130 @@
+package org.thoughtcrime.securesms.database
+
+import android.app.Application
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.annotation.Config
+import org.session.libsession.messaging.sending_receiving.attachments.AttachmentId
+import java.io.InterruptedIOException
+import java.util.Collections
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+@RunWith(RobolectricTestRunner::class)
+@Config(manifest = Config.NONE, application = Application::class)
+class ThumbnailPipelineTest {
+
+    private class FakeSource : ThumbnailPipeline.Source {
+        val stored = Collections.synchronizedMap(mutableMapOf<AttachmentId, ByteArray>())
+        val generated = Collections.synchronizedList(mutableListOf<AttachmentId>())
+        val loads = AtomicInteger()
+        @Volatile var gate = CountDownLatch(0)
+
+        override fun load(attachmentId: AttachmentId): ByteArray? {
+            loads.incrementAndGet()
+            return stored[attachmentId]
+        }
+
+        override fun generate(attachmentId: AttachmentId): ByteArray? {
+            gate.await()
+            generated += attachmentId
+            return thumbnailFor(attachmentId)
+        }
+    }
+
+    companion object {
+        private fun thumbnailFor(attachmentId: AttachmentId) = ByteArray(16) { attachmentId.rowId.toByte() }
+    }
+
+    private val source = FakeSource()
+
+    private fun id(rowId: Long) = AttachmentId(rowId, rowId)
+
+    /** Occupies the only worker until the returned latch is released. */
+    private fun blockWorker(pipeline: ThumbnailPipeline): CountDownLatch {
+        val release = CountDownLatch(1)
+        source.gate = release
+        pipeline.prefetch(id(0))
+        Thread.sleep(100)
+        return release
+    }
+
+    @Test
+    fun concurrentRequestsShareOneGeneration() {
+        val pipeline = ThumbnailPipeline(source, 2, 1024)
+        val release = blockWorker(pipeline)
+        val executor = Executors.newFixedThreadPool(4)
+
+        val results = List(4) { executor.submit<ByteArray> { pipeline.request(id(1)).get() } }
+        Thread.sleep(100)
+        release.countDown()
+
+        results.forEach { assertArrayEquals(thumbnailFor(id(1)), it.get(5, TimeUnit.SECONDS)) }
+        assertEquals(1, source.generated.count { it == id(1) })
+        executor.shutdown()
+    }
+
+    @Test
+    fun visibleRequestsRunNewestFirstAndBeforeBackgroundWork() {
+        val pipeline = ThumbnailPipeline(source, 1, 1024)
+        val release = blockWorker(pipeline)
+        val executor = Executors.newFixedThreadPool(2)
+
+        pipeline.prefetch(id(1))
+        val older = executor.submit<ByteArray> { pipeline.request(id(2)).get() }
+        Thread.sleep(50)
+        val newer = executor.submit<ByteArray> { pipeline.request(id(3)).get() }
+        Thread.sleep(50)
+        release.countDown()
+
+        older.get(5, TimeUnit.SECONDS)
+        newer.get(5, TimeUnit.SECONDS)
+        pipeline.request(id(1)).get()
+        assertEquals(listOf(id(0), id(3), id(2), id(1)), source.generated.toList())
+        executor.shutdown()
+    }
+
+    @Test
+    fun cancellingTheLastWaiterDropsTheGeneration() {
+        val pipeline = ThumbnailPipeline(source, 1, 1024)
+        val release = blockWorker(pipeline)
+        val executor = Executors.newSingleThreadExecutor()
+
+        val request = pipeline.request(id(1))
+        val result = executor.submit<ByteArray> { request.get() }
+        Thread.sleep(50)
+        request.cancel()
+
+        val error = runCatching { result.get(5, TimeUnit.SECONDS) }.exceptionOrNull()
+        assertTrue(error?.cause is InterruptedIOException)
+
+        release.countDown()
+        pipeline.request(id(2)).get()
+        assertEquals(listOf(id(0), id(2)), source.generated.toList())
+        executor.shutdown()
+    }
+
+    @Test
+    fun storedAndGeneratedThumbnailsAreCached() {
+        val pipeline = ThumbnailPipeline(source, 1, 1024)
+        source.stored[id(1)] = byteArrayOf(1, 2, 3)
+
+        assertArrayEquals(byteArrayOf(1, 2, 3), pipeline.request(id(1)).get())
+        assertArrayEquals(byteArrayOf(1, 2, 3), pipeline.request(id(1)).get())
+        assertEquals(1, source.loads.get())
+
+        pipeline.request(id(2)).get()
+        pipeline.request(id(2)).get()
+        assertEquals(listOf(id(2)), source.generated.toList())
+
+        pipeline.invalidate(id(1))
+        pipeline.request(id(1)).get()
+        assertEquals(3, source.loads.get())
+    }
+}
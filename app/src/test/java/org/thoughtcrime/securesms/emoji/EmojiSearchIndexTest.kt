@@ -0,0 +1,58 @@
+package org.thoughtcrime.securesms.emoji
+
+import org.junit.Assert.assertEquals
+import org.junit.Test
+
+class EmojiSearchIndexTest {
+
+    private fun index(vararg labels: Pair<String, String>) =
+        EmojiSearchIndex.build(labels.mapIndexed { i, (label, emoji) -> EmojiSearchIndex.Entry(i + 1L, label, emoji) })
+
+    @Test
+    fun ranksPrefixMatchesFirst() {
+        val index = index("smiling face" to "😊", "face" to "😐", "facepalm" to "🤦", "surface" to "🌊")
+        assertEquals(listOf("😐", "🤦", "🌊", "😊"), index.query("face", 10))
+    }
+
+    @Test
+    fun matchesIgnoringAsciiCase() {
+        val index = index("Party" to "🎉", "cat" to "🐱")
+        assertEquals(listOf("🎉"), index.query("pa", 10))
+        assertEquals(listOf("🎉"), index.query("aR", 10))
+        assertEquals(listOf("🐱"), index.query(" c ", 10))
+    }
+
+    @Test
+    fun returnsEachEmojiOnce() {
+        val index = index("cat" to "🐱", "cat face" to "🐱", "catch" to "⚾")
+        assertEquals(listOf("🐱", "⚾"), index.query("cat", 10))
+        assertEquals(listOf("🐱"), index.query("cat", 1))
+    }
+
+    @Test
+    fun treatsLikeWildcards() {
+        val index = index("cat" to "🐱", "cut" to "✂", "dog" to "🐶")
+        assertEquals(listOf("🐱", "✂"), index.query("c_t", 10))
+        assertEquals(listOf("🐱", "✂"), index.query("c%", 10))
+    }
+
+    @Test
+    fun findsNothingForMissingOrEmptyQueries() {
+        val index = index("cat" to "🐱")
+        assertEquals(listOf<String>(), index.query("dog", 10))
+        assertEquals(listOf<String>(), index.query("  ", 10))
+    }
+
+    @Test
+    fun appliesChanges() {
+        val index = index("cat" to "🐱", "dog" to "🐶", "cow" to "🐮", "bat" to "🦇", "rat" to "🐀")
+        val changed = index.withChanges(setOf(1L), listOf(EmojiSearchIndex.Entry(10L, "cathedral", "⛪")))
+        assertEquals(listOf("⛪"), changed.query("cat", 10))
+        assertEquals(listOf("🐱"), index.query("cat", 10))
+        assertEquals(listOf(2L, 3L, 4L, 5L, 10L), changed.entries().map { it.rowId })
+
+        val compacted = changed.withChanges(setOf(2L, 3L, 4L), listOf())
+        assertEquals(listOf(5L, 10L), compacted.entries().map { it.rowId })
+        assertEquals(listOf("🐀"), compacted.query("at", 1))
+    }
+}
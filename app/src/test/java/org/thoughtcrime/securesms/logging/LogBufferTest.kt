@@ -0,0 +1,102 @@
+package org.thoughtcrime.securesms.logging
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.atomic.AtomicBoolean
+import kotlin.concurrent.thread
+
+class LogBufferTest {
+
+    @Test
+    fun takesValuesInOrder() {
+        val buffer = LogBuffer<Int>(8)
+        assertNull(buffer.take())
+        (1..20).forEach { value ->
+            buffer.add(value)
+            assertEquals(value, buffer.take())
+        }
+        assertNull(buffer.take())
+        assertEquals(0, buffer.takeLostCount())
+    }
+
+    @Test
+    fun overwritesOldestValuesWhenFull() {
+        val buffer = LogBuffer<Int>(8)
+        (1..20).forEach { buffer.add(it) }
+        assertEquals((13..20).toList(), generateSequence { buffer.take() }.toList())
+        assertEquals(12, buffer.takeLostCount())
+        assertEquals(0, buffer.takeLostCount())
+    }
+
+    @Test
+    fun dropsValueOfProducerLappedBeforePublishing() {
+        val buffer = LogBuffer<Int>(4)
+        val stalled = buffer.claim()
+        (1..4).forEach { buffer.add(it) }
+        // Finally scheduled again, after a newer value took its slot
+        buffer.publish(stalled, 0)
+
+        assertEquals((1..4).toList(), generateSequence { buffer.take() }.toList())
+        assertEquals(1, buffer.takeLostCount())
+    }
+
+    @Test
+    fun skipsValueOfStalledProducerOnceLapped() {
+        val buffer = LogBuffer<Int>(4)
+        buffer.add(0)
+        val stalled = buffer.claim()
+        (2..3).forEach { buffer.add(it) }
+        assertEquals(0, buffer.take())
+        // Waits for the stalled value while the buffer can still hold it
+        assertNull(buffer.take())
+
+        (4..5).forEach { buffer.add(it) }
+        assertEquals((2..5).toList(), generateSequence { buffer.take() }.toList())
+        assertEquals(1, buffer.takeLostCount())
+
+        buffer.publish(stalled, 1)
+        assertNull(buffer.take())
+        buffer.add(6)
+        assertEquals(6, buffer.take())
+    }
+
+    @Test
+    fun keepsEachThreadsValuesInOrder() {
+        val buffer = LogBuffer<Pair<Int, Int>>(1024)
+        val threadCount = 8
+        val valuesPerThread = 50_000
+        val start = CountDownLatch(1)
+        val finished = AtomicBoolean()
+        val threads = List(threadCount) { t ->
+            thread {
+                start.await()
+                repeat(valuesPerThread) { buffer.add(t to it) }
+            }
+        }
+
+        val last = IntArray(threadCount) { -1 }
+        var taken = 0L
+        val taker = thread {
+            while (true) {
+                val done = finished.get()
+                val value = buffer.take()
+                if (value == null) {
+                    if (done) break else continue
+                }
+                val (t, i) = value
+                assertTrue("Thread $t went from ${last[t]} to $i", i > last[t])
+                last[t] = i
+                taken++
+            }
+        }
+        start.countDown()
+        threads.forEach { it.join() }
+        finished.set(true)
+        taker.join()
+
+        assertEquals(threadCount.toLong() * valuesPerThread, taken + buffer.takeLostCount())
+    }
+}
@@ -0,0 +1,28 @@
+package org.thoughtcrime.securesms.logging
+
+import org.junit.Assert.assertEquals
+import org.junit.Test
+
+class LogRateLimiterTest {
+
+    @Test
+    fun limitsEachTagPerSecond() {
+        val limiter = LogRateLimiter(3)
+        repeat(3) { assertEquals(0, limiter.acquire("Poller", 1_000)) }
+        assertEquals(LogRateLimiter.DROP, limiter.acquire("Poller", 1_500))
+        assertEquals(LogRateLimiter.DROP, limiter.acquire("Poller", 1_999))
+        assertEquals(0, limiter.acquire("Other", 1_999))
+    }
+
+    @Test
+    fun reportsDroppedEntriesWithTheNextOneLetThrough() {
+        val limiter = LogRateLimiter(1)
+        assertEquals(0, limiter.acquire("Poller", 1_000))
+        assertEquals(LogRateLimiter.DROP, limiter.acquire("Poller", 1_100))
+        assertEquals(LogRateLimiter.DROP, limiter.acquire("Poller", 1_200))
+        assertEquals(2, limiter.acquire("Poller", 2_000))
+        assertEquals(LogRateLimiter.DROP, limiter.acquire("Poller", 2_100))
+        assertEquals(1, limiter.acquire("Poller", 3_000))
+        assertEquals(0, limiter.acquire("Poller", 4_000))
+    }
+}
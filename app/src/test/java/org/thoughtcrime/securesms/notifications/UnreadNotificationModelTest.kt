@@ -0,0 +1,122 @@
+package org.thoughtcrime.securesms.notifications
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import org.mockito.kotlin.mock
+import org.mockito.kotlin.whenever
+import org.session.libsession.utilities.recipients.Recipient
+import org.thoughtcrime.securesms.database.RecipientDatabase
+
+class UnreadNotificationModelTest {
+
+    /** Stands in for the database: the unread messages of each thread, as (text, date, mention). */
+    private class FakeSource : UnreadNotificationModel.Source {
+        val threads = HashMap<Long, MutableList<Triple<String, Long, Boolean>>>()
+        val recipients = HashMap<Long, Recipient>()
+        val reads = ArrayList<Long>()
+
+        fun add(threadId: Long, text: String, date: Long, mention: Boolean = false) {
+            threads.getOrPut(threadId) { ArrayList() } += Triple(text, date, mention)
+        }
+
+        override fun getUnreadSignatures(): Map<Long, String> =
+            threads.filterValues { it.isNotEmpty() }.mapValues { (_, messages) -> "${messages.size}:${messages.last().second}" }
+
+        override fun getThreadRecipient(threadId: Long): Recipient = recipients.getOrPut(threadId) { mock() }
+
+        override fun getNotifications(threadId: Long, threadRecipient: Recipient?): List<UnreadNotificationModel.Entry> {
+            reads += threadId
+            return threads[threadId].orEmpty().map { (text, date, mention) ->
+                val item = NotificationItem(date, false, mock(), mock(), threadRecipient, threadId, text, date, null)
+                UnreadNotificationModel.Entry(item, date, false, mention)
+            }
+        }
+    }
+
+    private fun texts(update: UnreadNotificationModel.Update) = update.state.notifications.map { it.text.toString() }
+
+    @Test
+    fun readsOnlyThreadsWhichChanged() {
+        val source = FakeSource()
+        val model = UnreadNotificationModel()
+        source.add(1, "a", 1)
+        source.add(2, "b", 2)
+
+        model.update(source)
+        assertEquals(setOf(1L, 2L), source.reads.toSet())
+
+        source.reads.clear()
+        source.add(2, "c", 3)
+        val update = model.update(source)
+        assertEquals(listOf(2L), source.reads)
+        assertEquals(listOf("c", "b", "a"), texts(update))
+        assertTrue(update.hasChanged(2))
+        assertFalse(update.hasChanged(1))
+    }
+
+    @Test
+    fun dropsThreadsWhichWereRead() {
+        val source = FakeSource()
+        val model = UnreadNotificationModel()
+        source.add(1, "a", 1)
+        source.add(2, "b", 2)
+        model.update(source)
+
+        source.threads[2]!!.clear()
+        source.reads.clear()
+        val update = model.update(source)
+        assertEquals(listOf("a"), texts(update))
+        assertEquals(1, update.state.threadCount)
+        assertTrue(source.reads.isEmpty())
+    }
+
+    @Test
+    fun readsInvalidatedThreadsAgain() {
+        val source = FakeSource()
+        val model = UnreadNotificationModel()
+        source.add(1, "a", 1)
+        source.add(2, "b", 2)
+        model.update(source)
+
+        source.reads.clear()
+        model.invalidate(1)
+        model.update(source)
+        assertEquals(listOf(1L), source.reads)
+
+        source.reads.clear()
+        model.invalidateAll()
+        model.update(source)
+        assertEquals(setOf(1L, 2L), source.reads.toSet())
+
+        source.reads.clear()
+        model.update(source)
+        assertTrue(source.reads.isEmpty())
+    }
+
+    @Test
+    fun appliesNotificationSettingsWithoutReading() {
+        val source = FakeSource()
+        val model = UnreadNotificationModel()
+        source.add(1, "a", 1)
+        source.add(1, "@me", 2, mention = true)
+        source.add(2, "b", 3)
+        model.update(source)
+        source.reads.clear()
+
+        whenever(source.recipients[2]!!.isMuted).thenReturn(true)
+        source.recipients[1]!!.notifyType = RecipientDatabase.NOTIFY_TYPE_MENTIONS
+        var update = model.update(source)
+        assertEquals(listOf("@me"), texts(update))
+        assertTrue(update.hasChanged(1))
+        assertTrue(update.hasChanged(2))
+
+        whenever(source.recipients[2]!!.isMuted).thenReturn(false)
+        update = model.update(source)
+        assertEquals(listOf("b", "@me"), texts(update))
+        assertFalse(update.hasChanged(1))
+        assertTrue(update.hasChanged(2))
+        assertTrue(source.reads.isEmpty())
+    }
+}
@@ -0,0 +1,137 @@
+package org.thoughtcrime.securesms.providers
+
+import android.app.Application
+import android.content.Context
+import android.net.Uri
+import androidx.test.core.app.ApplicationProvider
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.annotation.Config
+import org.thoughtcrime.securesms.crypto.AttachmentSecret
+import java.io.IOException
+import java.util.concurrent.Executor
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import kotlin.random.Random
+
+@RunWith(RobolectricTestRunner::class)
+@Config(manifest = Config.NONE, application = Application::class)
+class BlobProviderTest {
+
+    companion object {
+        private const val THRESHOLD = 4096
+    }
+
+    @get:Rule
+    val folder = TemporaryFolder()
+
+    private val context = ApplicationProvider.getApplicationContext<Context>()
+    private val random = Random(37)
+    private val attachmentSecret = AttachmentSecret(random.nextBytes(32), random.nextBytes(20), random.nextBytes(32))
+
+    private fun provider(executor: Executor = Executor { it.run() }) = BlobProvider(THRESHOLD, executor).apply {
+        setSpillStorage(folder.root, attachmentSecret)
+    }
+
+    private fun BlobProvider.read(uri: Uri) = getStream(context, uri).use { it.readBytes() }
+
+    @Test
+    fun smallBlobsStayInMemory() {
+        val provider = provider()
+        val data = random.nextBytes(THRESHOLD - 1)
+
+        val uri = provider.forData(data).withMimeType("image/jpeg").createForSingleSessionInMemory()
+
+        assertEquals(data.size.toLong(), provider.residentMemoryBlobBytes)
+        assertEquals(0L, provider.spilledMemoryBlobBytes)
+        assertArrayEquals(data, provider.read(uri))
+
+        provider.delete(context, uri)
+        assertEquals(0L, provider.residentMemoryBlobBytes)
+    }
+
+    @Test
+    fun largeBlobsSpillToEncryptedFiles() {
+        val provider = provider()
+        val data = random.nextBytes(THRESHOLD * 4)
+
+        val uri = provider.forData(data).withMimeType("image/jpeg").createForSingleSessionInMemory()
+
+        assertEquals(0L, provider.residentMemoryBlobBytes)
+        assertEquals(data.size.toLong(), provider.spilledMemoryBlobBytes)
+        val file = folder.root.listFiles()!!.single()
+        assertFalse(file.readBytes().contentEquals(data))
+        assertArrayEquals(data, provider.read(uri))
+        assertArrayEquals(data, provider.read(uri))
+
+        provider.delete(context, uri)
+        assertEquals(0L, provider.spilledMemoryBlobBytes)
+        assertFalse(file.exists())
+    }
+
+    @Test
+    fun spilledSingleUseBlobsAreRemovedOnRead() {
+        val provider = provider()
+        val data = random.nextBytes(THRESHOLD * 2)
+
+        val uri = provider.forData(data).withMimeType("audio/aac").createForSingleUseInMemory()
+
+        assertArrayEquals(data, provider.read(uri))
+        assertEquals(0L, provider.spilledMemoryBlobBytes)
+        assertTrue(folder.root.listFiles()!!.isEmpty())
+        assertTrue(runCatching { provider.read(uri) }.exceptionOrNull() is IOException)
+    }
+
+    @Test
+    fun blobsAreNotSpilledWithoutStorage() {
+        val provider = BlobProvider(THRESHOLD, Executor { it.run() })
+        val data = random.nextBytes(THRESHOLD * 2)
+
+        val uri = provider.forData(data).withMimeType("image/jpeg").createForSingleSessionInMemory()
+
+        assertEquals(data.size.toLong(), provider.residentMemoryBlobBytes)
+        assertArrayEquals(data, provider.read(uri))
+    }
+
+    @Test
+    fun concurrentReadsWritesAndDeletes() {
+        val spillExecutor = Executors.newFixedThreadPool(2)
+        val provider = provider(spillExecutor)
+        val workers = Executors.newFixedThreadPool(8)
+
+        val results = List(8) { worker ->
+            workers.submit {
+                val workerRandom = Random(worker)
+                repeat(200) { i ->
+                    val data = workerRandom.nextBytes(if (i % 3 == 0) THRESHOLD * 3 else 512)
+                    val uri = if (i % 5 == 0) {
+                        provider.forData(data).withMimeType("image/jpeg").createForSingleUseInMemory()
+                    } else {
+                        provider.forData(data).withMimeType("image/jpeg").createForSingleSessionInMemory()
+                    }
+                    assertArrayEquals(data, provider.read(uri))
+                    if (i % 5 != 0) {
+                        assertArrayEquals(data, provider.read(uri))
+                        provider.delete(context, uri)
+                    }
+                }
+            }
+        }
+
+        results.forEach { it.get(1, TimeUnit.MINUTES) }
+        workers.shutdown()
+        spillExecutor.shutdown()
+        assertTrue(spillExecutor.awaitTermination(1, TimeUnit.MINUTES))
+
+        assertEquals(0L, provider.residentMemoryBlobBytes)
+        assertEquals(0L, provider.spilledMemoryBlobBytes)
+        assertTrue(folder.root.listFiles()!!.isEmpty())
+    }
+}
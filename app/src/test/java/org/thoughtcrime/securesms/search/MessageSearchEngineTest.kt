@@ -0,0 +1,30 @@
+package org.thoughtcrime.securesms.search
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+class MessageSearchEngineTest {
+
+    @Test
+    fun tokenizesOnWhitespace() {
+        assertEquals(listOf("hello", "there"), MessageSearchEngine.tokenize("  hello \t there "))
+        assertEquals(listOf<String>(), MessageSearchEngine.tokenize("   "))
+    }
+
+    @Test
+    fun typingRefinesPreviousQuery() {
+        assertTrue(MessageSearchEngine.refines(listOf("he"), listOf("hel")))
+        assertTrue(MessageSearchEngine.refines(listOf("hello"), listOf("hello", "th")))
+        assertTrue(MessageSearchEngine.refines(listOf("Hel"), listOf("hello")))
+    }
+
+    @Test
+    fun otherQueriesDoNotRefinePreviousQuery() {
+        assertFalse(MessageSearchEngine.refines(listOf("hel"), listOf("he")))
+        assertFalse(MessageSearchEngine.refines(listOf("hello", "there"), listOf("hello")))
+        assertFalse(MessageSearchEngine.refines(listOf("hello"), listOf("yellow")))
+        assertFalse(MessageSearchEngine.refines(listOf(), listOf("hello")))
+    }
+}
@@ -33,7 +33,10 @@ interface MessageDataProvider {
     fun getSignalAttachmentPointer(attachmentId: Long): SignalServiceAttachmentPointer?
     fun setAttachmentState(attachmentState: AttachmentState, attachmentId: AttachmentId, messageID: Long)
     fun insertAttachment(messageId: Long, attachmentId: AttachmentId, stream : InputStream)
-    fun updateAudioAttachmentDuration(attachmentId: AttachmentId, durationMs: Long, threadId: Long)
+    /**
+     * Decodes an audio attachment once to store its duration and waveform, unless they're already known.
+     */
+    fun prepareAudioAttachmentExtras(attachmentId: AttachmentId, threadId: Long)
     fun isMmsOutgoing(mmsMessageId: Long): Boolean
     fun isOutgoingMessage(timestamp: Long): Boolean
     fun handleSuccessfulAttachmentUpload(attachmentId: Long, attachmentStream: SignalServiceAttachmentStream, attachmentKey: ByteArray, uploadResult: UploadResult)
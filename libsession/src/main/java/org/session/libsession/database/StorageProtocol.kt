@@ -162,6 +162,7 @@ interface StorageProtocol {
     fun setContact(contact: Contact)
     fun getRecipientForThread(threadId: Long): Recipient?
     fun getRecipientSettings(address: Address): RecipientSettings?
+    fun getRecipientSettings(addresses: Collection<Address>): Map<Address, RecipientSettings>
     fun addContacts(contacts: List<ConfigurationMessage.Contact>)
 
     // Attachments
@@ -176,6 +177,7 @@ interface StorageProtocol {
     fun markConversationAsRead(threadId: Long, updateLastSeen: Boolean)
     fun incrementUnread(threadId: Long, amount: Int, unreadMentionAmount: Int)
     fun updateThread(threadId: Long, unarchive: Boolean)
+    fun <T> batchDatabaseNotifications(block: () -> T): T
     fun insertDataExtractionNotificationMessage(senderPublicKey: String, message: DataExtractionNotificationInfoMessage, sentTimestamp: Long)
     fun insertMessageRequestResponse(response: MessageRequestResponse)
     fun setRecipientApproved(recipient: Recipient, approved: Boolean)
@@ -113,79 +113,82 @@ class BatchMessageReceiveJob(
                 }
             }
 
-            // iterate over threads and persist them (persistence is the longest constant in the batch process operation)
-            runBlocking(Dispatchers.IO) {
-                val deferredThreadMap = threadMap.entries.map { (threadId, messages) ->
-                    async {
-                        // The LinkedHashMap should preserve insertion order
-                        val messageIds = linkedMapOf<Long, Pair<Boolean, Boolean>>()
-
-                        messages.forEach { (parameters, message, proto) ->
-                            try {
-                                when (message) {
-                                    is VisibleMessage -> {
-                                        val messageId = MessageReceiver.handleVisibleMessage(message, proto, openGroupID,
-                                                runIncrement = false,
-                                                runThreadUpdate = false,
-                                                runProfileUpdate = true
-                                        )
-
-                                        if (messageId != null && message.reaction == null) {
-                                            val isUserBlindedSender = message.sender == serverPublicKey?.let { SodiumUtilities.blindedKeyPair(it, MessagingModuleConfiguration.shared.getUserED25519KeyPair()!!) }?.let { SessionId(
-                                                    IdPrefix.BLINDED, it.publicKey.asBytes).hexString }
-                                            messageIds[messageId] = Pair(
-                                                (message.sender == localUserPublicKey || isUserBlindedSender),
-                                                message.hasMention
+            // iterate over threads and persist them (persistence is the longest constant in the batch process operation),
+            // holding back database change notifications until the whole batch has been written
+            storage.batchDatabaseNotifications {
+                runBlocking(Dispatchers.IO) {
+                    val deferredThreadMap = threadMap.entries.map { (threadId, messages) ->
+                        async {
+                            // The LinkedHashMap should preserve insertion order
+                            val messageIds = linkedMapOf<Long, Pair<Boolean, Boolean>>()
+
+                            messages.forEach { (parameters, message, proto) ->
+                                try {
+                                    when (message) {
+                                        is VisibleMessage -> {
+                                            val messageId = MessageReceiver.handleVisibleMessage(message, proto, openGroupID,
+                                                    runIncrement = false,
+                                                    runThreadUpdate = false,
+                                                    runProfileUpdate = true
                                             )
+
+                                            if (messageId != null && message.reaction == null) {
+                                                val isUserBlindedSender = message.sender == serverPublicKey?.let { SodiumUtilities.blindedKeyPair(it, MessagingModuleConfiguration.shared.getUserED25519KeyPair()!!) }?.let { SessionId(
+                                                        IdPrefix.BLINDED, it.publicKey.asBytes).hexString }
+                                                messageIds[messageId] = Pair(
+                                                    (message.sender == localUserPublicKey || isUserBlindedSender),
+                                                    message.hasMention
+                                                )
+                                            }
+                                            parameters.openGroupMessageServerID?.let {
+                                                MessageReceiver.handleOpenGroupReactions(threadId, it, parameters.reactions)
+                                            }
                                         }
-                                        parameters.openGroupMessageServerID?.let {
-                                            MessageReceiver.handleOpenGroupReactions(threadId, it, parameters.reactions)
-                                        }
-                                    }
 
-                                    is UnsendRequest -> {
-                                        val deletedMessageId = MessageReceiver.handleUnsendRequest(message)
+                                        is UnsendRequest -> {
+                                            val deletedMessageId = MessageReceiver.handleUnsendRequest(message)
 
-                                        // If we removed a message then ensure it isn't in the 'messageIds'
-                                        if (deletedMessageId != null) {
-                                            messageIds.remove(deletedMessageId)
+                                            // If we removed a message then ensure it isn't in the 'messageIds'
+                                            if (deletedMessageId != null) {
+                                                messageIds.remove(deletedMessageId)
+                                            }
                                         }
-                                    }
 
-                                    else -> MessageReceiver.handle(message, proto, openGroupID)
-                                }
-                            } catch (e: Exception) {
-                                Log.e(TAG, "Couldn't process message.", e)
-                                if (e is MessageReceiver.Error && !e.isRetryable) {
-                                    Log.e(TAG, "Message failed permanently",e)
-                                } else {
-                                    Log.e(TAG, "Message failed",e)
-                                    failures += parameters
+                                        else -> MessageReceiver.handle(message, proto, openGroupID)
+                                    }
+                                } catch (e: Exception) {
+                                    Log.e(TAG, "Couldn't process message.", e)
+                                    if (e is MessageReceiver.Error && !e.isRetryable) {
+                                        Log.e(TAG, "Message failed permanently",e)
+                                    } else {
+                                        Log.e(TAG, "Message failed",e)
+                                        failures += parameters
+                                    }
                                 }
                             }
+                            // increment unreads, notify, and update thread
+                            val unreadFromMine = messageIds.map { it.value.first }.indexOfLast { it }
+                            var trueUnreadCount = messageIds.filter { !it.value.first }.size
+                            var trueUnreadMentionCount = messageIds.filter { !it.value.first && it.value.second }.size
+                            if (unreadFromMine >= 0) {
+                                storage.markConversationAsRead(threadId, false)
+
+                                val trueUnreadIds = messageIds.keys.toList().subList(unreadFromMine + 1, messageIds.keys.count())
+                                trueUnreadCount = trueUnreadIds.size
+                                trueUnreadMentionCount = messageIds
+                                        .filter { trueUnreadIds.contains(it.key) && !it.value.first && it.value.second }
+                                        .size
+                            }
+                            if (trueUnreadCount > 0) {
+                                storage.incrementUnread(threadId, trueUnreadCount, trueUnreadMentionCount)
+                            }
+                            storage.updateThread(threadId, true)
+                            SSKEnvironment.shared.notificationManager.updateNotification(context, threadId)
                         }
-                        // increment unreads, notify, and update thread
-                        val unreadFromMine = messageIds.map { it.value.first }.indexOfLast { it }
-                        var trueUnreadCount = messageIds.filter { !it.value.first }.size
-                        var trueUnreadMentionCount = messageIds.filter { !it.value.first && it.value.second }.size
-                        if (unreadFromMine >= 0) {
-                            storage.markConversationAsRead(threadId, false)
-
-                            val trueUnreadIds = messageIds.keys.toList().subList(unreadFromMine + 1, messageIds.keys.count())
-                            trueUnreadCount = trueUnreadIds.size
-                            trueUnreadMentionCount = messageIds
-                                    .filter { trueUnreadIds.contains(it.key) && !it.value.first && it.value.second }
-                                    .size
-                        }
-                        if (trueUnreadCount > 0) {
-                            storage.incrementUnread(threadId, trueUnreadCount, trueUnreadMentionCount)
-                        }
-                        storage.updateThread(threadId, true)
-                        SSKEnvironment.shared.notificationManager.updateNotification(context, threadId)
                     }
+                    // await all thread processing
+                    deferredThreadMap.awaitAll()
                 }
-                // await all thread processing
-                deferredThreadMap.awaitAll()
             }
             if (failures.isEmpty()) {
                 handleSuccess(dispatcherName)
@@ -0,0 +1,204 @@
+package org.session.libsession.messaging.mentions
+
+import java.text.Normalizer
+import java.util.TreeSet
+
+/**
+ * The people who can be mentioned in a thread, looked up by what's typed after an `@`.
+ *
+ * Every word of a display name (together with the rest of the name after it) and the session ID
+ * are kept in a prefix trie, so a query only visits the participants it matches. Names are matched
+ * ignoring case and accents. Results are ranked by how the query matched (the start of the name,
+ * then the start of a later word, then the session ID), then by how recently the participant was
+ * active, then by name.
+ *
+ * At most [maxParticipants] are kept; adding more drops the least recently active. Thread safe.
+ */
+class MentionIndex(private val maxParticipants: Int = MAX_PARTICIPANTS) {
+
+    companion object {
+        const val MAX_PARTICIPANTS = 10_000
+        /** Deeper terms share the node at this depth, and are told apart by comparing them. */
+        private const val MAX_DEPTH = 12
+
+        private const val MATCH_NAME = 0
+        private const val MATCH_WORD = 1
+        private const val MATCH_SESSION_ID = 2
+
+        private val diacritics = Regex("\\p{Mn}+")
+
+        fun normalize(text: String): String =
+            diacritics.replace(Normalizer.normalize(text, Normalizer.Form.NFD), "").toLowerCase()
+    }
+
+    private class Participant(val publicKey: String, var displayName: String?, var lastActive: Long) {
+        val terms = ArrayList<Term>()
+    }
+
+    private class Term(val text: String, val participant: Participant, val match: Int)
+
+    private class Node {
+        var keys = CharArray(0)
+        var children = arrayOfNulls<Node>(0)
+        var terms: ArrayList<Term>? = null
+
+        fun child(key: Char): Node? {
+            val i = keys.binarySearch(key)
+            return if (i >= 0) children[i] else null
+        }
+
+        fun getOrAddChild(key: Char): Node {
+            var i = keys.binarySearch(key)
+            if (i >= 0) return children[i]!!
+            i = -i - 1
+            val node = Node()
+            keys = CharArray(keys.size + 1).also { keys.copyInto(it, 0, 0, i); it[i] = key; keys.copyInto(it, i + 1, i) }
+            children = arrayOfNulls<Node>(children.size + 1).also { children.copyInto(it, 0, 0, i); it[i] = node; children.copyInto(it, i + 1, i) }
+            return node
+        }
+
+        fun removeChild(key: Char) {
+            val i = keys.binarySearch(key)
+            if (i < 0) return
+            keys = CharArray(keys.size - 1).also { keys.copyInto(it, 0, 0, i); keys.copyInto(it, i, i + 1) }
+            children = arrayOfNulls<Node>(children.size - 1).also { children.copyInto(it, 0, 0, i); children.copyInto(it, i, i + 1) }
+        }
+
+        val isEmpty get() = keys.isEmpty() && terms.isNullOrEmpty()
+    }
+
+    private val root = Node()
+    private val participants = HashMap<String, Participant>()
+    // Most recently active first
+    private val byActivity = TreeSet<Participant>(compareByDescending<Participant> { it.lastActive }.thenBy { it.publicKey })
+
+    val size: Int
+        @Synchronized get() = participants.size
+
+    @Synchronized
+    operator fun contains(publicKey: String) = participants.containsKey(publicKey)
+
+    /**
+     * Adds a participant, or updates the name of one that's already there. [lastActive] only ever
+     * moves a participant forward.
+     */
+    @Synchronized
+    fun add(publicKey: String, displayName: String?, lastActive: Long) {
+        val participant = participants[publicKey]
+        if (participant == null) {
+            val added = Participant(publicKey, displayName, lastActive)
+            participants[publicKey] = added
+            byActivity.add(added)
+            addTerms(added)
+            if (participants.size > maxParticipants) remove(byActivity.last().publicKey)
+            return
+        }
+        touch(participant, lastActive)
+        if (participant.displayName != displayName) {
+            removeTerms(participant)
+            participant.displayName = displayName
+            addTerms(participant)
+        }
+    }
+
+    /** Records activity of a participant, returning whether it's in the index. */
+    @Synchronized
+    fun touch(publicKey: String, lastActive: Long): Boolean {
+        touch(participants[publicKey] ?: return false, lastActive)
+        return true
+    }
+
+    @Synchronized
+    fun rename(publicKey: String, displayName: String?) {
+        val participant = participants[publicKey] ?: return
+        add(publicKey, displayName, participant.lastActive)
+    }
+
+    @Synchronized
+    fun remove(publicKey: String) {
+        val participant = participants.remove(publicKey) ?: return
+        byActivity.remove(participant)
+        removeTerms(participant)
+    }
+
+    /**
+     * Returns up to [limit] named participants matching [query], best match first. An empty query
+     * matches everyone, most recently active first.
+     */
+    @Synchronized
+    fun query(query: String, limit: Int, exclude: String? = null): List<Mention> {
+        if (query.isEmpty()) {
+            return byActivity.asSequence()
+                .filter { it.displayName != null && it.publicKey != exclude }
+                .take(limit)
+                .map { Mention(it.publicKey, it.displayName!!) }
+                .toList()
+        }
+        val normalized = normalize(query)
+        var node = root
+        for (i in 0 until minOf(normalized.length, MAX_DEPTH)) {
+            node = node.child(normalized[i]) ?: return listOf()
+        }
+        // The best way each participant matched
+        val matches = HashMap<Participant, Int>()
+        collect(node) { term ->
+            if (term.participant.displayName == null || term.participant.publicKey == exclude) return@collect
+            if (normalized.length > MAX_DEPTH && !term.text.startsWith(normalized)) return@collect
+            val match = matches[term.participant]
+            if (match == null || term.match < match) matches[term.participant] = term.match
+        }
+        return matches.entries
+            .sortedWith(compareBy<Map.Entry<Participant, Int>> { it.value }
+                .thenByDescending { it.key.lastActive }
+                .thenBy { it.key.displayName })
+            .take(limit)
+            .map { Mention(it.key.publicKey, it.key.displayName!!) }
+    }
+
+    private fun touch(participant: Participant, lastActive: Long) {
+        if (lastActive <= participant.lastActive) return
+        byActivity.remove(participant)
+        participant.lastActive = lastActive
+        byActivity.add(participant)
+    }
+
+    private fun addTerms(participant: Participant) {
+        participant.displayName?.let { displayName ->
+            val name = normalize(displayName)
+            for (i in name.indices) {
+                if (!name[i].isLetterOrDigit() || (i > 0 && name[i - 1].isLetterOrDigit())) continue
+                addTerm(Term(name.substring(i), participant, if (i == 0) MATCH_NAME else MATCH_WORD))
+            }
+        }
+        addTerm(Term(participant.publicKey.toLowerCase(), participant, MATCH_SESSION_ID))
+    }
+
+    private fun addTerm(term: Term) {
+        var node = root
+        for (i in 0 until minOf(term.text.length, MAX_DEPTH)) node = node.getOrAddChild(term.text[i])
+        (node.terms ?: ArrayList<Term>(1).also { node.terms = it }).add(term)
+        term.participant.terms.add(term)
+    }
+
+    private fun removeTerms(participant: Participant) {
+        for (term in participant.terms) removeTerm(root, term, 0)
+        participant.terms.clear()
+    }
+
+    /** Removes [term] below [node], pruning the nodes it leaves empty. */
+    private fun removeTerm(node: Node, term: Term, depth: Int) {
+        if (depth == minOf(term.text.length, MAX_DEPTH)) {
+            node.terms?.remove(term)
+            return
+        }
+        val key = term.text[depth]
+        val child = node.child(key) ?: return
+        removeTerm(child, term, depth + 1)
+        if (child.isEmpty) node.removeChild(key)
+    }
+
+    private fun collect(node: Node, action: (Term) -> Unit) {
+        node.terms?.forEach(action)
+        for (child in node.children) collect(child!!, action)
+    }
+}
@@ -4,39 +4,66 @@ import org.session.libsession.messaging.MessagingModuleConfiguration
 import org.session.libsession.messaging.contacts.Contact
 
 object MentionsManager {
-    var userPublicKeyCache = mutableMapOf<Long, Set<String>>() // Thread ID to set of user hex encoded public keys
-
-    fun cache(publicKey: String, threadID: Long) {
-        val cache = userPublicKeyCache[threadID]
-        if (cache != null) {
-            userPublicKeyCache[threadID] = cache.plus(publicKey)
-        } else {
-            userPublicKeyCache[threadID] = setOf( publicKey )
+    private const val MAX_THREADS = 20
+    private const val MAX_CANDIDATES = 100
+
+    private class ThreadIndex(val isOpenGroup: Boolean, val groupID: String?) {
+        val index = MentionIndex()
+        val context get() = if (isOpenGroup) Contact.ContactContext.OPEN_GROUP else Contact.ContactContext.REGULAR
+    }
+
+    // Thread ID to the index of the people in it, for the most recently used threads
+    private val indexes = object : LinkedHashMap<Long, ThreadIndex>(MAX_THREADS, 0.75f, true) {
+        override fun removeEldestEntry(eldest: MutableMap.MutableEntry<Long, ThreadIndex>?) = size > MAX_THREADS
+    }
+
+    @Synchronized
+    fun isIndexed(threadID: Long): Boolean = indexes.containsKey(threadID)
+
+    /**
+     * Starts the index of a thread with its participants, keyed by the time they were last
+     * active. Contacts without a name can't be mentioned until they get one.
+     *
+     * @param groupID The closed group of the thread, if it is one, whose members are the only
+     * participants. The index is dropped when they change, see [groupMembersChanged].
+     */
+    fun index(threadID: Long, isOpenGroup: Boolean, participants: Map<String, Long>, contacts: Collection<Contact>, groupID: String? = null) {
+        val threadIndex = ThreadIndex(isOpenGroup, groupID)
+        val userPublicKey = MessagingModuleConfiguration.shared.storage.getUserPublicKey()
+        val displayNames = contacts.associate { it.sessionID to it.displayName(threadIndex.context) }
+        for ((publicKey, lastActive) in participants) {
+            if (publicKey == userPublicKey) continue
+            threadIndex.index.add(publicKey, displayNames[publicKey], lastActive)
         }
+        synchronized(this) { indexes[threadID] = threadIndex }
     }
 
-    fun getMentionCandidates(query: String, threadID: Long, isOpenGroup: Boolean): List<Mention> {
-        val cache = userPublicKeyCache[threadID] ?: return listOf()
-        // Prepare
-        val context = if (isOpenGroup) Contact.ContactContext.OPEN_GROUP else Contact.ContactContext.REGULAR
+    /** Records a message from [publicKey], if the thread is indexed. */
+    fun cache(publicKey: String, threadID: Long, timestamp: Long) {
+        val threadIndex = synchronized(this) { indexes[threadID] } ?: return
+        if (threadIndex.index.touch(publicKey, timestamp)) return
         val storage = MessagingModuleConfiguration.shared.storage
-        val userPublicKey = storage.getUserPublicKey()
-        // Gather candidates
-        var candidates: List<Mention> = cache.mapNotNull { publicKey ->
-            val contact = storage.getContactWithSessionID(publicKey)
-            val displayName = contact?.displayName(context) ?: return@mapNotNull null
-            Mention(publicKey, displayName)
-        }
-        candidates = candidates.filter { it.publicKey != userPublicKey }
-        // Sort alphabetically first
-        candidates.sortedBy { it.displayName }
-        if (query.length >= 2) {
-            // Filter out any non-matching candidates
-            candidates = candidates.filter { it.displayName.toLowerCase().contains(query.toLowerCase()) }
-            // Sort based on where in the candidate the query occurs
-            candidates.sortedBy { it.displayName.toLowerCase().indexOf(query.toLowerCase()) }
+        if (publicKey == storage.getUserPublicKey()) return
+        threadIndex.index.add(publicKey, storage.getContactWithSessionID(publicKey)?.displayName(threadIndex.context), timestamp)
+    }
+
+    /** Updates the name of [contact] in the threads it's indexed in. */
+    fun contactUpdated(contact: Contact) {
+        val threadIndexes = synchronized(this) { indexes.values.toList() }
+        for (threadIndex in threadIndexes) {
+            threadIndex.index.rename(contact.sessionID, contact.displayName(threadIndex.context))
         }
-        // Return
-        return candidates
+    }
+
+    /** Drops the index of the closed group [groupID], so it's built again with its current members. */
+    @Synchronized
+    fun groupMembersChanged(groupID: String) {
+        indexes.values.removeAll { it.groupID.equals(groupID, ignoreCase = true) }
+    }
+
+    fun getMentionCandidates(query: String, threadID: Long, isOpenGroup: Boolean): List<Mention> {
+        val threadIndex = synchronized(this) { indexes[threadID] } ?: return listOf()
+        val userPublicKey = MessagingModuleConfiguration.shared.storage.getUserPublicKey()
+        return threadIndex.index.query(query, MAX_CANDIDATES, userPublicKey)
     }
 }
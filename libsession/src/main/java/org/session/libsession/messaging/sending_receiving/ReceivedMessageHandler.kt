@@ -5,6 +5,7 @@ import org.session.libsession.avatars.AvatarHelper
 import org.session.libsession.messaging.MessagingModuleConfiguration
 import org.session.libsession.messaging.jobs.BackgroundGroupAddJob
 import org.session.libsession.messaging.jobs.JobQueue
+import org.session.libsession.messaging.mentions.MentionsManager
 import org.session.libsession.messaging.messages.Message
 import org.session.libsession.messaging.messages.control.CallMessage
 import org.session.libsession.messaging.messages.control.ClosedGroupControlMessage
@@ -345,6 +346,7 @@ fun MessageReceiver.handleVisibleMessage(message: VisibleMessage,
             storage.persist(message, quoteModel, linkPreviews, message.groupPublicKey, openGroupID,
          attachments, runIncrement, runThreadUpdate
         ) ?: return null
+        MentionsManager.cache(messageSender, threadID, message.sentTimestamp ?: 0)
         val openGroupServerID = message.openGroupServerMessageID
         if (openGroupServerID != null) {
             val isSms = !(message.isMediaMessage() || attachments.isNotEmpty())
@@ -165,25 +165,32 @@ object SodiumUtilities {
         blindedSessionId: String,
         serverPublicKey: String
     ): Boolean {
-        // Only support generating blinded keys for standard session ids
-        val sessionId = SessionId(standardSessionId)
-        if (sessionId.prefix != IdPrefix.STANDARD) return false
         val blindedId = SessionId(blindedSessionId)
         if (blindedId.prefix != IdPrefix.BLINDED) return false
         val k = generateBlindingFactor(serverPublicKey) ?: return false
+        return blindedPublicKeys(standardSessionId, k)?.contains(blindedId.publicKey) ?: false
+    }
+
+    /*
+     Returns the two blinded public keys (hex, without prefix) a standard sessionId can appear as on the server with
+     the blinding factor `k`, or null if the sessionId can't be blinded
+    */
+    fun blindedPublicKeys(standardSessionId: String, k: ByteArray): List<String>? {
+        // Only support generating blinded keys for standard session ids
+        val sessionId = SessionId(standardSessionId)
+        if (sessionId.prefix != IdPrefix.STANDARD) return null
 
         // From the session id (ignoring 05 prefix) we have two possible ed25519 pubkeys;
         // the first is the positive (which is what Signal's XEd25519 conversion always uses)
         val xEd25519Key = curve.convertToEd25519PublicKey(Key.fromHexString(sessionId.publicKey).asBytes)
 
         // Blind the positive public key
-        val pk1 = combineKeys(k, xEd25519Key) ?: return false
+        val pk1 = combineKeys(k, xEd25519Key) ?: return null
 
         // For the negative, what we're going to get out of the above is simply the negative of pk1, so flip the sign bit to get pk2
         //     pk2 = pk1[0:31] + bytes([pk1[31] ^ 0b1000_0000])
         val pk2 = pk1.take(31).toByteArray() + listOf(pk1.last().xor(128.toByte())).toByteArray()
-        return SessionId(IdPrefix.BLINDED, pk1).publicKey == blindedId.publicKey ||
-                SessionId(IdPrefix.BLINDED, pk2).publicKey == blindedId.publicKey
+        return listOf(pk1.toHexString(), pk2.toHexString())
     }
 
     fun encrypt(message: ByteArray, secretKey: ByteArray, nonce: ByteArray, additionalData: ByteArray? = null): ByteArray? {
@@ -0,0 +1,80 @@
+package org.session.libsession.utilities;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Keeps the {@code maxSize} most recently used values. Values which are evicted but still
+ * referenced elsewhere (eg. by a screen showing them) keep being returned until they're collected,
+ * so callers never end up with two live values for the same key. Thread safe.
+ */
+public class AccessOrderedCache<K, V> {
+
+  private final int maxSize;
+
+  private final LinkedHashMap<K, V>     recent  = new LinkedHashMap<K, V>(16, 0.75f, true) {
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+      if (size() <= maxSize) return false;
+      evicted.put(eldest.getKey(), new KeyedReference<>(eldest.getKey(), eldest.getValue(), queue));
+      return true;
+    }
+  };
+  private final Map<K, KeyedReference<K, V>> evicted = new HashMap<>();
+  private final ReferenceQueue<V>            queue   = new ReferenceQueue<>();
+
+  public AccessOrderedCache(int maxSize) {
+    this.maxSize = maxSize;
+  }
+
+  public synchronized @Nullable V get(@NonNull K key) {
+    V value = recent.get(key);
+    if (value != null) return value;
+
+    KeyedReference<K, V> reference = evicted.remove(key);
+    value = reference != null ? reference.get() : null;
+    if (value != null) recent.put(key, value);
+    return value;
+  }
+
+  public synchronized void put(@NonNull K key, @NonNull V value) {
+    purge();
+    evicted.remove(key);
+    recent.put(key, value);
+  }
+
+  public synchronized boolean remove(@NonNull K key) {
+    KeyedReference<K, V> reference = evicted.remove(key);
+    return recent.remove(key) != null || (reference != null && reference.get() != null);
+  }
+
+  /** The number of values held strongly, at most {@code maxSize}. */
+  public synchronized int size() {
+    return recent.size();
+  }
+
+  private void purge() {
+    Reference<? extends V> reference;
+    while ((reference = queue.poll()) != null) {
+      Object key = ((KeyedReference<?, ?>) reference).key;
+      // Unless it's been evicted again since
+      if (evicted.get(key) == reference) evicted.remove(key);
+    }
+  }
+
+  private static class KeyedReference<K, V> extends WeakReference<V> {
+    private final K key;
+
+    KeyedReference(K key, V value, ReferenceQueue<V> queue) {
+      super(value, queue);
+      this.key = key;
+    }
+  }
+}
@@ -0,0 +1,224 @@
+package org.session.libsession.utilities
+
+import android.media.AudioFormat
+import android.media.MediaCodec
+import android.media.MediaDataSource
+import android.media.MediaExtractor
+import android.media.MediaFormat
+import android.os.Build
+import androidx.annotation.RequiresApi
+import java.io.IOException
+import java.nio.ByteOrder
+import java.nio.ShortBuffer
+import kotlin.math.ceil
+import kotlin.math.min
+import kotlin.math.sqrt
+
+/**
+ * The duration and RMS values of an audio track, extracted in a single decoding pass.
+ *
+ * Unlike [DecodedAudio], the decoded samples aren't kept: they're folded into an [RmsAccumulator]
+ * as they come out of the decoder, so a long voice note takes the same few kilobytes as a short
+ * one.
+ */
+class AudioWaveform private constructor(
+    /** Normalized RMS values of the first channel, see [DecodedAudio.calculateRms]. */
+    val rms: ByteArray,
+    /** In microseconds. */
+    val totalDuration: Long
+) {
+
+    companion object {
+        @JvmStatic
+        @RequiresApi(api = Build.VERSION_CODES.M)
+        @Throws(IOException::class)
+        fun extract(dataSource: MediaDataSource, frames: Int): AudioWaveform {
+            val extractor = MediaExtractor()
+            try {
+                extractor.setDataSource(dataSource)
+                return extract(extractor, frames)
+            } finally {
+                extractor.release()
+            }
+        }
+
+        @Throws(IOException::class)
+        private fun extract(extractor: MediaExtractor, frames: Int): AudioWaveform {
+            var mediaFormat: MediaFormat? = null
+            // Find and select the first audio track present in the file.
+            for (trackIndex in 0 until extractor.trackCount) {
+                val format = extractor.getTrackFormat(trackIndex)
+                if (format.getString(MediaFormat.KEY_MIME)!!.startsWith("audio/")) {
+                    extractor.selectTrack(trackIndex)
+                    mediaFormat = format
+                    break
+                }
+            }
+            if (mediaFormat == null) {
+                throw IOException("No audio track found in the data source.")
+            }
+
+            val mime = mediaFormat.getString(MediaFormat.KEY_MIME)!!
+            var channels = mediaFormat.getInteger(MediaFormat.KEY_CHANNEL_COUNT)
+            val sampleRate = mediaFormat.getInteger(MediaFormat.KEY_SAMPLE_RATE)
+            // On some old APIs (23) this field might be missing.
+            val formatDuration = if (mediaFormat.containsKey(MediaFormat.KEY_DURATION)) {
+                mediaFormat.getLong(MediaFormat.KEY_DURATION)
+            } else {
+                -1L
+            }
+            // Expected total number of samples per channel.
+            val expectedNumSamples = if (formatDuration >= 0) {
+                ((formatDuration / 1000000f) * sampleRate + 0.5f).toLong()
+            } else {
+                Long.MAX_VALUE
+            }
+
+            val accumulator = RmsAccumulator(frames)
+            val codec = MediaCodec.createDecoderByType(mime)
+            try {
+                codec.configure(mediaFormat, null, null, 0)
+                codec.start()
+
+                // Check if the track is in PCM 16 bit encoding.
+                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+                    try {
+                        val pcmEncoding = codec.outputFormat.getInteger(MediaFormat.KEY_PCM_ENCODING)
+                        if (pcmEncoding != AudioFormat.ENCODING_PCM_16BIT) {
+                            throw IOException("Unsupported PCM encoding code: $pcmEncoding")
+                        }
+                    } catch (e: NullPointerException) {
+                        // If KEY_PCM_ENCODING is not specified, means it's ENCODING_PCM_16BIT.
+                    }
+                }
+
+                val info = MediaCodec.BufferInfo()
+                var doneReading = false
+                var firstSampleData = true
+
+                while (true) {
+                    val inputBufferIndex = codec.dequeueInputBuffer(10_000)
+                    if (!doneReading && inputBufferIndex >= 0) {
+                        val sampleSize = extractor.readSampleData(codec.getInputBuffer(inputBufferIndex)!!, 0)
+                        if (firstSampleData && mime == "audio/mp4a-latm" && sampleSize == 2) {
+                            // Some devices crash when given the two byte AAC stream header, see
+                            // the same check in DecodedAudio.
+                            extractor.advance()
+                        } else if (sampleSize < 0) {
+                            codec.queueInputBuffer(inputBufferIndex, 0, 0, -1, MediaCodec.BUFFER_FLAG_END_OF_STREAM)
+                            doneReading = true
+                        } else {
+                            codec.queueInputBuffer(inputBufferIndex, 0, sampleSize, extractor.sampleTime, 0)
+                            extractor.advance()
+                        }
+                        firstSampleData = false
+                    }
+
+                    val outputBufferIndex = codec.dequeueOutputBuffer(info, 10_000)
+                    if (outputBufferIndex == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
+                        // e.g. mono HE-AAC decoded as stereo
+                        channels = codec.outputFormat.getInteger(MediaFormat.KEY_CHANNEL_COUNT)
+                    } else if (outputBufferIndex >= 0) {
+                        if (info.size > 0) {
+                            val outputBuffer = codec.getOutputBuffer(outputBufferIndex)!!
+                            outputBuffer.position(info.offset)
+                            outputBuffer.limit(info.offset + info.size)
+                            accumulator.add(outputBuffer.slice().order(ByteOrder.LITTLE_ENDIAN).asShortBuffer(), channels)
+                        }
+                        codec.releaseOutputBuffer(outputBufferIndex, false)
+                    }
+
+                    // Like DecodedAudio, don't rely on every device flagging the end of the stream.
+                    if ((info.flags and MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0
+                            || accumulator.sampleCount >= expectedNumSamples
+                    ) {
+                        break
+                    }
+                }
+                codec.stop()
+            } finally {
+                codec.release()
+            }
+
+            val totalDuration = if (formatDuration >= 0) formatDuration else accumulator.sampleCount * 1000000L / sampleRate
+            return AudioWaveform(accumulator.toByteArray(), totalDuration)
+        }
+    }
+}
+
+/**
+ * Folds the samples of a channel into RMS frames without knowing up front how many samples there
+ * will be.
+ *
+ * The sums of the squared samples are kept in [frames] * [RESOLUTION] buckets. When those are full,
+ * neighbouring buckets are merged, doubling the number of samples per bucket. At the end the
+ * buckets are split into the frames [calculateRms] would use, spreading a bucket that straddles two
+ * frames over both. While there is one sample per bucket that's exact; after that each frame still
+ * covers at least half of [RESOLUTION] buckets, which keeps the result within a step or so of the
+ * exact value.
+ */
+class RmsAccumulator(private val frames: Int) {
+
+    companion object {
+        private const val RESOLUTION = 64
+    }
+
+    private val squaredSums = DoubleArray(frames * RESOLUTION)
+    private var samplesPerBucket = 1L
+
+    /** Number of samples per channel added so far. */
+    var sampleCount = 0L
+        private set
+
+    /** Adds the first channel of interleaved samples. */
+    fun add(samples: ShortBuffer, channels: Int) {
+        var index = samples.position()
+        while (index < samples.limit()) {
+            add(samples[index])
+            index += channels
+        }
+    }
+
+    fun add(sample: Short) {
+        var bucket = sampleCount / samplesPerBucket
+        if (bucket >= squaredSums.size) {
+            fold()
+            bucket = sampleCount / samplesPerBucket
+        }
+        squaredSums[bucket.toInt()] += sample.toDouble() * sample
+        sampleCount++
+    }
+
+    private fun fold() {
+        val half = squaredSums.size / 2
+        for (i in 0 until half) {
+            squaredSums[i] = squaredSums[2 * i] + squaredSums[2 * i + 1]
+        }
+        squaredSums.fill(0.0, half, squaredSums.size)
+        samplesPerBucket *= 2
+    }
+
+    /** @return normalized RMS values as a signed byte array, see [DecodedAudio.calculateRms]. */
+    fun toByteArray(): ByteArray {
+        val numFrames = min(frames.toLong(), sampleCount).toInt()
+        val frameStep = sampleCount / numFrames.toDouble()
+        val rmsValues = FloatArray(numFrames)
+
+        for (frame in 0 until numFrames) {
+            val start = ceil(frame * frameStep).toLong()
+            val end = if (frame == numFrames - 1) sampleCount else ceil((frame + 1) * frameStep).toLong()
+            var squaredSum = 0.0
+            var bucket = start / samplesPerBucket
+            while (bucket * samplesPerBucket < end) {
+                val bucketStart = bucket * samplesPerBucket
+                val bucketEnd = min(bucketStart + samplesPerBucket, sampleCount)
+                val overlap = min(bucketEnd, end) - maxOf(bucketStart, start)
+                squaredSum += squaredSums[bucket.toInt()] * overlap / (bucketEnd - bucketStart)
+                bucket++
+            }
+            rmsValues[frame] = sqrt(squaredSum / (end - start)).toFloat()
+        }
+
+        return normalizeToBytes(rmsValues)
+    }
+}
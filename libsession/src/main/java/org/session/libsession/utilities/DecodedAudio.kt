@@ -30,7 +30,8 @@ import kotlin.math.sqrt
  * (https://github.com/google/ringdroid/blob/master/app/src/main/java/com/ringdroid/soundfile/SoundFile.java).
  *
  * *NOTE:* This class instance creation might be pretty slow (depends on the source audio file size).
- * It's recommended to instantiate it in the background.
+ * It's recommended to instantiate it in the background. It also keeps every decoded sample in memory,
+ * so to just get the duration and RMS values use [AudioWaveform] instead.
  */
 @Suppress("MemberVisibilityCanBePrivate")
 class DecodedAudio {
@@ -277,7 +278,7 @@ class DecodedAudio {
  *
  * @return normalized RMS values as a signed byte array.
  */
-private fun calculateRms(samples: ShortBuffer, numSamples: Int, channels: Int, maxFrames: Int): ByteArray {
+internal fun calculateRms(samples: ShortBuffer, numSamples: Int, channels: Int, maxFrames: Int): ByteArray {
     val numFrames: Int
     val frameStep: Float
 
@@ -319,9 +320,14 @@ private fun calculateRms(samples: ShortBuffer, numSamples: Int, channels: Int, m
     calculateFrameRms(-1)
 
 //    smoothArray(rmsValues, 1.0f)
-    normalizeArray(rmsValues)
+    return normalizeToBytes(rmsValues)
+}
 
-    // Convert normalized result to a signed byte array.
+/**
+ * Normalizes RMS values and converts them to a signed byte array.
+ */
+internal fun normalizeToBytes(rmsValues: FloatArray): ByteArray {
+    normalizeArray(rmsValues)
     return rmsValues.map { value -> normalizedFloatToByte(value) }.toByteArray()
 }
 
@@ -261,6 +261,7 @@ interface TextSecurePreferences {
         const val SHOWN_CALL_WARNING = "pref_shown_call_warning" // call warning is user-facing warning of enabling calls
         const val SHOWN_CALL_NOTIFICATION = "pref_shown_call_notification" // call notification is a prompt to check privacy settings
         const val LAST_VACUUM_TIME = "pref_last_vacuum_time"
+        const val EMOJI_SEARCH_INDEX_VERSION = "pref_emoji_search_index_version"
         const val AUTOPLAY_AUDIO_MESSAGES = "pref_autoplay_audio"
         const val FINGERPRINT_KEY_GENERATED = "fingerprint_key_generated"
         const val SELECTED_ACCENT_COLOR = "selected_accent_color"
@@ -944,6 +945,17 @@ interface TextSecurePreferences {
             setLongPreference(context, LAST_VACUUM_TIME, System.currentTimeMillis())
         }
 
+        /** The version code of the app whose emoji search index was last loaded, or 0. */
+        @JvmStatic
+        fun getEmojiSearchIndexVersion(context: Context): Int {
+            return getIntegerPreference(context, EMOJI_SEARCH_INDEX_VERSION, 0)
+        }
+
+        @JvmStatic
+        fun setEmojiSearchIndexVersion(context: Context, versionCode: Int) {
+            setIntegerPreference(context, EMOJI_SEARCH_INDEX_VERSION, versionCode)
+        }
+
         @JvmStatic
         fun getFingerprintKeyGenerated(context: Context): Boolean {
             return getBooleanPreference(context, FINGERPRINT_KEY_GENERATED, false)
@@ -21,6 +21,7 @@ import android.content.Context;
 import android.graphics.drawable.Drawable;
 import android.net.Uri;
 import android.os.Build;
+import android.view.Choreographer;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
@@ -50,9 +51,11 @@ import org.session.libsession.utilities.recipients.RecipientProvider.RecipientDe
 import org.session.libsignal.utilities.Log;
 import org.session.libsignal.utilities.guava.Optional;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Objects;
@@ -65,6 +68,10 @@ public class Recipient implements RecipientModifiedListener {
   private static final String            TAG      = Recipient.class.getSimpleName();
   private static final RecipientProvider provider = new RecipientProvider();
 
+  // Compared by identity, since recipients are equal by their (changing) contents
+  private static final Set<Recipient> pendingNotifications = Collections.newSetFromMap(new IdentityHashMap<>());
+  private static       boolean        notificationsScheduled;
+
   private final Set<RecipientModifiedListener> listeners = Collections.newSetFromMap(new WeakHashMap<RecipientModifiedListener, Boolean>());
 
   private final @NonNull Address address;
@@ -114,6 +121,10 @@ public class Recipient implements RecipientModifiedListener {
     return provider.getRecipient(context, address, settings, groupRecord, asynchronous);
   }
 
+  public static @NonNull Optional<Recipient> getCached(@NonNull Address address) {
+    return provider.getCached(address);
+  }
+
   public static void applyCached(@NonNull Address address, Consumer<Recipient> consumer) {
     Optional<Recipient> recipient = provider.getCached(address);
     if (recipient.isPresent()) consumer.accept(recipient.get());
@@ -749,15 +760,50 @@ public class Recipient implements RecipientModifiedListener {
     return result;
   }
 
+  /**
+   * Tells the listeners about a change on the next frame, on the main thread. However often a
+   * recipient changes before then, its listeners are only told once.
+   */
   public void notifyListeners() {
-    Set<RecipientModifiedListener> localListeners;
-
     synchronized (this) {
-      localListeners = new HashSet<>(listeners);
+      if (listeners.isEmpty()) return;
     }
 
-    for (RecipientModifiedListener listener : localListeners)
-      listener.onModified(this);
+    synchronized (pendingNotifications) {
+      pendingNotifications.add(this);
+      if (notificationsScheduled) return;
+      notificationsScheduled = true;
+    }
+
+    Util.runOnMain(() -> Choreographer.getInstance().postFrameCallback(frameTimeNanos -> dispatchPendingNotifications()));
+  }
+
+  private static void dispatchPendingNotifications() {
+    // Notifying a participant notifies its groups, which are told in the same frame
+    while (true) {
+      List<Recipient> recipients;
+
+      synchronized (pendingNotifications) {
+        if (pendingNotifications.isEmpty()) {
+          notificationsScheduled = false;
+          return;
+        }
+
+        recipients = new ArrayList<>(pendingNotifications);
+        pendingNotifications.clear();
+      }
+
+      for (Recipient recipient : recipients) {
+        Set<RecipientModifiedListener> localListeners;
+
+        synchronized (recipient) {
+          localListeners = new HashSet<>(recipient.listeners);
+        }
+
+        for (RecipientModifiedListener listener : localListeners)
+          listener.onModified(recipient);
+      }
+    }
   }
 
   @Override
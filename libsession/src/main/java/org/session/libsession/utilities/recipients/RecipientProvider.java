@@ -25,6 +25,7 @@ import androidx.annotation.Nullable;
 
 import org.session.libsession.R;
 import org.session.libsession.messaging.MessagingModuleConfiguration;
+import org.session.libsession.utilities.AccessOrderedCache;
 import org.session.libsession.utilities.Address;
 import org.session.libsession.utilities.GroupRecord;
 import org.session.libsession.utilities.ListenableFutureTask;
@@ -35,22 +36,28 @@ import org.session.libsession.utilities.recipients.Recipient.RecipientSettings;
 import org.session.libsession.utilities.recipients.Recipient.RegisteredState;
 import org.session.libsession.utilities.recipients.Recipient.UnidentifiedAccessMode;
 import org.session.libsession.utilities.recipients.Recipient.VibrateState;
+import org.session.libsignal.utilities.Log;
 import org.session.libsignal.utilities.guava.Optional;
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.Callable;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 
 class RecipientProvider {
 
-  @SuppressWarnings("unused")
   private static final String TAG = RecipientProvider.class.getSimpleName();
 
-  private static final RecipientCache  recipientCache         = new RecipientCache();
-  private static final ExecutorService asyncRecipientResolver = Util.newSingleThreadedLifoExecutor();
+  private static final int MAX_CACHED_RECIPIENTS = 1000;
+  private static final int MAX_BATCH_SIZE        = 200;
+
+  private static final AccessOrderedCache<Address, Recipient> recipientCache         = new AccessOrderedCache<>(MAX_CACHED_RECIPIENTS);
+  private static final BatchResolver                          asyncRecipientResolver = new BatchResolver();
 
   @NonNull Recipient getRecipient(@NonNull Context context, @NonNull Address address, @NonNull Optional<RecipientSettings> settings, @NonNull Optional<GroupRecord> groupRecord, boolean asynchronous) {
     Recipient cachedRecipient = recipientCache.get(address);
@@ -67,7 +74,7 @@ class RecipientProvider {
       cachedRecipient = new Recipient(context, address, getRecipientDetailsSync(context, address, settings, groupRecord, false));
     }
 
-    recipientCache.set(address, cachedRecipient);
+    recipientCache.put(address, cachedRecipient);
     return cachedRecipient;
   }
 
@@ -95,20 +102,24 @@ class RecipientProvider {
 
   private @NonNull ListenableFutureTask<RecipientDetails> getRecipientDetailsAsync(final Context context, final @NonNull Address address, final @NonNull Optional<RecipientSettings> settings, final @NonNull Optional<GroupRecord> groupRecord)
   {
-    Callable<RecipientDetails> task = () -> getRecipientDetailsSync(context, address, settings, groupRecord, true);
-
-    ListenableFutureTask<RecipientDetails> future = new ListenableFutureTask<>(task);
-    asyncRecipientResolver.submit(future);
-    return future;
+    ResolveRequest             request = new ResolveRequest(address, settings);
+    Callable<RecipientDetails> task    = () -> {
+      if (request.settingsLoaded) return getIndividualRecipientDetails(context, address, request.settings, false);
+      else                        return getRecipientDetailsSync(context, address, request.settings, groupRecord, true);
+    };
+
+    request.future = new ListenableFutureTask<>(task);
+    asyncRecipientResolver.submit(request);
+    return request.future;
   }
 
   private @NonNull RecipientDetails getRecipientDetailsSync(Context context, @NonNull Address address, Optional<RecipientSettings> settings, Optional<GroupRecord> groupRecord, boolean nestedAsynchronous) {
     if (address.isGroup()) return getGroupRecipientDetails(context, address, groupRecord, settings, nestedAsynchronous);
-    else                   return getIndividualRecipientDetails(context, address, settings);
+    else                   return getIndividualRecipientDetails(context, address, settings, true);
   }
 
-  private @NonNull RecipientDetails getIndividualRecipientDetails(Context context, @NonNull Address address, Optional<RecipientSettings> settings) {
-    if (!settings.isPresent()) {
+  private @NonNull RecipientDetails getIndividualRecipientDetails(Context context, @NonNull Address address, Optional<RecipientSettings> settings, boolean loadSettings) {
+    if (!settings.isPresent() && loadSettings) {
       settings = Optional.fromNullable(MessagingModuleConfiguration.getShared().getStorage().getRecipientSettings(address));
     }
 
@@ -215,22 +226,77 @@ class RecipientProvider {
     }
   }
 
-  private static class RecipientCache {
+  private static class ResolveRequest {
+    private final @NonNull Address                                address;
+    private       @NonNull Optional<RecipientSettings>            settings;
+    private                boolean                                settingsLoaded;
+    private                ListenableFutureTask<RecipientDetails> future;
 
-    private final Map<Address,Recipient> cache = new ConcurrentHashMap<>(1000);
-
-    public Recipient get(Address address) {
-      return cache.get(address);
+    ResolveRequest(@NonNull Address address, @NonNull Optional<RecipientSettings> settings) {
+      this.address  = address;
+      this.settings = settings;
     }
+  }
 
-    public void set(Address address, Recipient recipient) {
-      cache.put(address, recipient);
+  /**
+   * Resolves recipients in the background, most recently requested first, a batch at a time. The
+   * settings of all the individuals in a batch are read in one query.
+   */
+  private static class BatchResolver {
+
+    private final ExecutorService           executor = Util.newSingleThreadedLifoExecutor();
+    private final ArrayDeque<ResolveRequest> pending  = new ArrayDeque<>();
+    private       boolean                   draining;
+
+    void submit(@NonNull ResolveRequest request) {
+      synchronized (pending) {
+        pending.addFirst(request);
+        if (draining) return;
+        draining = true;
+      }
+      executor.execute(this::drain);
     }
 
-    public boolean remove(Address address) {
-      return cache.remove(address) != null;
+    private void drain() {
+      while (true) {
+        List<ResolveRequest> batch = new ArrayList<>(MAX_BATCH_SIZE);
+
+        synchronized (pending) {
+          while (batch.size() < MAX_BATCH_SIZE && !pending.isEmpty()) batch.add(pending.removeFirst());
+
+          if (batch.isEmpty()) {
+            draining = false;
+            return;
+          }
+        }
+
+        loadSettings(batch);
+        for (ResolveRequest request : batch) request.future.run();
+      }
     }
 
+    private void loadSettings(@NonNull List<ResolveRequest> batch) {
+      Set<Address> addresses = new HashSet<>();
+
+      for (ResolveRequest request : batch) {
+        if (!request.address.isGroup() && !request.settings.isPresent()) addresses.add(request.address);
+      }
+
+      if (addresses.isEmpty()) return;
+
+      try {
+        Map<Address, RecipientSettings> settings = MessagingModuleConfiguration.getShared().getStorage().getRecipientSettings(addresses);
+
+        for (ResolveRequest request : batch) {
+          if (!addresses.contains(request.address)) continue;
+          request.settings       = Optional.fromNullable(settings.get(request.address));
+          request.settingsLoaded = true;
+        }
+      } catch (Exception e) {
+        // Each of them will read its own settings instead
+        Log.w(TAG, "Failed to load recipient settings", e);
+      }
+    }
   }
 
 }
\ No newline at end of file
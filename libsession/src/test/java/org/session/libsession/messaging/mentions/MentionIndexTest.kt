@@ -0,0 +1,130 @@
+package org.session.libsession.messaging.mentions
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+class MentionIndexTest {
+
+    private fun publicKey(i: Int) = "05" + i.toString(16).padStart(64, '0')
+
+    private fun MentionIndex.names(query: String, limit: Int = 100, exclude: String? = null) =
+        query(query, limit, exclude).map { it.displayName }
+
+    @Test
+    fun ranksNameStartThenWordStartThenSessionId() {
+        val index = MentionIndex()
+        index.add(publicKey(1), "Anna Bell", 100)
+        index.add(publicKey(2), "Bella", 50)
+        index.add(publicKey(3), "Carl Bellamy", 300)
+        index.add("05be11" + "0".repeat(60), "Dora", 400)
+        index.add(publicKey(5), "05 Club", 10)
+
+        assertEquals(listOf("Bella", "Carl Bellamy", "Anna Bell"), index.names("bel"))
+        assertEquals(listOf("Dora"), index.names("05be11"))
+        assertEquals(listOf("05 Club", "Dora", "Carl Bellamy", "Anna Bell", "Bella"), index.names("05"))
+    }
+
+    @Test
+    fun ranksMoreRecentlyActiveFirst() {
+        val index = MentionIndex()
+        index.add(publicKey(1), "Sam Old", 100)
+        index.add(publicKey(2), "Sam New", 300)
+        index.add(publicKey(3), "Sam Middle", 200)
+        assertEquals(listOf("Sam New", "Sam Middle", "Sam Old"), index.names("sam"))
+
+        index.touch(publicKey(1), 400)
+        assertEquals(listOf("Sam Old", "Sam New", "Sam Middle"), index.names("sam"))
+        // Activity never moves back
+        index.touch(publicKey(1), 0)
+        assertEquals("Sam Old", index.names("sam").first())
+    }
+
+    @Test
+    fun breaksTiesByName() {
+        val index = MentionIndex()
+        index.add(publicKey(1), "Zed", 100)
+        index.add(publicKey(2), "Zara", 100)
+        index.add(publicKey(3), "Zoe", 100)
+        assertEquals(listOf("Zara", "Zed", "Zoe"), index.names("z"))
+    }
+
+    @Test
+    fun emptyQueryListsMostRecentlyActive() {
+        val index = MentionIndex()
+        (1..10).forEach { index.add(publicKey(it), "User $it", it.toLong()) }
+        assertEquals(listOf("User 10", "User 9", "User 8"), index.names("", 3))
+    }
+
+    @Test
+    fun ignoresCaseAndAccents() {
+        val index = MentionIndex()
+        index.add(publicKey(1), "Zoë Ångström", 100)
+        assertEquals(listOf("Zoë Ångström"), index.names("ZOE"))
+        assertEquals(listOf("Zoë Ångström"), index.names("angs"))
+        assertEquals(listOf("Zoë Ångström"), index.names("zoë å"))
+    }
+
+    @Test
+    fun matchesQueriesLongerThanTheTrie() {
+        val index = MentionIndex()
+        index.add(publicKey(1), "Bartholomew Longname", 100)
+        index.add(publicKey(2), "Bartholomew Longnose", 200)
+        assertEquals(listOf("Bartholomew Longname"), index.names("bartholomew longna"))
+        assertEquals(listOf("Bartholomew Longnose", "Bartholomew Longname"), index.names("bartholomew long"))
+        assertEquals(listOf("Bartholomew Longname"), index.names(publicKey(1)))
+        assertEquals(listOf<String>(), index.names("bartholomew longer"))
+    }
+
+    @Test
+    fun renamesAndRemoves() {
+        val index = MentionIndex()
+        index.add(publicKey(1), "Alice", 100)
+        index.add(publicKey(2), null, 200)
+        assertEquals(listOf("Alice"), index.names(""))
+        // Unnamed participants can't be mentioned until they're named
+        assertEquals(listOf<String>(), index.names(publicKey(2)))
+
+        index.rename(publicKey(1), "Alicia")
+        index.rename(publicKey(2), "Bob")
+        assertEquals(listOf("Alicia"), index.names("ali"))
+        assertEquals(listOf<String>(), index.names("alice"))
+        assertEquals(listOf("Bob", "Alicia"), index.names(""))
+
+        index.remove(publicKey(1))
+        assertEquals(listOf<String>(), index.names("ali"))
+        assertFalse(publicKey(1) in index)
+        assertEquals(1, index.size)
+    }
+
+    @Test
+    fun excludesAPublicKey() {
+        val index = MentionIndex()
+        index.add(publicKey(1), "Me", 100)
+        index.add(publicKey(2), "Mel", 100)
+        assertEquals(listOf("Mel"), index.names("me", exclude = publicKey(1)))
+        assertEquals(listOf("Mel"), index.names("", exclude = publicKey(1)))
+    }
+
+    @Test
+    fun dropsTheLeastRecentlyActiveWhenFull() {
+        val index = MentionIndex(maxParticipants = 3)
+        index.add(publicKey(1), "One", 100)
+        index.add(publicKey(2), "Two", 50)
+        index.add(publicKey(3), "Three", 300)
+        index.add(publicKey(4), "Four", 200)
+        assertEquals(3, index.size)
+        assertFalse(publicKey(2) in index)
+        assertTrue(index.names("two").isEmpty())
+        assertEquals(listOf("Three", "Four", "One"), index.names(""))
+    }
+
+    @Test
+    fun limitsResults() {
+        val index = MentionIndex()
+        (1..50).forEach { index.add(publicKey(it), "Member $it", it.toLong()) }
+        assertEquals(listOf("Member 50", "Member 49"), index.names("mem", 2))
+        assertEquals(listOf("Member 50", "Member 5"), index.names("member 5", 2))
+    }
+}
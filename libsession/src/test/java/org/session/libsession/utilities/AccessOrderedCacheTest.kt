@@ -0,0 +1,48 @@
+package org.session.libsession.utilities
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertSame
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+class AccessOrderedCacheTest {
+
+    private class Value(val name: String)
+
+    @Test
+    fun evictsLeastRecentlyUsed() {
+        val cache = AccessOrderedCache<String, String>(2)
+        cache.put("a", "1")
+        cache.put("b", "2")
+        cache.get("a")
+        cache.put("c", "3")
+        assertEquals(2, cache.size())
+        assertEquals("1", cache.get("a"))
+        assertEquals("3", cache.get("c"))
+    }
+
+    @Test
+    fun keepsReturningEvictedValuesStillInUse() {
+        val cache = AccessOrderedCache<String, Value>(1)
+        val first = Value("first")
+        cache.put("a", first)
+        cache.put("b", Value("second"))
+        assertEquals(1, cache.size())
+        // Still referenced here, so the same value comes back
+        assertSame(first, cache.get("a"))
+        assertEquals(1, cache.size())
+    }
+
+    @Test
+    fun replacesAndRemoves() {
+        val cache = AccessOrderedCache<String, String>(2)
+        cache.put("a", "1")
+        cache.put("a", "2")
+        assertEquals("2", cache.get("a"))
+        assertTrue(cache.remove("a"))
+        assertFalse(cache.remove("a"))
+        assertNull(cache.get("a"))
+    }
+}
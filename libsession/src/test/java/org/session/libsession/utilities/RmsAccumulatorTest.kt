@@ -0,0 +1,77 @@
+package org.session.libsession.utilities
+
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.nio.ShortBuffer
+import kotlin.math.abs
+import kotlin.math.sin
+import kotlin.random.Random
+
+class RmsAccumulatorTest {
+
+    private val random = Random(35)
+
+    /** Speech-like: a tone whose loudness rises and falls, plus some noise. */
+    private fun samples(perChannel: Int, channels: Int): ShortArray {
+        val samples = ShortArray(perChannel * channels)
+        for (i in 0 until perChannel) {
+            val envelope = abs(sin(i * 7.0 / perChannel)) * (0.3 + 0.7 * random.nextDouble())
+            for (channel in 0 until channels) {
+                samples[i * channels + channel] = (envelope * 20000 * sin(i * 0.05) + (random.nextDouble() - 0.5) * 1000).toInt().toShort()
+            }
+        }
+        return samples
+    }
+
+    private fun accumulate(samples: ShortArray, channels: Int, chunkSize: Int = 4096): ByteArray {
+        val accumulator = RmsAccumulator(32)
+        // Fed in decoder sized chunks
+        for (offset in samples.indices step chunkSize * channels) {
+            accumulator.add(ShortBuffer.wrap(samples, offset, minOf(chunkSize * channels, samples.size - offset)), channels)
+        }
+        return accumulator.toByteArray()
+    }
+
+    private fun assertClose(expected: ByteArray, actual: ByteArray, tolerance: Int) {
+        assertEquals(expected.size, actual.size)
+        expected.indices.forEach { i ->
+            assertTrue("frame $i: ${expected[i]} vs ${actual[i]}", abs(expected[i] - actual[i]) <= tolerance)
+        }
+    }
+
+    @Test
+    fun shortAudioMatchesExactly() {
+        val samples = samples(1000, 1)
+        assertArrayEquals(calculateRms(ShortBuffer.wrap(samples), 1000, 1, 32), accumulate(samples, 1))
+    }
+
+    @Test
+    fun fewerSamplesThanFramesGivesOneFramePerSample() {
+        val samples = samples(20, 1)
+        val rms = accumulate(samples, 1)
+        assertEquals(20, rms.size)
+        assertArrayEquals(calculateRms(ShortBuffer.wrap(samples), 20, 1, 32), rms)
+    }
+
+    @Test
+    fun onlyTheFirstChannelIsUsed() {
+        val stereo = samples(5000, 2)
+        val firstChannel = ShortArray(5000) { stereo[it * 2] }
+        assertArrayEquals(accumulate(firstChannel, 1), accumulate(stereo, 2))
+    }
+
+    @Test
+    fun longAudioStaysCloseToDecodingEverything() {
+        // Ten minutes at 16 kHz, folded many times over
+        val perChannel = 16000 * 60 * 10
+        val samples = samples(perChannel, 1)
+        assertClose(calculateRms(ShortBuffer.wrap(samples), perChannel, 1, 32), accumulate(samples, 1), 1)
+    }
+
+    @Test
+    fun noSamplesGiveNoFrames() {
+        assertEquals(0, RmsAccumulator(32).toByteArray().size)
+    }
+}